@@ -0,0 +1,29 @@
+package edu.umaryland.igs.eng.disont.utils;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ *
+ * The main class of benchmarks.jar: JMH's own command line (eg: LoadBenchmark -p depth=6 -f 2),
+ * with the gc profiler always on, so every benchmark reports its allocation rate
+ * (gc.alloc.rate and gc.alloc.rate.norm, bytes per op) next to its throughput.
+ *
+ */
+public class BenchmarkRunner {
+
+	public static void main(String[] args) throws Exception {
+		CommandLineOptions cmdLine = new CommandLineOptions(args);
+		if (cmdLine.shouldHelp() || cmdLine.shouldList() || cmdLine.shouldListProfilers()
+				|| cmdLine.shouldListResultFormats() || cmdLine.shouldListWithParams()) {
+			org.openjdk.jmh.Main.main(args);
+			return;
+		}
+		new Runner(new OptionsBuilder()
+				.parent(cmdLine)
+				.addProfiler(GCProfiler.class)
+				.build()).run();
+	}
+}
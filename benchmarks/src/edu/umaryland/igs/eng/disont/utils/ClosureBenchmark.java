@@ -0,0 +1,55 @@
+package edu.umaryland.igs.eng.disont.utils;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ *
+ * Flattening every class of the graph (what getAllParentAxioms reads), single threaded and
+ * with the ForkJoinPool --threads gives it.
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ClosureBenchmark {
+
+	@Param({ "1", "4" })
+	public int threads;
+
+	private ForkJoinPool pool;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		pool = threads > 1 ? new ForkJoinPool(threads) : null;
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		if (pool != null) {
+			pool.shutdown();
+		}
+	}
+
+	@Benchmark
+	public ClosureEngine closure(FixtureState fixture) {
+		return ClosureEngine.compute(fixture.graph, pool);
+	}
+}
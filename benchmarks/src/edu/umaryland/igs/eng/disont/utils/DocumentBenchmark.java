@@ -0,0 +1,63 @@
+package edu.umaryland.igs.eng.disont.utils;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ *
+ * What happens per class once the closure is known: looking up labels, routing the classes
+ * to facets, and assembling the NDJSON documents of the whole fixture.
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DocumentBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class Flattened {
+
+		OWLFlattener flattener;
+		int[] classes;
+
+		@Setup(Level.Trial)
+		public void setUp(FixtureState fixture) {
+			flattener = new OWLFlattener(fixture.graph, fixture.closure, fixture.facetRouter);
+			classes = fixture.graph.getClasses();
+		}
+	}
+
+	@Benchmark
+	public void labelResolution(FixtureState fixture, Blackhole bh) {
+		LabelIndex labels = fixture.graph.getLabels();
+		for (int id = 0; id < fixture.graph.size(); id++) {
+			bh.consume(labels.getName(id));
+			bh.consume(labels.getLabel(id));
+			bh.consume(labels.getDefinition(id));
+		}
+	}
+
+	@Benchmark
+	public short[] facetRouting(FixtureState fixture) {
+		return fixture.facetRouter.route(fixture.graph, fixture.graph.getLabels());
+	}
+
+	@Benchmark
+	public DocumentBatch documentSerialization(Flattened flattened) throws Exception {
+		return flattened.flattener.assemble(flattened.classes, 0, flattened.classes.length).batch;
+	}
+}
@@ -0,0 +1,57 @@
+package edu.umaryland.igs.eng.disont.utils;
+
+import java.io.File;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ *
+ * A SyntheticOntology of the shape given by the parameters (a disease tree of this depth and
+ * fan-out, its restriction fillers nested this deep) saved to a temporary RDF/XML file, and
+ * its extracted graph and closure. Built once per trial, so only the step a benchmark
+ * measures is repeated.
+ *
+ * The parameters can be overridden on the command line, eg: -p depth=6 -p fanout=6
+ *
+ */
+@State(Scope.Benchmark)
+public class FixtureState {
+
+	@Param({ "3", "5" })
+	public int depth;
+
+	@Param({ "4", "8" })
+	public int fanout;
+
+	@Param({ "0", "3" })
+	public int nesting;
+
+	File owlFile;
+	OntologyGraph graph;
+	ClosureEngine closure;
+	FacetRouter facetRouter;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		owlFile = File.createTempFile("fixture-" + depth + "-" + fanout + "-" + nesting + "-", ".owl");
+		new SyntheticOntology()
+				.diseases(SyntheticOntology.diseaseCount(depth, fanout))
+				.depth(depth)
+				.nesting(nesting)
+				.seed(31L * depth + 7L * fanout + nesting)
+				.write(owlFile);
+		graph = RdfXmlLoader.load(owlFile.getPath(), SyntheticOntology.ROOT_IRI, new UnhandledShapes(), false);
+		closure = ClosureEngine.compute(graph);
+		facetRouter = FacetRouter.loadDefault();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		owlFile.delete();
+	}
+}
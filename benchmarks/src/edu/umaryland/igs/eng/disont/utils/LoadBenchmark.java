@@ -0,0 +1,68 @@
+package edu.umaryland.igs.eng.disont.utils;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.search.EntitySearcher;
+
+/**
+ *
+ * Getting from an owl file to an OntologyGraph: loading it with the OWL API, reading it with the
+ * streaming RdfXmlLoader, and digging the parent edges out of the class expressions of an
+ * ontology that's already loaded (ParentEdgeIndex, which nesting makes harder).
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoadBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class Loaded {
+
+		OWLOntology ontology;
+		Set<String> excludeIds;
+
+		@Setup(Level.Trial)
+		public void setUp(FixtureState fixture) throws Exception {
+			ontology = OWLManager.createOWLOntologyManager().loadOntologyFromOntologyDocument(fixture.owlFile);
+			// the same children of the root that OWLFlattener excludes
+			excludeIds = EntitySearcher.getSubClasses(ontology.getOWLOntologyManager().getOWLDataFactory()
+					.getOWLClass(IRI.create(SyntheticOntology.ROOT_IRI)), ontology)
+					.map(c -> c.asOWLClass().getIRI().getRemainder().get())
+					.collect(Collectors.toSet());
+		}
+	}
+
+	@Benchmark
+	public OWLOntology owlapiLoad(FixtureState fixture) throws Exception {
+		return OWLManager.createOWLOntologyManager().loadOntologyFromOntologyDocument(fixture.owlFile);
+	}
+
+	@Benchmark
+	public OntologyGraph rdfxmlLoad(FixtureState fixture) throws Exception {
+		return RdfXmlLoader.load(fixture.owlFile.getPath(), SyntheticOntology.ROOT_IRI, new UnhandledShapes(), false);
+	}
+
+	@Benchmark
+	public ParentEdgeIndex expressionExtraction(Loaded loaded) {
+		return ParentEdgeIndex.build(loaded.ontology, SyntheticOntology.ROOT_IRI, loaded.excludeIds, new UnhandledShapes(), false);
+	}
+}
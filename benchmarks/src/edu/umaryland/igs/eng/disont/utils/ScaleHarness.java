@@ -0,0 +1,220 @@
+package edu.umaryland.igs.eng.disont.utils;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+/**
+ *
+ * Runs the flattener on SyntheticOntology files of increasing size and records, for each one,
+ * a row of a CSV file:
+ *
+ *   diseases, classes, owl_bytes   the size of the input
+ *   exit_code, wall_ms             of the flattener's JVM, start to exit
+ *   us_per_class                   wall time per class, which stays flat while the flattener scales linearly
+ *   time_exponent                  k in time ~ classes^k between this size and the one before; above 1 is super-linear
+ *   peak_rss_mb, peak_heap_mb      see ScaleRun
+ *   output_bytes, documents        what was written
+ *
+ * Each size runs in its own JVM (ScaleRun), so the memory figures are the flattener's alone.
+ * A row is written as soon as its run is done, so a sweep that's cut short keeps what it has.
+ *
+ * eg: java -cp benchmarks.jar edu.umaryland.igs.eng.disont.utils.ScaleHarness --sizes 10000,50000,200000
+ *         --jvm-args "-Xmx8g" --flattener-args "--loader rdfxml --threads 4"
+ *
+ */
+public class ScaleHarness {
+
+	private static final Pattern PROCESSED = Pattern.compile("Processed (\\d+) disease records");
+
+	private static String CSV = "scale.csv";
+	private static String WORK_DIR = "scale-work";
+	private static String[] JVM_ARGS = new String[0];
+	private static String[] FLATTENER_ARGS = new String[0];
+	private static boolean REUSE = false;
+	private static long TIMEOUT_MINUTES = 120;
+
+	private static String[] split(String args) {
+		return args.isBlank() ? new String[0] : args.trim().split("\\s+");
+	}
+
+	public static void main(String[] args) throws Exception {
+		Options options = new Options();
+		options.addOption(Option.builder("s").longOpt("sizes").hasArg().desc("Comma-separated numbers of diseases to run (default 1000,5000,20000)").build());
+		options.addOption(Option.builder().longOpt("csv").hasArg().desc("The CSV file to write (default scale.csv)").build());
+		options.addOption(Option.builder().longOpt("work").hasArg().desc("Where the owl files and output go (default scale-work)").build());
+		options.addOption(Option.builder().longOpt("jvm-args").hasArg().desc("Arguments for the flattener's JVM, eg: \"-Xmx8g\"").build());
+		options.addOption(Option.builder().longOpt("flattener-args").hasArg().desc("Extra flattener options, eg: \"--loader rdfxml --threads 4\"").build());
+		options.addOption(Option.builder().longOpt("reuse").desc("Reuse owl files already generated in the work directory").build());
+		options.addOption(Option.builder().longOpt("timeout").hasArg().desc("Minutes to let each run take (default 120)").build());
+		SyntheticOntology.addOptions(options);
+
+		List<Integer> sizes = new ArrayList<>();
+		CommandLine cmdLine = null;
+		try {
+			cmdLine = new DefaultParser().parse(options, args);
+			for (String size : cmdLine.getOptionValue("sizes", "1000,5000,20000").split(",")) {
+				sizes.add(Integer.parseInt(size.trim()));
+			}
+			if (cmdLine.hasOption("csv"))
+				ScaleHarness.CSV = cmdLine.getOptionValue("csv");
+			if (cmdLine.hasOption("work"))
+				ScaleHarness.WORK_DIR = cmdLine.getOptionValue("work");
+			if (cmdLine.hasOption("jvm-args"))
+				ScaleHarness.JVM_ARGS = split(cmdLine.getOptionValue("jvm-args"));
+			if (cmdLine.hasOption("flattener-args"))
+				ScaleHarness.FLATTENER_ARGS = split(cmdLine.getOptionValue("flattener-args"));
+			if (cmdLine.hasOption("reuse"))
+				ScaleHarness.REUSE = true;
+			if (cmdLine.hasOption("timeout"))
+				ScaleHarness.TIMEOUT_MINUTES = Long.parseLong(cmdLine.getOptionValue("timeout"));
+			SyntheticOntology.fromCommandLine(cmdLine);
+		}
+		catch (ParseException | NumberFormatException e) {
+			System.out.println("Error: " + e.getMessage());
+			new HelpFormatter().printHelp("java -cp benchmarks.jar " + ScaleHarness.class.getName(), options);
+			System.exit(1);
+		}
+
+		File work = new File(ScaleHarness.WORK_DIR);
+		work.mkdirs();
+		try (PrintWriter csv = new PrintWriter(new FileWriter(ScaleHarness.CSV))) {
+			csv.println("diseases,classes,owl_bytes,exit_code,wall_ms,us_per_class,time_exponent,peak_rss_mb,peak_heap_mb,output_bytes,documents");
+			csv.flush();
+
+			long previousWall = -1;
+			int previousClasses = -1;
+			for (int diseases : sizes) {
+				SyntheticOntology generator = SyntheticOntology.fromCommandLine(cmdLine).diseases(diseases);
+				File owl = new File(work, "synthetic-" + diseases + ".owl");
+				if (!ScaleHarness.REUSE || !owl.isFile()) {
+					System.out.println("Generating " + owl.getPath());
+					generator.write(owl);
+				}
+				else {
+					generator.generate();
+				}
+				int classes = generator.getClassCount();
+
+				File out = new File(work, "out-" + diseases);
+				deleteTree(out.toPath());
+				out.mkdirs();
+				System.out.println("Flattening " + owl.getPath() + " (" + classes + " classes)");
+				Map<String, Long> run = run(owl, out);
+
+				long wall = run.get("wall_ms");
+				String exponent = previousWall > 0 && classes != previousClasses
+						? String.format(Locale.ROOT, "%.3f", Math.log((double) wall / previousWall) / Math.log((double) classes / previousClasses))
+						: "";
+				csv.println(String.join(",",
+						String.valueOf(diseases),
+						String.valueOf(classes),
+						String.valueOf(owl.length()),
+						String.valueOf(run.get("exit_code")),
+						String.valueOf(wall),
+						String.format(Locale.ROOT, "%.2f", wall * 1000.0 / classes),
+						exponent,
+						megabytes(run.get("peak_rss_kb") * 1024),
+						megabytes(run.get("peak_heap_bytes")),
+						String.valueOf(run.get("output_bytes")),
+						String.valueOf(run.get("documents"))));
+				csv.flush();
+				System.out.println("  " + wall + " ms, exit code " + run.get("exit_code") + ", peak heap " + megabytes(run.get("peak_heap_bytes")) + " MB");
+				previousWall = wall;
+				previousClasses = classes;
+			}
+		}
+		System.out.println("Wrote " + ScaleHarness.CSV);
+	}
+
+	private static String megabytes(long bytes) {
+		return bytes < 0 ? "" : String.format(Locale.ROOT, "%.1f", bytes / (1024.0 * 1024));
+	}
+
+	/*
+	 * Runs the flattener on owl in its own JVM, with its output and log in out
+	 */
+	private static Map<String, Long> run(File owl, File out) throws IOException, InterruptedException {
+		File probe = new File(out, "scale.probe");
+		File log = new File(out, "flattener.log");
+
+		List<String> command = new ArrayList<>();
+		command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+		command.addAll(List.of(ScaleHarness.JVM_ARGS));
+		command.add("-Dscale.probe=" + probe.getPath());
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(ScaleRun.class.getName());
+		command.addAll(List.of("-i", owl.getPath(), "-r", SyntheticOntology.ROOT_IRI, "-o", out.getPath()));
+		command.addAll(List.of(ScaleHarness.FLATTENER_ARGS));
+
+		Map<String, Long> result = new HashMap<>();
+		long start = System.nanoTime();
+		Process process = new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(log).start();
+		if (!process.waitFor(ScaleHarness.TIMEOUT_MINUTES, TimeUnit.MINUTES)) {
+			process.destroyForcibly().waitFor();
+			System.out.println("  timed out after " + ScaleHarness.TIMEOUT_MINUTES + " minutes");
+		}
+		result.put("wall_ms", (System.nanoTime() - start) / 1_000_000);
+		result.put("exit_code", (long) process.exitValue());
+
+		result.put("peak_rss_kb", -1L);
+		result.put("peak_heap_bytes", -1L);
+		if (probe.isFile()) {
+			for (String line : Files.readAllLines(probe.toPath())) {
+				String[] kv = line.split("=", 2);
+				result.put(kv[0], Long.parseLong(kv[1].trim()));
+			}
+		}
+
+		long documents = -1;
+		for (String line : Files.readAllLines(log.toPath())) {
+			Matcher m = PROCESSED.matcher(line);
+			if (m.find()) {
+				documents = Long.parseLong(m.group(1));
+			}
+		}
+		result.put("documents", documents);
+
+		long outputBytes = 0;
+		try (Stream<Path> files = Files.list(out.toPath())) {
+			for (Path p : (Iterable<Path>) files::iterator) {
+				if (!p.equals(probe.toPath()) && !p.equals(log.toPath())) {
+					outputBytes += Files.size(p);
+				}
+			}
+		}
+		result.put("output_bytes", outputBytes);
+		return result;
+	}
+
+	private static void deleteTree(Path dir) throws IOException {
+		if (!Files.exists(dir)) {
+			return;
+		}
+		try (Stream<Path> paths = Files.walk(dir)) {
+			for (Path p : (Iterable<Path>) paths.sorted((a, b) -> b.compareTo(a))::iterator) {
+				Files.delete(p);
+			}
+		}
+	}
+}
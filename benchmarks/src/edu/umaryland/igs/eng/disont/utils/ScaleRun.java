@@ -0,0 +1,75 @@
+package edu.umaryland.igs.eng.disont.utils;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ *
+ * Runs OWLFlattener.main() in the JVM ScaleHarness starts for each size, and on the way out
+ * writes how much memory it took to the file named by -Dscale.probe:
+ *
+ *   peak_rss_kb     the process' high water mark (VmHWM in /proc/self/status), -1 if there isn't one
+ *   peak_heap_bytes the most heap in use, sampled every 20ms
+ *
+ */
+public class ScaleRun {
+
+	private static volatile long peakHeap = 0;
+
+	public static void main(String[] args) throws Exception {
+		String probe = System.getProperty("scale.probe");
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+		Thread sampler = new Thread(() -> {
+			while (true) {
+				peakHeap = Math.max(peakHeap, memory.getHeapMemoryUsage().getUsed());
+				try {
+					Thread.sleep(20);
+				}
+				catch (InterruptedException e) {
+					return;
+				}
+			}
+		}, "heap-sampler");
+		sampler.setDaemon(true);
+		sampler.start();
+
+		if (probe != null) {
+			Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+				peakHeap = Math.max(peakHeap, memory.getHeapMemoryUsage().getUsed());
+				try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(Paths.get(probe)))) {
+					out.println("peak_rss_kb=" + peakRssKb());
+					out.println("peak_heap_bytes=" + peakHeap);
+				}
+				catch (IOException e) {
+					System.err.println("Could not write " + probe + ": " + e);
+				}
+			}));
+		}
+
+		OWLFlattener.main(args);
+	}
+
+	private static long peakRssKb() {
+		Path status = Paths.get("/proc/self/status");
+		if (!Files.isReadable(status)) {
+			return -1;
+		}
+		try {
+			for (String line : Files.readAllLines(status)) {
+				if (line.startsWith("VmHWM:")) {
+					return Long.parseLong(line.substring(6).replace("kB", "").trim());
+				}
+			}
+		}
+		catch (IOException | NumberFormatException e) {
+			// fall through
+		}
+		return -1;
+	}
+}
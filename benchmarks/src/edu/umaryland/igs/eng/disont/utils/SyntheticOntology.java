@@ -0,0 +1,408 @@
+package edu.umaryland.igs.eng.disont.utils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.formats.RDFXMLDocumentFormat;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLAnnotation;
+import org.semanticweb.owlapi.model.OWLAnnotationProperty;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLClassExpression;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLObjectProperty;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyCreationException;
+import org.semanticweb.owlapi.model.OWLOntologyManager;
+import org.semanticweb.owlapi.model.OWLOntologyStorageException;
+
+/**
+ *
+ * Generates DO-style ontologies for the benchmarks and the scale harness: a DOID disease
+ * hierarchy under DOID_4, and UBERON, CL, CHEBI, NCBITaxon, HP, SYMP and SO hierarchies
+ * for the diseases to point at, the way the merged DO file pulls in its imports.
+ *
+ * The disease hierarchy is a tree of the given depth (the fan-out is worked out from the
+ * number of diseases), with an extra, earlier parent on every fifth disease so it's a DAG.
+ * A few classes are made parents of their own parents, to make cycles. Each disease has a
+ * label, a definition (some with a dc:type ECO code) and restrictions on the external
+ * classes in the mix of shapes that ParentEdgeIndex follows:
+ *
+ *   some       SubClassOf(d, some(p, X))
+ *   union      SubClassOf(d, some(p, X or Y))
+ *   intersection  SubClassOf(d, some(p, X and Y))
+ *   cardinality   SubClassOf(d, min/exactly n p (X or Y))
+ *   equivalent    EquivalentClasses(d, parent and some(p, X))
+ *
+ * nesting puts the filler of each restriction that many levels deep in intersections with
+ * further restrictions. Every 50th disease is deprecated.
+ *
+ * It's seeded, so the same settings always give the same ontology. Run it on its own to
+ * write an owl file (-h for the options), or see ScaleHarness and the JMH FixtureState.
+ *
+ */
+public class SyntheticOntology {
+
+	public static final String OBO = "http://purl.obolibrary.org/obo/";
+	public static final String ROOT_IRI = OBO + "DOID_4";
+
+	private static final String[] EXTERNAL = { "UBERON", "CL", "CHEBI", "NCBITaxon", "HP", "SYMP", "SO" };
+	private static final String[] SHAPES = { "some", "union", "intersection", "cardinality", "equivalent" };
+
+	private int diseases = 1000;
+	private int depth = 6;
+	private int externalPerPrefix = -1;
+	private int cycles = 4;
+	private int restrictions = 2;
+	private int nesting = 0;
+	private int[] mix = { 4, 1, 2, 1, 1 };
+	private long seed = 1;
+
+	private OWLOntologyManager manager;
+	private OWLDataFactory df;
+	private OWLOntology ontology;
+	private Random random;
+	private OWLAnnotationProperty definition;
+	private OWLAnnotationProperty dcType;
+	private OWLObjectProperty[] properties;
+	private final List<List<OWLClass>> external = new ArrayList<>();
+	// the index of each external class' parent in its hierarchy
+	private final List<int[]> externalParents = new ArrayList<>();
+	private List<OWLClass> ecoCodes;
+	private int classCount = 0;
+
+	public SyntheticOntology diseases(int diseases) {
+		this.diseases = diseases;
+		return this;
+	}
+
+	public SyntheticOntology depth(int depth) {
+		this.depth = depth;
+		return this;
+	}
+
+	/**
+	 * @param count classes in each external hierarchy; by default a quarter of the diseases (at least 8)
+	 */
+	public SyntheticOntology externalPerPrefix(int count) {
+		this.externalPerPrefix = count;
+		return this;
+	}
+
+	/**
+	 * @param cycles two-class cycles to add, half among the diseases and half in the external hierarchies
+	 */
+	public SyntheticOntology cycles(int cycles) {
+		this.cycles = cycles;
+		return this;
+	}
+
+	/**
+	 * @param restrictions restriction axioms per disease
+	 */
+	public SyntheticOntology restrictions(int restrictions) {
+		this.restrictions = restrictions;
+		return this;
+	}
+
+	public SyntheticOntology nesting(int nesting) {
+		this.nesting = nesting;
+		return this;
+	}
+
+	/**
+	 * @param mix relative weights of the restriction shapes, eg: some=4,union=1,intersection=2,cardinality=1,equivalent=1
+	 */
+	public SyntheticOntology mix(String mix) {
+		int[] weights = new int[SHAPES.length];
+		for (String part : mix.split(",")) {
+			String[] kv = part.trim().split("=");
+			int shape = List.of(SHAPES).indexOf(kv[0].trim());
+			if (kv.length != 2 || shape < 0) {
+				throw new IllegalArgumentException("Expected shape=weight, with a shape of " + String.join(", ", SHAPES) + ": " + part);
+			}
+			weights[shape] = Integer.parseInt(kv[1].trim());
+		}
+		if (weights[0] + weights[1] + weights[2] + weights[3] + weights[4] <= 0) {
+			throw new IllegalArgumentException("The mix needs at least one weight above 0: " + mix);
+		}
+		this.mix = weights;
+		return this;
+	}
+
+	public SyntheticOntology seed(long seed) {
+		this.seed = seed;
+		return this;
+	}
+
+	/**
+	 * @return the number of diseases a tree of this shape has, not counting the root
+	 */
+	public static int diseaseCount(int depth, int fanout) {
+		int count = 0;
+		int level = 1;
+		for (int d = 0; d < depth; d++) {
+			level *= fanout;
+			count += level;
+		}
+		return count;
+	}
+
+	/**
+	 * @return the number of classes generated, once generate() has run
+	 */
+	public int getClassCount() {
+		return classCount;
+	}
+
+	public OWLOntology generate() throws OWLOntologyCreationException {
+		manager = OWLManager.createOWLOntologyManager();
+		df = manager.getOWLDataFactory();
+		ontology = manager.createOntology(IRI.create(OBO + "doid/synthetic.owl"));
+		random = new Random(seed);
+		external.clear();
+		externalParents.clear();
+		classCount = 0;
+		build();
+		return ontology;
+	}
+
+	/**
+	 * Generates the ontology and saves it as RDF/XML, which both loaders can read
+	 */
+	public File write(File file) throws OWLOntologyCreationException, OWLOntologyStorageException, IOException {
+		generate();
+		try (OutputStream out = new FileOutputStream(file)) {
+			manager.saveOntology(ontology, new RDFXMLDocumentFormat(), out);
+		}
+		manager.clearOntologies();
+		return file;
+	}
+
+	private void build() {
+		definition = df.getOWLAnnotationProperty(IRI.create(OBO + "IAO_0000115"));
+		dcType = df.getOWLAnnotationProperty(IRI.create("http://purl.org/dc/elements/1.1/type"));
+		manager.addAxiom(ontology, df.getOWLDeclarationAxiom(definition));
+		manager.addAxiom(ontology, df.getOWLAnnotationAssertionAxiom(df.getRDFSLabel(), definition.getIRI(), df.getOWLLiteral("definition")));
+		manager.addAxiom(ontology, df.getOWLDeclarationAxiom(dcType));
+		properties = new OWLObjectProperty[] {
+				df.getOWLObjectProperty(IRI.create(OBO + "RO_0004026")),
+				df.getOWLObjectProperty(IRI.create(OBO + "RO_0004024")),
+				df.getOWLObjectProperty(IRI.create(OBO + "RO_0002452")),
+				df.getOWLObjectProperty(IRI.create(OBO + "RO_0002573")) };
+
+		int perPrefix = externalPerPrefix > 0 ? externalPerPrefix : Math.max(8, diseases / 4);
+		for (String prefix : EXTERNAL) {
+			int[] parents = new int[perPrefix];
+			external.add(hierarchy(prefix, perPrefix, parents));
+			externalParents.add(parents);
+		}
+		ecoCodes = hierarchy("ECO", 16, new int[16]);
+
+		int fanout = 1;
+		while (diseaseCount(depth, fanout) < diseases) {
+			fanout++;
+		}
+
+		// in breadth first order, so the children of disease i are fanout * i + 1 .. fanout * i + fanout
+		List<OWLClass> doids = new ArrayList<>();
+		doids.add(declare("DOID_4", "disease"));
+		for (int n = 1; n <= diseases; n++) {
+			OWLClass c = declare("DOID_" + String.format("%07d", n), "disease " + n);
+			OWLClass parent = doids.get((n - 1) / fanout);
+			doids.add(c);
+
+			OWLAnnotation evidence = df.getOWLAnnotation(dcType, pick(ecoCodes).getIRI());
+			manager.addAxiom(ontology, df.getOWLAnnotationAssertionAxiom(definition, c.getIRI(),
+					df.getOWLLiteral("A synthetic disease, number " + n + "."), n % 10 == 0 ? List.of(evidence) : List.of()));
+			manager.addAxiom(ontology, df.getOWLSubClassOfAxiom(c, parent));
+			if (n % 5 == 0 && n > fanout) {
+				manager.addAxiom(ontology, df.getOWLSubClassOfAxiom(c, doids.get(1 + random.nextInt(n - 1))));
+			}
+			for (int r = 0; r < restrictions; r++) {
+				restrict(c, parent);
+			}
+			if (n % 50 == 0) {
+				manager.addAxiom(ontology, df.getDeprecatedOWLAnnotationAssertionAxiom(c.getIRI()));
+			}
+		}
+
+		// the parent of a root child isn't followed (see ParentEdgeIndex), so those aren't made into cycles
+		for (int k = 0; k < cycles; k++) {
+			if (k % 2 == 0 && diseases > fanout) {
+				int n = fanout + 1 + random.nextInt(diseases - fanout);
+				cycle(doids.get(n), doids.get((n - 1) / fanout));
+			}
+			else {
+				int h = random.nextInt(external.size());
+				int i = 1 + random.nextInt(perPrefix - 1);
+				cycle(external.get(h).get(i), external.get(h).get(externalParents.get(h)[i]));
+			}
+		}
+	}
+
+	/*
+	 * A random tree of count classes: each one is a subclass of an earlier one, whose index goes in parents
+	 */
+	private List<OWLClass> hierarchy(String prefix, int count, int[] parents) {
+		List<OWLClass> classes = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			OWLClass c = declare(prefix + "_" + String.format("%07d", i),
+					prefix.equals("HP") && i % 4 == 0 ? "onset kind " + i : prefix.toLowerCase() + " term " + i);
+			if (i > 0) {
+				parents[i] = random.nextInt(i);
+				manager.addAxiom(ontology, df.getOWLSubClassOfAxiom(c, classes.get(parents[i])));
+			}
+			classes.add(c);
+		}
+		return classes;
+	}
+
+	/*
+	 * Makes a class a parent of its own parent
+	 */
+	private void cycle(OWLClass c, OWLClass parent) {
+		manager.addAxiom(ontology, df.getOWLSubClassOfAxiom(parent, c));
+	}
+
+	private OWLClass declare(String id, String label) {
+		OWLClass c = df.getOWLClass(IRI.create(OBO + id));
+		manager.addAxiom(ontology, df.getOWLDeclarationAxiom(c));
+		manager.addAxiom(ontology, df.getOWLAnnotationAssertionAxiom(df.getRDFSLabel(), c.getIRI(), df.getOWLLiteral(label)));
+		classCount++;
+		return c;
+	}
+
+	private void restrict(OWLClass c, OWLClass parent) {
+		int total = 0;
+		for (int w : mix) {
+			total += w;
+		}
+		int roll = random.nextInt(total);
+		int shape = 0;
+		while (roll >= mix[shape]) {
+			roll -= mix[shape];
+			shape++;
+		}
+		switch (SHAPES[shape]) {
+		case "some":
+			manager.addAxiom(ontology, df.getOWLSubClassOfAxiom(c, some(filler(nesting))));
+			break;
+		case "union":
+			manager.addAxiom(ontology, df.getOWLSubClassOfAxiom(c, some(df.getOWLObjectUnionOf(filler(nesting), pick(pick(external))))));
+			break;
+		case "intersection":
+			manager.addAxiom(ontology, df.getOWLSubClassOfAxiom(c, some(df.getOWLObjectIntersectionOf(filler(nesting), pick(pick(external))))));
+			break;
+		case "cardinality":
+			OWLClassExpression operands = df.getOWLObjectUnionOf(filler(nesting), pick(pick(external)));
+			manager.addAxiom(ontology, df.getOWLSubClassOfAxiom(c, random.nextBoolean()
+					? df.getOWLObjectMinCardinality(1 + random.nextInt(2), pick(properties), operands)
+					: df.getOWLObjectExactCardinality(1 + random.nextInt(2), pick(properties), operands)));
+			break;
+		default:
+			manager.addAxiom(ontology, df.getOWLEquivalentClassesAxiom(c, df.getOWLObjectIntersectionOf(parent, some(pick(pick(external))))));
+			break;
+		}
+	}
+
+	private OWLClassExpression some(OWLClassExpression filler) {
+		return df.getOWLObjectSomeValuesFrom(pick(properties), filler);
+	}
+
+	/*
+	 * An external class at nesting 0, X and some(p, <nesting - 1>) above that
+	 */
+	private OWLClassExpression filler(int nesting) {
+		OWLClassExpression filler = pick(pick(external));
+		if (nesting > 0) {
+			filler = df.getOWLObjectIntersectionOf(filler, some(filler(nesting - 1)));
+		}
+		return filler;
+	}
+
+	private <T> T pick(List<T> list) {
+		return list.get(random.nextInt(list.size()));
+	}
+
+	private <T> T pick(T[] array) {
+		return array[random.nextInt(array.length)];
+	}
+
+	/**
+	 * Adds the options that describe the ontology: everything but the number of diseases
+	 */
+	static void addOptions(Options options) {
+		options.addOption(Option.builder().longOpt("depth").hasArg().desc("Depth of the disease hierarchy (default 6)").build());
+		options.addOption(Option.builder().longOpt("external").hasArg().desc("Classes in each imported-style hierarchy (default a quarter of the diseases)").build());
+		options.addOption(Option.builder().longOpt("cycles").hasArg().desc("Two-class cycles to add (default 4)").build());
+		options.addOption(Option.builder().longOpt("restrictions").hasArg().desc("Restriction axioms per disease (default 2)").build());
+		options.addOption(Option.builder().longOpt("nesting").hasArg().desc("How deep restriction fillers are nested (default 0)").build());
+		options.addOption(Option.builder().longOpt("mix").hasArg().desc("Weights of the restriction shapes (default some=4,union=1,intersection=2,cardinality=1,equivalent=1)").build());
+		options.addOption(Option.builder().longOpt("seed").hasArg().desc("Random seed (default 1)").build());
+	}
+
+	static SyntheticOntology fromCommandLine(CommandLine cmdLine) throws ParseException {
+		SyntheticOntology generator = new SyntheticOntology();
+		try {
+			if (cmdLine.hasOption("depth"))
+				generator.depth(Integer.parseInt(cmdLine.getOptionValue("depth")));
+			if (cmdLine.hasOption("external"))
+				generator.externalPerPrefix(Integer.parseInt(cmdLine.getOptionValue("external")));
+			if (cmdLine.hasOption("cycles"))
+				generator.cycles(Integer.parseInt(cmdLine.getOptionValue("cycles")));
+			if (cmdLine.hasOption("restrictions"))
+				generator.restrictions(Integer.parseInt(cmdLine.getOptionValue("restrictions")));
+			if (cmdLine.hasOption("nesting"))
+				generator.nesting(Integer.parseInt(cmdLine.getOptionValue("nesting")));
+			if (cmdLine.hasOption("mix"))
+				generator.mix(cmdLine.getOptionValue("mix"));
+			if (cmdLine.hasOption("seed"))
+				generator.seed(Long.parseLong(cmdLine.getOptionValue("seed")));
+		}
+		catch (IllegalArgumentException e) {
+			throw new ParseException(e.getMessage());
+		}
+		if (generator.depth < 1) {
+			throw new ParseException("--depth must be at least 1");
+		}
+		return generator;
+	}
+
+	public static void main(String[] args) throws Exception {
+		Options options = new Options();
+		options.addOption(Option.builder("o").longOpt("output").hasArg().required().desc("The owl file to write").build());
+		options.addOption(Option.builder("n").longOpt("diseases").hasArg().desc("Number of diseases (default 1000)").build());
+		addOptions(options);
+
+		SyntheticOntology generator = null;
+		String output = null;
+		try {
+			CommandLine cmdLine = new DefaultParser().parse(options, args);
+			generator = fromCommandLine(cmdLine);
+			if (cmdLine.hasOption("diseases"))
+				generator.diseases(Integer.parseInt(cmdLine.getOptionValue("diseases")));
+			output = cmdLine.getOptionValue("output");
+		}
+		catch (ParseException | NumberFormatException e) {
+			System.out.println("Error: " + e.getMessage());
+			new HelpFormatter().printHelp("java -cp benchmarks.jar " + SyntheticOntology.class.getName(), options);
+			System.exit(1);
+		}
+
+		generator.write(new File(output));
+		System.out.println("Wrote " + generator.getClassCount() + " classes to " + output);
+	}
+}
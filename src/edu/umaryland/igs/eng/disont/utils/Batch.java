@@ -0,0 +1,216 @@
+package edu.umaryland.igs.eng.disont.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ *
+ * Flattens several ontologies, or one ontology from several roots, in one JVM (--batch), so
+ * the JVM starts once and the jobs share what they can (see GraphLoader): each input is loaded
+ * once however many roots are flattened from it, those graphs share their labels, and with the
+ * owlapi loader an import is loaded once for the whole batch.
+ *
+ * The job file has a job per line: the input (an owl file or a snapshot), the root IRI (or - to
+ * take a snapshot's) and the output directory, separated by spaces or tabs. Blank lines and lines
+ * that start with # are skipped. eg:
+ *
+ *   # input                  root                                        output
+ *   doid-merged.owl          http://purl.obolibrary.org/obo/DOID_4       out/doid
+ *   doid-merged.owl          http://purl.obolibrary.org/obo/DOID_0050117 out/infectious
+ *   subsets/DO_AGR_slim.owl  http://purl.obolibrary.org/obo/DOID_4       out/agr-slim
+ *
+ * Every other option applies to all the jobs. --metrics-json and --metrics-prom are written by
+ * each job to its own output directory, under the name given. With --cache, when an input is
+ * flattened from more than one root, each root is cached in <owl>.<root>.flatcache.
+ *
+ * The jobs run at once, a few at a time; each one flattens with its own --threads. Their output
+ * is interleaved on the console, and the CPU time of each phase (see RunMetrics) includes the
+ * jobs that ran alongside it. A job that can't be set up (eg: its input is missing) fails on its
+ * own, like one that fails while it runs; the rest still run.
+ *
+ */
+public class Batch {
+
+	public static class Job {
+
+		private final String input;
+		private final String rootIri;
+		private final String outputDir;
+		private final int line;
+
+		Job(String input, String rootIri, String outputDir, int line) {
+			this.input = input;
+			this.rootIri = rootIri;
+			this.outputDir = outputDir;
+			this.line = line;
+		}
+
+		public String getInput() {
+			return input;
+		}
+
+		/**
+		 * @return the root IRI, or null to take the snapshot's
+		 */
+		public String getRootIri() {
+			return rootIri;
+		}
+
+		public String getOutputDir() {
+			return outputDir;
+		}
+
+		@Override
+		public String toString() {
+			return input + " (" + (rootIri != null ? rootIri : "the snapshot's root") + ") -> " + outputDir;
+		}
+	}
+
+	/**
+	 * Reads a job file
+	 *
+	 * @throws IOException if it can't be read, or a line isn't a job
+	 */
+	public static List<Job> read(String file) throws IOException {
+		List<Job> jobs = new ArrayList<>();
+		List<String> lines = Files.readAllLines(new File(file).toPath(), StandardCharsets.UTF_8);
+		for (int i = 0; i < lines.size(); i++) {
+			String line = lines.get(i).trim();
+			if (line.isEmpty() || line.startsWith("#")) {
+				continue;
+			}
+			String[] fields = line.split("\\s+");
+			if (fields.length != 3) {
+				throw new IOException(file + ":" + (i + 1) + ": expected an input, a root IRI (or -) and an output directory, found: " + line);
+			}
+			jobs.add(new Job(fields[0], fields[1].equals("-") ? null : fields[1], fields[2], i + 1));
+		}
+		if (jobs.isEmpty()) {
+			throw new IOException(file + " doesn't list any jobs");
+		}
+		return jobs;
+	}
+
+	/**
+	 * Runs the jobs, at most concurrency of them at once, and reports the ones that failed
+	 *
+	 * @param defaults the options for every job; each job's root and output directory replace these ones
+	 * @return the number of jobs that failed
+	 * @throws IOException if two jobs would write the same output
+	 */
+	public static int run(List<Job> jobs, FlattenerConfig defaults, int concurrency) throws IOException {
+
+		Map<String, Job> outputs = new HashMap<>();
+		Map<String, Set<String>> rootsByInput = new HashMap<>();
+		for (Job job : jobs) {
+			rootsByInput.computeIfAbsent(new File(job.input).getCanonicalPath(), k -> new HashSet<>()).add(String.valueOf(job.rootIri));
+		}
+		List<FlattenerConfig> configs = new ArrayList<>();
+		for (Job job : jobs) {
+			Job other = outputs.put(new File(job.outputDir, defaults.getBaseName()).getCanonicalPath(), job);
+			if (other != null) {
+				throw new IOException("The jobs on lines " + other.line + " and " + job.line + " both write to " + job.outputDir);
+			}
+			configs.add(defaults.toBuilder()
+					.rootIri(job.rootIri)
+					.outputDir(job.outputDir)
+					.metricsJson(inOutputDir(defaults.getMetricsJson(), job))
+					.metricsProm(inOutputDir(defaults.getMetricsProm(), job))
+					.cacheFile(rootsByInput.get(new File(job.input).getCanonicalPath()).size() > 1 ? cacheFile(job) : null)
+					.build());
+		}
+
+		// every job says what it'll want from the shared loader before any of them runs; the ones
+		// that can't even get that far are failed when their turn comes
+		GraphLoader loader = new GraphLoader(defaults.getLoader(), true);
+		List<OWLFlattener> flatteners = new ArrayList<>();
+		List<IOException> setupFailures = new ArrayList<>();
+		for (int j = 0; j < jobs.size(); j++) {
+			Job job = jobs.get(j);
+			OWLFlattener flattener = null;
+			IOException failure = null;
+			try {
+				boolean snapshot = Snapshot.isSnapshot(job.input);
+				if (job.rootIri == null && !snapshot) {
+					throw new IOException("The job on line " + job.line + " needs a root IRI: " + job.input + " isn't a snapshot");
+				}
+				flattener = new OWLFlattener(job.input, configs.get(j), loader);
+				if (!snapshot) {
+					loader.expect(job.input, job.rootIri, flattener.getTrace());
+				}
+			}
+			catch (IOException e) {
+				failure = e;
+			}
+			flatteners.add(flattener);
+			setupFailures.add(failure);
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(concurrency, jobs.size()));
+		List<Future<?>> results = new ArrayList<>();
+		for (int j = 0; j < jobs.size(); j++) {
+			int n = j + 1;
+			Job job = jobs.get(j);
+			OWLFlattener flattener = flatteners.get(j);
+			IOException setupFailure = setupFailures.get(j);
+			results.add(pool.submit(() -> {
+				if (setupFailure != null) {
+					throw setupFailure;
+				}
+				long start = System.nanoTime();
+				System.out.println("Job " + n + " of " + jobs.size() + ": " + job);
+				flattener.parse();
+				System.out.println(String.format(Locale.ROOT, "Job %d finished in %.1fs: %s", n, (System.nanoTime() - start) / 1e9, job));
+				return null;
+			}));
+		}
+		pool.shutdown();
+
+		int failed = 0;
+		for (int j = 0; j < jobs.size(); j++) {
+			try {
+				results.get(j).get();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while waiting for the jobs", e);
+			}
+			catch (ExecutionException e) {
+				failed += 1;
+				System.err.println("Job " + (j + 1) + " failed: " + jobs.get(j));
+				e.getCause().printStackTrace();
+			}
+		}
+		loader.close();
+		return failed;
+	}
+
+	/*
+	 * With --cache, the cache of a root of an input that other jobs flatten from other roots: <owl>.<root>.flatcache,
+	 * so they don't take turns overwriting <owl>.flatcache
+	 */
+	private static String cacheFile(Job job) {
+		String root = job.rootIri == null ? "snapshot" : job.rootIri.substring(Math.max(job.rootIri.lastIndexOf('/'), job.rootIri.lastIndexOf('#')) + 1);
+		return job.input + "." + root + ".flatcache";
+	}
+
+	/*
+	 * The metrics file's name in the job's output directory, or null
+	 */
+	private static String inOutputDir(String file, Job job) {
+		return file == null ? null : new File(job.outputDir, new File(file).getName()).getPath();
+	}
+}
@@ -0,0 +1,205 @@
+package edu.umaryland.igs.eng.disont.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ *
+ * The layout of the flattener's binary files (see GraphCache and Snapshot), and the helpers
+ * OntologyGraph, LabelIndex and ClosureEngine write and read themselves with.
+ *
+ * A file is: a magic number, a format version, the payload, and a CRC32C of everything before
+ * it. It's written through a DataOutputStream to a temporary file that then replaces the real
+ * one, so a reader never sees half a file. It's read by memory mapping it: the checksum is
+ * checked over the mapping, and the int and long arrays are copied out of it in bulk.
+ *
+ * Everything is big endian. Strings are written as their UTF-8 length (-1 for null) and bytes;
+ * unlike writeUTF() there's no 64K limit. Arrays are written as their length and elements.
+ *
+ */
+public class BinaryFile {
+
+	public interface Payload {
+		void write(DataOutputStream out) throws IOException;
+	}
+
+	private BinaryFile() {
+	}
+
+	public static void write(File file, int magic, int version, Payload payload) throws IOException {
+		// a file of its own, in case another flattener in this JVM (see Batch) is writing the same one
+		File tmp = File.createTempFile(file.getName() + ".", ".tmp", file.getAbsoluteFile().getParentFile());
+		try {
+			CRC32C crc = new CRC32C();
+			try (FileOutputStream fos = new FileOutputStream(tmp);
+					DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+							new BufferedOutputStream(fos, 1024 * 1024), crc))) {
+				out.writeInt(magic);
+				out.writeInt(version);
+				payload.write(out);
+				out.flush();
+				// the checksum itself isn't part of what it covers
+				new DataOutputStream(fos).writeLong(crc.getValue());
+			}
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (IOException e) {
+			tmp.delete();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return true if the file starts with this magic number
+	 */
+	public static boolean hasMagic(File file, int magic) {
+		if (!file.isFile() || file.length() < 4) {
+			return false;
+		}
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer head = ByteBuffer.allocate(4);
+			while (head.hasRemaining() && channel.read(head) >= 0) {
+				// keep reading
+			}
+			return head.position() == 4 && head.getInt(0) == magic;
+		}
+		catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Maps the file and checks its magic number, version and checksum
+	 *
+	 * @return the payload, positioned at its start
+	 * @throws IOException saying what's wrong with the file, if anything is
+	 */
+	public static ByteBuffer open(File file, int magic, int version) throws IOException {
+		ByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size < 16) {
+				throw new IOException("it's truncated");
+			}
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException("it's too big to map (" + size + " bytes)");
+			}
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		}
+		if (buffer.getInt(0) != magic) {
+			throw new IOException("it isn't in the expected format");
+		}
+		if (buffer.getInt(4) != version) {
+			throw new IOException("it's format version " + buffer.getInt(4) + ", expected " + version);
+		}
+		int end = buffer.limit() - 8;
+		CRC32C crc = new CRC32C();
+		crc.update(buffer.duplicate().limit(end));
+		if (crc.getValue() != buffer.getLong(end)) {
+			throw new IOException("its checksum doesn't match; it's corrupt or truncated");
+		}
+		return buffer.position(8).limit(end).slice();
+	}
+
+	/**
+	 * Turns running past the end of a payload into an IOException. Call once everything has been read.
+	 */
+	public static void checkFullyRead(ByteBuffer payload) throws IOException {
+		if (payload.hasRemaining()) {
+			throw new IOException(payload.remaining() + " unexpected bytes at the end");
+		}
+	}
+
+	public static IOException malformed(RuntimeException e) {
+		return new IOException(e instanceof BufferUnderflowException ? "it ends too soon" : "it's malformed: " + e, e);
+	}
+
+	static void writeString(DataOutputStream out, String s) throws IOException {
+		if (s == null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	static String readString(ByteBuffer in) {
+		int length = in.getInt();
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		in.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	static void writeStrings(DataOutputStream out, String[] strings) throws IOException {
+		out.writeInt(strings.length);
+		for (String s : strings) {
+			writeString(out, s);
+		}
+	}
+
+	static String[] readStrings(ByteBuffer in) {
+		String[] strings = new String[in.getInt()];
+		for (int i = 0; i < strings.length; i++) {
+			strings[i] = readString(in);
+		}
+		return strings;
+	}
+
+	static void writeInts(DataOutputStream out, int[] values) throws IOException {
+		out.writeInt(values.length);
+		for (int v : values) {
+			out.writeInt(v);
+		}
+	}
+
+	static int[] readInts(ByteBuffer in) {
+		int[] values = new int[in.getInt()];
+		in.asIntBuffer().get(values);
+		in.position(in.position() + values.length * 4);
+		return values;
+	}
+
+	static void writeShorts(DataOutputStream out, short[] values) throws IOException {
+		out.writeInt(values.length);
+		for (short v : values) {
+			out.writeShort(v);
+		}
+	}
+
+	static short[] readShorts(ByteBuffer in) {
+		short[] values = new short[in.getInt()];
+		in.asShortBuffer().get(values);
+		in.position(in.position() + values.length * 2);
+		return values;
+	}
+
+	static void writeLongs(DataOutputStream out, long[] values) throws IOException {
+		out.writeInt(values.length);
+		for (long v : values) {
+			out.writeLong(v);
+		}
+	}
+
+	static long[] readLongs(ByteBuffer in) {
+		long[] values = new long[in.getInt()];
+		in.asLongBuffer().get(values);
+		in.position(in.position() + values.length * 8);
+		return values;
+	}
+}
@@ -0,0 +1,480 @@
+package edu.umaryland.igs.eng.disont.utils;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntPredicate;
+
+/**
+ *
+ * Computes the flattened ancestor set of every class in an OntologyGraph.
+ *
+ * The parent edges are condensed into strongly connected components with an iterative
+ * version of Tarjan's algorithm (no recursion, so deep chains can't overflow the stack).
+ * Tarjan hands back each component only after every component it points at, which is
+ * exactly the order we need: by the time a component comes off the stack, the ancestor
+ * sets of all of its parents are final. Each component's ancestor set is then computed
+ * once and shared by all of its members, so a class that sits in a cycle gets the same
+ * answer no matter which member the traversal happened to reach first.
+ *
+ * The ancestors of a class are its parents, the ancestors of those parents, and its own
+ * annotation (ECO) IRIs. Members of a cycle are ancestors of each other. Ancestor sets
+ * are kept as sorted int arrays of class ids.
+ *
+ * Given a ForkJoinPool, the components are flattened in waves instead: every component
+ * in a wave only depends on components in earlier waves, so each wave is split across
+ * the pool. The sets come out the same either way.
+ *
+ */
+public class ClosureEngine {
+
+	private static final int[] NONE = new int[0];
+
+	private final int[] componentOf;
+	private final int[][] componentAncestors;
+	private final int cyclicComponentCount;
+
+	// how much work compute() did: 0 for a closure that was read back
+	private long edgesTraversed = 0;
+	private long setsReused = 0;
+
+	private ClosureEngine(int[] componentOf, int[][] componentAncestors, int cyclicComponentCount) {
+		this.componentOf = componentOf;
+		this.componentAncestors = componentAncestors;
+		this.cyclicComponentCount = cyclicComponentCount;
+	}
+
+	public static ClosureEngine compute(OntologyGraph graph) {
+		return compute(graph, null);
+	}
+
+	/**
+	 * @param pool if not null, the components are flattened in parallel on this pool, one wave at a time
+	 */
+	public static ClosureEngine compute(OntologyGraph graph, ForkJoinPool pool) {
+		return compute(graph, null, pool);
+	}
+
+	/**
+	 * Flattens only the given classes, and the classes their closures depend on (their ancestors).
+	 * getAncestors() returns null for any other class.
+	 *
+	 * @param classes the classes to flatten, or null for all of them
+	 * @param pool if not null, the components are flattened in parallel on this pool, one wave at a time
+	 */
+	public static ClosureEngine compute(OntologyGraph graph, int[] classes, ForkJoinPool pool) {
+
+		int n = graph.size();
+		int[] componentOf = new int[n];
+		Arrays.fill(componentOf, -1);
+
+		// the members of component k are members[memberOffsets[k] .. memberOffsets[k + 1])
+		int[] members = new int[n];
+		int[] memberOffsets = new int[n + 1];
+		int[] count = new int[1];
+
+		new Tarjan(graph).run(classes, (component, size) -> {
+			int id = count[0]++;
+			int start = memberOffsets[id];
+			for (int k = 0; k < size; k++) {
+				componentOf[component[k]] = id;
+				members[start + k] = component[k];
+			}
+			memberOffsets[id + 1] = start + size;
+		});
+
+		Components components = new Components(graph, componentOf, members, memberOffsets, count[0]);
+		if (pool == null) {
+			// Tarjan's order already has every component after its parents
+			Scratch scratch = new Scratch(n);
+			for (int id = 0; id < components.count; id++) {
+				components.flatten(id, scratch);
+			}
+		}
+		else {
+			int[] waves = components.waves();
+			ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(() -> new Scratch(n));
+			for (int w = 0; w + 1 < waves.length; w++) {
+				pool.invoke(new Wave(components, scratch, waves[w], waves[w + 1]));
+			}
+		}
+
+		int cyclicCount = 0;
+		for (boolean cyclic : components.cyclic) {
+			if (cyclic) {
+				cyclicCount += 1;
+			}
+		}
+		ClosureEngine closure = new ClosureEngine(componentOf, components.ancestors, cyclicCount);
+		closure.edgesTraversed = components.edgesTraversed.sum();
+		closure.setsReused = components.setsReused.sum();
+		return closure;
+	}
+
+	/**
+	 * @return the flattened ancestors of this class, sorted by id (or null if it wasn't one of the classes flattened). Shared with the rest of its cycle, so don't modify it.
+	 */
+	public int[] getAncestors(int id) {
+		return componentOf[id] < 0 ? null : componentAncestors[componentOf[id]];
+	}
+
+	/**
+	 * Writes the ancestor sets. See read()
+	 */
+	public void write(DataOutputStream out) throws IOException {
+		BinaryFile.writeInts(out, componentOf);
+		out.writeInt(componentAncestors.length);
+		for (int[] ancestors : componentAncestors) {
+			BinaryFile.writeInts(out, ancestors);
+		}
+		out.writeInt(cyclicComponentCount);
+	}
+
+	public static ClosureEngine read(ByteBuffer in) {
+		int[] componentOf = BinaryFile.readInts(in);
+		int[][] componentAncestors = new int[in.getInt()][];
+		for (int k = 0; k < componentAncestors.length; k++) {
+			componentAncestors[k] = BinaryFile.readInts(in);
+			if (componentAncestors[k].length == 0) {
+				componentAncestors[k] = NONE;
+			}
+		}
+		return new ClosureEngine(componentOf, componentAncestors, in.getInt());
+	}
+
+	/**
+	 * @return true if every class was flattened, rather than a subset
+	 */
+	public boolean isComplete() {
+		for (int c : componentOf) {
+			if (c < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public int getComponentCount() {
+		return componentAncestors.length;
+	}
+
+	public int getCyclicComponentCount() {
+		return cyclicComponentCount;
+	}
+
+	/**
+	 * @return the parent and annotation edges compute() followed
+	 */
+	public long getEdgesTraversed() {
+		return edgesTraversed;
+	}
+
+	/**
+	 * @return how many times compute() reused a parent component's finished ancestor set instead of walking
+	 * up from it. Each component's set is computed once (a miss, see getComponentCount()), and then only reused.
+	 */
+	public long getSetsReused() {
+		return setsReused;
+	}
+
+	/*
+	 * The strongly connected components in the order Tarjan found them, and their ancestor sets as they're filled in.
+	 */
+	private static class Components {
+
+		final OntologyGraph graph;
+		final int[] componentOf;
+		final int[] members;
+		final int[] memberOffsets;
+		final int count;
+		final int[][] ancestors;
+		final boolean[] cyclic;
+		final LongAdder edgesTraversed = new LongAdder();
+		final LongAdder setsReused = new LongAdder();
+
+		// the component ids, grouped by wave (see waves())
+		int[] byWave = null;
+
+		Components(OntologyGraph graph, int[] componentOf, int[] members, int[] memberOffsets, int count) {
+			this.graph = graph;
+			this.componentOf = componentOf;
+			this.members = members;
+			this.memberOffsets = memberOffsets;
+			this.count = count;
+			this.ancestors = new int[count][];
+			this.cyclic = new boolean[count];
+		}
+
+		/*
+		 * Groups the components into waves: a component with no parents outside itself is in wave 0, and every
+		 * other component is one wave after its latest parent. Everything a wave depends on is final once the
+		 * waves before it are done, so the components within a wave can be flattened in any order, or all at once.
+		 *
+		 * Returns the wave boundaries: wave w is byWave[waves[w] .. waves[w + 1]).
+		 */
+		int[] waves() {
+			int[] waveOf = new int[count];
+			int waveCount = 0;
+			for (int id = 0; id < count; id++) {
+				int wave = 0;
+				for (int k = memberOffsets[id]; k < memberOffsets[id + 1]; k++) {
+					int m = members[k];
+					for (int e = graph.getParentStart(m); e < graph.getParentEnd(m); e++) {
+						int p = componentOf[graph.getParentTarget(e)];
+						if (p != id && waveOf[p] + 1 > wave) {
+							wave = waveOf[p] + 1;
+						}
+					}
+				}
+				waveOf[id] = wave;
+				waveCount = Math.max(waveCount, wave + 1);
+			}
+
+			int[] waves = new int[waveCount + 1];
+			for (int id = 0; id < count; id++) {
+				waves[waveOf[id] + 1] += 1;
+			}
+			for (int w = 0; w < waveCount; w++) {
+				waves[w + 1] += waves[w];
+			}
+			byWave = new int[count];
+			int[] next = Arrays.copyOf(waves, waveCount);
+			for (int id = 0; id < count; id++) {
+				byWave[next[waveOf[id]]++] = id;
+			}
+			return waves;
+		}
+
+		/*
+		 * Computes the ancestor set of one component. The ancestor sets of all of its parents must already be final.
+		 */
+		void flatten(int id, Scratch scratch) {
+			int[] mark = scratch.mark;
+			int[] set = scratch.buffer;
+			int size = 0;
+			boolean isCyclic = memberOffsets[id + 1] - memberOffsets[id] > 1;
+			long edges = 0;
+			long reused = 0;
+
+			for (int k = memberOffsets[id]; k < memberOffsets[id + 1]; k++) {
+				int m = members[k];
+				edges += graph.getParentEnd(m) - graph.getParentStart(m) + graph.getAnnotationEnd(m) - graph.getAnnotationStart(m);
+				for (int e = graph.getParentStart(m); e < graph.getParentEnd(m); e++) {
+					int p = graph.getParentTarget(e);
+					int[] inherited;
+					if (componentOf[p] == id) {
+						// a parent inside this same component; its ancestors are the set we're building
+						isCyclic = true;
+						inherited = NONE;
+					}
+					else {
+						inherited = ancestors[componentOf[p]];
+						reused += 1;
+					}
+					if (size + inherited.length + 1 > set.length) {
+						set = Arrays.copyOf(set, Math.max(set.length * 2, size + inherited.length + 1));
+					}
+					if (mark[p] != id) {
+						mark[p] = id;
+						set[size++] = p;
+					}
+					for (int a : inherited) {
+						if (mark[a] != id) {
+							mark[a] = id;
+							set[size++] = a;
+						}
+					}
+				}
+				for (int e = graph.getAnnotationStart(m); e < graph.getAnnotationEnd(m); e++) {
+					int a = graph.getAnnotationTarget(e);
+					if (size + 1 > set.length) {
+						set = Arrays.copyOf(set, set.length * 2);
+					}
+					if (mark[a] != id) {
+						mark[a] = id;
+						set[size++] = a;
+					}
+				}
+			}
+			scratch.buffer = set;
+
+			int[] sorted = size == 0 ? NONE : Arrays.copyOf(set, size);
+			Arrays.sort(sorted);
+			ancestors[id] = sorted;
+			cyclic[id] = isCyclic;
+			edgesTraversed.add(edges);
+			setsReused.add(reused);
+		}
+	}
+
+	/*
+	 * Working space for flatten(). mark[p] == the component being built once p is already in its set.
+	 * Component ids are unique, so the marks never need clearing.
+	 */
+	private static class Scratch {
+		final int[] mark;
+		int[] buffer = new int[64];
+
+		Scratch(int n) {
+			mark = new int[n];
+			Arrays.fill(mark, -1);
+		}
+	}
+
+	/*
+	 * Flattens the components byWave[from .. to) of one wave, splitting the range until it's small enough to do directly.
+	 */
+	private static class Wave extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+		private static final int THRESHOLD = 256;
+
+		private final Components components;
+		private final ThreadLocal<Scratch> scratch;
+		private final int from;
+		private final int to;
+
+		Wave(Components components, ThreadLocal<Scratch> scratch, int from, int to) {
+			this.components = components;
+			this.scratch = scratch;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= THRESHOLD) {
+				Scratch s = scratch.get();
+				for (int k = from; k < to; k++) {
+					components.flatten(components.byWave[k], s);
+				}
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new Wave(components, scratch, from, mid), new Wave(components, scratch, mid, to));
+		}
+	}
+
+	interface ComponentHandler {
+		/**
+		 * Called once per strongly connected component, parents before children.
+		 * Only the first size entries of members are valid, and the array is reused between calls.
+		 */
+		void component(int[] members, int size);
+	}
+
+	/*
+	 * Tarjan's strongly connected components over the parent edges, with the call stack kept in arrays.
+	 * The arrays are allocated once, so one Tarjan can run any number of searches (one at a time).
+	 */
+	static class Tarjan {
+
+		private final OntologyGraph graph;
+		private final int[] index;
+		private final int[] low;
+		private final boolean[] onStack;
+		private final int[] stack;
+		// the explicit DFS call stack: the node and the next edge to look at
+		private final int[] callNode;
+		private final int[] callEdge;
+		private final int[] members;
+		// the nodes a search visited, in the order it did, so the next search can start from a clean index
+		private final int[] visited;
+
+		Tarjan(OntologyGraph graph) {
+			this.graph = graph;
+			int n = graph.size();
+			index = new int[n];
+			low = new int[n];
+			onStack = new boolean[n];
+			stack = new int[n];
+			callNode = new int[n];
+			callEdge = new int[n];
+			members = new int[n];
+			visited = new int[n];
+			Arrays.fill(index, -1);
+		}
+
+		/*
+		 * starts: the classes to search from, or null for all of them
+		 */
+		void run(int[] starts, ComponentHandler handler) {
+			run(starts, null, handler);
+		}
+
+		/*
+		 * done: the classes whose components were handled by an earlier search, or null. The search doesn't go
+		 * into them, or past them; their components can't include anything this search finds.
+		 */
+		void run(int[] starts, IntPredicate done, ComponentHandler handler) {
+			int n = graph.size();
+			int sp = 0;
+			int counter = 0;
+
+			int startCount = starts == null ? n : starts.length;
+			for (int s = 0; s < startCount; s++) {
+				int start = starts == null ? s : starts[s];
+				if (index[start] != -1 || (done != null && done.test(start))) {
+					continue;
+				}
+				int depth = 0;
+				callNode[0] = start;
+				callEdge[0] = graph.getParentStart(start);
+				visited[counter] = start;
+				index[start] = low[start] = counter++;
+				stack[sp++] = start;
+				onStack[start] = true;
+
+				while (depth >= 0) {
+					int v = callNode[depth];
+					if (callEdge[depth] < graph.getParentEnd(v)) {
+						int w = graph.getParentTarget(callEdge[depth]++);
+						if (index[w] == -1) {
+							if (done != null && done.test(w)) {
+								continue;
+							}
+							visited[counter] = w;
+							index[w] = low[w] = counter++;
+							stack[sp++] = w;
+							onStack[w] = true;
+							depth += 1;
+							callNode[depth] = w;
+							callEdge[depth] = graph.getParentStart(w);
+						}
+						else if (onStack[w] && index[w] < low[v]) {
+							low[v] = index[w];
+						}
+						continue;
+					}
+
+					// all of v's edges are done
+					if (low[v] == index[v]) {
+						int size = 0;
+						int w;
+						do {
+							w = stack[--sp];
+							onStack[w] = false;
+							members[size++] = w;
+						} while (w != v);
+						handler.component(members, size);
+					}
+					depth -= 1;
+					if (depth >= 0) {
+						int parent = callNode[depth];
+						if (low[v] < low[parent]) {
+							low[parent] = low[v];
+						}
+					}
+				}
+			}
+
+			for (int k = 0; k < counter; k++) {
+				index[visited[k]] = -1;
+			}
+		}
+	}
+}
@@ -0,0 +1,105 @@
+package edu.umaryland.igs.eng.disont.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.Executor;
+import java.util.zip.GZIPOutputStream;
+
+import com.github.luben.zstd.ZstdOutputStream;
+
+/**
+ *
+ * Writes the documents as one compressed Elasticsearch bulk file, <base>.json.gz or
+ * <base>.json.zst, for archiving a release. Decompressed, it's byte for byte the unsharded
+ * <base>.json.
+ *
+ * The batches are compressed as they arrive, on the executor (see WriteQueue), so nothing is
+ * written out uncompressed first. gzip is at its default level; zstd at level 3, its default,
+ * which compresses about as well as gzip many times faster.
+ *
+ */
+public class CompressedFileSink implements DocumentSink {
+
+	public static final String GZIP = "gz";
+	public static final String ZSTD = "zst";
+
+	private final File file;
+	private final OutputStream out;
+	private final WriteQueue queue;
+
+	private long docs = 0;
+	private long uncompressed = 0;
+
+	/**
+	 * @param codec GZIP or ZSTD
+	 * @param maxPending how many batches can be queued for compressing before accept() blocks
+	 */
+	public CompressedFileSink(String directory, String baseName, String codec, Executor executor, int maxPending) throws IOException {
+		File dir = new File(directory);
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Could not create output directory: " + directory);
+		}
+		this.file = new File(dir, baseName + ".json." + codec);
+		OutputStream fileOut = new FileOutputStream(file);
+		if (codec.equals(GZIP)) {
+			this.out = new GZIPOutputStream(fileOut, 64 * 1024);
+		}
+		else if (codec.equals(ZSTD)) {
+			this.out = new ZstdOutputStream(new BufferedOutputStream(fileOut, 64 * 1024));
+		}
+		else {
+			fileOut.close();
+			throw new IllegalArgumentException("Unknown compression: " + codec);
+		}
+		this.queue = new WriteQueue(file.getPath(), executor, maxPending);
+	}
+
+	@Override
+	public void accept(DocumentBatch batch) throws IOException {
+		if (batch.size() == 0) {
+			return;
+		}
+		int offset = batch.getStart(0);
+		int length = batch.getEnd(batch.size() - 1) - offset;
+		docs += batch.size();
+		uncompressed += length;
+		queue.write(() -> out.write(batch.getBytes(), offset, length));
+	}
+
+	@Override
+	public void close() throws IOException {
+		queue.finish(out::close);
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public long getDocumentCount() {
+		return docs;
+	}
+
+	/**
+	 * @return the size of the documents before they were compressed
+	 */
+	public long getUncompressedByteCount() {
+		return uncompressed;
+	}
+
+	/**
+	 * @return the size of the file, once it's closed
+	 */
+	public long getByteCount() {
+		return file.length();
+	}
+
+	/**
+	 * @return the time spent compressing and writing, in nanoseconds
+	 */
+	public long getWriteNanos() {
+		return queue.getBusyNanos();
+	}
+}
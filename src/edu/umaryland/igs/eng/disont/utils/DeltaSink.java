@@ -0,0 +1,78 @@
+package edu.umaryland.igs.eng.disont.utils;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ *
+ * Writes the difference between two releases as an Elasticsearch bulk file.
+ *
+ * The previous release's documents are handed to previousRelease() first and kept by id.
+ * The current release's documents are then compared with them: a document that's new or
+ * whose bytes differ gets an {"index":{"_id":...}} action (index replaces whatever is
+ * there), and a previous document with no current counterpart gets a {"delete":{"_id":...}}
+ * action when the sink is closed. Documents that didn't change aren't written at all.
+ *
+ */
+public class DeltaSink implements DocumentSink {
+
+	private final NdjsonWriter out;
+	private final Map<String, byte[]> previous = new LinkedHashMap<>();
+
+	private long indexCount = 0;
+	private long deleteCount = 0;
+
+	public DeltaSink(String file) throws IOException {
+		this.out = NdjsonWriter.open(file);
+	}
+
+	/**
+	 * @return a sink that takes the previous release's documents. Must be given all of them before the current release's
+	 */
+	public DocumentSink previousRelease() {
+		return new DocumentSink() {
+			@Override
+			public void accept(DocumentBatch batch) {
+				for (int i = 0; i < batch.size(); i++) {
+					previous.put(batch.getId(i), Arrays.copyOfRange(batch.getBytes(), batch.getSourceStart(i), batch.getEnd(i)));
+				}
+			}
+
+			@Override
+			public void close() {
+			}
+		};
+	}
+
+	@Override
+	public void accept(DocumentBatch batch) throws IOException {
+		for (int i = 0; i < batch.size(); i++) {
+			byte[] before = previous.remove(batch.getId(i));
+			if (before == null || !Arrays.equals(before, 0, before.length, batch.getBytes(), batch.getSourceStart(i), batch.getEnd(i))) {
+				out.action("index", batch.getId(i));
+				out.write(batch.getBytes(), batch.getSourceStart(i), batch.getEnd(i));
+				indexCount += 1;
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		for (String id : previous.keySet()) {
+			out.action("delete", id);
+			deleteCount += 1;
+		}
+		previous.clear();
+		out.close();
+	}
+
+	public long getIndexCount() {
+		return indexCount;
+	}
+
+	public long getDeleteCount() {
+		return deleteCount;
+	}
+}
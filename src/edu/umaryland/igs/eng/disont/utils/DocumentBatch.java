@@ -0,0 +1,102 @@
+package edu.umaryland.igs.eng.disont.utils;
+
+/**
+ *
+ * A run of encoded documents, in output order, as handed to a DocumentSink.
+ *
+ * Document i, including its {"create":{}} action line, is bytes[getStart(i) .. getEnd(i)).
+ * The document itself (the source, without the action line) starts at getSourceStart(i).
+ * A batch isn't modified once it's built, so sinks can hold on to it and read it from
+ * other threads.
+ *
+ * When the run writes TSV, the batch also has the documents' rows (see TsvRows); when it
+ * writes a facet index, their facet values (see FacetIndexSink).
+ *
+ */
+public class DocumentBatch {
+
+	private final byte[] bytes;
+	private final int[] offsets;
+	private final String[] ids;
+	private final byte[] documentRows;
+	private final byte[] facetRows;
+	private final int[] facetValues;
+
+	/**
+	 * @param offsets where each document starts, plus the end of the last one
+	 * @param ids the id (eg: DOID_4) of each document
+	 */
+	public DocumentBatch(byte[] bytes, int[] offsets, String[] ids) {
+		this(bytes, offsets, ids, null, null, null);
+	}
+
+	private DocumentBatch(byte[] bytes, int[] offsets, String[] ids, byte[] documentRows, byte[] facetRows, int[] facetValues) {
+		this.bytes = bytes;
+		this.offsets = offsets;
+		this.ids = ids;
+		this.documentRows = documentRows;
+		this.facetRows = facetRows;
+		this.facetValues = facetValues;
+	}
+
+	/**
+	 * @return the same documents, with their TSV rows
+	 */
+	public DocumentBatch withRows(TsvRows rows) {
+		return new DocumentBatch(bytes, offsets, ids, rows.getDocumentRows(), rows.getFacetRows(), facetValues);
+	}
+
+	/**
+	 * @param facetValues the documents' facet values, as (document, facet, label id) triples: the document's
+	 * index in this batch, and the label id from the LabelIndex
+	 * @return the same documents, with their facet values
+	 */
+	public DocumentBatch withFacetValues(int[] facetValues) {
+		return new DocumentBatch(bytes, offsets, ids, documentRows, facetRows, facetValues);
+	}
+
+	public int size() {
+		return ids.length;
+	}
+
+	public byte[] getBytes() {
+		return bytes;
+	}
+
+	public int getStart(int i) {
+		return offsets[i];
+	}
+
+	public int getSourceStart(int i) {
+		return offsets[i] + NdjsonWriter.CREATE.length;
+	}
+
+	public int getEnd(int i) {
+		return offsets[i + 1];
+	}
+
+	public String getId(int i) {
+		return ids[i];
+	}
+
+	/**
+	 * @return the documents.tsv rows of the documents, or null if the run doesn't write TSV
+	 */
+	public byte[] getDocumentRows() {
+		return documentRows;
+	}
+
+	/**
+	 * @return the doc_facet.tsv rows of the documents, or null if the run doesn't write TSV
+	 */
+	public byte[] getFacetRows() {
+		return facetRows;
+	}
+
+	/**
+	 * @return the (document, facet, label id) triples of the documents, or null if the run doesn't write a facet index
+	 */
+	public int[] getFacetValues() {
+		return facetValues;
+	}
+}
@@ -0,0 +1,16 @@
+package edu.umaryland.igs.eng.disont.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ *
+ * Somewhere the flattened documents go. Batches arrive in output order, one at a time,
+ * from the thread that runs parse(). close() is called once every batch has been handed
+ * over, and mustn't return until everything has been written.
+ *
+ */
+public interface DocumentSink extends Closeable {
+
+	void accept(DocumentBatch batch) throws IOException;
+}
@@ -0,0 +1,102 @@
+package edu.umaryland.igs.eng.disont.utils;
+
+import java.util.Arrays;
+
+/**
+ *
+ * What goes in a class' document, in one place for OWLFlattener.assemble(), Flattener and the
+ * provenance report:
+ *
+ *   - only DOIDs that have a name and aren't obsolete get a document
+ *   - the facet values are the labels of the class' ancestors that the FacetRouter puts in a
+ *     facet, except for the DOIDs: they're the hierarchy, not facet values
+ *   - each facet's values are sorted by label, without duplicates (see LabelIndex.sortDistinct()),
+ *     so the same ontology always gives the same documents and a release diff only shows real changes
+ *
+ * collect() keeps the values of one class at a time, as label ids by facet, in arrays that are
+ * reused for the next class; so it's one per thread.
+ *
+ */
+class DocumentValues {
+
+	private final OntologyGraph graph;
+	private final LabelIndex labels;
+	private final short[] facets;
+
+	private final int[][] values;
+	private final int[] sizes;
+	private boolean nonDoidAncestor = false;
+
+	/**
+	 * @param facets the facet of every class, see FacetRouter.route()
+	 */
+	DocumentValues(OntologyGraph graph, short[] facets, int facetCount) {
+		this.graph = graph;
+		this.labels = graph.getLabels();
+		this.facets = facets;
+		this.values = new int[facetCount][16];
+		this.sizes = new int[facetCount];
+	}
+
+	static boolean isDoid(OntologyGraph graph, int c) {
+		return graph.getRemainder(c).startsWith("DOID_");
+	}
+
+	static boolean getsDocument(OntologyGraph graph, int c) {
+		return isDoid(graph, c) && graph.getLabels().getName(c) != null && !graph.getLabels().isObsolete(c);
+	}
+
+	/**
+	 * @return whether the ancestor's label is one of the facet values
+	 */
+	static boolean isFacetValue(OntologyGraph graph, short[] facets, int ancestor) {
+		return !isDoid(graph, ancestor) && facets[ancestor] != FacetRouter.NO_FACET;
+	}
+
+	/**
+	 * Replaces the values with those of a class
+	 *
+	 * @param ancestors the class' flattened ancestors, see ClosureEngine
+	 */
+	void collect(int[] ancestors) {
+		Arrays.fill(sizes, 0);
+		nonDoidAncestor = false;
+		for (int a : ancestors) {
+			if (isDoid(graph, a)) {
+				continue;
+			}
+			nonDoidAncestor = true;
+			short f = facets[a];
+			if (f != FacetRouter.NO_FACET) {
+				if (sizes[f] == values[f].length) {
+					values[f] = Arrays.copyOf(values[f], sizes[f] * 2);
+				}
+				values[f][sizes[f]++] = labels.getLabelId(a);
+			}
+		}
+		for (int f = 0; f < sizes.length; f++) {
+			sizes[f] = LabelIndex.sortDistinct(values[f], sizes[f]);
+		}
+	}
+
+	/**
+	 * @return the number of values the class has in facet f
+	 */
+	int size(int f) {
+		return sizes[f];
+	}
+
+	/**
+	 * @return the label id of value v in facet f
+	 */
+	int get(int f, int v) {
+		return values[f][v];
+	}
+
+	/**
+	 * @return whether the class had any ancestors that aren't DOIDs, whether or not they're in a facet
+	 */
+	boolean hasNonDoidAncestor() {
+		return nonDoidAncestor;
+	}
+}
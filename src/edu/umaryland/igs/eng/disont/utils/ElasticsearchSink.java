@@ -0,0 +1,397 @@
+package edu.umaryland.igs.eng.disont.utils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+
+/**
+ *
+ * Sends the documents straight to an Elasticsearch _bulk endpoint while the flattener is
+ * still producing them, instead of leaving a file to be POSTed afterwards.
+ *
+ * Documents are grouped into bulk requests of batchSize documents. Full requests go into a
+ * bounded queue that inFlight sender threads take from, so at most inFlight requests are
+ * outstanding, and once the queue is full accept() blocks until the cluster catches up.
+ *
+ * Each document is sent with a {"create":{"_id":"DOID_4"}} action: the same create action
+ * as the bulk files, plus the term's id, so sending a document twice can't index it twice.
+ * When a request gets a 429 (or fails on the connection or a 5xx) it's retried with backoff.
+ * When only some of its items are rejected with a 429, only those items are sent again.
+ *
+ * The index is expected to be empty. An item that comes back 409 was already there: after a
+ * connection failure or a 5xx that's from the earlier attempt, and it counts as indexed.
+ * Otherwise it's a document from before the run, which is left as it was; those are counted
+ * apart (getExistingCount()) and close() warns about them.
+ *
+ */
+public class ElasticsearchSink implements DocumentSink {
+
+	private static final int MAX_ERRORS_SHOWN = 10;
+	private static final long MAX_BACKOFF_MS = 30_000;
+
+	// tells a sender thread there's nothing more to send
+	private static final BulkRequest END = new BulkRequest();
+
+	private final URI endpoint;
+	private final int batchSize;
+	private final int maxRetries;
+	private final HttpClient client;
+
+	private final BlockingQueue<BulkRequest> queue;
+	private final Thread[] senders;
+
+	private BulkRequest current = new BulkRequest();
+
+	private final AtomicLong indexed = new AtomicLong();
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong retried = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong existing = new AtomicLong();
+	private final AtomicReference<String> existingExample = new AtomicReference<>();
+	private final List<String> errors = new ArrayList<>();
+	private final AtomicReference<IOException> fatal = new AtomicReference<>();
+
+	/**
+	 * @param url the _bulk endpoint, eg: http://localhost:9200/disease/_bulk
+	 * @param batchSize documents per bulk request
+	 * @param inFlight how many bulk requests can be outstanding at once
+	 * @param queueSize how many full requests can wait for a sender before accept() blocks
+	 * @param maxRetries how many times a request (or its rejected items) is retried before giving up
+	 */
+	public ElasticsearchSink(String url, int batchSize, int inFlight, int queueSize, int maxRetries) {
+		this.endpoint = URI.create(url);
+		this.batchSize = batchSize;
+		this.maxRetries = maxRetries;
+		this.client = HttpClient.newBuilder()
+				.version(HttpClient.Version.HTTP_1_1)
+				.connectTimeout(Duration.ofSeconds(30))
+				.build();
+		this.queue = new ArrayBlockingQueue<>(queueSize);
+
+		this.senders = new Thread[inFlight];
+		for (int i = 0; i < inFlight; i++) {
+			senders[i] = new Thread(this::send, "es-bulk-" + i);
+			senders[i].setDaemon(true);
+			senders[i].start();
+		}
+	}
+
+	@Override
+	public void accept(DocumentBatch batch) throws IOException {
+		for (int i = 0; i < batch.size(); i++) {
+			current.add(batch.getId(i), batch.getBytes(), batch.getSourceStart(i), batch.getEnd(i));
+			if (current.size() == batchSize) {
+				enqueue(current);
+				current = new BulkRequest();
+			}
+		}
+	}
+
+	private void enqueue(BulkRequest request) throws IOException {
+		if (fatal.get() != null) {
+			throw failure();
+		}
+		try {
+			queue.put(request);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while queueing a bulk request", e);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			if (current.size() > 0) {
+				enqueue(current);
+				current = new BulkRequest();
+			}
+		}
+		finally {
+			// even after a failure, so the sender threads don't outlive the run (eg: in --batch or --serve)
+			stopSenders();
+		}
+
+		if (fatal.get() != null) {
+			throw failure();
+		}
+		if (existing.get() > 0) {
+			System.err.println("Warning: " + existing.get() + " documents were already in the index at " + endpoint
+					+ " and were left as they were, eg: " + existingExample.get());
+		}
+		if (failed.get() > 0) {
+			synchronized (errors) {
+				for (String error : errors) {
+					System.err.println(error);
+				}
+			}
+			throw new IOException(failed.get() + " documents could not be indexed at " + endpoint);
+		}
+	}
+
+	private void stopSenders() throws IOException {
+		try {
+			for (int i = 0; i < senders.length; i++) {
+				queue.put(END);
+			}
+			for (Thread sender : senders) {
+				sender.join();
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for bulk requests to finish", e);
+		}
+	}
+
+	/*
+	 * The failure a sender thread ran into, wrapped so the trace shows where the caller was too
+	 */
+	private IOException failure() {
+		return new IOException("Indexing into " + endpoint + " failed: " + fatal.get().getMessage(), fatal.get());
+	}
+
+	public long getIndexedCount() {
+		return indexed.get();
+	}
+
+	public long getRequestCount() {
+		return requests.get();
+	}
+
+	public long getRetriedCount() {
+		return retried.get();
+	}
+
+	/**
+	 * @return the documents that were in the index before they were sent (a 409 on their first attempt)
+	 */
+	public long getExistingCount() {
+		return existing.get();
+	}
+
+	/*
+	 * What each sender thread runs: take a request, send it (retrying as needed), repeat
+	 */
+	private void send() {
+		while (true) {
+			BulkRequest request;
+			try {
+				request = queue.take();
+			}
+			catch (InterruptedException e) {
+				return;
+			}
+			if (request == END) {
+				return;
+			}
+			if (fatal.get() != null) {
+				// something has already failed for good; just drain the queue so accept() doesn't block
+				continue;
+			}
+			try {
+				sendWithRetries(request);
+			}
+			catch (IOException e) {
+				fatal.compareAndSet(null, e);
+			}
+			catch (InterruptedException e) {
+				fatal.compareAndSet(null, new IOException("Interrupted while sending a bulk request", e));
+				return;
+			}
+		}
+	}
+
+	private void sendWithRetries(BulkRequest request) throws IOException, InterruptedException {
+		// whether an earlier attempt may have indexed some of the items before it failed
+		boolean resent = false;
+		for (int attempt = 0; ; attempt++) {
+			if (attempt > 0) {
+				retried.addAndGet(request.size());
+				Thread.sleep(Math.min(MAX_BACKOFF_MS, 500L << Math.min(attempt - 1, 16)));
+			}
+
+			HttpResponse<String> response;
+			try {
+				requests.incrementAndGet();
+				response = client.send(HttpRequest.newBuilder(endpoint)
+						.timeout(Duration.ofMinutes(2))
+						.header("Content-Type", "application/x-ndjson")
+						.POST(HttpRequest.BodyPublishers.ofByteArray(request.body()))
+						.build(), HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+			}
+			catch (IOException e) {
+				if (attempt < maxRetries) {
+					resent = true;
+					continue;
+				}
+				throw new IOException("Bulk request to " + endpoint + " failed after " + (attempt + 1) + " attempts", e);
+			}
+
+			int status = response.statusCode();
+			if (status == 429 || status >= 500) {
+				if (attempt < maxRetries) {
+					resent |= status != 429;
+					continue;
+				}
+				throw new IOException("Bulk request to " + endpoint + " failed with " + status + " after " + (attempt + 1) + " attempts");
+			}
+			if (status >= 300) {
+				throw new IOException("Bulk request to " + endpoint + " failed with " + status + ": " + response.body());
+			}
+
+			request = rejectedItems(request, response.body(), resent);
+			if (request.size() == 0) {
+				return;
+			}
+			if (attempt >= maxRetries) {
+				failed.addAndGet(request.size());
+				error(request.size() + " documents were still being rejected (429) after " + (attempt + 1) + " attempts, eg: " + request.ids.get(0));
+				return;
+			}
+		}
+	}
+
+	/*
+	 * Reads a bulk response. Counts what was indexed, what was already there and what failed for good,
+	 * and returns the items that were rejected with a 429, to be sent again.
+	 *
+	 * @param resent whether an earlier attempt may have indexed some of the items, so a 409 is this run's
+	 */
+	private BulkRequest rejectedItems(BulkRequest request, String body, boolean resent) throws IOException {
+		JSONObject response;
+		try {
+			response = (JSONObject) new JSONParser().parse(body);
+		}
+		catch (org.json.simple.parser.ParseException | ClassCastException e) {
+			throw new IOException("Could not read the bulk response from " + endpoint, e);
+		}
+
+		BulkRequest retry = new BulkRequest();
+		if (!Boolean.TRUE.equals(response.get("errors"))) {
+			indexed.addAndGet(request.size());
+			return retry;
+		}
+
+		JSONArray items = (JSONArray) response.get("items");
+		if (items == null || items.size() != request.size()) {
+			throw new IOException("Expected " + request.size() + " items in the bulk response from " + endpoint);
+		}
+		for (int i = 0; i < items.size(); i++) {
+			JSONObject item = (JSONObject) ((JSONObject) items.get(i)).values().iterator().next();
+			int status = ((Number) item.get("status")).intValue();
+			if (status < 300 || (status == 409 && resent)) {
+				indexed.incrementAndGet();
+			}
+			else if (status == 409) {
+				existing.incrementAndGet();
+				existingExample.compareAndSet(null, request.ids.get(i));
+			}
+			else if (status == 429) {
+				retry.add(request, i);
+			}
+			else {
+				failed.incrementAndGet();
+				error(request.ids.get(i) + ": " + status + " " + item.get("error"));
+			}
+		}
+		return retry;
+	}
+
+	private void error(String message) {
+		synchronized (errors) {
+			if (errors.size() < MAX_ERRORS_SHOWN) {
+				errors.add(message);
+			}
+		}
+	}
+
+	/*
+	 * The action and source lines of up to batchSize documents
+	 */
+	private static class BulkRequest {
+
+		final List<String> ids = new ArrayList<>();
+		private byte[] bytes = new byte[0];
+		private int length = 0;
+		// where each item starts in bytes, plus the end of the last
+		private int[] offsets = new int[] { 0 };
+		private NdjsonWriter action = null;
+
+		int size() {
+			return ids.size();
+		}
+
+		/*
+		 * Adds a document: its action line, with the id, and the source line source[from .. to)
+		 */
+		void add(String id, byte[] source, int from, int to) {
+			if (action == null) {
+				action = new NdjsonWriter();
+			}
+			action.reset();
+			try {
+				action.action("create", id);
+			}
+			catch (IOException e) {
+				// an in memory writer never flushes
+				throw new UncheckedIOException(e);
+			}
+
+			byte[] actionBytes = action.getBytes();
+			ensure(actionBytes.length + to - from);
+			System.arraycopy(actionBytes, 0, bytes, length, actionBytes.length);
+			length += actionBytes.length;
+			System.arraycopy(source, from, bytes, length, to - from);
+			length += to - from;
+			addItem(id);
+		}
+
+		/*
+		 * Adds item i of another request, as is
+		 */
+		void add(BulkRequest other, int i) {
+			int from = other.offsets[i];
+			int itemLength = other.offsets[i + 1] - from;
+			ensure(itemLength);
+			System.arraycopy(other.bytes, from, bytes, length, itemLength);
+			length += itemLength;
+			addItem(other.ids.get(i));
+		}
+
+		private void addItem(String id) {
+			ids.add(id);
+			if (offsets.length == ids.size()) {
+				offsets = Arrays.copyOf(offsets, offsets.length * 2);
+			}
+			offsets[ids.size()] = length;
+		}
+
+		private void ensure(int extra) {
+			if (length + extra > bytes.length) {
+				bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + extra));
+			}
+		}
+
+		byte[] body() {
+			return length == bytes.length ? bytes : Arrays.copyOf(bytes, length);
+		}
+	}
+}
@@ -0,0 +1,311 @@
+package edu.umaryland.igs.eng.disont.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ *
+ * Counts the facet values of the documents and builds an inverted index of them, for a front
+ * end that serves facet counts and "diseases with anatomy X" lookups from static files instead
+ * of asking Elasticsearch:
+ *
+ *   <base>.facet_counts.json   every facet, with how many documents have it and how many have
+ *                              each of its values, most common value first
+ *   <base>.facet_documents.json
+ *                              the ids of all the documents, sorted, eg: {"ids":["DOID_0001816",...]}
+ *   <base>.facet_index.<facet>.json
+ *                              one per facet: each value, in label order, with the documents that
+ *                              have it as ascending positions in that table, eg: {"values":{"lung":[3,17,...]}}
+ *
+ * The ids are written once rather than in every list they're in: a position takes a few digits
+ * where an id takes 14 characters, and a document can be in dozens of lists.
+ *
+ * The values are the ones the documents were assembled with (see DocumentBatch.withFacetValues()),
+ * so this is the same pass as the other formats. A value without a label (written as null in the
+ * documents) isn't counted or indexed; nobody can search for it.
+ *
+ * Each document value is kept as one int, its facet and label id together. The counts say how
+ * long each value's list is going to be, so the index is put in order at the end with a single
+ * pass over the documents in id order, dropping each one's values into their lists: no sort,
+ * however many values there are.
+ *
+ */
+public class FacetIndexSink implements DocumentSink {
+
+	private final File dir;
+	private final String baseName;
+	private final LabelIndex labels;
+	private final List<String> facetNames;
+
+	// the id of every document, by the order it arrived in
+	private final List<String> ids = new ArrayList<>();
+
+	// the values of every document, as facet * labelCount + label id, and where each document's values start
+	private int[] values = new int[1024];
+	private int size = 0;
+	private int[] documentStarts = new int[1024];
+
+	// documents by facet, and documents by value
+	private final int labelCount;
+	private final int[] facetDocuments;
+	private final int[] counts;
+	private final int[] lastDocument;
+
+	private final List<File> files = new ArrayList<>();
+	private long bytes = 0;
+	private long writeNanos = 0;
+	private int valueCount = 0;
+
+	public FacetIndexSink(String directory, String baseName, LabelIndex labels, List<String> facetNames) throws IOException {
+		if ((long) labels.getLabelCount() * facetNames.size() >= Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Too many labels and facets for a facet index: " + labels.getLabelCount()
+					+ " labels, " + facetNames.size() + " facets");
+		}
+		this.dir = new File(directory);
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Could not create output directory: " + directory);
+		}
+		this.baseName = baseName;
+		this.labels = labels;
+		this.facetNames = facetNames;
+		this.labelCount = labels.getLabelCount();
+		this.facetDocuments = new int[facetNames.size()];
+		this.counts = new int[facetNames.size() * labelCount];
+		this.lastDocument = new int[facetNames.size()];
+		Arrays.fill(lastDocument, -1);
+	}
+
+	@Override
+	public void accept(DocumentBatch batch) throws IOException {
+		int[] batchValues = batch.getFacetValues();
+		if (batchValues == null) {
+			throw new IllegalStateException("The documents were assembled without their facet values");
+		}
+		int first = ids.size();
+		if (first + batch.size() >= documentStarts.length) {
+			documentStarts = Arrays.copyOf(documentStarts, Math.max(documentStarts.length * 2, first + batch.size() + 1));
+		}
+		// the triples are in document order, so each document's values go in one after the other
+		int v = 0;
+		for (int i = 0; i < batch.size(); i++) {
+			int doc = first + i;
+			ids.add(batch.getId(i));
+			documentStarts[doc] = size;
+			for (; v < batchValues.length && batchValues[v] == i; v += 3) {
+				int facet = batchValues[v + 1];
+				int labelId = batchValues[v + 2];
+				if (labelId < 0) {
+					continue;
+				}
+				if (lastDocument[facet] != doc) {
+					lastDocument[facet] = doc;
+					facetDocuments[facet]++;
+				}
+				int value = facet * labelCount + labelId;
+				counts[value]++;
+				if (size == values.length) {
+					values = Arrays.copyOf(values, size * 2);
+				}
+				values[size++] = value;
+			}
+		}
+		documentStarts[ids.size()] = size;
+	}
+
+	@Override
+	public void close() throws IOException {
+		long start = System.nanoTime();
+
+		Integer[] byId = new Integer[ids.size()];
+		for (int d = 0; d < byId.length; d++) {
+			byId[d] = d;
+		}
+		Arrays.sort(byId, Comparator.comparing(ids::get));
+
+		// where each value's list starts, then fill the lists taking the documents in id order,
+		// so each list's positions come out ascending
+		int[] listStarts = new int[counts.length + 1];
+		for (int value = 0; value < counts.length; value++) {
+			listStarts[value + 1] = listStarts[value] + counts[value];
+		}
+		int[] next = Arrays.copyOf(listStarts, counts.length);
+		int[] lists = new int[size];
+		for (int position = 0; position < byId.length; position++) {
+			int doc = byId[position];
+			for (int p = documentStarts[doc]; p < documentStarts[doc + 1]; p++) {
+				lists[next[values[p]]++] = position;
+			}
+		}
+
+		writeCounts();
+		writeDocuments(byId);
+		for (int f = 0; f < facetNames.size(); f++) {
+			writeIndex(f, listStarts, lists);
+		}
+		writeNanos = System.nanoTime() - start;
+	}
+
+	private void writeCounts() throws IOException {
+		File file = getCountsFile();
+		try (NdjsonWriter out = NdjsonWriter.open(file.getPath())) {
+			out.beginObject();
+			out.key("documents");
+			out.number(ids.size());
+			out.key("facets");
+			out.beginArray();
+			for (int f = 0; f < facetNames.size(); f++) {
+				Integer[] byCount = valuesByCount(f);
+				out.beginObject();
+				out.key("facet");
+				out.string(facetNames.get(f));
+				out.key("documents");
+				out.number(facetDocuments[f]);
+				out.key("index");
+				out.string(getIndexFile(f).getName());
+				out.key("values");
+				out.beginArray();
+				for (int labelId : byCount) {
+					out.beginObject();
+					out.key("value");
+					out.string(labels.getLabelById(labelId));
+					out.key("count");
+					out.number(counts[f * labelCount + labelId]);
+					out.endObject();
+				}
+				out.endArray();
+				out.endObject();
+				valueCount += byCount.length;
+			}
+			out.endArray();
+			out.endObject();
+			bytes += out.getByteCount();
+		}
+		files.add(file);
+	}
+
+	/*
+	 * The label ids a facet has documents for, most documents first, then in label order
+	 */
+	private Integer[] valuesByCount(int f) {
+		int base = f * labelCount;
+		List<Integer> found = new ArrayList<>();
+		for (int labelId = 0; labelId < labelCount; labelId++) {
+			if (counts[base + labelId] > 0) {
+				found.add(labelId);
+			}
+		}
+		Integer[] sorted = found.toArray(new Integer[0]);
+		Arrays.sort(sorted, (a, b) -> counts[base + a] != counts[base + b]
+				? Integer.compare(counts[base + b], counts[base + a]) : Integer.compare(a, b));
+		return sorted;
+	}
+
+	/*
+	 * Writes the table of document ids the index files refer to by position
+	 */
+	private void writeDocuments(Integer[] byId) throws IOException {
+		File file = getDocumentsFile();
+		try (NdjsonWriter out = NdjsonWriter.open(file.getPath())) {
+			out.beginObject();
+			out.key("documents");
+			out.number(byId.length);
+			out.key("ids");
+			out.beginArray();
+			for (int doc : byId) {
+				out.string(ids.get(doc));
+			}
+			out.endArray();
+			out.endObject();
+			bytes += out.getByteCount();
+		}
+		files.add(file);
+	}
+
+	/*
+	 * Writes the index of facet f: the lists of its values, in label order
+	 */
+	private void writeIndex(int f, int[] listStarts, int[] lists) throws IOException {
+		File file = getIndexFile(f);
+		try (NdjsonWriter out = NdjsonWriter.open(file.getPath())) {
+			out.beginObject();
+			out.key("facet");
+			out.string(facetNames.get(f));
+			out.key("documents");
+			out.number(facetDocuments[f]);
+			out.key("ids");
+			out.string(getDocumentsFile().getName());
+			out.key("values");
+			out.beginObject();
+			for (int labelId = 0; labelId < labelCount; labelId++) {
+				int value = f * labelCount + labelId;
+				if (counts[value] == 0) {
+					continue;
+				}
+				out.key(labels.getLabelById(labelId));
+				out.beginArray();
+				for (int p = listStarts[value]; p < listStarts[value + 1]; p++) {
+					out.number(lists[p]);
+				}
+				out.endArray();
+			}
+			out.endObject();
+			out.endObject();
+			bytes += out.getByteCount();
+		}
+		files.add(file);
+	}
+
+	/*
+	 * <base>.facet_index.<facet>.json, with anything but letters, digits, - and _ in the facet's name replaced
+	 */
+	private File getIndexFile(int f) {
+		return new File(dir, baseName + ".facet_index." + facetNames.get(f).replaceAll("[^A-Za-z0-9_-]", "_") + ".json");
+	}
+
+	public File getCountsFile() {
+		return new File(dir, baseName + ".facet_counts.json");
+	}
+
+	public File getDocumentsFile() {
+		return new File(dir, baseName + ".facet_documents.json");
+	}
+
+	/**
+	 * @return the counts file, the document table and the index files, once it's closed
+	 */
+	public List<File> getFiles() {
+		return files;
+	}
+
+	/**
+	 * @return the number of distinct values, over all the facets, once it's closed
+	 */
+	public int getValueCount() {
+		return valueCount;
+	}
+
+	/**
+	 * @return the number of document values indexed
+	 */
+	public int getPostingCount() {
+		return size;
+	}
+
+	/**
+	 * @return the size of the files, once it's closed
+	 */
+	public long getByteCount() {
+		return bytes;
+	}
+
+	/**
+	 * @return the time spent sorting and writing, in nanoseconds
+	 */
+	public long getWriteNanos() {
+		return writeNanos;
+	}
+}
@@ -0,0 +1,212 @@
+package edu.umaryland.igs.eng.disont.utils;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ *
+ * Decides which facet each flattened parent class is written to.
+ *
+ * The mapping comes from a config file (see resources/facets.conf) that maps OBO ID
+ * prefixes (UBERON, CHEBI, HP...) to output facets, with optional label rules such as
+ * the HP onset / phenotype split. The prefixes are kept in a trie and matched exactly,
+ * so adding a facet is a config change, and "CL" no longer catches CLO classes.
+ *
+ * route() works out the facet of every class in an OntologyGraph once: the trie is walked
+ * once per distinct prefix tag, and label rules are checked once per class, rather than
+ * for every disease the class gets flattened into.
+ *
+ */
+public class FacetRouter {
+
+	public static final short NO_FACET = -1;
+
+	private static final String DEFAULT_CONFIG = "/facets.conf";
+	private static final String LABEL_CONTAINS = "label-contains";
+
+	private final List<String> facetNames = new ArrayList<>();
+	private final TrieNode root = new TrieNode();
+
+	private FacetRouter() {
+	}
+
+	/**
+	 * Loads the facets.conf that's bundled in the jar
+	 */
+	public static FacetRouter loadDefault() throws IOException {
+		try (InputStream in = FacetRouter.class.getResourceAsStream(DEFAULT_CONFIG)) {
+			if (in == null) {
+				throw new IOException("Could not find " + DEFAULT_CONFIG + " on the classpath");
+			}
+			return load(in, DEFAULT_CONFIG);
+		}
+	}
+
+	public static FacetRouter load(String configFile) throws IOException {
+		try (InputStream in = new FileInputStream(configFile)) {
+			return load(in, configFile);
+		}
+	}
+
+	private static FacetRouter load(InputStream in, String source) throws IOException {
+		FacetRouter router = new FacetRouter();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+		String line;
+		int lineNumber = 0;
+		while ((line = reader.readLine()) != null) {
+			lineNumber += 1;
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("#")) {
+				continue;
+			}
+			int eq = line.lastIndexOf('=');
+			if (eq < 0) {
+				throw new IOException(source + ":" + lineNumber + ": expected 'PREFIX = facet' but found: " + line);
+			}
+			String facet = line.substring(eq + 1).trim();
+			String[] lhs = line.substring(0, eq).trim().split("\\s+", 3);
+			if (facet.isEmpty() || lhs[0].isEmpty()) {
+				throw new IOException(source + ":" + lineNumber + ": expected 'PREFIX = facet' but found: " + line);
+			}
+			Route route = router.root.insert(lhs[0]);
+			short facetId = router.facetId(facet);
+
+			if (lhs.length == 1) {
+				if (route.facet != NO_FACET) {
+					throw new IOException(source + ":" + lineNumber + ": prefix " + lhs[0] + " is already mapped to " + router.getFacetName(route.facet));
+				}
+				route.facet = facetId;
+			}
+			else if (lhs.length == 3 && lhs[1].equals(LABEL_CONTAINS)) {
+				route.addRule(lhs[2].toLowerCase(Locale.ROOT), facetId);
+			}
+			else {
+				throw new IOException(source + ":" + lineNumber + ": unknown rule: " + line);
+			}
+		}
+		return router;
+	}
+
+	private short facetId(String facet) {
+		int id = facetNames.indexOf(facet);
+		if (id < 0) {
+			facetNames.add(facet);
+			id = facetNames.size() - 1;
+		}
+		return (short) id;
+	}
+
+	public int getFacetCount() {
+		return facetNames.size();
+	}
+
+	public String getFacetName(int facet) {
+		return facetNames.get(facet);
+	}
+
+	/**
+	 * @return the route for this exact OBO ID prefix, or null if it isn't configured
+	 */
+	Route find(CharSequence prefix) {
+		TrieNode node = root;
+		for (int i = 0; i < prefix.length() && node != null; i++) {
+			node = node.child(prefix.charAt(i));
+		}
+		return node == null ? null : node.route;
+	}
+
+	/**
+	 * @return the facet of every class in the graph, indexed by class id. NO_FACET for classes that aren't written to a facet
+	 */
+	public short[] route(OntologyGraph graph, LabelIndex labels) {
+		// resolve each prefix once
+		Route[] byPrefixTag = new Route[graph.getPrefixCount()];
+		for (short tag = 0; tag < byPrefixTag.length; tag++) {
+			byPrefixTag[tag] = find(graph.getPrefix(tag));
+		}
+
+		short[] facets = new short[graph.size()];
+		for (int id = 0; id < facets.length; id++) {
+			Route route = byPrefixTag[graph.getPrefixTag(id)];
+			facets[id] = route == null ? NO_FACET : route.facetFor(id, labels);
+		}
+		return facets;
+	}
+
+	static class Route {
+		short facet = NO_FACET;
+		String[] ruleTexts = new String[0];
+		short[] ruleFacets = new short[0];
+
+		void addRule(String text, short facet) {
+			ruleTexts = Arrays.copyOf(ruleTexts, ruleTexts.length + 1);
+			ruleFacets = Arrays.copyOf(ruleFacets, ruleFacets.length + 1);
+			ruleTexts[ruleTexts.length - 1] = text;
+			ruleFacets[ruleFacets.length - 1] = facet;
+		}
+
+		short facetFor(int id, LabelIndex labels) {
+			if (ruleTexts.length > 0) {
+				String label = labels.getLabel(id);
+				if (label != null) {
+					String lower = label.toLowerCase(Locale.ROOT);
+					for (int r = 0; r < ruleTexts.length; r++) {
+						if (lower.contains(ruleTexts[r])) {
+							return ruleFacets[r];
+						}
+					}
+				}
+			}
+			return facet;
+		}
+	}
+
+	/*
+	 * One node per character of the configured prefixes. Prefixes are short and the set of
+	 * characters small, so children are kept in a sorted array.
+	 */
+	private static class TrieNode {
+		char[] keys = new char[0];
+		TrieNode[] children = new TrieNode[0];
+		Route route = null;
+
+		TrieNode child(char c) {
+			int i = Arrays.binarySearch(keys, c);
+			return i >= 0 ? children[i] : null;
+		}
+
+		Route insert(String prefix) {
+			TrieNode node = this;
+			for (int i = 0; i < prefix.length(); i++) {
+				char c = prefix.charAt(i);
+				int pos = Arrays.binarySearch(node.keys, c);
+				if (pos < 0) {
+					pos = -pos - 1;
+					char[] keys = new char[node.keys.length + 1];
+					TrieNode[] children = new TrieNode[node.children.length + 1];
+					System.arraycopy(node.keys, 0, keys, 0, pos);
+					System.arraycopy(node.children, 0, children, 0, pos);
+					System.arraycopy(node.keys, pos, keys, pos + 1, node.keys.length - pos);
+					System.arraycopy(node.children, pos, children, pos + 1, node.children.length - pos);
+					keys[pos] = c;
+					children[pos] = new TrieNode();
+					node.keys = keys;
+					node.children = children;
+				}
+				node = node.children[pos];
+			}
+			if (node.route == null) {
+				node.route = new Route();
+			}
+			return node.route;
+		}
+	}
+}
@@ -0,0 +1,113 @@
+package edu.umaryland.igs.eng.disont.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ *
+ * The document of one disease term, as Flattener returns it: the fields the OWLFlattener writes
+ * to outputfile.json for the term, before they're turned into JSON.
+ *
+ * The facets are in the order they're configured, and their values sorted and without duplicates,
+ * as in the output; a facet the term has no values for isn't in the map. toJson() gives the
+ * document as the OWLFlattener would write it.
+ *
+ */
+public class FlattenedTerm {
+
+	private final String id;
+	private final String name;
+	private final String definition;
+	private final Map<String, List<String>> facets;
+
+	FlattenedTerm(String id, String name, String definition, Map<String, List<String>> facets) {
+		this.id = id;
+		this.name = name;
+		this.definition = definition;
+		Map<String, List<String>> copy = new LinkedHashMap<>();
+		for (Map.Entry<String, List<String>> facet : facets.entrySet()) {
+			copy.put(facet.getKey(), Collections.unmodifiableList(facet.getValue()));
+		}
+		this.facets = Collections.unmodifiableMap(copy);
+	}
+
+	/**
+	 * @return the IRI remainder, eg: DOID_0050117
+	 */
+	public String getId() {
+		return id;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the definition as it's annotated, or null if the term doesn't have one
+	 */
+	public String getDefinition() {
+		return definition;
+	}
+
+	/**
+	 * @return the labels of the term's ancestors, by facet
+	 */
+	public Map<String, List<String>> getFacets() {
+		return facets;
+	}
+
+	/**
+	 * @return the document the OWLFlattener writes for this term, without its action line. The definition is in
+	 * double quotes, without its line breaks, as the faceted search expects.
+	 */
+	public String toJson() {
+		NdjsonWriter out = new NdjsonWriter();
+		out.beginObject();
+		out.key("id");
+		out.string(id);
+		out.key("name");
+		out.string(name);
+		if (definition != null) {
+			out.key("definition");
+			out.beginString();
+			out.append("\"");
+			out.append(definition, '\n');
+			out.append("\"");
+			out.endString();
+		}
+		for (Map.Entry<String, List<String>> facet : facets.entrySet()) {
+			out.key(facet.getKey());
+			out.beginArray();
+			for (String value : facet.getValue()) {
+				out.string(value);
+			}
+			out.endArray();
+		}
+		out.endObject();
+		return new String(out.getBytes(), StandardCharsets.UTF_8);
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof FlattenedTerm)) {
+			return false;
+		}
+		FlattenedTerm other = (FlattenedTerm) o;
+		return id.equals(other.id) && name.equals(other.name) && Objects.equals(definition, other.definition)
+				&& facets.equals(other.facets);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(id, name, definition, facets);
+	}
+
+	@Override
+	public String toString() {
+		return toJson();
+	}
+}
@@ -0,0 +1,168 @@
+package edu.umaryland.igs.eng.disont.utils;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Stream;
+
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyCreationException;
+
+/**
+ *
+ * The flattener as a library, for flattening terms from another JVM application instead of
+ * writing outputfile.json:
+ *
+ *   Flattener flattener = Flattener.fromFile("doid-merged.owl", FlattenerConfig.builder()
+ *       .rootIri("http://purl.obolibrary.org/obo/DOID_4").build());
+ *   FlattenedTerm term = flattener.flatten("DOID:0050117");
+ *   flattener.stream().forEach(...);
+ *
+ * A term's document is the one the OWLFlattener writes for it (see FlattenedTerm). The closures
+ * are computed as they're needed, and kept (see LazyClosure): flattening one term only walks the
+ * part of its ancestry that no earlier term did, and stream() only walks as far as it's read.
+ * Only the root, facet config, loader, cache and trace settings of the config apply.
+ *
+ * Failures are thrown, never reported by exiting. A Flattener is thread safe.
+ *
+ */
+public class Flattener {
+
+	private final OntologyGraph graph;
+	private final LabelIndex labels;
+	private final UnhandledShapes unhandled;
+	private final FacetRouter facetRouter;
+	private final short[] facets;
+
+	// the closure read from the cache, if it had one; otherwise the closures are computed as they're asked for
+	private final ClosureEngine complete;
+	private final LazyClosure closure;
+
+	// the class of each IRI remainder
+	private final Map<String, Integer> terms;
+
+	private Flattener(OntologyGraph graph, UnhandledShapes unhandled, ClosureEngine complete, FlattenerConfig config)
+			throws IOException {
+		this.graph = graph;
+		this.labels = graph.getLabels();
+		this.unhandled = unhandled;
+		this.facetRouter = config.getFacetConfig() == null ? FacetRouter.loadDefault() : FacetRouter.load(config.getFacetConfig());
+		this.facets = facetRouter.route(graph, labels);
+		this.complete = complete;
+		this.closure = complete == null ? new LazyClosure(graph) : null;
+		this.terms = new HashMap<>(graph.size() * 2);
+		for (int c : graph.getClasses()) {
+			terms.put(graph.getRemainder(c), c);
+		}
+	}
+
+	/**
+	 * Loads an owl file (or a snapshot of one) and extracts the graph of the config's root.
+	 * With the config's cache on, the graph (and closure) are read from the cache if they're there,
+	 * and the graph is written to it if they're not; unless the file may import others, see GraphCache.
+	 *
+	 * @throws FileNotFoundException if the file isn't there, or can't be read
+	 * @throws IllegalArgumentException if the config has no root and the file isn't a snapshot
+	 */
+	public static Flattener fromFile(String owlFile, FlattenerConfig config) throws IOException, OWLOntologyCreationException {
+		File file = new File(owlFile);
+		if (!file.isFile() || !file.canRead()) {
+			throw new FileNotFoundException("Failed to find a readable input file: " + owlFile);
+		}
+		if (config.getRootIri() == null && !Snapshot.isSnapshot(owlFile)) {
+			throw new IllegalArgumentException("A root IRI is needed to flatten " + owlFile + ", it isn't a snapshot");
+		}
+
+		GraphCache cache = null;
+		if (config.isUseCache()) {
+			cache = GraphCache.forOwl(owlFile, config.getRootIri(), config.getCacheFile());
+			if (cache.load()) {
+				return new Flattener(cache.getGraph(), cache.getUnhandled(), cache.getClosure(), config);
+			}
+		}
+		GraphLoader.Extracted extracted = new GraphLoader(config.getLoader())
+				.extract(owlFile, config.getRootIri(), new Trace(config.isDebug(), config.getTraceIds()), null);
+		if (cache != null) {
+			cache.save(extracted.getGraph(), extracted.getUnhandled(), null);
+		}
+		return new Flattener(extracted.getGraph(), extracted.getUnhandled(), null, config);
+	}
+
+	/**
+	 * Extracts the graph of the config's root from an ontology that's already loaded. The ontology isn't
+	 * needed once this returns.
+	 *
+	 * @throws IllegalArgumentException if the config has no root
+	 */
+	public static Flattener fromOntology(OWLOntology ontology, FlattenerConfig config) throws IOException, OWLOntologyCreationException {
+		if (config.getRootIri() == null) {
+			throw new IllegalArgumentException("A root IRI is needed to flatten an ontology");
+		}
+		UnhandledShapes unhandled = new UnhandledShapes();
+		OntologyGraph graph = GraphLoader.extract(ontology, config.getRootIri(), unhandled,
+				new Trace(config.isDebug(), config.getTraceIds()));
+		return new Flattener(graph, unhandled, null, config);
+	}
+
+	/**
+	 * @param doid the term's CURIE or IRI remainder, eg: DOID:0050117 or DOID_0050117
+	 * @return the term's document, or null if it doesn't get one: it isn't in the ontology, isn't a DOID, is
+	 * obsolete or has no name
+	 */
+	public FlattenedTerm flatten(String doid) {
+		Integer c = terms.get(doid.replace(':', '_'));
+		return c == null ? null : flatten(c);
+	}
+
+	/**
+	 * @return the documents of all the terms that get one, in the order the OWLFlattener writes them. Each
+	 * one is flattened as it's read.
+	 */
+	public Stream<FlattenedTerm> stream() {
+		return Arrays.stream(graph.getClasses()).mapToObj(this::flatten).filter(Objects::nonNull);
+	}
+
+	/**
+	 * @return the number of classes in the graph, DOIDs or not
+	 */
+	public int getClassCount() {
+		return graph.size();
+	}
+
+	/**
+	 * @return the axioms and class expressions that weren't followed extracting the graph
+	 */
+	public UnhandledShapes getUnhandled() {
+		return unhandled;
+	}
+
+	/*
+	 * The same document OWLFlattener.assemble() writes for the class, or null
+	 */
+	private FlattenedTerm flatten(int c) {
+		if (!DocumentValues.getsDocument(graph, c)) {
+			return null;
+		}
+
+		DocumentValues values = new DocumentValues(graph, facets, facetRouter.getFacetCount());
+		values.collect(complete != null ? complete.getAncestors(c) : closure.getAncestors(c));
+		Map<String, List<String>> byFacet = new LinkedHashMap<>();
+		for (int f = 0; f < facetRouter.getFacetCount(); f++) {
+			if (values.size(f) > 0) {
+				List<String> facet = new ArrayList<>(values.size(f));
+				for (int v = 0; v < values.size(f); v++) {
+					facet.add(labels.getLabelById(values.get(f, v)));
+				}
+				byFacet.put(facetRouter.getFacetName(f), facet);
+			}
+		}
+		return new FlattenedTerm(graph.getRemainder(c), labels.getName(c), labels.getDefinition(c), byFacet);
+	}
+}
@@ -0,0 +1,410 @@
+package edu.umaryland.igs.eng.disont.utils;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ *
+ * Everything a run of the OWLFlattener is told on the command line (except the owl file itself),
+ * so several flatteners, each with its own root, output and options, can run in the same JVM.
+ *
+ * It's immutable: make one with builder(), or a variation of one with toBuilder(), eg: a batch
+ * job's root and output directory on top of the options given for the whole batch.
+ *
+ */
+public class FlattenerConfig {
+
+	private final String rootIri;
+	private final String facetConfig;
+	private final int threads;
+	private final String outputDir;
+	private final String baseName;
+	private final long maxDocs;
+	private final long maxBytes;
+	private final String esUrl;
+	private final int esBatchSize;
+	private final int esInFlight;
+	private final int esRetries;
+	private final String previousOwl;
+	private final boolean useCache;
+	private final String cacheFile;
+	private final String loader;
+	private final String snapshotOut;
+	private final int progress;
+	private final String metricsJson;
+	private final String metricsProm;
+	private final boolean debug;
+	private final String[] traceIds;
+	private final List<String> formats;
+	private final boolean facetIndex;
+
+	/**
+	 * The output formats a run can write, see getFormats()
+	 */
+	public static final List<String> FORMATS = Collections.unmodifiableList(Arrays.asList("ndjson", "ndjson.gz", "ndjson.zst", "tsv"));
+
+	private FlattenerConfig(Builder b) {
+		this.rootIri = b.rootIri;
+		this.facetConfig = b.facetConfig;
+		this.threads = b.threads;
+		this.outputDir = b.outputDir;
+		this.baseName = b.baseName;
+		this.maxDocs = b.maxDocs;
+		this.maxBytes = b.maxBytes;
+		this.esUrl = b.esUrl;
+		this.esBatchSize = b.esBatchSize;
+		this.esInFlight = b.esInFlight;
+		this.esRetries = b.esRetries;
+		this.previousOwl = b.previousOwl;
+		this.useCache = b.useCache;
+		this.cacheFile = b.cacheFile;
+		this.loader = b.loader;
+		this.snapshotOut = b.snapshotOut;
+		this.progress = b.progress;
+		this.metricsJson = b.metricsJson;
+		this.metricsProm = b.metricsProm;
+		this.debug = b.debug;
+		this.traceIds = b.traceIds == null ? null : b.traceIds.clone();
+		this.formats = Collections.unmodifiableList(Arrays.asList(b.formats.clone()));
+		this.facetIndex = b.facetIndex;
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	/**
+	 * @return a builder that starts out with this config's settings
+	 */
+	public Builder toBuilder() {
+		Builder b = new Builder();
+		b.rootIri = rootIri;
+		b.facetConfig = facetConfig;
+		b.threads = threads;
+		b.outputDir = outputDir;
+		b.baseName = baseName;
+		b.maxDocs = maxDocs;
+		b.maxBytes = maxBytes;
+		b.esUrl = esUrl;
+		b.esBatchSize = esBatchSize;
+		b.esInFlight = esInFlight;
+		b.esRetries = esRetries;
+		b.previousOwl = previousOwl;
+		b.useCache = useCache;
+		b.cacheFile = cacheFile;
+		b.loader = loader;
+		b.snapshotOut = snapshotOut;
+		b.progress = progress;
+		b.metricsJson = metricsJson;
+		b.metricsProm = metricsProm;
+		b.debug = debug;
+		b.traceIds = traceIds;
+		b.formats = formats.toArray(new String[0]);
+		b.facetIndex = facetIndex;
+		return b;
+	}
+
+	/**
+	 * @return the root IRI, or null to take a snapshot's
+	 */
+	public String getRootIri() {
+		return rootIri;
+	}
+
+	/**
+	 * @return the facet routing config, or null for the one bundled in the jar
+	 */
+	public String getFacetConfig() {
+		return facetConfig;
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	public String getOutputDir() {
+		return outputDir;
+	}
+
+	public String getBaseName() {
+		return baseName;
+	}
+
+	public long getMaxDocs() {
+		return maxDocs;
+	}
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	public String getEsUrl() {
+		return esUrl;
+	}
+
+	public int getEsBatchSize() {
+		return esBatchSize;
+	}
+
+	public int getEsInFlight() {
+		return esInFlight;
+	}
+
+	public int getEsRetries() {
+		return esRetries;
+	}
+
+	/**
+	 * @return the previous release's owl file, for a delta; or null
+	 */
+	public String getPreviousOwl() {
+		return previousOwl;
+	}
+
+	public boolean isUseCache() {
+		return useCache;
+	}
+
+	/**
+	 * @return where to keep the cache, or null for <owl>.flatcache
+	 */
+	public String getCacheFile() {
+		return cacheFile;
+	}
+
+	/**
+	 * @return owlapi or rdfxml
+	 */
+	public String getLoader() {
+		return loader;
+	}
+
+	public String getSnapshotOut() {
+		return snapshotOut;
+	}
+
+	/**
+	 * @return seconds between progress reports; 0 for none
+	 */
+	public int getProgress() {
+		return progress;
+	}
+
+	public String getMetricsJson() {
+		return metricsJson;
+	}
+
+	public String getMetricsProm() {
+		return metricsProm;
+	}
+
+	public boolean isDebug() {
+		return debug;
+	}
+
+	/**
+	 * @return the IRI remainders of the traced terms, or null
+	 */
+	public String[] getTraceIds() {
+		return traceIds == null ? null : traceIds.clone();
+	}
+
+	/**
+	 * @return the formats the documents are written in, all in the same pass: ndjson (the bulk files, see
+	 * ShardedFileSink), ndjson.gz and ndjson.zst (see CompressedFileSink), tsv (see TsvSink)
+	 */
+	public List<String> getFormats() {
+		return formats;
+	}
+
+	public boolean hasFormat(String format) {
+		return formats.contains(format);
+	}
+
+	/**
+	 * @return whether to write the facet counts and the inverted index of the facet values (see FacetIndexSink)
+	 */
+	public boolean isFacetIndex() {
+		return facetIndex;
+	}
+
+	@Override
+	public String toString() {
+		return "FlattenerConfig[root=" + rootIri + ", outputDir=" + outputDir + ", baseName=" + baseName + ", loader=" + loader
+				+ ", formats=" + formats + (facetIndex ? ", facetIndex" : "") + ", threads=" + threads + ", cache=" + useCache + ", debug=" + debug
+				+ (traceIds != null ? ", trace=" + Arrays.toString(traceIds) : "") + "]";
+	}
+
+	public static class Builder {
+
+		private String rootIri = null;
+		private String facetConfig = null;
+		private int threads = 1;
+		private String outputDir = ".";
+		private String baseName = "outputfile";
+		private long maxDocs = Long.MAX_VALUE;
+		private long maxBytes = Long.MAX_VALUE;
+		private String esUrl = null;
+		private int esBatchSize = 1000;
+		private int esInFlight = 2;
+		private int esRetries = 5;
+		private String previousOwl = null;
+		private boolean useCache = false;
+		private String cacheFile = null;
+		private String loader = "owlapi";
+		private String snapshotOut = null;
+		private int progress = 10;
+		private String metricsJson = null;
+		private String metricsProm = null;
+		private boolean debug = false;
+		private String[] traceIds = null;
+		private String[] formats = {"ndjson"};
+		private boolean facetIndex = false;
+
+		private Builder() {
+		}
+
+		public Builder rootIri(String rootIri) {
+			this.rootIri = rootIri;
+			return this;
+		}
+
+		public Builder facetConfig(String facetConfig) {
+			this.facetConfig = facetConfig;
+			return this;
+		}
+
+		public Builder threads(int threads) {
+			this.threads = threads;
+			return this;
+		}
+
+		public Builder outputDir(String outputDir) {
+			this.outputDir = outputDir;
+			return this;
+		}
+
+		public Builder baseName(String baseName) {
+			this.baseName = baseName;
+			return this;
+		}
+
+		public Builder maxDocs(long maxDocs) {
+			this.maxDocs = maxDocs;
+			return this;
+		}
+
+		public Builder maxBytes(long maxBytes) {
+			this.maxBytes = maxBytes;
+			return this;
+		}
+
+		public Builder esUrl(String esUrl) {
+			this.esUrl = esUrl;
+			return this;
+		}
+
+		public Builder esBatchSize(int esBatchSize) {
+			this.esBatchSize = esBatchSize;
+			return this;
+		}
+
+		public Builder esInFlight(int esInFlight) {
+			this.esInFlight = esInFlight;
+			return this;
+		}
+
+		public Builder esRetries(int esRetries) {
+			this.esRetries = esRetries;
+			return this;
+		}
+
+		public Builder previousOwl(String previousOwl) {
+			this.previousOwl = previousOwl;
+			return this;
+		}
+
+		public Builder useCache(boolean useCache) {
+			this.useCache = useCache;
+			return this;
+		}
+
+		public Builder cacheFile(String cacheFile) {
+			this.cacheFile = cacheFile;
+			return this;
+		}
+
+		public Builder loader(String loader) {
+			this.loader = loader;
+			return this;
+		}
+
+		public Builder snapshotOut(String snapshotOut) {
+			this.snapshotOut = snapshotOut;
+			return this;
+		}
+
+		public Builder progress(int progress) {
+			this.progress = progress;
+			return this;
+		}
+
+		public Builder metricsJson(String metricsJson) {
+			this.metricsJson = metricsJson;
+			return this;
+		}
+
+		public Builder metricsProm(String metricsProm) {
+			this.metricsProm = metricsProm;
+			return this;
+		}
+
+		public Builder debug(boolean debug) {
+			this.debug = debug;
+			return this;
+		}
+
+		public Builder traceIds(String[] traceIds) {
+			this.traceIds = traceIds;
+			return this;
+		}
+
+		public Builder formats(String... formats) {
+			this.formats = formats;
+			return this;
+		}
+
+		public Builder facetIndex(boolean facetIndex) {
+			this.facetIndex = facetIndex;
+			return this;
+		}
+
+		/**
+		 * @throws IllegalArgumentException if a setting is out of range
+		 */
+		public FlattenerConfig build() {
+			if (threads < 1) {
+				throw new IllegalArgumentException("threads must be at least 1: " + threads);
+			}
+			if (!loader.equals("owlapi") && !loader.equals("rdfxml")) {
+				throw new IllegalArgumentException("loader must be owlapi or rdfxml: " + loader);
+			}
+			if (progress < 0) {
+				throw new IllegalArgumentException("progress can't be negative: " + progress);
+			}
+			if (maxDocs < 1 || maxBytes < 1 || esBatchSize < 1 || esInFlight < 1) {
+				throw new IllegalArgumentException("maxDocs, maxBytes, esBatchSize and esInFlight must be at least 1");
+			}
+			if (formats.length == 0) {
+				throw new IllegalArgumentException("at least one format is needed");
+			}
+			for (String format : formats) {
+				if (!FORMATS.contains(format)) {
+					throw new IllegalArgumentException("format must be one of " + String.join(", ", FORMATS) + ": " + format);
+				}
+			}
+			return new FlattenerConfig(this);
+		}
+	}
+}
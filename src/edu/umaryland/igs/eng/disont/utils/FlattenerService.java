@@ -0,0 +1,341 @@
+package edu.umaryland.igs.eng.disont.utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ *
+ * Keeps an ontology loaded and flattened, and serves the document of a term over HTTP (--serve),
+ * so a curation tool can preview a term right after an edit without a full run.
+ *
+ *   GET  /term/DOID_0050117   the document parse() would write for the term (DOID:0050117 works
+ *                             too), or a 404 if it doesn't get one
+ *   POST /reload              loads the owl file again, or ?owl=<file> instead, and swaps it in
+ *   GET  /stats               the loaded ontology, the response cache and the request latencies
+ *
+ * The closure is computed for every class when the ontology is loaded, so a document is just
+ * assembled on request; the assembled documents are kept in an LRU cache of --serve-cache
+ * entries. The graph, closure, labels and cache of a load are one Model, and a reload builds a
+ * new one alongside before swapping it in, so a request is answered entirely from the old model
+ * or entirely from the new one and none are turned away while the new one loads. That does mean
+ * both are in memory for a while. A reload that fails leaves the old one in place, and so does one
+ * that loads but has no classes or no root class (eg: ?owl= pointing at the wrong file): that's a 422.
+ *
+ * The latencies are measured from when a request is handed to us to when its response has been
+ * sent, separately for the terms found in the cache and the ones that were assembled, over the
+ * last LATENCY_WINDOW of each.
+ *
+ */
+public class FlattenerService {
+
+	public static final int LATENCY_WINDOW = 65536;
+
+	/*
+	 * An ontology loaded and ready to serve, and the documents assembled from it so far
+	 */
+	private static class Model {
+		final OWLFlattener flattener;
+		final String source;
+		final Date loadedAt = new Date();
+		final long loadMillis;
+		final Map<String, byte[]> cache;
+
+		Model(OWLFlattener flattener, String source, long loadMillis, int cacheSize) {
+			this.flattener = flattener;
+			this.source = source;
+			this.loadMillis = loadMillis;
+			this.cache = new LinkedHashMap<String, byte[]>(16, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+					return size() > cacheSize;
+				}
+			};
+		}
+
+		byte[] cached(String id) {
+			synchronized (cache) {
+				return cache.get(id);
+			}
+		}
+
+		void cache(String id, byte[] document) {
+			synchronized (cache) {
+				cache.put(id, document);
+			}
+		}
+
+		int cacheSize() {
+			synchronized (cache) {
+				return cache.size();
+			}
+		}
+	}
+
+	/*
+	 * A file that loaded, but isn't an ontology we can serve
+	 */
+	private static class UnusableOntologyException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		UnusableOntologyException(String message) {
+			super(message);
+		}
+	}
+
+	/*
+	 * The most recent latencies, in nanoseconds, in a ring, plus the count and the maximum since the start
+	 */
+	static class Latencies {
+		private final long[] window = new long[LATENCY_WINDOW];
+		private final AtomicLong count = new AtomicLong();
+		private final AtomicLong max = new AtomicLong();
+
+		void record(long nanos) {
+			window[(int) (count.getAndIncrement() % window.length)] = nanos;
+			max.accumulateAndGet(nanos, Math::max);
+		}
+
+		/*
+		 * Writes {"count":...,"p50":...,"p90":...,"p99":...,"p999":...,"max":...} in microseconds
+		 */
+		void write(NdjsonWriter out) {
+			long n = count.get();
+			long[] sorted = Arrays.copyOf(window, (int) Math.min(n, window.length));
+			Arrays.sort(sorted);
+			out.beginObject();
+			out.key("count");
+			out.number(n);
+			for (String p : new String[] {"p50", "p90", "p99", "p999"}) {
+				double q = Double.parseDouble("0." + p.substring(1));
+				out.key(p);
+				out.number(sorted.length == 0 ? 0 : sorted[(int) Math.min(sorted.length - 1, Math.ceil(q * sorted.length) - 1)] / 1000);
+			}
+			out.key("max");
+			out.number(max.get() / 1000);
+			out.endObject();
+		}
+	}
+
+	private final FlattenerConfig config;
+	private final int cacheSize;
+	private final AtomicReference<Model> model = new AtomicReference<>();
+	// one reload at a time
+	private final Object reloading = new Object();
+	private final LongAdder reloads = new LongAdder();
+
+	private final Latencies hits = new Latencies();
+	private final Latencies misses = new Latencies();
+	private final LongAdder notFound = new LongAdder();
+
+	private HttpServer server = null;
+	private ExecutorService workers = null;
+
+	/**
+	 * @param cacheSize the number of documents to keep
+	 */
+	public FlattenerService(FlattenerConfig config, int cacheSize) {
+		this.config = config;
+		this.cacheSize = cacheSize;
+	}
+
+	/**
+	 * Loads the ontology, then serves it until the JVM is stopped
+	 *
+	 * @param host the address to listen on, eg: 127.0.0.1
+	 */
+	public void start(String owlFile, String host, int port) throws Exception {
+		model.set(load(owlFile));
+
+		// otherwise a response waits on the client's delayed ack, ~40ms on a kept-alive connection
+		if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+			System.setProperty("sun.net.httpserver.nodelay", "true");
+		}
+		workers = Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()));
+		server = HttpServer.create(new InetSocketAddress(host, port), 0);
+		server.setExecutor(workers);
+		server.createContext("/term/", this::term);
+		server.createContext("/reload", this::reload);
+		server.createContext("/stats", this::stats);
+		server.start();
+		Runtime.getRuntime().addShutdownHook(new Thread(this::stop));
+		System.out.println("Serving " + owlFile + " at http://" + host + ":" + server.getAddress().getPort() + "/term/<DOID>");
+	}
+
+	/**
+	 * Stops listening, and prints the latencies
+	 */
+	public void stop() {
+		if (server != null) {
+			server.stop(1);
+			workers.shutdown();
+			server = null;
+			System.out.println(new String(statistics(), StandardCharsets.UTF_8));
+		}
+	}
+
+	/**
+	 * @return the port we're listening on, eg: when started on port 0
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	private Model load(String owlFile) throws Exception {
+		long start = System.nanoTime();
+		OWLFlattener flattener = new OWLFlattener(owlFile, config);
+		flattener.prepareToServe();
+		if (flattener.getClassCount() == 0) {
+			throw new UnusableOntologyException(owlFile + " has no classes");
+		}
+		if (!flattener.hasRootClass()) {
+			throw new UnusableOntologyException(owlFile + " doesn't have the root class " + config.getRootIri());
+		}
+		long millis = (System.nanoTime() - start) / 1_000_000;
+		System.out.println("Loaded " + owlFile + " to serve in " + millis + "ms");
+		return new Model(flattener, owlFile, millis, cacheSize);
+	}
+
+	private void term(HttpExchange exchange) throws IOException {
+		long start = System.nanoTime();
+		try {
+			if (!exchange.getRequestMethod().equals("GET")) {
+				respond(exchange, 405, error("use GET"));
+				return;
+			}
+			String id = exchange.getRequestURI().getPath().substring("/term/".length()).replace(':', '_');
+			Model m = model.get();
+			byte[] document = m.cached(id);
+			if (document != null) {
+				respond(exchange, 200, document);
+				hits.record(System.nanoTime() - start);
+				return;
+			}
+			document = m.flattener.document(id);
+			if (document == null) {
+				notFound.increment();
+				respond(exchange, 404, error("no document for " + id));
+				return;
+			}
+			m.cache(id, document);
+			respond(exchange, 200, document);
+			misses.record(System.nanoTime() - start);
+		}
+		catch (RuntimeException e) {
+			respond(exchange, 500, error(e.toString()));
+		}
+	}
+
+	private void reload(HttpExchange exchange) throws IOException {
+		if (!exchange.getRequestMethod().equals("POST")) {
+			respond(exchange, 405, error("use POST"));
+			return;
+		}
+		String owlFile = model.get().source;
+		String query = exchange.getRequestURI().getRawQuery();
+		if (query != null && query.startsWith("owl=")) {
+			owlFile = URLDecoder.decode(query.substring("owl=".length()), StandardCharsets.UTF_8);
+		}
+		if (!new java.io.File(owlFile).isFile()) {
+			respond(exchange, 400, error("no such file: " + owlFile));
+			return;
+		}
+		Model loaded;
+		synchronized (reloading) {
+			try {
+				loaded = load(owlFile);
+			}
+			catch (UnusableOntologyException e) {
+				System.err.println("Not reloading " + owlFile + ", still serving " + model.get().source + ": " + e.getMessage());
+				respond(exchange, 422, error(e.getMessage()));
+				return;
+			}
+			catch (Exception e) {
+				System.err.println("Failed to reload " + owlFile + ", still serving " + model.get().source + ": " + e);
+				respond(exchange, 500, error("failed to reload " + owlFile + ": " + e));
+				return;
+			}
+			model.set(loaded);
+			reloads.increment();
+		}
+		NdjsonWriter out = new NdjsonWriter();
+		out.beginObject();
+		out.key("source");
+		out.string(loaded.source);
+		out.key("classes");
+		out.number(loaded.flattener.getClassCount());
+		out.key("load_ms");
+		out.number(loaded.loadMillis);
+		out.endObject();
+		respond(exchange, 200, out.getBytes());
+	}
+
+	private void stats(HttpExchange exchange) throws IOException {
+		respond(exchange, 200, statistics());
+	}
+
+	private byte[] statistics() {
+		Model m = model.get();
+		NdjsonWriter out = new NdjsonWriter();
+		out.beginObject();
+		out.key("source");
+		out.string(m.source);
+		out.key("loaded_at");
+		out.string(m.loadedAt.toString());
+		out.key("load_ms");
+		out.number(m.loadMillis);
+		out.key("classes");
+		out.number(m.flattener.getClassCount());
+		out.key("reloads");
+		out.number(reloads.sum());
+		out.key("cache");
+		out.beginObject();
+		out.key("size");
+		out.number(m.cacheSize());
+		out.key("capacity");
+		out.number(cacheSize);
+		out.endObject();
+		out.key("not_found");
+		out.number(notFound.sum());
+		out.key("latency_us");
+		out.beginObject();
+		out.key("cached");
+		hits.write(out);
+		out.key("assembled");
+		misses.write(out);
+		out.endObject();
+		out.endObject();
+		return out.getBytes();
+	}
+
+	private static byte[] error(String message) {
+		NdjsonWriter out = new NdjsonWriter();
+		out.beginObject();
+		out.key("error");
+		out.string(message);
+		out.endObject();
+		return out.getBytes();
+	}
+
+	private static void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(status, body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+}
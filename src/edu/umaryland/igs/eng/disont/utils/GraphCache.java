@@ -0,0 +1,182 @@
+package edu.umaryland.igs.eng.disont.utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ *
+ * Keeps what was extracted from an owl file (the OntologyGraph with its labels and definitions)
+ * and, once it's been computed, the closure, in a cache file next to it: <owl>.flatcache
+ *
+ * The cache is keyed by the SHA-256 of the owl file's content, the root IRI and the rules that
+ * decide which edges are kept (ParentEdgeIndex.EXCLUSION_RULES). A later run with the same key
+ * skips loading the ontology and, if the closure was saved, computing it. When any part of the
+ * key is different the cache is ignored, and overwritten once the new one has been built.
+ * The key doesn't cover what the file imports, so an owl file with imports isn't cached at all,
+ * and nor is one that can't be checked for them (see GraphLoader.mayImport()): load() never
+ * finds its cache and save() doesn't write one.
+ *
+ * The file is a BinaryFile: it's checksummed, so a truncated or damaged cache is treated
+ * the same as a missing one, and it's memory mapped to read it.
+ *
+ */
+public class GraphCache {
+
+	private static final int MAGIC = 0x444f4643; // DOFC
+	private static final int VERSION = 4;
+
+	private final File file;
+	// null for a file that may import others
+	private final String key;
+
+	private OntologyGraph graph = null;
+	private ClosureEngine closure = null;
+	private UnhandledShapes unhandled = null;
+
+	private GraphCache(File file, String key) {
+		this.file = file;
+		this.key = key;
+	}
+
+	/**
+	 * Works out the key of an owl file. This reads the whole file, but that's much quicker than parsing it.
+	 */
+	public static GraphCache forOwl(String owlFile, String rootIri) throws IOException {
+		return forOwl(owlFile, rootIri, null);
+	}
+
+	/**
+	 * @param cacheFile where to keep the cache, or null for <owl>.flatcache
+	 */
+	public static GraphCache forOwl(String owlFile, String rootIri, String cacheFile) throws IOException {
+		return forOwl(owlFile, rootIri, cacheFile, ParentEdgeIndex.EXCLUSION_RULES);
+	}
+
+	/*
+	 * @param rules the exclusion rules the graph is extracted with, eg: an older build's in a test
+	 */
+	static GraphCache forOwl(String owlFile, String rootIri, String cacheFile, String rules) throws IOException {
+		File file = new File(cacheFile != null ? cacheFile : owlFile + ".flatcache");
+		if (GraphLoader.mayImport(owlFile)) {
+			return new GraphCache(file, null);
+		}
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+		try (InputStream in = new FileInputStream(owlFile)) {
+			byte[] buffer = new byte[1024 * 1024];
+			int read;
+			while ((read = in.read(buffer)) > 0) {
+				digest.update(buffer, 0, read);
+			}
+		}
+		String key = HexFormat.of().formatHex(digest.digest()) + "\n" + rootIri + "\n" + rules;
+		return new GraphCache(file, key);
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * @return whether the owl file may import others, so it isn't cached
+	 */
+	public boolean isRefused() {
+		return key == null;
+	}
+
+	/**
+	 * Reads the cache, if there's one with a matching key
+	 *
+	 * @return true if the graph (and maybe the closure) were read. Otherwise says why not and returns false.
+	 */
+	public boolean load() {
+		if (isRefused()) {
+			// the key only covers the file itself, so a change to an import would go unnoticed
+			System.out.println("Not using the closure cache " + file.getPath() + ": the owl file imports other ontologies (or can't be checked for imports)");
+			return false;
+		}
+		if (!file.isFile()) {
+			System.out.println("No closure cache at " + file.getPath());
+			return false;
+		}
+		try {
+			ByteBuffer in = BinaryFile.open(file, MAGIC, VERSION);
+			if (!key.equals(BinaryFile.readString(in))) {
+				System.out.println("Ignoring stale closure cache (the owl file, root or exclusion rules have changed): " + file.getPath());
+				return false;
+			}
+			OntologyGraph graph = OntologyGraph.read(in);
+			UnhandledShapes unhandled = UnhandledShapes.read(in);
+			ClosureEngine closure = in.get() != 0 ? ClosureEngine.read(in) : null;
+			BinaryFile.checkFullyRead(in);
+
+			this.graph = graph;
+			this.closure = closure;
+			this.unhandled = unhandled;
+			return true;
+		}
+		catch (IOException e) {
+			System.out.println("Ignoring closure cache " + file.getPath() + ": " + e.getMessage());
+			return false;
+		}
+		catch (RuntimeException e) {
+			System.out.println("Ignoring closure cache " + file.getPath() + ": " + BinaryFile.malformed(e).getMessage());
+			return false;
+		}
+	}
+
+	public OntologyGraph getGraph() {
+		return graph;
+	}
+
+	/**
+	 * @return what was skipped when the graph that was read was extracted
+	 */
+	public UnhandledShapes getUnhandled() {
+		return unhandled;
+	}
+
+	/**
+	 * @return the closure that was read, or null if the cache only had the graph
+	 */
+	public ClosureEngine getClosure() {
+		return closure;
+	}
+
+	/**
+	 * Writes the graph, and the closure if it isn't null, to a temporary file that then replaces the cache.
+	 * A cache that can't be written only gets a warning: the output doesn't depend on it. Does nothing
+	 * if the cache is refused.
+	 */
+	public void save(OntologyGraph graph, UnhandledShapes unhandled, ClosureEngine closure) {
+		if (isRefused()) {
+			return;
+		}
+		try {
+			BinaryFile.write(file, MAGIC, VERSION, out -> {
+				BinaryFile.writeString(out, key);
+				graph.write(out);
+				unhandled.write(out);
+				out.writeBoolean(closure != null);
+				if (closure != null) {
+					closure.write(out);
+				}
+			});
+			System.out.println("Saved closure cache: " + file.getPath());
+		}
+		catch (IOException e) {
+			System.err.println("Warning: could not write the closure cache " + file.getPath() + ": " + e);
+		}
+	}
+}
@@ -0,0 +1,431 @@
+package edu.umaryland.igs.eng.disont.utils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLClassExpression;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyAlreadyExistsException;
+import org.semanticweb.owlapi.model.OWLOntologyCreationException;
+import org.semanticweb.owlapi.model.OWLOntologyDocumentAlreadyExistsException;
+import org.semanticweb.owlapi.model.OWLOntologyManager;
+import org.semanticweb.owlapi.search.EntitySearcher;
+
+/**
+ *
+ * Loads owl files (or snapshots of them) and extracts the OntologyGraph of each root that's
+ * wanted from them, for one flattener or for a batch of them.
+ *
+ * In a batch the jobs say up front (expect()) which root they'll want from which file. The
+ * first job to ask for a file loads it, once, and extracts the graphs of every root expected
+ * from it; the other jobs on that file wait for it and take theirs. The graphs of one file are
+ * built together, so they share one LabelIndex (see OntologyGraph.fromOntology).
+ *
+ * With the owlapi loader, a batch loads the files that import other ontologies into one
+ * OWLOntologyManager, so an ontology that several of them import is loaded once and found in the
+ * manager after that. The OWLAPI loads one document at a time per manager, so those loads take
+ * turns; files that don't import anything (eg: the merged DO) each get a manager of their own
+ * and load in parallel. An input is removed from the shared manager once its graphs are
+ * extracted; the imports stay until close(). Two inputs with the same ontology IRI (eg: two
+ * builds of the same product) can't be in one manager, so the second one is loaded into a
+ * manager of its own. The rdfxml loader doesn't read imports (the flattener only reads the
+ * axioms of the file itself), and loads the files in parallel.
+ *
+ * Snapshots hold the graph of one root and are memory mapped, so each job reads its own.
+ *
+ */
+public class GraphLoader {
+
+	/**
+	 * A graph, and the axioms and class expressions that were skipped extracting it
+	 */
+	public static class Extracted {
+
+		private final OntologyGraph graph;
+		private final UnhandledShapes unhandled;
+
+		Extracted(OntologyGraph graph, UnhandledShapes unhandled) {
+			this.graph = graph;
+			this.unhandled = unhandled;
+		}
+
+		public OntologyGraph getGraph() {
+			return graph;
+		}
+
+		public UnhandledShapes getUnhandled() {
+			return unhandled;
+		}
+	}
+
+	/*
+	 * The jobs that want graphs from a file, by their Trace (each job has its own), and the load that extracts them
+	 */
+	private static class Input {
+		final Map<Trace, String> expected = new IdentityHashMap<>();
+		FutureTask<Map<Trace, Extracted>> load = null;
+	}
+
+	// how the files mayImport() can check start: XML (RDF/XML, OWL/XML), Turtle or N-Triples, functional and
+	// Manchester syntax, OBO, and JSON-LD
+	private static final Pattern SYNTAXES = Pattern.compile(
+			"<|_:|@?(?i:prefix|base)\\b|(Prefix|Ontology)\\s*[(:]|[a-z-]+:|\\[(Term|Typedef|Instance)]|[{\\[]");
+
+	// an import in any of them: owl:imports with any prefix (or none, or the full IRI, or an entity), OWL/XML's
+	// <Import>, functional Import(, Manchester Import: and OBO import:. A line that ends in Import could go on
+	// to be one.
+	private static final Pattern IMPORTS = Pattern.compile(
+			"[:#;]imports\\b|<imports\\b|<([\\w.-]+:)?Import\\b|\\bImport\\s*([(:]|$)|^\\s*import\\s*:");
+
+	private final String loader;
+
+	// in a batch, the manager the owlapi loads of files with imports go through; otherwise null, for a manager per load
+	private final OWLOntologyManager shared;
+
+	// by canonical path
+	private final Map<String, Input> inputs = new HashMap<>();
+
+	/**
+	 * A loader for one flattener (and its previous release, if it has one)
+	 *
+	 * @param loader owlapi or rdfxml
+	 */
+	public GraphLoader(String loader) {
+		this(loader, false);
+	}
+
+	/**
+	 * @param batch whether to share the owlapi loads' manager, see above
+	 */
+	public GraphLoader(String loader, boolean batch) {
+		this.loader = loader;
+		this.shared = batch && loader.equals("owlapi") ? OWLManager.createConcurrentOWLOntologyManager() : null;
+	}
+
+	/**
+	 * Says that a job will want the graph of this root from this file, so it's extracted along with the
+	 * others when the file is loaded. A snapshot isn't shared, so there's no need to expect it.
+	 *
+	 * @param trace the job's own Trace, which also identifies it
+	 */
+	public synchronized void expect(String owlFile, String rootIri, Trace trace) throws IOException {
+		inputs.computeIfAbsent(key(owlFile), k -> new Input()).expected.put(trace, rootIri);
+	}
+
+	/**
+	 * Takes back an expect(), eg: because the job found its graph in its cache
+	 */
+	public synchronized void unexpect(String owlFile, Trace trace) throws IOException {
+		take(key(owlFile), trace);
+	}
+
+	/**
+	 * @param metrics the load's phases (load, root_children, edges, definition_property, graph) are added to
+	 * this, if it's the job that loads the file; the others add how long they waited to load. Can be null.
+	 */
+	public Extracted extract(String owlFile, String rootIri, Trace trace, RunMetrics metrics)
+			throws OWLOntologyCreationException, IOException {
+
+		if (Snapshot.isSnapshot(owlFile)) {
+			Snapshot snapshot = time(metrics, "load", () -> Snapshot.read(owlFile, rootIri));
+			System.out.println("Read the snapshot of " + snapshot.getSource() + " from " + owlFile);
+			return new Extracted(snapshot.getGraph(), snapshot.getUnhandled());
+		}
+
+		String key = key(owlFile);
+		FutureTask<Map<Trace, Extracted>> task = null;
+		boolean mine = false;
+		synchronized (this) {
+			Input input = inputs.get(key);
+			if (input != null && input.expected.containsKey(trace)) {
+				if (input.load == null) {
+					Map<Trace, String> roots = new LinkedHashMap<>(input.expected);
+					input.load = new FutureTask<>(() -> load(owlFile, roots, metrics));
+					mine = true;
+				}
+				task = input.load;
+			}
+		}
+
+		if (task == null) {
+			// not expected: load it for this root alone
+			Map<Trace, String> roots = new LinkedHashMap<>();
+			roots.put(trace, rootIri);
+			return load(owlFile, roots, metrics).get(trace);
+		}
+
+		Map<Trace, Extracted> extracted;
+		if (mine) {
+			task.run();
+			extracted = get(task);
+		}
+		else {
+			// the time spent waiting for the other job's load
+			long wall = System.nanoTime();
+			long cpu = RunMetrics.processCpuTime();
+			extracted = get(task);
+			if (metrics != null) {
+				metrics.addPhase("load", System.nanoTime() - wall, RunMetrics.processCpuTime() - cpu);
+				metrics.count("graph_shared", 1);
+			}
+			System.out.println("Took the graph of " + rootIri + " from the load of " + owlFile + " shared with other jobs");
+		}
+		synchronized (this) {
+			take(key, trace);
+		}
+		return extracted.get(trace);
+	}
+
+	/*
+	 * The job has its graph (or doesn't need it). Once every job on a file has, its graphs can be let go.
+	 */
+	private void take(String key, Trace trace) {
+		Input input = inputs.get(key);
+		if (input != null) {
+			input.expected.remove(trace);
+			if (input.expected.isEmpty()) {
+				inputs.remove(key);
+			}
+		}
+	}
+
+	private static Map<Trace, Extracted> get(FutureTask<Map<Trace, Extracted>> task) throws OWLOntologyCreationException, IOException {
+		try {
+			return task.get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for the ontology to load", e);
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof OWLOntologyCreationException) {
+				throw (OWLOntologyCreationException) e.getCause();
+			}
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException("Failed to extract the graph", e.getCause());
+		}
+	}
+
+	/*
+	 * Times a step as a phase, if there are metrics to add it to
+	 */
+	private static <T, E extends Exception> T time(RunMetrics metrics, String name, RunMetrics.Step<T, E> step) throws E {
+		return metrics != null ? metrics.time(name, step) : step.run();
+	}
+
+	private static <E extends Exception> void time(RunMetrics metrics, String name, RunMetrics.VoidStep<E> step) throws E {
+		if (metrics != null) {
+			metrics.time(name, step);
+		}
+		else {
+			step.run();
+		}
+	}
+
+	private static String key(String owlFile) throws IOException {
+		return new File(owlFile).getCanonicalPath();
+	}
+
+	/*
+	 * Loads the file and extracts the graph of each root
+	 */
+	private Map<Trace, Extracted> load(String owlFile, Map<Trace, String> roots, RunMetrics metrics)
+			throws OWLOntologyCreationException, IOException {
+
+		List<Trace> traces = new ArrayList<>(roots.keySet());
+		List<String> rootIris = new ArrayList<>(roots.values());
+		List<UnhandledShapes> unhandled = new ArrayList<>();
+		for (int r = 0; r < traces.size(); r++) {
+			unhandled.add(new UnhandledShapes());
+		}
+
+		List<OntologyGraph> graphs;
+		if (loader.equals("rdfxml")) {
+			graphs = RdfXmlLoader.load(owlFile, rootIris, unhandled, traces, metrics);
+		}
+		else {
+			graphs = loadOwl(owlFile, rootIris, unhandled, traces, metrics);
+		}
+
+		Map<Trace, Extracted> extracted = new IdentityHashMap<>();
+		for (int r = 0; r < traces.size(); r++) {
+			extracted.put(traces.get(r), new Extracted(graphs.get(r), unhandled.get(r)));
+		}
+		return extracted;
+	}
+
+	/*
+	 * Loads the ontology with the OWLAPI and pulls out everything the flattener needs. The ontology
+	 * is let go of when this returns, so it can be collected before we flatten and write the output.
+	 */
+	private List<OntologyGraph> loadOwl(String owlFile, List<String> rootIris, List<UnhandledShapes> unhandled,
+			List<Trace> traces, RunMetrics metrics) throws OWLOntologyCreationException {
+
+		OWLOntologyManager preferred;
+		try {
+			preferred = shared != null && mayImport(owlFile) ? shared : OWLManager.createOWLOntologyManager();
+		}
+		catch (IOException e) {
+			throw new OWLOntologyCreationException("Failed to read " + owlFile, e);
+		}
+		OWLOntology ontology = time(metrics, "load", () -> loadDocument(preferred, owlFile));
+		OWLOntologyManager manager = ontology.getOWLOntologyManager();
+
+		List<OntologyGraph> extracted = extract(ontology, rootIris, unhandled, traces, metrics);
+		if (shared != null && manager == shared) {
+			manager.removeOntology(ontology);
+		}
+		else {
+			manager.clearOntologies();
+		}
+		return extracted;
+	}
+
+	/*
+	 * Loads the file with the manager, or with a manager of its own if the shared one already has it
+	 */
+	private OWLOntology loadDocument(OWLOntologyManager manager, String owlFile) throws OWLOntologyCreationException {
+		try {
+			return manager.loadOntologyFromOntologyDocument(new File(owlFile));
+		}
+		catch (OWLOntologyAlreadyExistsException | OWLOntologyDocumentAlreadyExistsException e) {
+			if (shared == null || manager != shared) {
+				throw e;
+			}
+			System.out.println(owlFile + " is already loaded by another job (or imported by one), so it's loaded on its own");
+			return OWLManager.createOWLOntologyManager().loadOntologyFromOntologyDocument(new File(owlFile));
+		}
+	}
+
+	/**
+	 * Extracts the graph of a root from an ontology that's already loaded, eg: by an application that
+	 * has its own OWLOntologyManager. See Flattener.fromOntology()
+	 *
+	 * @param unhandled where the axioms and class expressions that aren't followed are counted
+	 * @throws OWLOntologyCreationException if the root has an anonymous subclass
+	 */
+	public static OntologyGraph extract(OWLOntology ontology, String rootIri, UnhandledShapes unhandled, Trace trace)
+			throws OWLOntologyCreationException {
+		return extract(ontology, Collections.singletonList(rootIri), Collections.singletonList(unhandled),
+				Collections.singletonList(trace), null).get(0);
+	}
+
+	/*
+	 * Pulls the graph of each root out of the ontology. The graphs share their labels
+	 */
+	private static List<OntologyGraph> extract(OWLOntology ontology, List<String> rootIris, List<UnhandledShapes> unhandled,
+			List<Trace> traces, RunMetrics metrics) throws OWLOntologyCreationException {
+
+		List<ParentEdgeIndex> edgeSets = new ArrayList<>();
+		for (int r = 0; r < rootIris.size(); r++) {
+			String rootIri = rootIris.get(r);
+			Trace trace = traces.get(r);
+			Set<String> excludeIds = new HashSet<>();
+			time(metrics, "root_children", () -> {
+				for (OWLClass oci : getDirectRootChildren(ontology, rootIri, trace)) {
+					excludeIds.add(oci.getIRI().getRemainder().get());
+				}
+			});
+			UnhandledShapes shapes = unhandled.get(r);
+			ParentEdgeIndex parentEdgeIndex = time(metrics, "edges", () -> ParentEdgeIndex.build(ontology, rootIri, excludeIds, shapes, trace));
+			parentEdgeIndex.describeEdges();
+			edgeSets.add(parentEdgeIndex);
+		}
+
+		final String DEFINITION = time(metrics, "definition_property", () -> OWLUtil.getAnnotationThatSignifiesDefinition(ontology));
+
+		return time(metrics, "graph", () -> OntologyGraph.fromOntology(ontology, edgeSets, DEFINITION));
+	}
+
+	/*
+	 * Whether the file imports other ontologies. It's taken to unless it can be shown not to: it has to be in
+	 * one of the text syntaxes the OWLAPI reads (RDF/XML, OWL/XML, Turtle or N-Triples, functional, Manchester,
+	 * OBO) and have no import in any of them, whatever prefix the OWL namespace is bound to. It reads the
+	 * whole file, as RDF can state an import anywhere in it. A snapshot doesn't import anything. It decides
+	 * whether the load goes through the shared manager, and whether a GraphCache can be used
+	 */
+	static boolean mayImport(String owlFile) throws IOException {
+		if (Snapshot.isSnapshot(owlFile)) {
+			return false;
+		}
+		try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(owlFile), StandardCharsets.UTF_8), 1024 * 1024)) {
+			String line;
+			boolean checkable = false;
+			while ((line = in.readLine()) != null) {
+				if (!checkable) {
+					String start = line.replace("\uFEFF", "").trim();
+					if (start.isEmpty() || start.startsWith("#") || start.startsWith("!")) {
+						continue;
+					}
+					if (!SYNTAXES.matcher(start).lookingAt() || start.indexOf('\0') >= 0) {
+						return true;
+					}
+					checkable = true;
+				}
+				if (line.contains("mport") && IMPORTS.matcher(line).find()) {
+					return true;
+				}
+			}
+			return !checkable;
+		}
+	}
+
+	/*
+	 * Due to certain circumstances that I do not fully understand, we have chosen to
+	 * exclude axioms on the set of disease terms that are direct children of the root
+	 * node. I believe this was bringing in too many IRIs.
+	 */
+	private static Set<OWLClass> getDirectRootChildren(OWLOntology ontology, String rootIri, Trace trace)
+			throws OWLOntologyCreationException {
+
+		IRI iri = IRI.create(rootIri);
+
+		OWLClass root = ontology.getOWLOntologyManager().getOWLDataFactory().getOWLClass(iri);
+		trace.log(() -> "Identified root node\n" + root);
+
+		Set<OWLClassExpression> oces = EntitySearcher.getSubClasses(root, ontology).collect(Collectors.toSet());
+		Set<OWLClass> classes = new HashSet<>();
+
+		for (OWLClassExpression oce : oces) {
+			if (!oce.isAnonymous()) {
+				classes.add(oce.asOWLClass());
+			}
+			else {
+				throw new OWLOntologyCreationException("Expected all children of root to be an OWLClass, found: " + oce);
+			}
+		}
+
+		return classes;
+	}
+
+	/**
+	 * Lets go of the imports the batch loaded
+	 */
+	public void close() {
+		if (shared != null) {
+			shared.clearOntologies();
+		}
+	}
+}
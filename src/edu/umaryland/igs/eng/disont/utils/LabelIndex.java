@@ -0,0 +1,298 @@
+package edu.umaryland.igs.eng.disont.utils;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToIntFunction;
+
+import org.semanticweb.owlapi.model.AxiomType;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLAnnotation;
+import org.semanticweb.owlapi.model.OWLAnnotationAssertionAxiom;
+import org.semanticweb.owlapi.model.OWLOntology;
+
+/**
+ *
+ * Labels, names, definitions and obsolete flags for every class in an OntologyGraph,
+ * keyed by the class' interned id.
+ *
+ * The same UBERON or NCBITaxon label used to be resolved with EntitySearcher.getAnnotations
+ * thousands of times per run, once for every disease it was flattened into. Here the
+ * annotation assertion axioms are read once and the rules are applied once:
+ *
+ *   - label: the rdfs:label, used as the facet value
+ *   - name: the rdfs:label that doesn't start with "obsolete ". Diseases without one are skipped
+ *   - obsolete: the class has an owl:deprecated annotation, or a label that starts with "obsolete "
+ *   - definition: the value of the definition annotation property
+ *
+ * When a class has more than one label (or definition) the smallest is kept. The OWLAPI hands
+ * annotations over in hash order and the RdfXmlLoader in document order, so taking the first
+ * or the last would make the result depend on the loader.
+ *
+ * The distinct labels are kept once, in a table sorted by the label, and every class with a
+ * label refers to its entry by a label id. Documents hold their facet values as label ids:
+ * sorting the ids sorts the labels, and two classes with the same label have the same id, so
+ * a document's values can be put in a stable order and rid of duplicates without comparing
+ * strings (see sortDistinct()). The table isn't written; it's rebuilt when the index is read.
+ *
+ */
+public class LabelIndex {
+
+	private final String[] labels;
+	private final String[] names;
+	private final String[] definitions;
+	private final BitSet obsolete;
+
+	// the distinct labels, sorted, and the label id (index into labelTable) of every class, or -1
+	private final String[] labelTable;
+	private final int[] labelIds;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	private LabelIndex(String[] labels, String[] names, String[] definitions, BitSet obsolete) {
+		this.labels = labels;
+		this.names = names;
+		this.definitions = definitions;
+		this.obsolete = obsolete;
+		this.labelTable = tableOf(labels);
+		this.labelIds = idsOf(labels, labelTable);
+	}
+
+	private LabelIndex(Builder b, int size) {
+		this(Arrays.copyOf(b.labels, size), Arrays.copyOf(b.names, size), Arrays.copyOf(b.definitions, size), b.obsolete);
+	}
+
+	/*
+	 * The distinct labels, sorted
+	 */
+	private static String[] tableOf(String[] labels) {
+		String[] table = Arrays.stream(labels).filter(Objects::nonNull).distinct().toArray(String[]::new);
+		Arrays.sort(table);
+		return table;
+	}
+
+	/*
+	 * The label id of every class. Also swaps each label for its table entry, so a label is only kept once.
+	 */
+	private static int[] idsOf(String[] labels, String[] table) {
+		Map<String, Integer> ids = new HashMap<>(table.length * 2);
+		for (int l = 0; l < table.length; l++) {
+			ids.put(table[l], l);
+		}
+		int[] labelIds = new int[labels.length];
+		for (int id = 0; id < labels.length; id++) {
+			labelIds[id] = labels[id] == null ? -1 : ids.get(labels[id]);
+			if (labelIds[id] >= 0) {
+				labels[id] = table[labelIds[id]];
+			}
+		}
+		return labelIds;
+	}
+
+	/**
+	 * @return the rdfs:label, used as the facet value
+	 */
+	public String getLabel(int id) {
+		return count(labels[id]);
+	}
+
+	/**
+	 * @return the id of the class' rdfs:label in the label table, or -1 if it has none
+	 */
+	public int getLabelId(int id) {
+		int labelId = labelIds[id];
+		if (labelId < 0) {
+			misses.increment();
+		}
+		else {
+			hits.increment();
+		}
+		return labelId;
+	}
+
+	/**
+	 * @param labelId a label id, or -1
+	 * @return the label, or null for -1
+	 */
+	public String getLabelById(int labelId) {
+		return labelId < 0 ? null : labelTable[labelId];
+	}
+
+	/**
+	 * @return the number of distinct labels
+	 */
+	public int getLabelCount() {
+		return labelTable.length;
+	}
+
+	/**
+	 * Sorts values[0 .. size) of label ids (-1 first, then in label order) and drops the duplicates
+	 *
+	 * @return how many distinct values are left at the start of the array
+	 */
+	public static int sortDistinct(int[] values, int size) {
+		Arrays.sort(values, 0, size);
+		int distinct = 0;
+		for (int v = 0; v < size; v++) {
+			if (distinct == 0 || values[v] != values[distinct - 1]) {
+				values[distinct++] = values[v];
+			}
+		}
+		return distinct;
+	}
+
+	/**
+	 * @return the label that doesn't mark the class as obsolete, or null
+	 */
+	public String getName(int id) {
+		return count(names[id]);
+	}
+
+	public String getDefinition(int id) {
+		return definitions[id];
+	}
+
+	public boolean isObsolete(int id) {
+		return obsolete.get(id);
+	}
+
+	/**
+	 * Writes the labels, names, definitions and obsolete flags. See read()
+	 */
+	public void write(DataOutputStream out) throws IOException {
+		for (int id = 0; id < labels.length; id++) {
+			BinaryFile.writeString(out, labels[id]);
+			// the name is almost always the label
+			boolean nameIsLabel = names[id] != null && names[id].equals(labels[id]);
+			out.writeBoolean(nameIsLabel);
+			if (!nameIsLabel) {
+				BinaryFile.writeString(out, names[id]);
+			}
+			BinaryFile.writeString(out, definitions[id]);
+		}
+		BinaryFile.writeLongs(out, obsolete.toLongArray());
+	}
+
+	/**
+	 * @param size the number of classes written
+	 */
+	public static LabelIndex read(ByteBuffer in, int size) {
+		String[] labels = new String[size];
+		String[] names = new String[size];
+		String[] definitions = new String[size];
+		for (int id = 0; id < size; id++) {
+			labels[id] = BinaryFile.readString(in);
+			names[id] = in.get() != 0 ? labels[id] : BinaryFile.readString(in);
+			definitions[id] = BinaryFile.readString(in);
+		}
+		return new LabelIndex(labels, names, definitions, BitSet.valueOf(BinaryFile.readLongs(in)));
+	}
+
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+	private String count(String value) {
+		if (value == null) {
+			misses.increment();
+		}
+		else {
+			hits.increment();
+		}
+		return value;
+	}
+
+	/**
+	 * Applies the label rules as annotations come in, in whatever order the loader finds them.
+	 */
+	public static class Builder {
+
+		private String[] labels = new String[1024];
+		private String[] names = new String[1024];
+		private String[] definitions = new String[1024];
+		private final BitSet obsolete = new BitSet();
+
+		/**
+		 * Reads every annotation assertion axiom of the ontology once. Subjects that ids doesn't know (returns -1 for) are skipped.
+		 *
+		 * @param definitionProperty the remainder of the annotation property that holds definitions (see OWLUtil)
+		 */
+		public void addAnnotations(OWLOntology ontology, ToIntFunction<IRI> ids, String definitionProperty) {
+			ontology.axioms(AxiomType.ANNOTATION_ASSERTION).forEach(aaa -> {
+				if (!aaa.getSubject().isIRI()) {
+					return;
+				}
+				int id = ids.applyAsInt((IRI) aaa.getSubject());
+				if (id >= 0) {
+					addAnnotation(id, aaa, definitionProperty);
+				}
+			});
+		}
+
+		private void addAnnotation(int id, OWLAnnotationAssertionAxiom aaa, String definitionProperty) {
+			OWLAnnotation an = aaa.getAnnotation();
+			if (an.getProperty().isDeprecated()) {
+				setObsolete(id);
+			}
+			else if (an.getProperty().isLabel()) {
+				if (an.getValue().literalValue().isPresent()) {
+					addLabel(id, an.getValue().literalValue().get().getLiteral());
+				}
+			}
+			else if (an.getValue().literalValue().isPresent()
+					&& an.getProperty().getIRI().getRemainder().isPresent()
+					&& an.getProperty().getIRI().getRemainder().get().equals(definitionProperty)) {
+				addDefinition(id, an.getValue().literalValue().get().getLiteral());
+			}
+		}
+
+		public void addLabel(int id, String label) {
+			ensureCapacity(id);
+			labels[id] = smallest(labels[id], label);
+			if (label.startsWith("obsolete ")) {
+				obsolete.set(id);
+			}
+			else {
+				// capture the name
+				names[id] = smallest(names[id], label);
+			}
+		}
+
+		public void addDefinition(int id, String definition) {
+			ensureCapacity(id);
+			definitions[id] = smallest(definitions[id], definition);
+		}
+
+		private static String smallest(String current, String value) {
+			return current == null || value.compareTo(current) < 0 ? value : current;
+		}
+
+		public void setObsolete(int id) {
+			obsolete.set(id);
+		}
+
+		private void ensureCapacity(int id) {
+			if (id >= labels.length) {
+				int capacity = Math.max(labels.length * 2, id + 1);
+				labels = Arrays.copyOf(labels, capacity);
+				names = Arrays.copyOf(names, capacity);
+				definitions = Arrays.copyOf(definitions, capacity);
+			}
+		}
+
+		public LabelIndex build(int size) {
+			return new LabelIndex(this, size);
+		}
+	}
+}
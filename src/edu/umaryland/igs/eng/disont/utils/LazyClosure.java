@@ -0,0 +1,123 @@
+package edu.umaryland.igs.eng.disont.utils;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ *
+ * The same ancestor sets as ClosureEngine, computed as they're asked for instead of for every
+ * class up front, for looking up a few terms (see Flattener).
+ *
+ * Asking for a class runs Tarjan's algorithm from it, but it doesn't go into any class whose set
+ * is already known: it only walks the part of the class's ancestry that hasn't been flattened
+ * yet. The components it finds are flattened as Tarjan hands them back, parents first, exactly
+ * as in ClosureEngine, and every member's set is kept. A component is always flattened whole, so
+ * one that's known can't share a cycle with one that isn't, and the sets come out the same as
+ * ClosureEngine's however the classes are asked for.
+ *
+ * Thread safe: a set that's known is returned straight away, and the rest are computed one
+ * search at a time.
+ *
+ */
+public class LazyClosure {
+
+	private static final int[] NONE = new int[0];
+
+	private final OntologyGraph graph;
+	private final AtomicReferenceArray<int[]> ancestors;
+
+	// only used while holding the lock
+	private final ClosureEngine.Tarjan tarjan;
+	// componentOf[m] == the stamp of the component being flattened once m is one of its members, mark[a] once a is in its set
+	private final int[] componentOf;
+	private final int[] mark;
+	private int[] buffer = new int[64];
+	private int stamp = 0;
+
+	private long componentCount = 0;
+
+	public LazyClosure(OntologyGraph graph) {
+		this.graph = graph;
+		int n = graph.size();
+		this.ancestors = new AtomicReferenceArray<>(n);
+		this.tarjan = new ClosureEngine.Tarjan(graph);
+		this.componentOf = new int[n];
+		this.mark = new int[n];
+		Arrays.fill(componentOf, -1);
+		Arrays.fill(mark, -1);
+	}
+
+	/**
+	 * @return the flattened ancestors of this class, sorted by id. Shared with the rest of its cycle, so don't modify it.
+	 */
+	public int[] getAncestors(int id) {
+		int[] known = ancestors.get(id);
+		if (known != null) {
+			return known;
+		}
+		synchronized (this) {
+			if (ancestors.get(id) == null) {
+				tarjan.run(new int[] {id}, c -> ancestors.get(c) != null, this::flatten);
+			}
+		}
+		return ancestors.get(id);
+	}
+
+	/**
+	 * @return how many components have been flattened so far
+	 */
+	public synchronized long getComponentCount() {
+		return componentCount;
+	}
+
+	/*
+	 * Computes the ancestor set of one component, the way ClosureEngine does. Its parents outside it are all known.
+	 */
+	private void flatten(int[] members, int size) {
+		int id = stamp++;
+		for (int k = 0; k < size; k++) {
+			componentOf[members[k]] = id;
+		}
+		int[] set = buffer;
+		int count = 0;
+		for (int k = 0; k < size; k++) {
+			int m = members[k];
+			for (int e = graph.getParentStart(m); e < graph.getParentEnd(m); e++) {
+				int p = graph.getParentTarget(e);
+				// a parent inside this same component: its ancestors are the set we're building
+				int[] inherited = componentOf[p] == id ? NONE : ancestors.get(p);
+				if (count + inherited.length + 1 > set.length) {
+					set = Arrays.copyOf(set, Math.max(set.length * 2, count + inherited.length + 1));
+				}
+				if (mark[p] != id) {
+					mark[p] = id;
+					set[count++] = p;
+				}
+				for (int a : inherited) {
+					if (mark[a] != id) {
+						mark[a] = id;
+						set[count++] = a;
+					}
+				}
+			}
+			for (int e = graph.getAnnotationStart(m); e < graph.getAnnotationEnd(m); e++) {
+				int a = graph.getAnnotationTarget(e);
+				if (count + 1 > set.length) {
+					set = Arrays.copyOf(set, set.length * 2);
+				}
+				if (mark[a] != id) {
+					mark[a] = id;
+					set[count++] = a;
+				}
+			}
+		}
+		buffer = set;
+
+		int[] sorted = count == 0 ? NONE : Arrays.copyOf(set, count);
+		Arrays.sort(sorted);
+		for (int k = 0; k < size; k++) {
+			ancestors.set(members[k], sorted);
+		}
+		componentCount += 1;
+	}
+}
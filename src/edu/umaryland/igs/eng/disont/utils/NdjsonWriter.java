@@ -0,0 +1,338 @@
+package edu.umaryland.igs.eng.disont.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ *
+ * Writes Elasticsearch bulk NDJSON: a {"create":{}} action line followed by the document,
+ * for every document.
+ *
+ * JSON is escaped and encoded as UTF-8 straight into a reusable byte buffer, so writing a
+ * document doesn't build a Map or any intermediate Strings. A writer opened on a file
+ * flushes the buffer to a FileChannel in large blocks. A writer created with the no-arg
+ * constructor only buffers; that's how documents are assembled on worker threads before
+ * being copied, in order, into the file writer with write(NdjsonWriter).
+ *
+ * Usage:
+ *   beginDocument(), then key(name) followed by string(value) or beginArray() / string(...) / endArray(),
+ *   then endDocument()
+ *
+ * beginObject() / endObject() write a plain JSON object with no action line, eg: a manifest.
+ *
+ */
+public class NdjsonWriter implements Closeable {
+
+	static final byte[] CREATE = "{\"create\":{}}\n".getBytes(StandardCharsets.UTF_8);
+	private static final byte[] NULL = "null".getBytes(StandardCharsets.UTF_8);
+	private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.UTF_8);
+
+	private static final int FLUSH_SIZE = 4 * 1024 * 1024;
+
+	private final FileChannel channel;
+	private byte[] buffer;
+	private int length = 0;
+	private long flushed = 0;
+
+	// where each buffered document (its action line) starts
+	private int[] documentStarts = new int[64];
+	private int documentCount = 0;
+
+	// true while nothing has been written in the current object or array, ie: the next value doesn't need a comma
+	private boolean first = true;
+
+	/**
+	 * An in memory writer. Use getBytes() / write(NdjsonWriter) to get at what was written.
+	 */
+	public NdjsonWriter() {
+		this.channel = null;
+		this.buffer = new byte[64 * 1024];
+	}
+
+	private NdjsonWriter(FileChannel channel) {
+		this.channel = channel;
+		this.buffer = new byte[FLUSH_SIZE + 64 * 1024];
+	}
+
+	/**
+	 * Opens (and truncates) a file to write to.
+	 */
+	public static NdjsonWriter open(String file) throws IOException {
+		return new NdjsonWriter(FileChannel.open(Paths.get(file),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING));
+	}
+
+	public void beginDocument() {
+		if (documentCount == documentStarts.length) {
+			documentStarts = Arrays.copyOf(documentStarts, documentCount * 2);
+		}
+		documentStarts[documentCount++] = length;
+		raw(CREATE);
+		beginObject();
+	}
+
+	public void endDocument() throws IOException {
+		endObject();
+		raw('\n');
+		first = true;
+		maybeFlush();
+	}
+
+	/**
+	 * Writes a bulk action line naming the document's id, eg: {"delete":{"_id":"DOID_4"}}
+	 */
+	public void action(String action, String id) throws IOException {
+		beginObject();
+		key(action);
+		beginObject();
+		key("_id");
+		string(id);
+		endObject();
+		endObject();
+		raw('\n');
+		first = true;
+		maybeFlush();
+	}
+
+	/**
+	 * Copies bytes that are already encoded, eg: a document's source line from a DocumentBatch
+	 */
+	public void write(byte[] bytes, int from, int to) throws IOException {
+		ensure(to - from);
+		System.arraycopy(bytes, from, buffer, length, to - from);
+		length += to - from;
+		maybeFlush();
+	}
+
+	public void beginObject() {
+		separator();
+		raw('{');
+		first = true;
+	}
+
+	public void endObject() {
+		raw('}');
+		first = false;
+	}
+
+	public void key(String name) {
+		separator();
+		raw('"');
+		escape(name, -1);
+		raw('"');
+		raw(':');
+		first = true;
+	}
+
+	public void beginArray() {
+		separator();
+		raw('[');
+		first = true;
+	}
+
+	public void endArray() {
+		raw(']');
+		first = false;
+	}
+
+	/**
+	 * Writes a string value, or null
+	 */
+	public void string(String value) {
+		if (value == null) {
+			separator();
+			raw(NULL);
+			return;
+		}
+		beginString();
+		escape(value, -1);
+		endString();
+	}
+
+	public void number(long value) {
+		separator();
+		raw(Long.toString(value).getBytes(StandardCharsets.US_ASCII));
+	}
+
+	/**
+	 * Starts a string value that's written in pieces with append()
+	 */
+	public void beginString() {
+		separator();
+		raw('"');
+	}
+
+	public void append(String s) {
+		escape(s, -1);
+	}
+
+	/**
+	 * Appends s to the current string, leaving out every occurrence of skip
+	 */
+	public void append(String s, char skip) {
+		escape(s, skip);
+	}
+
+	public void endString() {
+		raw('"');
+	}
+
+	/**
+	 * Copies everything another (in memory) writer has buffered
+	 */
+	public void write(NdjsonWriter other) throws IOException {
+		ensure(other.length);
+		System.arraycopy(other.buffer, 0, buffer, length, other.length);
+		length += other.length;
+		maybeFlush();
+	}
+
+	public byte[] getBytes() {
+		return Arrays.copyOf(buffer, length);
+	}
+
+	/**
+	 * @return the buffered documents, with the id of each, as a batch for a DocumentSink
+	 */
+	public DocumentBatch toBatch(String[] ids) {
+		int[] offsets = Arrays.copyOf(documentStarts, documentCount + 1);
+		offsets[documentCount] = length;
+		return new DocumentBatch(getBytes(), offsets, ids);
+	}
+
+	public int getDocumentCount() {
+		return documentCount;
+	}
+
+	/**
+	 * Discards what's been buffered, keeping the buffer for reuse
+	 */
+	public void reset() {
+		length = 0;
+		documentCount = 0;
+		first = true;
+	}
+
+	/**
+	 * @return the number of bytes written so far, flushed or not
+	 */
+	public long getByteCount() {
+		return flushed + length;
+	}
+
+	public void flush() throws IOException {
+		if (channel == null || length == 0) {
+			return;
+		}
+		ByteBuffer bb = ByteBuffer.wrap(buffer, 0, length);
+		while (bb.hasRemaining()) {
+			channel.write(bb);
+		}
+		flushed += length;
+		length = 0;
+		documentCount = 0;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (channel != null) {
+			flush();
+			channel.close();
+		}
+	}
+
+	private void maybeFlush() throws IOException {
+		if (channel != null && length >= FLUSH_SIZE) {
+			flush();
+		}
+	}
+
+	private void separator() {
+		if (!first) {
+			raw(',');
+		}
+		first = false;
+	}
+
+	private void raw(char c) {
+		ensure(1);
+		buffer[length++] = (byte) c;
+	}
+
+	private void raw(byte[] bytes) {
+		ensure(bytes.length);
+		System.arraycopy(bytes, 0, buffer, length, bytes.length);
+		length += bytes.length;
+	}
+
+	private void ensure(int extra) {
+		if (length + extra > buffer.length) {
+			buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + extra));
+		}
+	}
+
+	/*
+	 * JSON escapes s and encodes it as UTF-8. Unpaired surrogates are written as '?', as a CharsetEncoder would.
+	 */
+	private void escape(String s, int skip) {
+		int n = s.length();
+		// at most 6 bytes per char (\\u00XX), and a surrogate pair is 2 chars for 4 bytes
+		ensure(n * 6);
+		byte[] b = buffer;
+		int pos = length;
+		for (int i = 0; i < n; i++) {
+			char c = s.charAt(i);
+			if (c == skip) {
+				continue;
+			}
+			if (c >= 0x20 && c < 0x80) {
+				if (c == '"' || c == '\\') {
+					b[pos++] = '\\';
+				}
+				b[pos++] = (byte) c;
+			}
+			else if (c < 0x20) {
+				b[pos++] = '\\';
+				switch (c) {
+				case '\n': b[pos++] = 'n'; break;
+				case '\r': b[pos++] = 'r'; break;
+				case '\t': b[pos++] = 't'; break;
+				case '\b': b[pos++] = 'b'; break;
+				case '\f': b[pos++] = 'f'; break;
+				default:
+					b[pos++] = 'u';
+					b[pos++] = '0';
+					b[pos++] = '0';
+					b[pos++] = HEX[c >> 4];
+					b[pos++] = HEX[c & 0xF];
+				}
+			}
+			else if (c < 0x800) {
+				b[pos++] = (byte) (0xC0 | (c >> 6));
+				b[pos++] = (byte) (0x80 | (c & 0x3F));
+			}
+			else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+				int cp = Character.toCodePoint(c, s.charAt(++i));
+				b[pos++] = (byte) (0xF0 | (cp >> 18));
+				b[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+				b[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+				b[pos++] = (byte) (0x80 | (cp & 0x3F));
+			}
+			else if (Character.isSurrogate(c)) {
+				b[pos++] = '?';
+			}
+			else {
+				b[pos++] = (byte) (0xE0 | (c >> 12));
+				b[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+				b[pos++] = (byte) (0x80 | (c & 0x3F));
+			}
+		}
+		length = pos;
+	}
+}
@@ -1,50 +1,25 @@
 package edu.umaryland.igs.eng.disont.utils;
 
-import edu.umaryland.igs.eng.disont.utils.OWLUtil;
-
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.Deque;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import java.util.Optional;
-import java.util.Set;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
-import org.apache.commons.lang3.StringEscapeUtils;
-import org.semanticweb.owlapi.apibinding.OWLManager;
-import org.semanticweb.owlapi.model.IRI;
-import org.semanticweb.owlapi.model.OWLAnnotation;
-import org.semanticweb.owlapi.model.OWLAnnotationAssertionAxiom;
-import org.semanticweb.owlapi.model.OWLAxiom;
-import org.semanticweb.owlapi.model.OWLClass;
-import org.semanticweb.owlapi.model.OWLClassExpression;
-import org.semanticweb.owlapi.model.OWLEquivalentClassesAxiom;
-import org.semanticweb.owlapi.model.OWLOntology;
 import org.semanticweb.owlapi.model.OWLOntologyCreationException;
-import org.semanticweb.owlapi.model.OWLOntologyManager;
-import org.semanticweb.owlapi.model.OWLSubClassOfAxiom;
-import org.semanticweb.owlapi.search.EntitySearcher;
-
-import uk.ac.manchester.cs.owl.owlapi.OWLClassImpl;
-import uk.ac.manchester.cs.owl.owlapi.OWLDeclarationAxiomImpl;
-import uk.ac.manchester.cs.owl.owlapi.OWLEquivalentClassesAxiomImpl;
-import uk.ac.manchester.cs.owl.owlapi.OWLObjectExactCardinalityImpl;
-import uk.ac.manchester.cs.owl.owlapi.OWLObjectIntersectionOfImpl;
-import uk.ac.manchester.cs.owl.owlapi.OWLObjectMinCardinalityImpl;
-import uk.ac.manchester.cs.owl.owlapi.OWLObjectSomeValuesFromImpl;
-import uk.ac.manchester.cs.owl.owlapi.OWLObjectUnionOfImpl;
-import uk.ac.manchester.cs.owl.owlapi.OWLSubClassOfAxiomImpl;
-
-import org.json.simple.JSONObject;
-import org.json.simple.JSONArray;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -69,570 +44,706 @@ import org.apache.commons.cli.ParseException;
 public class OWLFlattener {
 
 
-	private static String ROOT_IRI = null;
-	private OWLOntology ontology = null;
-	private Set<OWLClassImpl> excludeSet = null;
+	// classes per unit of work when assembling documents
+	private static final int CHUNK_SIZE = 512;
 	
-	private Set<String> unhandledTypes = new HashSet<>();
+	// the root, the output and everything else the command line says about this run
+	private final FlattenerConfig config;
 	
-	private String inputFile = null;
+	// loads the input, or in a batch takes its graph from a load shared with other jobs
+	private final GraphLoader loader;
 	
-	private static boolean DEBUG = false;
-
-	// PUT IDs into the TRACE_IDS array and set TRACE_MODE = true in order to only see output about specific terms.
-	private static boolean TRACE_MODE = false;
-	private static String[] TRACE_IDS = null; //eg: new String[] {"DOID_0001816"};
-
-			
+	private OntologyGraph graph = null;
+	private LabelIndex labels = null;
+	private FacetRouter facetRouter = null;
+	private short[] facets = null;
+	
+	// the axioms and class expressions that weren't followed, by shape
+	private UnhandledShapes unhandled = new UnhandledShapes();
+	
+	private String inputFile = null;
 
-	private Map<OWLClass, Boolean> axiomParentsComplete = new HashMap<>();
-	private Map<OWLClass, Set<OWLClass>> allParentsMap = new HashMap<>();
-	private Set<String> parentStack = new HashSet<String>();
+	private ClosureEngine closure = null;
+	
+	// with --cache: the cache next to the input file, and whether it needs writing once we're done with it
+	private GraphCache cache = null;
+	private boolean cacheStale = false;
+	
+	// phase timings and counters; in incremental mode both releases add to the same metrics
+	private final RunMetrics metrics;
+	
+	// debug logging, and the traced terms (--trace) with the axioms behind the edges they reach
+	private Trace trace = Trace.OFF;
+	
+	// when serving: the class of each IRI remainder, see prepareToServe()
+	private Map<String, Integer> terms = null;
+	
+	/**
+	 * @throws FileNotFoundException if the input file isn't there, or can't be read
+	 */
+	public OWLFlattener(String owlFilename, FlattenerConfig config) throws FileNotFoundException {
+		this(owlFilename, config, new GraphLoader(config.getLoader()));
+	}
+	
+	/**
+	 * @param loader the loader shared by a batch's jobs, see Batch
+	 * @throws FileNotFoundException if the input file isn't there, or can't be read
+	 */
+	public OWLFlattener(String owlFilename, FlattenerConfig config, GraphLoader loader) throws FileNotFoundException {
+		this(owlFilename, config, loader, new RunMetrics());
+	}
 	
-	public OWLFlattener(String owlFilename) throws OWLOntologyCreationException {
+	/*
+	 * @param metrics the metrics to add to, eg: the current release's, for the previous one
+	 */
+	private OWLFlattener(String owlFilename, FlattenerConfig config, GraphLoader loader, RunMetrics metrics) throws FileNotFoundException {
 		File infile = new File(owlFilename);
 		if (!infile.isFile()) {
-			System.err.println("Failed to find input file: " + owlFilename);
-			System.exit(1);
+			throw new FileNotFoundException("Failed to find input file: " + owlFilename);
 		}
 		if (!infile.canRead()) {
-			System.err.println("Input file does not have read permission: " + owlFilename);
-			System.exit(1);
+			throw new FileNotFoundException("Input file does not have read permission: " + owlFilename);
 		}
 		
 		this.inputFile = owlFilename;
+		this.config = config;
+		this.loader = loader;
+		this.metrics = metrics;
+		this.trace = new Trace(config.isDebug(), config.getTraceIds());
 		
 	}
 	
-	private String getIdFromOWLClass(OWLClass c) {
-		Optional<String> idOpt = c.getIRI().getRemainder();
-		if (idOpt.isPresent()) {
-			String id = idOpt.get();
+	/*
+	 * A flattener over a graph that's already been extracted and flattened, for the benchmarks
+	 */
+	OWLFlattener(OntologyGraph graph, ClosureEngine closure, FacetRouter facetRouter) {
+		this.config = FlattenerConfig.builder().build();
+		this.loader = null;
+		this.metrics = new RunMetrics();
+		this.graph = graph;
+		this.labels = graph.getLabels();
+		this.closure = closure;
+		this.facetRouter = facetRouter;
+		this.facets = facetRouter.route(graph, this.labels);
+	}
+	
+	String getInputFile() {
+		return inputFile;
+	}
+	
+	FlattenerConfig getConfig() {
+		return config;
+	}
+	
+	Trace getTrace() {
+		return trace;
+	}
+	
+	private String getIdFromOWLClass(int c) {
+		String id = graph.getRemainder(c);
+		if (!id.isEmpty()) {
 			id = id.replaceFirst("_", ":");
 			return id;
 		}
 		return null;
 	}
 	
-	private String getOWLClassName(OWLClass clazz, OWLOntology ontology) {
-		Stream<OWLAnnotation> annotationStream = EntitySearcher.getAnnotations(clazz, ontology);
-		Set<OWLAnnotation> classAnnotations = annotationStream.collect(Collectors.toSet());
+	private String getOWLClassName(int clazz) {
+		return labels.getName(clazz);
+	}
 	
-		for (OWLAnnotation an : classAnnotations) {
-			
-			if (!an.getProperty().isDeprecated() && 
-					an.getProperty().isLabel() &&
-					!(an.getValue().literalValue().isPresent()
-						&& an.getValue().literalValue().get().getLiteral().startsWith("obsolete ")))
-			{
-				
-					return an.getValue().literalValue().get().getLiteral();
+	
+	private String getLabel(int oc) {
+		return labels.getLabel(oc);
+	}
+	
+	private int[] getAllParentAxioms(int c, boolean verbose) {
+		
+		// The closure is computed for every class up front. With debug on, or if this term is
+		// traced, show what it flattened to. It's one message, so it isn't split up by another thread's.
+		int[] parents = closure.getAncestors(c);
+		
+		if (verbose) {
+			StringBuilder message = new StringBuilder("Parents for: " + graph.getIri(c));
+			if (parents.length == 0) {
+				message.append("\nNo parents found");
 			}
+			for (int i : parents) {
+				message.append("\n" + graph.getIri(i) + "(" + getLabel(i) + ")");
+			}
+			System.out.println(message);
 		}
-		return null;
+		
+		return parents;
 	}
 	
-	
-	private List<IRI> getIriFromOce(OWLClassExpression oce) {
-		
-		List<IRI> iris = new ArrayList<>();
+	/*
+	 * Everything before flattening: extracts the graph and works out the facet of every class
+	 */
+	private void prepare() throws OWLOntologyCreationException, IOException {
 		
-		if (oce instanceof OWLObjectSomeValuesFromImpl) {
-				
-			OWLObjectSomeValuesFromImpl oosvfi = (OWLObjectSomeValuesFromImpl)oce;
-			
-			if (oosvfi.getFiller() instanceof OWLClassImpl) {
-				iris.add(((OWLClassImpl) oosvfi.getFiller()).getIRI());
+		if (config.isUseCache()) {
+			this.cache = GraphCache.forOwl(this.inputFile, config.getRootIri(), config.getCacheFile());
+			boolean hit = metrics.time("load", this.cache::load);
+			if (hit) {
+				System.out.println("Read the graph" + (this.cache.getClosure() != null ? " and closure" : "") + " from the cache: " + this.cache.getFile().getPath());
+				this.graph = this.cache.getGraph();
+				this.closure = this.cache.getClosure();
+				this.unhandled = this.cache.getUnhandled();
+				metrics.count("graph_cache_hits", 1);
+				metrics.count("closure_from_cache", this.closure != null ? 1 : 0);
+				loader.unexpect(this.inputFile, this.trace);
+			}
+			else if (this.cache.isRefused()) {
+				this.cache = null;
+				metrics.count("graph_cache_refused", 1);
 			}
 			else {
-				iris.addAll(getIriFromOce(oosvfi.getFiller()));
+				this.cacheStale = true;
+				metrics.count("graph_cache_misses", 1);
 			}
 		}
-		else if (oce instanceof OWLClassImpl) {
-			OWLClassImpl oci = (OWLClassImpl) oce;
-			iris.add(oci.getIRI());
+		if (this.graph == null) {
+			this.graph = extract();
 		}
-		else if (oce instanceof OWLObjectMinCardinalityImpl) {
-			OWLObjectMinCardinalityImpl oomc = (OWLObjectMinCardinalityImpl)oce;
-			iris.addAll(getIriFromOce(oomc.getFiller()));
+        this.labels = graph.getLabels();
+        metrics.count("classes", graph.size());
+        metrics.count("parent_edges", graph.getEdgeCount());
+        
+        metrics.time("facets", () -> {
+        	this.facetRouter = config.getFacetConfig() == null ? FacetRouter.loadDefault() : FacetRouter.load(config.getFacetConfig());
+        	this.facets = facetRouter.route(graph, labels);
+        });
+        System.out.println("Extracted " + graph.size() + " classes and " + graph.getEdgeCount() + " parent edges from " + this.inputFile);
+	}
+	
+	public void parse() throws OWLOntologyCreationException, IOException {
+		
+		if (config.getPreviousOwl() != null) {
+			parseIncremental(config.getPreviousOwl());
+			return;
 		}
-		else if (oce instanceof OWLObjectIntersectionOfImpl) {
-			OWLObjectIntersectionOfImpl ooioi = (OWLObjectIntersectionOfImpl)oce;
-			
-			Set<OWLClassExpression> oces = ooioi.getOperands();
-			for (OWLClassExpression o : oces) {
-				iris.addAll(getIriFromOce(o));
-			}
+
+		prepare();
+		writeSnapshot();
+        
+        ForkJoinPool pool = config.getThreads() > 1 ? new ForkJoinPool(config.getThreads()) : null;
+        if (this.closure == null) {
+        	computeClosure(null, pool);
+        	System.out.println("Flattened " + this.closure.getComponentCount() + " components (" 
+        			+ this.closure.getCyclicComponentCount() + " cyclic)");
+        	this.cacheStale = true;
+        }
+        saveCache();
+        
+//      FileWriter xmlWriter = new FileWriter(outputFileName + ".xml");
+//      xmlWriter.write("<add>\n");
+        
+        // every format is written in the same pass, each one on the pool as the chunks come in
+        Executor executor = pool != null ? pool : Runnable::run;
+        List<DocumentSink> sinks = new ArrayList<>();
+        String base = new File(config.getOutputDir(), config.getBaseName()).getPath();
+        ShardedFileSink files = null;
+        if (config.hasFormat("ndjson")) {
+        	files = new ShardedFileSink(config.getOutputDir(), config.getBaseName(),
+        			config.getMaxDocs(), config.getMaxBytes(), executor, config.getThreads() * 4);
+        	sinks.add(files);
+        	System.out.println("Writing output to: " + base + "*.json");
+        }
+        CompressedFileSink gzip = null;
+        if (config.hasFormat("ndjson.gz")) {
+        	gzip = new CompressedFileSink(config.getOutputDir(), config.getBaseName(), CompressedFileSink.GZIP, executor, config.getThreads() * 4);
+        	sinks.add(gzip);
+        	System.out.println("Writing gzipped output to: " + gzip.getFile().getPath());
+        }
+        CompressedFileSink zstd = null;
+        if (config.hasFormat("ndjson.zst")) {
+        	zstd = new CompressedFileSink(config.getOutputDir(), config.getBaseName(), CompressedFileSink.ZSTD, executor, config.getThreads() * 4);
+        	sinks.add(zstd);
+        	System.out.println("Writing zstd output to: " + zstd.getFile().getPath());
+        }
+        TsvSink tsv = null;
+        if (config.hasFormat("tsv")) {
+        	tsv = new TsvSink(config.getOutputDir(), config.getBaseName(), executor, config.getThreads() * 4);
+        	sinks.add(tsv);
+        	System.out.println("Writing TSV output to: " + tsv.getDocumentsFile().getPath() + " and " + tsv.getFacetsFile().getName());
+        }
+        FacetIndexSink facetIndex = null;
+        if (config.isFacetIndex()) {
+        	List<String> facetNames = new ArrayList<>();
+        	for (int f = 0; f < facetRouter.getFacetCount(); f++) {
+        		facetNames.add(facetRouter.getFacetName(f));
+        	}
+        	facetIndex = new FacetIndexSink(config.getOutputDir(), config.getBaseName(), labels, facetNames);
+        	sinks.add(facetIndex);
+        	System.out.println("Writing facet counts and index to: " + facetIndex.getCountsFile().getPath() + ", "
+        			+ facetIndex.getDocumentsFile().getName() + " and " + config.getBaseName() + ".facet_index.*.json");
+        }
+        
+        ElasticsearchSink elastic = null;
+        if (config.getEsUrl() != null) {
+        	elastic = new ElasticsearchSink(config.getEsUrl(), config.getEsBatchSize(),
+        			config.getEsInFlight(), config.getEsInFlight() * 2, config.getEsRetries());
+        	System.out.println("Indexing into: " + config.getEsUrl());
+        }
+      
+        if (elastic != null) {
+        	sinks.add(elastic);
+        }
+        Chunk totals = assembleAll(graph.getClasses(), pool, sinks);
+        
+        if (pool != null) {
+        	pool.shutdown();
+        }
+        writeProvenance(totals.traced);
+        
+        
+        System.out.println("There were " + totals.onlyDOIDAxiom + " records with only DOID axioms. These will only show up in the faceted search if no facets are selected.");
+        if (config.isDebug()) {
+	        for (String id : totals.onlyDOIDAxioms) {
+	        	System.out.println(id);
+	        }
+        }
+
+        
+        System.out.println("There were " + totals.noName + " records with no name (skipped)");
+        if (config.isDebug()) {
+	        for (String id : totals.noNames) {
+	        	System.out.println(id);
+	        }
+        }
+        
+        System.out.println("There were " + totals.noAxiom + " records with no axioms. These will only show up in the faceted search if no facets are selected.");
+        if (config.isDebug()) {
+	        for (String na : totals.noAxioms) {
+	        	System.out.println(na);
+	        }
+        }
+        else {
+            System.out.println("\nRun with --debug to see these lists\n");
+        }
+        
+        System.out.println("Processed " + totals.diseases + " disease records");
+        System.out.println("Label index lookups: " + labels.getHitCount() + " hits, " + labels.getMissCount() + " without a label");
+        
+        writeUnhandled();
+
+        
+        long bytes = 0;
+        if (files != null) {
+        	System.out.println("Created " + files.getShardCount() + " Elastic input file(s), listed in: " + files.getManifestFile().getPath());
+        	bytes += written("ndjson", base + "*.json", files.getByteCount(), files.getWriteNanos());
+        }
+        for (CompressedFileSink compressed : new CompressedFileSink[] {gzip, zstd}) {
+        	if (compressed != null) {
+        		bytes += written(compressed == gzip ? "ndjson.gz" : "ndjson.zst", compressed.getFile().getPath(),
+        				compressed.getByteCount(), compressed.getWriteNanos());
+        	}
+        }
+        if (tsv != null) {
+        	bytes += written("tsv", tsv.getDocumentsFile().getPath() + " and " + tsv.getFacetsFile().getName(),
+        			tsv.getByteCount(), tsv.getWriteNanos());
+        }
+        if (facetIndex != null) {
+        	System.out.println("Counted " + facetIndex.getValueCount() + " facet values, and indexed " + facetIndex.getPostingCount()
+        			+ " document values in " + facetIndex.getFiles().size() + " files");
+        	bytes += written("facet_index", facetIndex.getCountsFile().getPath() + " and the index files",
+        			facetIndex.getByteCount(), facetIndex.getWriteNanos());
+        	metrics.count("facet_values", facetIndex.getValueCount());
+        	metrics.count("facet_postings", facetIndex.getPostingCount());
+        }
+        if (elastic != null) {
+        	System.out.println("Indexed " + elastic.getIndexedCount() + " documents at " + config.getEsUrl() + " in "
+        			+ elastic.getRequestCount() + " bulk requests (" + elastic.getRetriedCount() + " documents retried, "
+        			+ elastic.getExistingCount() + " already in the index)");
+        }
+        
+        metrics.count("diseases", totals.diseases);
+        metrics.count("documents_written", totals.documents);
+        metrics.count("bytes_written", bytes);
+        writeMetrics();
+    }
+
+	/*
+	 * For FlattenerService: extracts the graph and flattens every class up front, so documents
+	 * can then be assembled a term at a time (see document()), from any thread
+	 */
+	void prepareToServe() throws OWLOntologyCreationException, IOException {
+		prepare();
+		ForkJoinPool pool = config.getThreads() > 1 ? new ForkJoinPool(config.getThreads()) : null;
+		if (this.closure == null) {
+			computeClosure(null, pool);
+			this.cacheStale = true;
 		}
-		else if (oce instanceof OWLObjectExactCardinalityImpl) {
-			OWLObjectExactCardinalityImpl ooec = (OWLObjectExactCardinalityImpl)oce;
-			iris.add(((OWLClassImpl)ooec.getFiller()).getIRI());
+		saveCache();
+		if (pool != null) {
+			pool.shutdown();
 		}
-		else {
-			//TODO: Double check if this is a problem. Leave breakpoint here.
-			if (OWLFlattener.DEBUG)
-				System.out.println("Don't know how to get IRI from this type of oce: " + oce.toString());
-			unhandledTypes.add(oce.toString());
+		Map<String, Integer> terms = new HashMap<>();
+		for (int c : graph.getClasses()) {
+			terms.put(graph.getRemainder(c), c);
 		}
-		
-		return iris;
-			
+		this.terms = terms;
 	}
 	
-	private String getLabel(IRI oc) {
-		
-    	Stream<OWLAnnotation> axiomAnnotationStream = EntitySearcher.getAnnotations(oc, ontology);
-		Set<OWLAnnotation> axiomAnnotations = axiomAnnotationStream.collect(Collectors.toSet());
-		
-		String value = null;
-		for (OWLAnnotation an : axiomAnnotations) {
-			if (an.getProperty().isLabel()) {
-				value = an.getValue().literalValue().get().getLiteral();
+	/*
+	 * The document parse() would write for a term (without its action line), or null if the term doesn't
+	 * get one: it isn't in the ontology, isn't a DOID, is obsolete or has no name.
+	 * 
+	 * @param id the IRI remainder, eg: DOID_0050117
+	 */
+	byte[] document(String id) throws IOException {
+		Integer c = terms.get(id);
+		if (c == null) {
+			return null;
+		}
+		DocumentBatch batch = assemble(new int[] {c}, 0, 1).batch;
+		if (batch.size() == 0) {
+			return null;
+		}
+		return Arrays.copyOfRange(batch.getBytes(), batch.getSourceStart(0), batch.getEnd(0));
+	}
+	
+	int getClassCount() {
+		return graph.getClasses().length;
+	}
+	
+	/*
+	 * Whether the root is one of the classes, which it won't be if the file isn't the ontology we expected
+	 */
+	boolean hasRootClass() {
+		int root = graph.indexOf(config.getRootIri());
+		for (int c : graph.getClasses()) {
+			if (c == root) {
+				return true;
 			}
 		}
-		return value;
-		
+		return false;
 	}
-	private Set<OWLClass> getAllParentAxioms(OWLClass c) {
+	
+	/*
+	 * Reports what a format wrote, and adds it to the metrics (bytes_written_<format>, write_ms_<format>).
+	 * Returns the bytes.
+	 */
+	private long written(String format, String where, long bytes, long nanos) {
+		System.out.println(String.format(Locale.ROOT, "Wrote %s to %s: %d bytes, %.0fms writing", format, where, bytes, nanos / 1e6));
+		String name = format.replace('.', '_');
+		metrics.count("bytes_written_" + name, bytes);
+		metrics.count("write_ms_" + name, nanos / 1_000_000);
+		return bytes;
+	}
+	
+	/*
+	 * Compares this release with the previous one and writes a delta bulk file: index actions for the
+	 * documents that are new or changed, and delete actions for the ones that are gone. Only the documents
+	 * that can have changed (see ReleaseDiff) are flattened and assembled, in both releases, and the
+	 * assembled documents are compared to find the ones that actually did.
+	 */
+	private void parseIncremental(String previousOwl) throws OWLOntologyCreationException, IOException {
 		
-		// If we're in 'trace mode', we're trying to track down a question of relationships
-		// We've probably turned on debug for specific terms and need to now get all parents
-		// of this term again so we can see the logging output.
+		OWLFlattener previous = new OWLFlattener(previousOwl, config, loader, this.metrics);
+		previous.prepare();
+		prepare();
+		writeSnapshot();
 		
-		if (OWLFlattener.DEBUG)
-			System.out.println("Entered getAllParentAxioms for: " + c.toString());
+		ReleaseDiff diff = ReleaseDiff.compare(previous.graph, previous.facets, this.graph, this.facets);
+		System.out.println(diff.getChangedCount() + " classes were added or changed and " + diff.getRemovedCount() + " removed; "
+				+ diff.getCurrentCandidates().length + " documents to check");
 		
-		if (axiomParentsComplete.containsKey(c)) {
-			if (OWLFlattener.DEBUG) {
-				System.out.println("Already found these parents. Not re-calculating them, just returning the following:");
-				if (allParentsMap.get(c) == null) {
-					System.out.println(("No parents found"));
-				}
-				else {
-					for (OWLClass owc : allParentsMap.get(c)) {
-						System.out.println(owc.toString());
-					}
-				}
-			}
-
-			return allParentsMap.get(c);
+		// only the candidates are flattened, unless the whole closure came from the cache. A partial closure isn't worth caching.
+		previous.saveCache();
+		saveCache();
+		ForkJoinPool pool = config.getThreads() > 1 ? new ForkJoinPool(config.getThreads()) : null;
+		if (this.closure == null) {
+			computeClosure(diff.getCurrentCandidates(), pool);
 		}
-	
-	
-		Stream<OWLAnnotationAssertionAxiom> annoStream = EntitySearcher.getAnnotationAssertionAxioms(c, ontology);
-		Set<OWLAnnotationAssertionAxiom> annos = annoStream.collect(Collectors.toSet());
-
-		// This block pulls in ECO codes. They're not the same as the other codes. They are AnnotationAssertionAxioms
-		ArrayList<IRI> annIriList = new ArrayList<>();
-		for (OWLAnnotationAssertionAxiom aaa : annos) {
-			Set<OWLAnnotation> anos = aaa.getAnnotations();
-			for (OWLAnnotation ano : anos) {
-				if (ano.getProperty().getIRI().getNamespace().equals("http://purl.org/dc/elements/1.1/") &&
-						ano.getProperty().getIRI().getRemainder().get().equals("type")) {
-					annIriList.add(ano.getValue().asIRI().get());
-				}
-			}
+		if (previous.closure == null) {
+			previous.computeClosure(diff.getPreviousCandidates(), pool);
 		}
-		for (IRI i : annIriList) {
-			if (OWLFlattener.DEBUG) {
-				System.out.println("Pulling in IRI: " + i.toString() + "(" + getLabel(i) + ")");
-			}
-			OWLClass subClass = OWLManager.getOWLDataFactory().getOWLClass(i);
-			if (!allParentsMap.containsKey(c)) {
-				allParentsMap.put(c, new HashSet<>());
-			}
-			if (OWLFlattener.DEBUG) {
-				System.out.println("Adding subclass: " + subClass.toString());
-			}
-			allParentsMap.get(c).add(subClass);	
+		
+		File deltaFile = new File(config.getOutputDir(), config.getBaseName() + ".delta.json");
+		if (deltaFile.getParentFile() != null) {
+			deltaFile.getParentFile().mkdirs();
 		}
-
-		// Get all class axioms. For some reason, we get 
-		Stream<OWLAxiom> axiomStream = EntitySearcher.getReferencingAxioms(c, this.ontology);
-		Set<OWLAxiom> classAxioms = axiomStream.collect(Collectors.toSet());
+		DeltaSink delta = new DeltaSink(deltaFile.getPath());
+		previous.assembleAll(diff.getPreviousCandidates(), pool, List.of(delta.previousRelease()));
+		Chunk totals = assembleAll(diff.getCurrentCandidates(), pool, List.of(delta));
+		if (pool != null) {
+			pool.shutdown();
+		}
+		writeProvenance(totals.traced);
+		writeUnhandled();
 		
+		System.out.println("Checked " + totals.diseases + " disease records");
+		System.out.println("Wrote " + delta.getIndexCount() + " index and " + delta.getDeleteCount() + " delete actions to: " + deltaFile.getPath());
 		
-		for (OWLAxiom a : classAxioms) {
-
-			// Apparently, "referencing axioms" go both ways. 
-			// In includes axioms that reference this class and axioms that this class references.
-			// We're only interested in the ones that this current class references.
-			// So we'll check each axiom here and continue if the direction is wrong.
-			if (a instanceof OWLSubClassOfAxiomImpl ) {
-				OWLSubClassOfAxiomImpl ascoai = (OWLSubClassOfAxiomImpl)a;
-				OWLClassExpression subClass = ascoai.getSubClass();
-				if (subClass instanceof OWLClassImpl) {
-					if (!((OWLClassImpl)subClass).getIRI().toString().equals(c.getIRI().toString())) {
-						if (OWLFlattener.DEBUG) {
-							System.out.println("Incorrect axiom direction: " + a.toString());
-						}
-						continue;
-					}
-				}
-				else {
-					//wrong direction. Superclass must be an OWLClassImpl and == this OWLClass
-					System.out.println("Incorrect axiom direction: " + a.toString());
-					continue;
-				}
-
-			}
-
-			if (OWLFlattener.DEBUG) {
-				System.out.println("Examining axiom " + a.toString()); // + " which is directly on class " + c.toString());
-			}
-			
-			if (a instanceof OWLDeclarationAxiomImpl) {
-				// this is the same as the class; continue to the next axiom
-				if (OWLFlattener.DEBUG)
-					System.out.println("Skipping declaration");
-				continue;
-			}
-
-			// This list is going to hold all of the IRI's (the OWL Classes) that we're going to need to both add in as a facet value
-			// and also follow up the tree to pull in more and more ancestor facet values.
-			ArrayList<IRI> iriList = new ArrayList<>();
-			
-			// for some reason, most axioms are of type "SubClass", but these axioms contain a reference to the "SuperClass"; and that's really what we're interest in here.
-			if (a instanceof OWLSubClassOfAxiomImpl ) {
-				OWLSubClassOfAxiomImpl ascoai = (OWLSubClassOfAxiomImpl)a;
-				OWLClassExpression superClass = ascoai.getSuperClass();
-				
-				// handle basic OWL Class
-				if (superClass instanceof OWLClassImpl) {
-					OWLClassImpl aAsC = (OWLClassImpl)superClass;
-					iriList.add(aAsC.getIRI());
-				}
-				// handle Some Values From axiom
-				else if (superClass instanceof OWLObjectSomeValuesFromImpl) {
-					// This is considered an "Anonymous SubClass". If it's not a DO term, but instead a term from one of the
-					// merged-in ontologies, then don't bring in this one.
-					if (!c.getIRI().getRemainder().get().startsWith("DOID")) {
-						if (OWLFlattener.DEBUG)
-							System.out.println("Skipping anonymous subclass");
+		metrics.count("diseases", totals.diseases);
+		metrics.count("documents_written", delta.getIndexCount() + delta.getDeleteCount());
+		metrics.count("bytes_written", deltaFile.length());
+		writeMetrics();
+	}
+	
+	/*
+	 * Flattens the candidates (all the classes if null) and counts the work it took: each component's
+	 * ancestor set is computed once (a miss) and then reused by its children (a hit)
+	 */
+	private void computeClosure(int[] candidates, ForkJoinPool pool) {
+		this.closure = metrics.time("closure", () -> candidates == null
+				? ClosureEngine.compute(this.graph, pool) : ClosureEngine.compute(this.graph, candidates, pool));
+		metrics.count("closure_cache_misses", this.closure.getComponentCount());
+		metrics.count("closure_cache_hits", this.closure.getSetsReused());
+		metrics.count("edges_traversed", this.closure.getEdgesTraversed());
+	}
+	
+	/*
+	 * Writes <base name>.unhandled.json: how many of each shape of axiom or class expression weren't
+	 * followed, with a sample of each. --debug prints them too.
+	 */
+	private void writeUnhandled() throws IOException {
+		File file = new File(config.getOutputDir(), config.getBaseName() + ".unhandled.json");
+		unhandled.writeReport(file.getPath());
+		metrics.count("unhandled", unhandled.getTotal());
+		if (config.isDebug()) {
+			unhandled.print();
+		}
+		System.out.println("Skipped " + unhandled.getTotal() + " axioms and class expressions of " + unhandled.getShapeCount()
+				+ " unhandled shapes, listed in: " + file.getPath());
+	}
+	
+	/*
+	 * With --trace: writes <base name>.provenance.json, which says for every facet value of the traced
+	 * terms how it got there: the chain of classes from the term up to the value, and the axiom behind
+	 * each step (null when the graph came from a cache or snapshot, which don't keep axioms).
+	 * The chain is the shortest one; there may be others.
+	 */
+	private void writeProvenance(List<Integer> traced) throws IOException {
+		if (!trace.isTracing()) {
+			return;
+		}
+		File file = new File(config.getOutputDir(), config.getBaseName() + ".provenance.json");
+		try (NdjsonWriter out = NdjsonWriter.open(file.getPath())) {
+			out.beginObject();
+			out.key("terms");
+			out.beginArray();
+			for (int c : traced) {
+				out.beginObject();
+				out.key("id");
+				out.string(graph.getRemainder(c));
+				out.key("name");
+				out.string(getOWLClassName(c));
+				out.key("facet_values");
+				out.beginArray();
+				for (int oc : closure.getAncestors(c)) {
+					// the same values assemble() writes
+					if (!DocumentValues.isFacetValue(graph, facets, oc)) {
 						continue;
 					}
-					OWLObjectSomeValuesFromImpl superSomeValuesFrom = (OWLObjectSomeValuesFromImpl) superClass;	
-					if (superSomeValuesFrom.getFiller() instanceof OWLObjectUnionOfImpl) {
-						Set<OWLClassExpression> oces = ((OWLObjectUnionOfImpl) superSomeValuesFrom.getFiller()).getOperands();
-						for (OWLClassExpression oce : oces) {
-							iriList.addAll(getIriFromOce(oce));
-						}
-					}
-					else if (superSomeValuesFrom.getFiller() instanceof OWLObjectIntersectionOfImpl) {
-						Set<OWLClassExpression> oces = ((OWLObjectIntersectionOfImpl) superSomeValuesFrom.getFiller()).getOperands();
-						for (OWLClassExpression oce : oces) {
-							iriList.addAll(getIriFromOce(oce));
-						}
-					}
-					else {
-						iriList.add(superSomeValuesFrom.getFiller().asOWLClass().getIRI());
-					}
-				}
-				// handle Min Cardinality axiom
-				else if (superClass instanceof OWLObjectMinCardinalityImpl) {
-					OWLObjectMinCardinalityImpl oomci = (OWLObjectMinCardinalityImpl)superClass;
-					if (oomci.getFiller() instanceof OWLObjectUnionOfImpl) {
-						Set<OWLClassExpression> oces = ((OWLObjectUnionOfImpl) oomci.getFiller()).getOperands();
-						for (OWLClassExpression oce : oces) {
-							iriList.addAll(getIriFromOce(oce));
-						}
-					}
-					else if (oomci.getFiller() instanceof OWLObjectIntersectionOfImpl) {
-						Set<OWLClassExpression> oces = ((OWLObjectIntersectionOfImpl) oomci.getFiller()).getOperands();
-						for (OWLClassExpression oce : oces) {
-							iriList.addAll(getIriFromOce(oce));
-						}
-					}
-				}
-				// handle exact cardinality
-				else if (superClass instanceof OWLObjectExactCardinalityImpl) {
-					OWLObjectExactCardinalityImpl ooeci = (OWLObjectExactCardinalityImpl)superClass;
-					if (ooeci.getFiller() instanceof OWLObjectUnionOfImpl) {
-						Set<OWLClassExpression> oces = ((OWLObjectUnionOfImpl) ooeci.getFiller()).getOperands();
-						for (OWLClassExpression oce : oces) {
-							iriList.addAll(getIriFromOce(oce));
-						}
-					}
-					else if (ooeci.getFiller() instanceof OWLObjectIntersectionOfImpl) {
-						Set<OWLClassExpression> oces = ((OWLObjectIntersectionOfImpl) ooeci.getFiller()).getOperands();
-						for (OWLClassExpression oce : oces) {
-							iriList.addAll(getIriFromOce(oce));
-						}
-					}
-				}
-
-				// handle Intersection Of axiom
-				else if (superClass instanceof OWLObjectIntersectionOfImpl) {
-					OWLObjectIntersectionOfImpl ooioi = (OWLObjectIntersectionOfImpl)superClass;
-					Set<OWLClassExpression> oces = ooioi.getOperands();
-					for (OWLClassExpression oce : oces) {
-						iriList.addAll(getIriFromOce(oce));
-					}
-				}
-				
-				else if (superClass instanceof OWLObjectUnionOfImpl) {
-					OWLObjectUnionOfImpl oouoi = (OWLObjectUnionOfImpl)superClass;
-					Set<OWLClassExpression> oces = oouoi.getOperands();
-					for (OWLClassExpression oce : oces) {
-						iriList.addAll(getIriFromOce(oce));
-					}
-				}
-				
-				/* This adds strange things to the output. For example, angiosarcoma gets 'oral cavity' and 'lung' as anatomy fields
-				else if (ascoai.getSuperClass() instanceof OWLObjectIntersectionOfImpl) {
-					OWLObjectIntersectionOfImpl intersection = (OWLObjectIntersectionOfImpl)ascoai.getSuperClass();
-					// deprecated, use the stream method instead... however that works.
-					Set<OWLClassExpression> oces = intersection.getOperands();
-					for (OWLClassExpression oce : oces) {
-						if (oce instanceof OWLObjectSomeValuesFromImpl) {
-							
-							OWLObjectSomeValuesFromImpl oosvfi = (OWLObjectSomeValuesFromImpl)oce;
-							if (oosvfi.getFiller() instanceof OWLClassImpl) {
-								iri = ((OWLClassImpl) oosvfi.getFiller()).getIRI();
-								iriList.add(iri);
-							}
-							else {
-								System.out.println("UNHANDLED: " + oosvfi.getFiller().toString());
-								continue;
-							}			
-						}
+					out.beginObject();
+					out.key("facet");
+					out.string(facetRouter.getFacetName(facets[oc]));
+					out.key("value");
+					out.string(getLabel(oc));
+					out.key("class");
+					out.string(graph.getIri(oc));
+					out.key("path");
+					out.beginArray();
+					int[] path = derivation(c, oc);
+					for (int i = 0; i + 1 < path.length; i++) {
+						out.beginObject();
+						out.key("class");
+						out.string(graph.getIri(path[i]));
+						out.key("parent");
+						out.string(graph.getIri(path[i + 1]));
+						out.key("axiom");
+						out.string(trace.getEdgeAxiom(graph.getIri(path[i]), graph.getIri(path[i + 1])));
+						out.endObject();
 					}
+					out.endArray();
+					out.endObject();
 				}
-                */
-				else {
-					if (OWLFlattener.DEBUG && !OWLFlattener.TRACE_MODE)
-						//TODO: Put debug breakpoint here and share with Allen
-						System.out.println("Unfollowed relationship: " + a.toString() + " -- while processing: " + c.toString());
-					unhandledTypes.add(a.toString());
-					if (OWLFlattener.DEBUG)
-						System.out.println("Skipping unhandled relationship");
-					continue;
-				}
+				out.endArray();
+				out.endObject();
 			}
-			else if (a instanceof OWLEquivalentClassesAxiom) {
-				Collection<OWLSubClassOfAxiom> subClassesOfAxiom = ((OWLEquivalentClassesAxiomImpl) a).asOWLSubClassOfAxioms();
-				for (OWLSubClassOfAxiom owlSubClassOfAxiom: subClassesOfAxiom) {
-					if ((owlSubClassOfAxiom.getSubClass() instanceof OWLClassImpl) 
-							&& !((OWLClass)owlSubClassOfAxiom.getSubClass()).getIRI().getRemainder().get().equals(c.getIRI().getRemainder().get())) {
-						continue;
-					}
-					if (owlSubClassOfAxiom.getSuperClass() instanceof OWLObjectIntersectionOfImpl) {
-						OWLObjectIntersectionOfImpl intersection = (OWLObjectIntersectionOfImpl)owlSubClassOfAxiom.getSuperClass();
-						if (OWLFlattener.DEBUG) {
-							System.out.println("HERE");
-						}
-						Set<OWLClassExpression> oces = intersection.getOperands();
-						for (OWLClassExpression oce : oces) {
-							if (oce instanceof OWLObjectSomeValuesFromImpl) {
-								
-								OWLObjectSomeValuesFromImpl oosvfi = (OWLObjectSomeValuesFromImpl)oce;
-								if (oosvfi.getFiller() instanceof OWLClassImpl) {
-									iriList.add(((OWLClassImpl) oosvfi.getFiller()).getIRI());
-								}
-								else {
-									if (OWLFlattener.DEBUG)
-										System.out.println("UNHANDLED: " + oosvfi.getFiller().toString());
-									unhandledTypes.add(oosvfi.toString());
-									continue;
-								}			
-							}
-						}
-						
-					}
-					
-					/* 
-					 * Removing this type of axiom import. If the subClass is an intersection of the current term & something else, then that means that you'd have to combine
-					 * some other disease term with something else in order to equal this guy (since we're looking at OWLEquivalentClassesAxiom in this block)
-					 * That's not an equivalence. For example, 
-					 * 	while examining Class DOID:178 (Vascular Disease), we get an equivalent axiom of DOID:2462 (retinal vascular disease) AND has location some retina
-					 * Well, we don't want to bring "retina" back to "vascular disease"
-					 *  
-					 *  
-					else if (owlSubClassOfAxiom.getSubClass() instanceof OWLObjectIntersectionOfImpl) {
-						OWLObjectIntersectionOfImpl intersection = (OWLObjectIntersectionOfImpl)owlSubClassOfAxiom.getSubClass();
-						// deprecated, use the stream method instead... however that works.
-						Set<OWLClassExpression> oces = intersection.getOperands();
-						for (OWLClassExpression oce : oces) {
-							if (oce instanceof OWLObjectSomeValuesFromImpl) {
-								
-								OWLObjectSomeValuesFromImpl oosvfi = (OWLObjectSomeValuesFromImpl)oce;
-								if (oosvfi.getFiller() instanceof OWLClassImpl) {
-									iri = ((OWLClassImpl) oosvfi.getFiller()).getIRI();
-									iriList.add(iri);
-								}
-								else {
-									System.out.println("UNHANDLED: " + oosvfi.getFiller().toString());
-									continue;
-								}			
-							}
-						}
-					}
-                    */
-					
-					else {
-						unhandledTypes.add(a.toString());
-						continue;
-					}
+			out.endArray();
+			out.endObject();
+		}
+		System.out.println("Wrote the provenance of " + traced.size() + " traced term(s) to: " + file.getPath());
+	}
+	
+	/*
+	 * The shortest chain of edges the closure followed from c to ancestor, as class ids from c to ancestor.
+	 * Like the closure, it follows parent edges, and takes annotation edges but not the parents of their targets.
+	 */
+	private int[] derivation(int c, int ancestor) {
+		Map<Integer, Integer> previous = new HashMap<>();
+		previous.put(c, -1);
+		Deque<Integer> queue = new ArrayDeque<>();
+		queue.add(c);
+		while (!queue.isEmpty()) {
+			int x = queue.poll();
+			int last = -1;
+			for (int e = graph.getParentStart(x); e < graph.getParentEnd(x) && last < 0; e++) {
+				int p = graph.getParentTarget(e);
+				if (p == ancestor) {
+					last = x;
 				}
-				if (iriList.size() == 0) {
-					continue;
+				else if (!previous.containsKey(p)) {
+					previous.put(p, x);
+					queue.add(p);
 				}
 			}
-			else {
-				if (OWLFlattener.DEBUG)
-					System.out.println("Unhandled instance type for axiom: " + a.toString());
-					unhandledTypes.add(a.toString());
-				continue;
-			}
-			
-			
-			if (iriList.size() == 0 || (iriList.size() == 1 && iriList.get(0).getRemainder().equals(c.getIRI().getRemainder()))) {
-				// if the iri of the superclass is the same as the class itself, continue
-				continue;
-			}
-
-			// We've now populated the iriList with all "referencing axioms", however, we only really want
-			// some of these. So now we will pare down these IRIS.
-			// For example, we don't want the ROOT IRI or any of the direct children of the root.
-			// We also don't want to pull in IRIs for non-DO terms that are from a different ontology.
-			// E.g. we don't want to pull in the related diseases (DOID IRIs) from UBERON:0001017. We only want
-			// non-DO terms to pull in like terms (from the same ontology)
-			
-			List<IRI> removals = new ArrayList<>();
-			for (IRI iri : iriList) {
-				if (!c.getIRI().getRemainder().get().startsWith("DOID")) {
-					if (iri.getRemainder().get().startsWith("DOID")) {
-						removals.add(iri);
-					}
-				}
-				if (iri.getRemainder().get().equals(OWLFlattener.ROOT_IRI)) {
-					// found root; continue
-					removals.add(iri);
-				}
-				boolean excludeTerm = false;
-				for (OWLClassImpl oci : this.excludeSet) {
-					if (iri.getRemainder().get().equals(oci.getIRI().getRemainder().get())) {
-						excludeTerm = true;
-						break;
-					}
-				}
-				if (excludeTerm) {
-					if (OWLFlattener.DEBUG)
-						System.out.println("IRI: " + iri.getRemainder().get() + " was in the exclude list");
-					removals.add(iri);
+			for (int e = graph.getAnnotationStart(x); e < graph.getAnnotationEnd(x) && last < 0; e++) {
+				if (graph.getAnnotationTarget(e) == ancestor) {
+					last = x;
 				}
 			}
-			iriList.removeAll(removals);
-			
-
-			// Now that we have identified all IRIs on this term, we're going to pull in all parent
-			// IRIs for each one using this same method.
-			for (IRI i : iriList) {
-				if (OWLFlattener.DEBUG) {
-					System.out.println("FROM " + a.toString() + " Pulling in IRI: " + i.toString() + "(" + getLabel(i) + ")");
-				}
-				
-				OWLClass subClass = OWLManager.getOWLDataFactory().getOWLClass(i);
-				
-				if (!allParentsMap.containsKey(c)) {
-					allParentsMap.put(c, new HashSet<>());
-				}
-				allParentsMap.get(c).add(subClass);
-				
-				// prevent cyclical follows
-				if (!parentStack.contains(subClass.getIRI().getRemainder().get())) { 
-					parentStack.add(subClass.getIRI().getRemainder().get());
-					if (OWLFlattener.DEBUG)
-						System.out.println("About to get all parent axioms for " + i.toString());
-					
-					Set<OWLClass> parentAxioms = getAllParentAxioms(subClass);
-					if (OWLFlattener.DEBUG)
-						System.out.println("Finished getting all parent axioms for " + i.toString());
-
-					if (parentAxioms != null) {
-						allParentsMap.get(c).addAll(parentAxioms);
-					}
-					parentStack.remove(subClass.getIRI().getRemainder().get());
+			if (last >= 0) {
+				List<Integer> path = new ArrayList<>();
+				path.add(ancestor);
+				for (int n = last; n >= 0; n = previous.get(n)) {
+					path.add(n);
 				}
+				Collections.reverse(path);
+				return path.stream().mapToInt(Integer::intValue).toArray();
 			}
-			
-			axiomParentsComplete.put(c, true);
 		}
-		
-		return allParentsMap.get(c);
+		return new int[] {c};
 	}
 	
-	//TODO: Was going to use this to sort the json arrays in the output, but this is on hold until it might be needed.
-	private void insertValToJSONArray(JSONArray ja, String value) {
-	
-		int position = 0;
-		for (Object o : ja) {
-			if (((String)o).compareTo(value) > 0) {
-				position += 1;
-			}
+	/*
+	 * Prints the phase timings, and writes them with --metrics-json and --metrics-prom
+	 */
+	private void writeMetrics() throws IOException {
+		System.out.println("Phases:");
+		metrics.print();
+		if (config.getMetricsJson() != null) {
+			metrics.writeJson(config.getMetricsJson());
+			System.out.println("Wrote the run metrics to: " + config.getMetricsJson());
+		}
+		if (config.getMetricsProm() != null) {
+			metrics.writePrometheus(config.getMetricsProm());
+			System.out.println("Wrote the run metrics to: " + config.getMetricsProm());
 		}
-		ja.add(position, value);
-		
 	}
 	
-	public void parse() throws OWLOntologyCreationException, IOException {
-		
-
-        OWLOntologyManager manager = OWLManager.createOWLOntologyManager();
-        OWLOntology ontology = this.load(manager);
-        this.ontology = ontology;
-        
-        this.excludeSet = getDirectRootChildren(manager);
-        
-		final String DEFINITION = OWLUtil.getAnnotationThatSignifiesDefinition(this.ontology);
+	/*
+	 * With --snapshot-out: saves the extracted graph for a later --snapshot-in
+	 */
+	private void writeSnapshot() throws IOException {
+		if (config.getSnapshotOut() != null) {
+			metrics.time("snapshot_write", () -> Snapshot.write(new File(config.getSnapshotOut()), this.graph, this.unhandled, this.inputFile));
+			System.out.println("Wrote a snapshot of " + this.inputFile + " to " + config.getSnapshotOut());
+		}
+	}
 
+	/*
+	 * With --cache, writes the graph and the closure (if it's complete) to the cache, unless they were read from it
+	 */
+	private void saveCache() {
+		if (this.cache != null && this.cacheStale) {
+			metrics.time("cache_write", () -> this.cache.save(this.graph, this.unhandled,
+					this.closure != null && this.closure.isComplete() ? this.closure : null));
+			this.cacheStale = false;
+		}
+	}
+	
+	/*
+	 * Assembles the documents of the classes, in order, and hands them to every sink. The sinks are closed
+	 * once everything has been handed over.
+	 *
+	 * The documents are assembled a chunk of classes at a time. With --threads, a window of chunks is
+	 * assembled in parallel and then written in class order, so the output is the same as a single
+	 * threaded run. Debug output is per class, so that keeps to this thread; traced terms are few enough
+	 * that their output doesn't need to.
+	 *
+	 * Returns the tallies of all the chunks.
+	 */
+	private Chunk assembleAll(int[] classes, ForkJoinPool pool, List<DocumentSink> sinks) throws IOException {
 		
-        ArrayList<OWLClass> classes = new ArrayList<OWLClass>();
-        ontology.classesInSignature().forEach(classes::add);
+        boolean parallel = pool != null && !config.isDebug();
+        int window = parallel ? CHUNK_SIZE * config.getThreads() * 4 : CHUNK_SIZE;
+        Chunk totals = new Chunk();
+        RunMetrics.Progress progress = metrics.progress("Assembling classes", classes.length, config.getProgress());
         
-        int i = 0;
-        int obs = 0;
-        int no_axioms = 0;
-        int no_non_doid_axioms = 0;
-        int no_name = 0;
-        List<String> noNames = new ArrayList<>();
-        List<String> onlyDOIDAxioms = new ArrayList<>();
-        List<String> noAxioms = new ArrayList<>();
-    
-        String outputFileName = "outputfile.json";
-//      FileWriter xmlWriter = new FileWriter(outputFileName + ".xml");
-        FileWriter jsonWriter = new FileWriter(outputFileName);
-//      xmlWriter.write("<add>\n");
+        for (int first = 0; first < classes.length; first += window) {
+        	long wall = System.nanoTime();
+        	long cpu = RunMetrics.processCpuTime();
+        	List<Chunk> chunks = new ArrayList<>();
+        	if (parallel) {
+        		List<Callable<Chunk>> tasks = new ArrayList<>();
+        		for (int from = first; from < Math.min(classes.length, first + window); from += CHUNK_SIZE) {
+        			int start = from;
+        			tasks.add(() -> assemble(classes, start, Math.min(classes.length, start + CHUNK_SIZE)));
+        		}
+        		for (Future<Chunk> f : pool.invokeAll(tasks)) {
+        			chunks.add(getChunk(f));
+        		}
+        	}
+        	else {
+        		chunks.add(assemble(classes, first, Math.min(classes.length, first + window)));
+        	}
+        	wall = lap("assembly", wall, cpu);
+        	cpu = RunMetrics.processCpuTime();
+        	
+        	for (Chunk chunk : chunks) {
+        		for (DocumentSink sink : sinks) {
+        			sink.accept(chunk.batch);
+        		}
+        		totals.add(chunk);
+        	}
+        	lap("write", wall, cpu);
+        	progress.update(Math.min(classes.length, first + window));
+        }
         
+        metrics.time("write", () -> {
+        	for (DocumentSink sink : sinks) {
+        		sink.close();
+        	}
+        });
+        return totals;
+	}
 
-        System.out.println("Successfully opened output file for writing: " + outputFileName);
-      
-        
-        for (OWLClass c : classes) {
+	/*
+	 * Adds the time since wall and cpu to a phase, and returns the time now
+	 */
+	private long lap(String phase, long wall, long cpu) {
+		long now = System.nanoTime();
+		metrics.addPhase(phase, now - wall, RunMetrics.processCpuTime() - cpu);
+		return now;
+	}
 
-        	if (OWLFlattener.TRACE_MODE) {
-	        	if (Arrays.asList(TRACE_IDS).contains(c.getIRI().getRemainder().get()) && OWLFlattener.DEBUG == false) {
-					OWLFlattener.DEBUG = true;
-					System.out.println("TURNING DEBUG: ON");
-				}
-				else if (OWLFlattener.DEBUG == true) {
-					OWLFlattener.DEBUG = false;
-					System.out.println("TURNING DEBUG: OFF");
-				}
-        	}
+	/*
+	 * Builds the documents for classes[from .. to). Doesn't touch anything shared but the (read only)
+	 * graph, labels and closure, so chunks can be assembled on any thread.
+	 */
+	Chunk assemble(int[] classes, int from, int to) throws IOException {
+		
+		Chunk chunk = new Chunk();
+		DocumentValues values = new DocumentValues(graph, facets, facetRouter.getFacetCount());
+		TsvRows rows = config.hasFormat("tsv") ? new TsvRows() : null;
+		boolean facetIndex = config.isFacetIndex();
+		boolean debug = trace.isDebug();
+		boolean tracing = trace.isTracing();
+		
+        for (int k = from; k < to; k++) {
+        	int c = classes[k];
+        	
+        	// whether to log about this term: one hash lookup, and only when something is traced
+        	boolean traced = tracing && trace.isTraced(graph.getRemainder(c));
+        	boolean verbose = debug || traced;
         	
         	String id = getIdFromOWLClass(c);
 			
-			if (id != null && id.startsWith("DOID:")) {
+			if (DocumentValues.isDoid(graph, c)) {
 				
-				i += 1;
-				String disease = getOWLClassName(c, ontology);
+				chunk.diseases += 1;
+				String disease = getOWLClassName(c);
 				if (disease == null) {
 					//TODO: Uncomment this to see doids without class names -- later
-					if (!OWLFlattener.TRACE_MODE && OWLFlattener.DEBUG) 
+					if (debug) 
 						System.out.println("Disease with null name. Possibly deprecated / obsolete: " + id);
-					no_name += 1;
-					noNames.add(c.getIRI().getRemainder().get());
+					chunk.noName += 1;
+					chunk.noNames.add(graph.getRemainder(c));
 					continue;
 				}
 			}
@@ -642,318 +753,224 @@ public class OWLFlattener {
 			}
 	        
 	        
-			Set<OWLClass> parentAxioms = getAllParentAxioms(c);
-			
-			String name = null;
-			String definition = null;
-			boolean isDocStarted = false;
+			int[] parentAxioms = getAllParentAxioms(c, verbose);
 			
-			Stream<OWLAnnotation> annotationStream = EntitySearcher.getAnnotations(c, ontology);
-			Set<OWLAnnotation> classAnnotations = annotationStream.collect(Collectors.toSet());
-			boolean obsolete = false;
-			// for each class, we'll need to iterate over all of the Annotations. These will give us things we need such as:
-			// the class' name, obsolete / deprecated flag, xrefs, alternativeIds, synonyms, subsets, and the definition 
-			for (OWLAnnotation an : classAnnotations) {
-				if (an.getProperty().isDeprecated()) {
-					obsolete = true;
-					break;
-				}
-				else if (an.getProperty().isLabel()) {
-					
-					if (an.getValue().literalValue().isPresent()
-							&& an.getValue().literalValue().get().getLiteral().startsWith("obsolete "))
-					{
-						obsolete = true;
-						break;
-					}
-					else {
-						// capture the name
-						name = an.getValue().literalValue().get().getLiteral();
-					}
-				}
-				else if (an.getProperty().getIRI().getRemainder().get().equals(DEFINITION)) {
-					definition = an.getValue().literalValue().get().getLiteral();
-					//definition needs to also be surrounded by a double quote. Just what the rendering code expects.
-					definition = "\"" + definition + "\"";
-				}
-			}
+			String name = getOWLClassName(c);
+			String definition = labels.getDefinition(c);
+			boolean obsolete = labels.isObsolete(c);
 			
 			//TODO: Do we want to write out DO term that has no facet values? I don't think it would make sense, but
 			// we should keep track of these
-			JSONObject data = new JSONObject();
 			
 			if (!obsolete) {
 				
-				boolean non_doid_axiom_found = false;
+//				xmlWriter.write("<doc>\n");
+//				xmlWriter.write("\t<field name=\"id\">" + graph.getRemainder(c) + "</field>\n");
+//				xmlWriter.write("\t<field name=\"name\">" + name + "</field>\n");
 				
-				if (!isDocStarted) {
-					isDocStarted = true;
-//						xmlWriter.write("<doc>\n");
-//						xmlWriter.write("\t<field name=\"id\">" + c.getIRI().getRemainder().get() + "</field>\n");
-//						xmlWriter.write("\t<field name=\"name\">" + name + "</field>\n");
-					
-					jsonWriter.write("{ \"create\":{ } }\n");
-					
-					data.put("id", c.getIRI().getRemainder().get());
-					data.put("name", name);
-					
+				NdjsonWriter out = chunk.out;
+				out.beginDocument();
+				chunk.ids.add(graph.getRemainder(c));
+				out.key("id");
+				out.string(graph.getRemainder(c));
+				out.key("name");
+				out.string(name);
 
-					//Some diseases don't have a definition
-					if (definition == null) {
-						if (OWLFlattener.DEBUG)
-							System.out.println(c.getIRI() + " doesn't have a definition");
-						
-					}
-					else {
-						String safeDef = definition.replaceAll("<",  "&lt;").replaceAll(">", "&gt;");
-//							xmlWriter.write("\t<field name=\"definition\">" + safeDef+ "</field>\n");
-//							jsonWriter.write(",\"definition\": " + definition);
-						if (definition.contains("\n")) {
-							definition = definition.replace("\n", "");
-						}
-						data.put("definition", definition);
-					}
+				//Some diseases don't have a definition
+				if (definition == null) {
+					if (verbose)
+						System.out.println(graph.getIri(c) + " doesn't have a definition");
+					
+				}
+				else {
+					//definition needs to also be surrounded by a double quote. Just what the rendering code expects.
+					out.key("definition");
+					out.beginString();
+					out.append("\"");
+					out.append(definition, '\n');
+					out.append("\"");
+					out.endString();
+				}
+				if (rows != null) {
+					rows.document(graph.getRemainder(c), name, definition);
 				}
 				
-				if (parentAxioms == null || parentAxioms.size() == 0) {
-					if (OWLFlattener.DEBUG)
-						System.out.println("No parent axioms for: " + c.getIRI().getRemainder().get());
-					no_axioms += 1;
-					noAxioms.add(c.getIRI().getRemainder().get());
+				if (parentAxioms.length == 0) {
+					if (verbose)
+						System.out.println("No parent axioms for: " + graph.getRemainder(c));
+					chunk.noAxiom += 1;
+					chunk.noAxioms.add(graph.getRemainder(c));
 				}
-				else {
+				values.collect(parentAxioms);
 				
-					for (OWLClass oc : parentAxioms) {
-						if (oc.getIRI().getRemainder().get().startsWith("DOID_")) {
-							// avoid writing parent axioms that are DOIDs
-							continue;
-						}
-						else {
-							non_doid_axiom_found = true;
-						}
-			        	
-			        	
-			        	Stream<OWLAnnotation> axiomAnnotationStream = EntitySearcher.getAnnotations(oc, ontology);
-						Set<OWLAnnotation> axiomAnnotations = axiomAnnotationStream.collect(Collectors.toSet());
-						
-						String value = null;
-						for (OWLAnnotation an : axiomAnnotations) {
-							if (an.getProperty().isLabel()) {
-								value = an.getValue().literalValue().get().getLiteral();
-							}
-						}
-
-						String safeValue = StringEscapeUtils.escapeXml(value);
-						
-						if (oc.getIRI().getRemainder().get().startsWith("UBERON")) {
-//			        		xmlWriter.write("\t<field name=\"anatomy\">" + safeValue + "</field>\n");
-//			        		jsonWriter.write(",\"anatomy\": \"" + safeValue + "\"");
-			        		if ( data.get("anatomy") == null ) { data.put("anatomy", new JSONArray()); }
-			        		((JSONArray) data.get("anatomy")).add(value);
-			        	}
-						else if (oc.getIRI().getRemainder().get().startsWith("CL")) {
-//							xmlWriter.write("\t<field name=\"cell_type\">" + safeValue + "</field>\n");
-//							jsonWriter.write(",\"cell_type\": \"" + safeValue + "\"");
-			        		if ( data.get("cell_type") == null ) { data.put("cell_type", new JSONArray()); }
-			        		((JSONArray) data.get("cell_type")).add(value);
-
-						}
-						else if (oc.getIRI().getRemainder().get().startsWith("CHEBI")) {
-//			        		xmlWriter.write("\t<field name=\"chebi\">" + safeValue + "</field>\n");
-//			        		jsonWriter.write(",\"chebi\": \"" + safeValue + "\"");
-			        		if ( data.get("chebi") == null ) { data.put("chebi", new JSONArray()); }
-			        		((JSONArray) data.get("chebi")).add(value);
-			        	}
-						else if (oc.getIRI().getRemainder().get().startsWith("SYMP")) {
-//			        		xmlWriter.write("\t<field name=\"symptom\">" + safeValue + "</field>\n");
-//			        		jsonWriter.write(",\"symptom\": \"" + safeValue + "\"");
-			        		if ( data.get("symptom") == null ) { data.put("symptom", new JSONArray()); }
-			        		((JSONArray) data.get("symptom")).add(value);
-			        	}
-						else if (oc.getIRI().getRemainder().get().startsWith("DISDRIV")) {
-//			        		xmlWriter.write("\t<field name=\"disease_driver\">" + safeValue + "</field>\n");
-//			        		jsonWriter.write(",\"disease_driver\": \"" + safeValue + "\"");
-			        		if ( data.get("disease_driver") == null ) { data.put("disease_driver", new JSONArray()); }
-			        		((JSONArray) data.get("disease_driver")).add(value);
-			        	}
-						else if (oc.getIRI().getRemainder().get().startsWith("ECO")) {
-//			        		xmlWriter.write("\t<field name=\"evidence\">" + safeValue + "</field>\n");
-//			        		jsonWriter.write(",\"evidence\": \"" + safeValue + "\"");
-			        		if ( data.get("evidence") == null ) { data.put("evidence", new JSONArray()); }
-			        		((JSONArray) data.get("evidence")).add(value);
-			        	}
-						else if (oc.getIRI().getRemainder().get().startsWith("FOODON")) {
-//			        		xmlWriter.write("\t<field name=\"food_material\">" + safeValue + "</field>\n");
-//			        		jsonWriter.write(",\"food_material\": \"" + safeValue + "\"");
-			        		if ( data.get("food_material") == null ) { data.put("food_material", new JSONArray()); }
-			        		((JSONArray) data.get("food_material")).add(value);
-
-			        	}
-						else if (oc.getIRI().getRemainder().get().startsWith("GENO")) {
-//			        		xmlWriter.write("\t<field name=\"inheritance_pattern\">" + safeValue + "</field>\n");
-//			        		jsonWriter.write(",\"inheritance_pattern\": \"" + safeValue + "\"");
-			        		if ( data.get("inheritance_pattern") == null ) { data.put("inheritance_pattern", new JSONArray()); }
-			        		((JSONArray) data.get("inheritance_pattern")).add(value);
-			        	}
-						
-						else if (oc.getIRI().getRemainder().get().startsWith("NCBITaxon")) {
-//							xmlWriter.write("\t<field name=\"ncbitaxon\">" + safeValue + "</field>\n");
-//							jsonWriter.write(",\"ncbitaxon\": \"" + safeValue + "\"");
-							if ( data.get("ncbitaxon") == null ) { data.put("ncbitaxon", new JSONArray()); }
-			        		((JSONArray) data.get("ncbitaxon")).add(value);
-						}
-						else if (oc.getIRI().getRemainder().get().startsWith("OMIM")) {
-//							xmlWriter.write("\t<field name=\"omim_susceptibility\">" + safeValue + "</field>\n");
-//							jsonWriter.write(",\"omim_susceptibility\": \"" + safeValue + "\"");
-							if ( data.get("omim_susceptibility") == null ) { data.put("omim_susceptibility", new JSONArray()); }
-			        		((JSONArray) data.get("omim_susceptibility")).add(value);
-						}
-						
-						else if (oc.getIRI().getRemainder().get().startsWith("HP")) {
-							if (safeValue.toLowerCase().contains("onset")) {
-//								xmlWriter.write("\t<field name=\"onset\">" + safeValue + "</field>\n");
-//								jsonWriter.write(",\"onset\": \"" + safeValue + "\"");
-								if ( data.get("onset") == null ) { data.put("onset", new JSONArray()); }
-				        		((JSONArray) data.get("onset")).add(value);
-							}
-							else {
-//								xmlWriter.write("\t<field name=\"phenotype\">" + safeValue + "</field>\n");
-//								jsonWriter.write(",\"phenotype\": \"" + safeValue + "\"");
-								if ( data.get("phenotype") == null ) { data.put("phenotype", new JSONArray()); }
-				        		((JSONArray) data.get("phenotype")).add(value);
-							}
-						}
-						else if (oc.getIRI().getRemainder().get().startsWith("SO")) {
-//							xmlWriter.write("\t<field name=\"sequence\">" + safeValue + "</field>\n");
-//							jsonWriter.write(",\"sequence\": \"" + safeValue + "\"");
-							if ( data.get("sequence") == null ) { data.put("sequence", new JSONArray()); }
-			        		((JSONArray) data.get("sequence")).add(value);
+				// the facets, in the order they're configured
+				for (int f = 0; f < facetRouter.getFacetCount(); f++) {
+					if (values.size(f) == 0) {
+						continue;
+					}
+					out.key(facetRouter.getFacetName(f));
+					out.beginArray();
+					for (int v = 0; v < values.size(f); v++) {
+						String label = labels.getLabelById(values.get(f, v));
+						out.string(label);
+						if (rows != null) {
+							rows.facetValue(graph.getRemainder(c), facetRouter.getFacetName(f), label);
 						}
-						else if (oc.getIRI().getRemainder().get().startsWith("TRANS")) {
-//							xmlWriter.write("\t<field name=\"transmission_process\">" + safeValue + "</field>\n");
-//							jsonWriter.write(",\"transmission_process\": \"" + safeValue + "\"");
-							if ( data.get("transmission_process") == null ) { data.put("transmission_process", new JSONArray()); }
-			        		((JSONArray) data.get("transmission_process")).add(value);
+						if (facetIndex) {
+							chunk.addIndexedValue(chunk.ids.size() - 1, f, values.get(f, v));
 						}
-			        }
+					}
+					out.endArray();
 				}
+				out.endDocument();
 				
-				if (non_doid_axiom_found == false) {
-					no_non_doid_axioms += 1;
-					onlyDOIDAxioms.add(c.getIRI().getRemainder().get());
+				if (!values.hasNonDoidAncestor()) {
+					chunk.onlyDOIDAxiom += 1;
+					chunk.onlyDOIDAxioms.add(graph.getRemainder(c));
+				}
+				if (traced) {
+					chunk.traced.add(c);
 				}
 			}
 			else {
 				
-				obs += 1;
-			}
-			
-			
-
-			if (isDocStarted) {
-				jsonWriter.write(data.toJSONString());
-				jsonWriter.write("\n");
+				chunk.obsolete += 1;
 			}
         }
         
-        jsonWriter.close();
-        
-        
-        System.out.println("There were " + no_non_doid_axioms + " records with only DOID axioms. These will only show up in the faceted search if no facets are selected.");
-        if (OWLFlattener.DEBUG) {
-	        for (String id : onlyDOIDAxioms) {
-	        	System.out.println(id);
-	        }
-        }
-
-        
-        System.out.println("There were " + no_name + " records with no name (skipped)");
-        if (OWLFlattener.DEBUG) {
-	        for (String id : noNames) {
-	        	System.out.println(id);
-	        }
+        chunk.batch = chunk.out.toBatch(chunk.ids.toArray(new String[0]));
+        if (rows != null) {
+        	chunk.batch = chunk.batch.withRows(rows);
         }
-        
-        System.out.println("There were " + no_axioms + " records with no axioms. These will only show up in the faceted search if no facets are selected.");
-        if (OWLFlattener.DEBUG) {
-	        for (String na : noAxioms) {
-	        	System.out.println(na);
-	        }
+        if (facetIndex) {
+        	chunk.batch = chunk.batch.withFacetValues(Arrays.copyOf(chunk.indexedValues, chunk.indexedSize));
         }
-        else {
-            System.out.println("\nRun with --debug to see these lists\n");
-        }
-        
-        System.out.println("Processed " + i + " disease records");
-        
-        if (OWLFlattener.DEBUG) {
-	        for (String s : unhandledTypes) {
-	        	System.out.println("Unhandled Axiom type: " + s);
-	        }
-        }
-
-        
-        System.out.println("Created Elastic input file at: " + outputFileName);
-        
-        
-    }
-
+        chunk.documents = chunk.batch.size();
+        return chunk;
+	}
+	
+	private static Chunk getChunk(Future<Chunk> f) throws IOException {
+		try {
+			return f.get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while assembling documents", e);
+		}
+		catch (ExecutionException e) {
+			throw new IOException("Failed to assemble documents", e.getCause());
+		}
+	}
+	
 	/*
-	 * Due to certain circumstances that I do not fully understand, we have chosen to 
-	 * exclude axioms on the set of disease terms that are direct children of the root
-	 * node. I believe this was bringing in too many IRIs.
+	 * The documents and tallies for a run of consecutive classes
 	 */
-    private Set<OWLClassImpl> getDirectRootChildren(OWLOntologyManager manager) {
-    	
-
-    	IRI iri = IRI.create(OWLFlattener.ROOT_IRI);
-
-    	OWLClass root = manager.getOWLDataFactory().getOWLClass(iri);
-    	if (OWLFlattener.DEBUG) {
-    		System.out.println("Identified root node");
-    		System.out.println(root);
-    	}
-    	
-		Stream<OWLClassExpression> classesStream = EntitySearcher.getSubClasses(root, ontology);
-		Set<OWLClassExpression> oces = classesStream.collect(Collectors.toSet());
-		Set<OWLClassImpl> classes = new HashSet<>();
+	static class Chunk {
+		final NdjsonWriter out = new NdjsonWriter();
+		final List<String> ids = new ArrayList<>();
+		DocumentBatch batch = null;
+		int documents = 0;
+		int diseases = 0;
+		int obsolete = 0;
+		int noAxiom = 0;
+		int onlyDOIDAxiom = 0;
+		int noName = 0;
+		final List<String> noNames = new ArrayList<>();
+		final List<String> onlyDOIDAxioms = new ArrayList<>();
+		final List<String> noAxioms = new ArrayList<>();
+		// the traced classes that got a document
+		final List<Integer> traced = new ArrayList<>();
 		
-		for (OWLClassExpression oce : oces) {
-			if (oce instanceof OWLClassImpl) {
-				classes.add((OWLClassImpl)oce);
-			}
-			else {
-				System.err.println("Expected all children of root to be an OWLClassImpl");
-				System.err.println(oce);
-				System.exit(1);
-			}
-		}
+		// with a facet index, the (document, facet, label id) of every value written, see DocumentBatch.withFacetValues()
+		int[] indexedValues = new int[0];
+		int indexedSize = 0;
 		
-    	return classes;
+		/*
+		 * Adds another chunk's tallies to this one's
+		 */
+		void add(Chunk other) {
+			documents += other.documents;
+			diseases += other.diseases;
+			obsolete += other.obsolete;
+			noAxiom += other.noAxiom;
+			onlyDOIDAxiom += other.onlyDOIDAxiom;
+			noName += other.noName;
+			noNames.addAll(other.noNames);
+			onlyDOIDAxioms.addAll(other.onlyDOIDAxioms);
+			noAxioms.addAll(other.noAxioms);
+			traced.addAll(other.traced);
+		}
 		
+		void addIndexedValue(int document, int facet, int value) {
+			if (indexedSize + 3 > indexedValues.length) {
+				indexedValues = Arrays.copyOf(indexedValues, Math.max(1024, indexedValues.length * 2));
+			}
+			indexedValues[indexedSize++] = document;
+			indexedValues[indexedSize++] = facet;
+			indexedValues[indexedSize++] = value;
+		}
 	}
 
-    
-    private OWLOntology load(OWLOntologyManager manager) throws OWLOntologyCreationException {
-    	
-        return manager.loadOntologyFromOntologyDocument(new File(this.inputFile));
-    }
-    
+	/*
+	 * Extracts the graph of our root from the input (see GraphLoader)
+	 */
+	private OntologyGraph extract() throws OWLOntologyCreationException, IOException {
+		GraphLoader.Extracted extracted = loader.extract(this.inputFile, config.getRootIri(), this.trace, metrics);
+		this.unhandled = extracted.getUnhandled();
+		return extracted.getGraph();
+	}
+
+	/*
+	 * Parses a positive count, with an optional k, m or g (x1024) suffix
+	 */
+	private static long parseSize(String value, String option) throws ParseException {
+		String digits = value.trim().toLowerCase();
+		long unit = 1;
+		if (digits.endsWith("k")) {
+			unit = 1024L;
+		}
+		else if (digits.endsWith("m")) {
+			unit = 1024L * 1024;
+		}
+		else if (digits.endsWith("g")) {
+			unit = 1024L * 1024 * 1024;
+		}
+		if (unit > 1) {
+			digits = digits.substring(0, digits.length() - 1);
+		}
+		try {
+			long size = Long.parseLong(digits) * unit;
+			if (size < 1) {
+				throw new ParseException(option + " must be at least 1");
+			}
+			return size;
+		}
+		catch (NumberFormatException e) {
+			throw new ParseException(option + " expects a number: " + value);
+		}
+	}
+	
 	public static void main(String[] args) throws Exception {
 		
 		String owlFile = null;
+		String batchFile = null;
+		int jobs = 2;
+		int servePort = -1;
+		String bind = "127.0.0.1";
+		int serveCache = 10000;
+		FlattenerConfig config = null;
 		
 		Options options = new Options();
         Option owlOpt = Option.builder("i")
-            .required(true)
-            .desc("Path to the merged owl file")
+            .required(false)
+            .desc("Path to the merged owl file (or a snapshot of it, see --snapshot-in)")
             .longOpt("owl")
             .hasArg()
             .build();
 
         Option rootOpt = Option.builder("r")
-            .required(true)
-            .desc("Root IRI: eg: http://purl.obolibrary.org/obo/DOID_4")
+            .required(false)
+            .desc("Root IRI: eg: http://purl.obolibrary.org/obo/DOID_4. Optional with a snapshot, which records its root")
             .longOpt("root")
             .hasArg()
             .build();
@@ -966,11 +983,185 @@ public class OWLFlattener {
         
         Option traceOpt = Option.builder("t")
                 .required(false)
-                .desc("Trace inheritance; specify a space-separated list (eg. DOID_001 DOID_002)")
+                .desc("Trace inheritance; specify a space-separated list (eg. DOID_001 DOID_002). Writes how each of their facet values was derived to <base-name>.provenance.json")
                 .longOpt("trace")
                 .hasArgs()
                 .build();
         
+        Option facetOpt = Option.builder("f")
+                .required(false)
+                .desc("Facet routing config (default: the facets.conf bundled in the jar)")
+                .longOpt("facets")
+                .hasArg()
+                .build();
+        
+        Option threadsOpt = Option.builder("n")
+                .required(false)
+                .desc("Number of threads to flatten and assemble documents with (default: 1)")
+                .longOpt("threads")
+                .hasArg()
+                .build();
+        
+        Option outputDirOpt = Option.builder("o")
+                .required(false)
+                .desc("Directory to write the output to (default: the current directory)")
+                .longOpt("output-dir")
+                .hasArg()
+                .build();
+        
+        Option baseNameOpt = Option.builder("b")
+                .required(false)
+                .desc("Base name of the output files (default: outputfile)")
+                .longOpt("base-name")
+                .hasArg()
+                .build();
+        
+        Option maxDocsOpt = Option.builder()
+                .required(false)
+                .desc("Split the output into shards of at most this many documents")
+                .longOpt("max-docs")
+                .hasArg()
+                .build();
+        
+        Option maxBytesOpt = Option.builder()
+                .required(false)
+                .desc("Split the output into shards of at most this many bytes; accepts a k, m or g suffix (eg: 90m)")
+                .longOpt("max-bytes")
+                .hasArg()
+                .build();
+        
+        Option esUrlOpt = Option.builder()
+                .required(false)
+                .desc("Also send the documents to this Elasticsearch _bulk endpoint as they're produced (eg: http://localhost:9200/disease/_bulk). The index should be empty: documents already in it are left as they were")
+                .longOpt("es-url")
+                .hasArg()
+                .build();
+        
+        Option esBatchOpt = Option.builder()
+                .required(false)
+                .desc("Documents per bulk request (default: 1000)")
+                .longOpt("es-batch-size")
+                .hasArg()
+                .build();
+        
+        Option esInFlightOpt = Option.builder()
+                .required(false)
+                .desc("Bulk requests to have in flight at once (default: 2)")
+                .longOpt("es-in-flight")
+                .hasArg()
+                .build();
+        
+        Option esRetriesOpt = Option.builder()
+                .required(false)
+                .desc("Times to retry a rejected bulk request or document (default: 5)")
+                .longOpt("es-retries")
+                .hasArg()
+                .build();
+        
+        Option previousOpt = Option.builder("p")
+                .required(false)
+                .desc("The previous release's owl file. Only writes a delta file (<base-name>.delta.json) of index and delete actions for the documents that changed")
+                .longOpt("previous")
+                .hasArg()
+                .build();
+        
+        Option cacheOpt = Option.builder("c")
+                .required(false)
+                .desc("Cache the extracted graph and closure in <owl>.flatcache, and reuse them while the owl file, root and exclusion rules are unchanged. Not for an owl file with imports")
+                .longOpt("cache")
+                .build();
+        
+        Option loaderOpt = Option.builder("l")
+                .required(false)
+                .desc("How to read the owl file: owlapi (default) loads it with the OWL API; rdfxml streams an RDF/XML file and keeps only what the flattener uses")
+                .longOpt("loader")
+                .hasArg()
+                .build();
+        
+        Option formatOpt = Option.builder()
+                .required(false)
+                .desc("The output formats, separated by commas, all written in the same pass: ndjson (the bulk files, the default), ndjson.gz and ndjson.zst (the same, compressed into one file), tsv (<base>.documents.tsv and <base>.doc_facet.tsv, for a database COPY)")
+                .longOpt("format")
+                .hasArg()
+                .build();
+        
+        Option snapshotOutOpt = Option.builder()
+                .required(false)
+                .desc("Also write the extracted model (classes, edges, labels, definitions, obsolete flags, root children) to this binary snapshot file")
+                .longOpt("snapshot-out")
+                .hasArg()
+                .build();
+        
+        Option snapshotInOpt = Option.builder()
+                .required(false)
+                .desc("Start from a snapshot written by --snapshot-out instead of an owl file. --previous accepts a snapshot too")
+                .longOpt("snapshot-in")
+                .hasArg()
+                .build();
+        
+        Option progressOpt = Option.builder()
+                .required(false)
+                .desc("Report how far assembly has got, with its rate and the time left, every this many seconds (default: 10; 0 for never)")
+                .longOpt("progress")
+                .hasArg()
+                .build();
+        
+        Option metricsJsonOpt = Option.builder()
+                .required(false)
+                .desc("Write the run's metrics (wall and CPU time of each phase, counters, peak heap) to this JSON file")
+                .longOpt("metrics-json")
+                .hasArg()
+                .build();
+        
+        Option metricsPromOpt = Option.builder()
+                .required(false)
+                .desc("Write the run's metrics to this file in the Prometheus text format, eg: for node_exporter's textfile collector")
+                .longOpt("metrics-prom")
+                .hasArg()
+                .build();
+        
+        Option batchOpt = Option.builder()
+                .required(false)
+                .desc("Run the jobs listed in this file instead of --owl and --root: a line per job with its input, root IRI (or - for a snapshot's) and output directory. The other options apply to every job")
+                .longOpt("batch")
+                .hasArg()
+                .build();
+        
+        Option jobsOpt = Option.builder()
+                .required(false)
+                .desc("With --batch, the number of jobs to run at once (default: 2)")
+                .longOpt("jobs")
+                .hasArg()
+                .build();
+        
+        Option serveOpt = Option.builder()
+                .required(false)
+                .desc("Instead of writing the output, keep the ontology loaded and serve each term's document over HTTP on this port: GET /term/<DOID>, POST /reload[?owl=<file>], GET /stats")
+                .longOpt("serve")
+                .hasArg()
+                .build();
+        
+        Option bindOpt = Option.builder()
+                .required(false)
+                .desc("With --serve, the address to listen on (default: 127.0.0.1)")
+                .longOpt("bind")
+                .hasArg()
+                .build();
+        
+        Option serveCacheOpt = Option.builder()
+                .required(false)
+                .desc("With --serve, the number of documents to keep cached (default: 10000)")
+                .longOpt("serve-cache")
+                .hasArg()
+                .build();
+        
+        Option facetIndexOpt = Option.builder()
+                .required(false)
+                .desc("Also write <base>.facet_counts.json (the documents with each facet value), <base>.facet_documents.json (the sorted document ids) and <base>.facet_index.<facet>.json (the documents with each value, as positions in that list), in the same pass")
+                .longOpt("facet-index")
+                .hasArg(false)
+                .build();
+        
         Option helpOption = Option.builder("h")
                 .longOpt("help")
                 .required(false)
@@ -982,6 +1173,31 @@ public class OWLFlattener {
         options.addOption(rootOpt);
         options.addOption(debugOpt);
         options.addOption(traceOpt);
+        options.addOption(facetOpt);
+        options.addOption(threadsOpt);
+        options.addOption(outputDirOpt);
+        options.addOption(baseNameOpt);
+        options.addOption(maxDocsOpt);
+        options.addOption(maxBytesOpt);
+        options.addOption(esUrlOpt);
+        options.addOption(esBatchOpt);
+        options.addOption(esInFlightOpt);
+        options.addOption(esRetriesOpt);
+        options.addOption(previousOpt);
+        options.addOption(cacheOpt);
+        options.addOption(loaderOpt);
+        options.addOption(formatOpt);
+        options.addOption(facetIndexOpt);
+        options.addOption(snapshotOutOpt);
+        options.addOption(snapshotInOpt);
+        options.addOption(progressOpt);
+        options.addOption(metricsJsonOpt);
+        options.addOption(metricsPromOpt);
+        options.addOption(batchOpt);
+        options.addOption(serveOpt);
+        options.addOption(bindOpt);
+        options.addOption(serveCacheOpt);
+        options.addOption(jobsOpt);
         options.addOption(helpOption);
         
         
@@ -1001,18 +1217,161 @@ public class OWLFlattener {
             // parse the command line arguments
             CommandLine cmdLine = parser.parse(options, args);
 
-            if (cmdLine.hasOption("debug"))
-            	OWLFlattener.DEBUG = true;
+            FlattenerConfig.Builder b = FlattenerConfig.builder();
+            
+            //debug is off when tracing
+            if (cmdLine.hasOption("debug") && !cmdLine.hasOption("trace"))
+            	b.debug(true);
 
-            if (cmdLine.hasOption("trace")) {
-                OWLFlattener.TRACE_IDS = cmdLine.getOptionValues("trace");
-                OWLFlattener.TRACE_MODE = true;
-                OWLFlattener.DEBUG = false; //turn off debug when tracing
+            if (cmdLine.hasOption("trace"))
+                b.traceIds(cmdLine.getOptionValues("trace"));
+            
+            b.rootIri(cmdLine.getOptionValue("root"));
+            
+            if (cmdLine.hasOption("facets"))
+            	b.facetConfig(cmdLine.getOptionValue("facets"));
+            
+            if (cmdLine.hasOption("threads")) {
+            	int threads;
+            	try {
+            		threads = Integer.parseInt(cmdLine.getOptionValue("threads"));
+            	}
+            	catch (NumberFormatException e) {
+            		throw new ParseException("--threads expects a number: " + cmdLine.getOptionValue("threads"));
+            	}
+            	if (threads < 1) {
+            		throw new ParseException("--threads must be at least 1");
+            	}
+            	b.threads(threads);
             }
             
-            OWLFlattener.ROOT_IRI = cmdLine.getOptionValue("root");
+            if (cmdLine.hasOption("output-dir"))
+            	b.outputDir(cmdLine.getOptionValue("output-dir"));
+            if (cmdLine.hasOption("base-name"))
+            	b.baseName(cmdLine.getOptionValue("base-name"));
+            if (cmdLine.hasOption("max-docs"))
+            	b.maxDocs(parseSize(cmdLine.getOptionValue("max-docs"), "--max-docs"));
+            if (cmdLine.hasOption("max-bytes"))
+            	b.maxBytes(parseSize(cmdLine.getOptionValue("max-bytes"), "--max-bytes"));
             
-            owlFile = cmdLine.getOptionValue("owl");
+            if (cmdLine.hasOption("previous"))
+            	b.previousOwl(cmdLine.getOptionValue("previous"));
+            
+            if (cmdLine.hasOption("loader")) {
+            	String loader = cmdLine.getOptionValue("loader");
+            	if (!loader.equals("owlapi") && !loader.equals("rdfxml")) {
+            		throw new ParseException("--loader must be owlapi or rdfxml: " + loader);
+            	}
+            	b.loader(loader);
+            }
+            if (cmdLine.hasOption("format")) {
+            	String[] formats = cmdLine.getOptionValue("format").split(",");
+            	for (int f = 0; f < formats.length; f++) {
+            		formats[f] = formats[f].trim();
+            		if (!FlattenerConfig.FORMATS.contains(formats[f])) {
+            			throw new ParseException("--format must be a list of " + String.join(", ", FlattenerConfig.FORMATS) + ": " + formats[f]);
+            		}
+            	}
+            	if (cmdLine.hasOption("previous") || cmdLine.hasOption("serve")) {
+            		throw new ParseException("--format only applies to a full run, not --previous or --serve");
+            	}
+            	b.formats(formats);
+            }
+            
+            if (cmdLine.hasOption("facet-index")) {
+            	if (cmdLine.hasOption("previous") || cmdLine.hasOption("serve")) {
+            		throw new ParseException("--facet-index only applies to a full run, not --previous or --serve");
+            	}
+            	b.facetIndex(true);
+            }
+            
+            if (cmdLine.hasOption("cache"))
+            	b.useCache(true);
+            
+            if (cmdLine.hasOption("es-url"))
+            	b.esUrl(cmdLine.getOptionValue("es-url"));
+            if (cmdLine.hasOption("es-batch-size"))
+            	b.esBatchSize((int) Math.min(Integer.MAX_VALUE, parseSize(cmdLine.getOptionValue("es-batch-size"), "--es-batch-size")));
+            if (cmdLine.hasOption("es-in-flight"))
+            	b.esInFlight((int) Math.min(1024, parseSize(cmdLine.getOptionValue("es-in-flight"), "--es-in-flight")));
+            if (cmdLine.hasOption("es-retries")) {
+            	try {
+            		b.esRetries(Integer.parseInt(cmdLine.getOptionValue("es-retries")));
+            	}
+            	catch (NumberFormatException e) {
+            		throw new ParseException("--es-retries expects a number: " + cmdLine.getOptionValue("es-retries"));
+            	}
+            }
+            
+            if (cmdLine.hasOption("snapshot-out"))
+            	b.snapshotOut(cmdLine.getOptionValue("snapshot-out"));
+            
+            if (cmdLine.hasOption("progress")) {
+            	int progress;
+            	try {
+            		progress = Integer.parseInt(cmdLine.getOptionValue("progress"));
+            	}
+            	catch (NumberFormatException e) {
+            		throw new ParseException("--progress expects a number of seconds: " + cmdLine.getOptionValue("progress"));
+            	}
+            	if (progress < 0) {
+            		throw new ParseException("--progress can't be negative");
+            	}
+            	b.progress(progress);
+            }
+            if (cmdLine.hasOption("metrics-json"))
+            	b.metricsJson(cmdLine.getOptionValue("metrics-json"));
+            if (cmdLine.hasOption("metrics-prom"))
+            	b.metricsProm(cmdLine.getOptionValue("metrics-prom"));
+            
+            config = b.build();
+            
+            if (cmdLine.hasOption("serve")) {
+            	if (cmdLine.hasOption("batch") || cmdLine.hasOption("previous")) {
+            		throw new ParseException("--batch and --previous can't be used with --serve");
+            	}
+            	try {
+            		servePort = Integer.parseInt(cmdLine.getOptionValue("serve"));
+            	}
+            	catch (NumberFormatException e) {
+            		throw new ParseException("--serve expects a port: " + cmdLine.getOptionValue("serve"));
+            	}
+            	if (servePort < 0 || servePort > 65535) {
+            		throw new ParseException("--serve expects a port: " + servePort);
+            	}
+            	if (cmdLine.hasOption("bind"))
+            		bind = cmdLine.getOptionValue("bind");
+            	if (cmdLine.hasOption("serve-cache"))
+            		serveCache = (int) Math.min(Integer.MAX_VALUE, parseSize(cmdLine.getOptionValue("serve-cache"), "--serve-cache"));
+            }
+            
+            if (cmdLine.hasOption("batch")) {
+            	if (cmdLine.hasOption("owl") || cmdLine.hasOption("snapshot-in") || cmdLine.hasOption("root")) {
+            		throw new ParseException("--batch takes the inputs and roots from the job file, not --owl, --snapshot-in or --root");
+            	}
+            	if (cmdLine.hasOption("previous") || cmdLine.hasOption("snapshot-out")) {
+            		throw new ParseException("--previous and --snapshot-out can't be used with --batch");
+            	}
+            	batchFile = cmdLine.getOptionValue("batch");
+            	if (cmdLine.hasOption("jobs")) {
+            		jobs = (int) Math.min(1024, parseSize(cmdLine.getOptionValue("jobs"), "--jobs"));
+            	}
+            }
+            else {
+            	owlFile = cmdLine.getOptionValue("owl");
+            	if (cmdLine.hasOption("snapshot-in")) {
+            		if (owlFile != null) {
+            			throw new ParseException("Use either --owl or --snapshot-in, not both");
+            		}
+            		owlFile = cmdLine.getOptionValue("snapshot-in");
+            	}
+            	if (owlFile == null) {
+            		throw new ParseException("Missing required option: i (or --snapshot-in, or --batch)");
+            	}
+            	if (config.getRootIri() == null && !Snapshot.isSnapshot(owlFile)) {
+            		throw new ParseException("Missing required option: r");
+            	}
+            }
             
         }
         catch (ParseException exp) {
@@ -1024,10 +1383,50 @@ public class OWLFlattener {
         }
 		
 		System.out.println("Beginning OWL processing at: " + new Date());
+		
+		if (batchFile != null) {
+			List<Batch.Job> batch;
+			try {
+				batch = Batch.read(batchFile);
+			}
+			catch (IOException e) {
+				System.err.println("Error: " + e.getMessage());
+				System.exit(1);
+				return;
+			}
+			System.out.println("Running " + batch.size() + " jobs from " + batchFile + ", " + Math.min(jobs, batch.size()) + " at a time");
+			int failed;
+			try {
+				failed = Batch.run(batch, config, jobs);
+			}
+			catch (IOException e) {
+				System.err.println("Error: " + e.getMessage());
+				System.exit(1);
+				return;
+			}
+			if (failed > 0) {
+				System.err.println(failed + " of " + batch.size() + " jobs failed. Exiting at: " + new Date());
+				System.exit(1);
+			}
+			System.out.println("Complete. Exiting at: " + new Date());
+			return;
+		}
+		
 		System.out.println("Reading " + owlFile);
 		
-
-		OWLFlattener flattener = new OWLFlattener(owlFile);
+		OWLFlattener flattener;
+		try {
+			if (servePort >= 0) {
+				new FlattenerService(config, serveCache).start(owlFile, bind, servePort);
+				return;
+			}
+			flattener = new OWLFlattener(owlFile, config);
+		}
+		catch (FileNotFoundException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+			return;
+		}
 		flattener.parse();
 		
 		System.out.println("Complete. Exiting at: " + new Date());
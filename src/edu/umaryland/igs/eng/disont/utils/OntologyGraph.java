@@ -0,0 +1,444 @@
+package edu.umaryland.igs.eng.disont.utils;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLOntology;
+
+/**
+ *
+ * A compact copy of the parts of the ontology the flattener needs.
+ *
+ * Every IRI is interned to an int id. Everything we know about a class lives in arrays
+ * indexed by that id, and the parent edges are stored CSR style: the parents of class n
+ * are parentTargets[parentOffsets[n] .. parentOffsets[n + 1]).
+ *
+ * The annotations the flattener reads (labels, definitions, obsolete flags) are kept
+ * alongside in a LabelIndex.
+ *
+ * It's extracted once from the loaded OWLOntology, after which the ontology and its
+ * manager can be let go. Holding on to the whole OWLAPI model (plus a HashSet of
+ * OWLClass per flattened class) for the entire run was what drove the peak heap.
+ *
+ */
+public class OntologyGraph {
+
+	private final String[] namespaces;
+	private final String[] prefixes;
+
+	// per class
+	private final int[] namespaceOf;
+	private final String[] remainders;
+	private final short[] prefixTags;
+	private final LabelIndex labels;
+
+	private final int[] parentOffsets;
+	private final int[] parentTargets;
+	private final int[] annotationOffsets;
+	private final int[] annotationTargets;
+
+	// the classes in the ontology's signature, in the order the ontology gave them to us
+	private final int[] classes;
+
+	// the root the edges were pruned for, and the remainders of its direct children (see ParentEdgeIndex)
+	private final String rootIri;
+	private final String[] rootChildren;
+
+	private Map<String, Integer> lookup = null;
+
+	private OntologyGraph(String[] namespaces, String[] prefixes, int[] namespaceOf, String[] remainders, short[] prefixTags,
+			LabelIndex labels, int[] parentOffsets, int[] parentTargets, int[] annotationOffsets, int[] annotationTargets, int[] classes,
+			String rootIri, String[] rootChildren) {
+		this.namespaces = namespaces;
+		this.prefixes = prefixes;
+		this.namespaceOf = namespaceOf;
+		this.remainders = remainders;
+		this.prefixTags = prefixTags;
+		this.labels = labels;
+		this.parentOffsets = parentOffsets;
+		this.parentTargets = parentTargets;
+		this.annotationOffsets = annotationOffsets;
+		this.annotationTargets = annotationTargets;
+		this.classes = classes;
+		this.rootIri = rootIri;
+		this.rootChildren = rootChildren;
+	}
+
+	private OntologyGraph(Builder b) {
+		int n = b.size;
+		this.namespaces = b.namespaces.toArray(new String[0]);
+		this.prefixes = b.prefixes.toArray(new String[0]);
+		this.namespaceOf = Arrays.copyOf(b.namespaceOf, n);
+		this.remainders = Arrays.copyOf(b.remainders, n);
+		this.prefixTags = Arrays.copyOf(b.prefixTags, n);
+		this.labels = b.builtLabels;
+		this.parentOffsets = new int[n + 1];
+		this.parentTargets = toCsr(b.parentEdges, b.parentEdgeCount, n, parentOffsets);
+		this.annotationOffsets = new int[n + 1];
+		this.annotationTargets = toCsr(b.annotationEdges, b.annotationEdgeCount, n, annotationOffsets);
+		this.classes = Arrays.copyOf(b.classes, b.classCount);
+		this.rootIri = b.rootIri;
+		this.rootChildren = b.rootChildren;
+	}
+
+	/*
+	 * Turns a list of (from, to) pairs into CSR, keeping the order the edges were added in
+	 */
+	private static int[] toCsr(int[] pairs, int count, int n, int[] offsets) {
+		for (int e = 0; e < count; e++) {
+			offsets[pairs[2 * e] + 1] += 1;
+		}
+		for (int i = 0; i < n; i++) {
+			offsets[i + 1] += offsets[i];
+		}
+		int[] targets = new int[count];
+		int[] next = Arrays.copyOf(offsets, n);
+		for (int e = 0; e < count; e++) {
+			targets[next[pairs[2 * e]]++] = pairs[2 * e + 1];
+		}
+		return targets;
+	}
+
+	/**
+	 * Extracts the graph from a loaded ontology.
+	 *
+	 * @param edges the parent edges that were indexed from this ontology
+	 * @param definitionProperty the remainder of the annotation property that holds definitions (see OWLUtil)
+	 */
+	public static OntologyGraph fromOntology(OWLOntology ontology, ParentEdgeIndex edges, String definitionProperty) {
+		return fromOntology(ontology, List.of(edges), definitionProperty).get(0);
+	}
+
+	/**
+	 * Extracts a graph for each set of edges (one per root) from a loaded ontology. The annotations
+	 * are read once, and the graphs share their LabelIndex: every IRI any of them needs is interned
+	 * before the labels are read, so a class has the same id in all of them.
+	 */
+	public static List<OntologyGraph> fromOntology(OWLOntology ontology, List<ParentEdgeIndex> edges, String definitionProperty) {
+		Builder b = new Builder();
+
+		ontology.classesInSignature().forEach(c -> b.addClass(b.intern(c.getIRI())));
+		b.internEdgeIris(edges);
+
+		// the class' name and label, the obsolete / deprecated flag and the definition
+		b.labels().addAnnotations(ontology, b::indexOf, definitionProperty);
+
+		return b.buildEach(edges);
+	}
+
+	/**
+	 * Writes the whole graph, labels included. See read() and BinaryFile
+	 */
+	public void write(DataOutputStream out) throws IOException {
+		BinaryFile.writeStrings(out, namespaces);
+		BinaryFile.writeStrings(out, prefixes);
+		BinaryFile.writeInts(out, namespaceOf);
+		BinaryFile.writeStrings(out, remainders);
+		BinaryFile.writeShorts(out, prefixTags);
+		labels.write(out);
+		BinaryFile.writeInts(out, parentOffsets);
+		BinaryFile.writeInts(out, parentTargets);
+		BinaryFile.writeInts(out, annotationOffsets);
+		BinaryFile.writeInts(out, annotationTargets);
+		BinaryFile.writeInts(out, classes);
+		BinaryFile.writeString(out, rootIri);
+		BinaryFile.writeStrings(out, rootChildren);
+	}
+
+	public static OntologyGraph read(ByteBuffer in) throws IOException {
+		String[] namespaces = BinaryFile.readStrings(in);
+		String[] prefixes = BinaryFile.readStrings(in);
+		int[] namespaceOf = BinaryFile.readInts(in);
+		String[] remainders = BinaryFile.readStrings(in);
+		short[] prefixTags = BinaryFile.readShorts(in);
+		int n = remainders.length;
+		if (namespaceOf.length != n || prefixTags.length != n) {
+			throw new IOException("its IRI tables don't agree on the number of classes");
+		}
+		LabelIndex labels = LabelIndex.read(in, n);
+		OntologyGraph graph = new OntologyGraph(namespaces, prefixes, namespaceOf, remainders, prefixTags, labels,
+				BinaryFile.readInts(in), BinaryFile.readInts(in), BinaryFile.readInts(in), BinaryFile.readInts(in), BinaryFile.readInts(in),
+				BinaryFile.readString(in), BinaryFile.readStrings(in));
+		if (graph.parentOffsets.length != n + 1 || graph.annotationOffsets.length != n + 1) {
+			throw new IOException("its edge offsets don't match the number of classes");
+		}
+		return graph;
+	}
+
+	public int size() {
+		return remainders.length;
+	}
+
+	public String getRootIri() {
+		return rootIri;
+	}
+
+	/**
+	 * @return the remainders (eg: DOID_7) of the root's direct children, sorted
+	 */
+	public String[] getRootChildren() {
+		return rootChildren;
+	}
+
+	public int[] getClasses() {
+		return classes;
+	}
+
+	/**
+	 * @return the id of this IRI, or -1 if it's not in the graph
+	 */
+	public synchronized int indexOf(String iri) {
+		if (lookup == null) {
+			lookup = new HashMap<>(size() * 2);
+			for (int id = 0; id < size(); id++) {
+				lookup.put(getIri(id), id);
+			}
+		}
+		return lookup.getOrDefault(iri, -1);
+	}
+
+	public String getIri(int id) {
+		return namespaces[namespaceOf[id]] + remainders[id];
+	}
+
+	/**
+	 * @return the IRI remainder, eg: DOID_4
+	 */
+	public String getRemainder(int id) {
+		return remainders[id];
+	}
+
+	/**
+	 * @return the OBO ID prefix tag of this class. All classes with the same prefix (DOID, UBERON...) share a tag
+	 */
+	public short getPrefixTag(int id) {
+		return prefixTags[id];
+	}
+
+	public String getPrefix(short tag) {
+		return prefixes[tag];
+	}
+
+	public int getPrefixCount() {
+		return prefixes.length;
+	}
+
+	/**
+	 * @return the labels, names, definitions and obsolete flags of the classes in this graph
+	 */
+	public LabelIndex getLabels() {
+		return labels;
+	}
+
+	public int getParentStart(int id) {
+		return parentOffsets[id];
+	}
+
+	public int getParentEnd(int id) {
+		return parentOffsets[id + 1];
+	}
+
+	public int getParentTarget(int edge) {
+		return parentTargets[edge];
+	}
+
+	public int getEdgeCount() {
+		return parentTargets.length;
+	}
+
+	public int getAnnotationStart(int id) {
+		return annotationOffsets[id];
+	}
+
+	public int getAnnotationEnd(int id) {
+		return annotationOffsets[id + 1];
+	}
+
+	public int getAnnotationTarget(int edge) {
+		return annotationTargets[edge];
+	}
+
+	public int getAnnotationEdgeCount() {
+		return annotationTargets.length;
+	}
+
+	/**
+	 * Interns IRIs and collects the edges and annotations of a graph before it's frozen.
+	 */
+	public static class Builder {
+
+		private final Map<String, Integer> ids = new HashMap<>();
+		private final Map<String, Integer> namespaceIds = new HashMap<>();
+		private final Map<String, Short> prefixIds = new HashMap<>();
+		private final List<String> namespaces = new ArrayList<>();
+		private final List<String> prefixes = new ArrayList<>();
+
+		private int size = 0;
+		private int[] namespaceOf = new int[1024];
+		private String[] remainders = new String[1024];
+		private short[] prefixTags = new short[1024];
+		private final LabelIndex.Builder labels = new LabelIndex.Builder();
+		// the labels of the last graph built, for the next one if no classes have been added since
+		private LabelIndex builtLabels = null;
+		private int builtLabelsSize = -1;
+
+		private int[] parentEdges = new int[2048];
+		private int parentEdgeCount = 0;
+		private int[] annotationEdges = new int[256];
+		private int annotationEdgeCount = 0;
+		private int[] classes = new int[1024];
+		private int classCount = 0;
+		private String rootIri = null;
+		private String[] rootChildren = new String[0];
+
+		public int intern(IRI iri) {
+			return intern(iri.getNamespace(), iri.getRemainder().orElse(""));
+		}
+
+		public int intern(String namespace, String remainder) {
+			String key = namespace + remainder;
+			Integer id = ids.get(key);
+			if (id != null) {
+				return id;
+			}
+			if (size == remainders.length) {
+				int capacity = size * 2;
+				namespaceOf = Arrays.copyOf(namespaceOf, capacity);
+				remainders = Arrays.copyOf(remainders, capacity);
+				prefixTags = Arrays.copyOf(prefixTags, capacity);
+			}
+			int newId = size++;
+			namespaceOf[newId] = namespaceIds.computeIfAbsent(namespace, k -> {
+				namespaces.add(k);
+				return namespaces.size() - 1;
+			});
+			remainders[newId] = remainder;
+			int underscore = remainder.indexOf('_');
+			String prefix = underscore > 0 ? remainder.substring(0, underscore) : "";
+			prefixTags[newId] = prefixIds.computeIfAbsent(prefix, k -> {
+				prefixes.add(k);
+				return (short) (prefixes.size() - 1);
+			});
+			ids.put(key, newId);
+			return newId;
+		}
+
+		/**
+		 * @return the id of this IRI, or -1 if it hasn't been interned
+		 */
+		public int indexOf(IRI iri) {
+			return ids.getOrDefault(iri.getNamespace() + iri.getRemainder().orElse(""), -1);
+		}
+
+		public int indexOf(String iri) {
+			return ids.getOrDefault(iri, -1);
+		}
+
+		/**
+		 * Adds every edge of the index. Add the classes first: the IRIs that aren't classes (eg: dc:type
+		 * values that aren't declared) are interned here, in IRI order, so their ids don't depend on the
+		 * order the loader found the edges in.
+		 */
+		public void addEdges(ParentEdgeIndex edges) {
+			rootIri = edges.getRootIri();
+			rootChildren = new TreeSet<>(edges.getExcludeIds()).toArray(new String[0]);
+
+			internEdgeIris(List.of(edges));
+
+			for (IRI source : edges.getClassesWithEdges()) {
+				int from = indexOf(source);
+				for (IRI target : edges.getParents(source)) {
+					addParentEdge(from, indexOf(target));
+				}
+				for (IRI target : edges.getAnnotationParents(source)) {
+					addAnnotationEdge(from, indexOf(target));
+				}
+			}
+		}
+
+		/**
+		 * Interns the IRIs of the edges that aren't interned yet, in IRI order. With the edges of several
+		 * roots, a graph built from any one of them gives its IRIs the same relative order as if it
+		 * had been built alone; it just has a few ids that none of its edges use.
+		 */
+		public void internEdgeIris(Collection<ParentEdgeIndex> edgeSets) {
+			Set<IRI> others = new TreeSet<>();
+			for (ParentEdgeIndex edges : edgeSets) {
+				for (IRI source : edges.getClassesWithEdges()) {
+					others.add(source);
+					others.addAll(edges.getParents(source));
+					others.addAll(edges.getAnnotationParents(source));
+				}
+			}
+			for (IRI iri : others) {
+				intern(iri);
+			}
+		}
+
+		/**
+		 * Builds a graph for each set of edges, with the classes and labels added so far. The graphs
+		 * share the one LabelIndex. Intern all their IRIs (internEdgeIris) before adding the labels.
+		 */
+		public List<OntologyGraph> buildEach(List<ParentEdgeIndex> edgeSets) {
+			List<OntologyGraph> graphs = new ArrayList<>();
+			for (ParentEdgeIndex edges : edgeSets) {
+				addEdges(edges);
+				graphs.add(build());
+				parentEdgeCount = 0;
+				annotationEdgeCount = 0;
+			}
+			return graphs;
+		}
+
+		public int size() {
+			return size;
+		}
+
+		public void addClass(int id) {
+			if (classCount == classes.length) {
+				classes = Arrays.copyOf(classes, classCount * 2);
+			}
+			classes[classCount++] = id;
+		}
+
+		public void addParentEdge(int from, int to) {
+			if (2 * parentEdgeCount + 1 >= parentEdges.length) {
+				parentEdges = Arrays.copyOf(parentEdges, parentEdges.length * 2);
+			}
+			parentEdges[2 * parentEdgeCount] = from;
+			parentEdges[2 * parentEdgeCount + 1] = to;
+			parentEdgeCount += 1;
+		}
+
+		public void addAnnotationEdge(int from, int to) {
+			if (2 * annotationEdgeCount + 1 >= annotationEdges.length) {
+				annotationEdges = Arrays.copyOf(annotationEdges, annotationEdges.length * 2);
+			}
+			annotationEdges[2 * annotationEdgeCount] = from;
+			annotationEdges[2 * annotationEdgeCount + 1] = to;
+			annotationEdgeCount += 1;
+		}
+
+		public LabelIndex.Builder labels() {
+			return labels;
+		}
+
+		public OntologyGraph build() {
+			if (builtLabels == null || builtLabelsSize != size) {
+				builtLabels = labels.build(size);
+				builtLabelsSize = size;
+			}
+			return new OntologyGraph(this);
+		}
+	}
+}
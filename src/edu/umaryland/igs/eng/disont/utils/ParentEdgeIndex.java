@@ -0,0 +1,426 @@
+package edu.umaryland.igs.eng.disont.utils;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.semanticweb.owlapi.model.AxiomType;
+import org.semanticweb.owlapi.model.ClassExpressionType;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLAnnotation;
+import org.semanticweb.owlapi.model.OWLAnnotationAssertionAxiom;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLClassExpression;
+import org.semanticweb.owlapi.model.OWLClassExpressionVisitorEx;
+import org.semanticweb.owlapi.model.OWLEquivalentClassesAxiom;
+import org.semanticweb.owlapi.model.OWLObjectExactCardinality;
+import org.semanticweb.owlapi.model.OWLObjectIntersectionOf;
+import org.semanticweb.owlapi.model.OWLObjectMinCardinality;
+import org.semanticweb.owlapi.model.OWLObjectSomeValuesFrom;
+import org.semanticweb.owlapi.model.OWLObjectUnionOf;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLSubClassOfAxiom;
+
+
+/**
+ *
+ * Outgoing "parent IRI" edges for every class in the ontology, built in a single
+ * scan over the SubClassOf, EquivalentClasses and annotation assertion axioms.
+ *
+ * EntitySearcher.getReferencingAxioms returns axioms in both directions, so asking it
+ * once per class meant the popular filler classes (UBERON, CHEBI, NCBITaxon...) had
+ * their referencing axioms collected and thrown away over and over. Here every axiom
+ * is looked at once, from the side of the class it belongs to.
+ *
+ * Two kinds of edges are kept:
+ *   - parent edges: followed up the tree when flattening
+ *   - annotation edges: dc:type IRIs (ECO codes) on the annotation assertions of a class.
+ *     These are attached to the class but their own parents are never followed.
+ *
+ * When terms are traced, the axiom behind each edge is kept too, until describeEdges()
+ * hands the ones the traced terms can reach to the Trace.
+ *
+ */
+public class ParentEdgeIndex {
+
+	private static final String DC_NAMESPACE = "http://purl.org/dc/elements/1.1/";
+
+	/**
+	 * Names the rules that decide which edges are kept: the root's direct children are excluded, only DOIDs follow
+	 * restrictions, non-DOIDs don't get DOID parents, the root and self edges are dropped, and the classes in nested
+	 * unions, intersections and restrictions are all followed. Anything saved from the edges (see GraphCache) is keyed
+	 * on this, so change it whenever those rules change.
+	 */
+	public static final String EXCLUSION_RULES = "root-children,doid-restrictions,non-doid-drops-doid,no-root,no-self,nested/2";
+
+	private final Map<IRI, List<IRI>> parentEdges = new HashMap<>();
+	private final Map<IRI, List<IRI>> annotationEdges = new HashMap<>();
+	// only while tracing: the axiom behind each edge, in the same order as the edges (null for a dc:type value
+	// that a loader found without building the axiom)
+	private Map<IRI, List<Object>> parentAxioms = null;
+	private Map<IRI, List<Object>> annotationAxioms = null;
+
+	private final String rootIri;
+	private final Set<String> excludeIds;
+	private final UnhandledShapes unhandled;
+	private final Trace trace;
+	private final ParentIriWalker walker = new ParentIriWalker();
+
+	private int edgeCount = 0;
+
+	/**
+	 * @param rootIri the root IRI given on the command line
+	 * @param excludeIds IRI remainders (eg. DOID_7) that must never be pulled in as a parent
+	 * @param unhandled counts the axioms and class expressions that we don't know how to follow
+	 */
+	private ParentEdgeIndex(String rootIri, Set<String> excludeIds, UnhandledShapes unhandled, Trace trace) {
+		this.rootIri = rootIri;
+		this.excludeIds = excludeIds;
+		this.unhandled = unhandled;
+		this.trace = trace;
+		if (trace.isTracing()) {
+			parentAxioms = new HashMap<>();
+			annotationAxioms = new HashMap<>();
+		}
+	}
+
+	public static ParentEdgeIndex build(OWLOntology ontology, String rootIri, Set<String> excludeIds,
+			UnhandledShapes unhandled, boolean debug) {
+		return build(ontology, rootIri, excludeIds, unhandled, new Trace(debug, null));
+	}
+
+	public static ParentEdgeIndex build(OWLOntology ontology, String rootIri, Set<String> excludeIds,
+			UnhandledShapes unhandled, Trace trace) {
+
+		ParentEdgeIndex index = new ParentEdgeIndex(rootIri, excludeIds, unhandled, trace);
+
+		ontology.axioms(AxiomType.SUBCLASS_OF).forEach(index::addSubClassOfAxiom);
+		ontology.axioms(AxiomType.EQUIVALENT_CLASSES).forEach(index::addEquivalentClassesAxiom);
+		ontology.axioms(AxiomType.ANNOTATION_ASSERTION).forEach(index::addAnnotationAssertionAxiom);
+
+		return index;
+	}
+
+	/**
+	 * An empty index, for a loader that reads the axioms itself (see RdfXmlLoader) and adds them one at a time
+	 */
+	static ParentEdgeIndex create(String rootIri, Set<String> excludeIds, UnhandledShapes unhandled, Trace trace) {
+		return new ParentEdgeIndex(rootIri, excludeIds, unhandled, trace);
+	}
+
+	public String getRootIri() {
+		return rootIri;
+	}
+
+	public Set<String> getExcludeIds() {
+		return Collections.unmodifiableSet(excludeIds);
+	}
+
+	public List<IRI> getParents(IRI iri) {
+		return parentEdges.getOrDefault(iri, Collections.emptyList());
+	}
+
+	public List<IRI> getAnnotationParents(IRI iri) {
+		return annotationEdges.getOrDefault(iri, Collections.emptyList());
+	}
+
+	/**
+	 * @return every class that has at least one parent or annotation edge
+	 */
+	public Set<IRI> getClassesWithEdges() {
+		Set<IRI> classes = new LinkedHashSet<>(parentEdges.keySet());
+		classes.addAll(annotationEdges.keySet());
+		return classes;
+	}
+
+	public int getEdgeCount() {
+		return edgeCount;
+	}
+
+	/**
+	 * While tracing: records the axiom behind every edge the traced terms can reach (following parent
+	 * edges, as the closure does) with the Trace, and lets go of the rest
+	 */
+	public void describeEdges() {
+		if (parentAxioms == null) {
+			return;
+		}
+		Deque<IRI> queue = new ArrayDeque<>();
+		for (IRI c : getClassesWithEdges()) {
+			if (trace.isTraced(c.getRemainder().orElse(""))) {
+				queue.add(c);
+			}
+		}
+		Set<IRI> seen = new HashSet<>(queue);
+		while (!queue.isEmpty()) {
+			IRI c = queue.poll();
+			List<IRI> parents = getParents(c);
+			for (int i = 0; i < parents.size(); i++) {
+				trace.recordEdge(c.toString(), parents.get(i).toString(), parentAxioms.get(c).get(i).toString());
+				if (seen.add(parents.get(i))) {
+					queue.add(parents.get(i));
+				}
+			}
+			List<IRI> annotations = getAnnotationParents(c);
+			for (int i = 0; i < annotations.size(); i++) {
+				Object axiom = annotationAxioms.get(c).get(i);
+				trace.recordEdge(c.toString(), annotations.get(i).toString(), axiom != null ? axiom.toString()
+						: "dc:type <" + annotations.get(i) + "> on an annotation assertion about <" + c + ">");
+			}
+		}
+		parentAxioms = null;
+		annotationAxioms = null;
+	}
+
+	private void addAnnotationAssertionAxiom(OWLAnnotationAssertionAxiom aaa) {
+		// This block pulls in ECO codes. They're not the same as the other codes. They are annotations on AnnotationAssertionAxioms
+		if (!aaa.getSubject().isIRI()) {
+			return;
+		}
+		for (OWLAnnotation ano : aaa.annotationsAsList()) {
+			if (isTypeProperty(ano.getProperty().getIRI())) {
+				addTypeAnnotation((IRI) aaa.getSubject(), ano.getValue().asIRI().get(), aaa);
+			}
+		}
+	}
+
+	/**
+	 * @return true for dc:type, the annotation property that holds the ECO codes
+	 */
+	static boolean isTypeProperty(IRI property) {
+		return property.getNamespace().equals(DC_NAMESPACE) && property.getRemainder().orElse("").equals("type");
+	}
+
+	/**
+	 * Adds a dc:type value found on an annotation assertion of subject
+	 */
+	void addTypeAnnotation(IRI subject, IRI type) {
+		addTypeAnnotation(subject, type, null);
+	}
+
+	private void addTypeAnnotation(IRI subject, IRI type, Object axiom) {
+		annotationEdges.computeIfAbsent(subject, k -> new ArrayList<>()).add(type);
+		if (annotationAxioms != null) {
+			annotationAxioms.computeIfAbsent(subject, k -> new ArrayList<>()).add(axiom);
+		}
+		edgeCount += 1;
+	}
+
+	void addSubClassOfAxiom(OWLSubClassOfAxiom a) {
+		OWLClassExpression subClass = a.getSubClass();
+		if (subClass.isAnonymous()) {
+			// Only axioms where the subclass is a named class describe that class' parents
+			trace.log(() -> "Incorrect axiom direction: " + a.toString());
+			return;
+		}
+		OWLClass c = subClass.asOWLClass();
+		OWLClassExpression superClass = a.getSuperClass();
+
+		if (superClass.getClassExpressionType() == ClassExpressionType.OBJECT_SOME_VALUES_FROM && !isDoid(c.getIRI())) {
+			// This is considered an "Anonymous SubClass". If it's not a DO term, but instead a term from one of the
+			// merged-in ontologies, then don't bring in this one.
+			trace.log(() -> "Skipping anonymous subclass");
+			return;
+		}
+
+		// The IRIs (the OWL Classes) that we're going to need to both add in as a facet value and also follow
+		// up the tree to pull in more and more ancestor facet values.
+		walker.collect(a, superClass);
+		addEdges(c, walker.iris, a);
+	}
+
+	/*
+	 * Collects the named classes in a superclass expression: the classes themselves, the operands of unions and
+	 * intersections, and the fillers of some-values-from, min and exact cardinality restrictions, however they're
+	 * nested. Anything else (all-values-from, max cardinality, has-value, complements, data restrictions...) is
+	 * counted as unhandled and contributes nothing; at the top level that means the axiom isn't followed.
+	 *
+	 * It only works through the OWLAPI interfaces, so it doesn't depend on the implementation classes, and
+	 * there's one virtual call per expression instead of a chain of type checks. The IRI list is reused from
+	 * one axiom to the next.
+	 */
+	private class ParentIriWalker implements OWLClassExpressionVisitorEx<Void> {
+
+		final List<IRI> iris = new ArrayList<>();
+		private OWLSubClassOfAxiom axiom = null;
+		private int depth = 0;
+
+		void collect(OWLSubClassOfAxiom a, OWLClassExpression superClass) {
+			iris.clear();
+			axiom = a;
+			depth = 0;
+			superClass.accept(this);
+		}
+
+		@Override
+		public Void visit(OWLClass ce) {
+			iris.add(ce.getIRI());
+			return null;
+		}
+
+		@Override
+		public Void visit(OWLObjectIntersectionOf ce) {
+			return operands(ce.getOperandsAsList());
+		}
+
+		@Override
+		public Void visit(OWLObjectUnionOf ce) {
+			return operands(ce.getOperandsAsList());
+		}
+
+		@Override
+		public Void visit(OWLObjectSomeValuesFrom ce) {
+			return filler(ce.getFiller());
+		}
+
+		@Override
+		public Void visit(OWLObjectMinCardinality ce) {
+			return filler(ce.getFiller());
+		}
+
+		@Override
+		public Void visit(OWLObjectExactCardinality ce) {
+			return filler(ce.getFiller());
+		}
+
+		private Void operands(List<OWLClassExpression> operands) {
+			depth += 1;
+			for (int i = 0; i < operands.size(); i++) {
+				operands.get(i).accept(this);
+			}
+			depth -= 1;
+			return null;
+		}
+
+		private Void filler(OWLClassExpression filler) {
+			depth += 1;
+			filler.accept(this);
+			depth -= 1;
+			return null;
+		}
+
+		@Override
+		public <T> Void doDefault(T object) {
+			OWLClassExpression ce = (OWLClassExpression) object;
+			OWLSubClassOfAxiom a = axiom;
+			if (depth == 0) {
+				trace.log(() -> "Unfollowed relationship: " + a.toString() + " -- while processing: " + a.getSubClass().toString());
+				unhandled.add("SubClassOf(" + ce.getClassExpressionType().getName() + ")", a);
+			}
+			else {
+				trace.log(() -> "Don't know how to get IRI from this type of oce: " + ce.toString());
+				unhandled.add("SubClassOf(... " + ce.getClassExpressionType().getName() + ")", ce);
+			}
+			return null;
+		}
+	}
+
+	void addEquivalentClassesAxiom(OWLEquivalentClassesAxiom a) {
+		Collection<OWLSubClassOfAxiom> subClassesOfAxiom = a.asOWLSubClassOfAxioms();
+
+		// Only the pairs where this class is the (named) subclass of an intersection are followed.
+		// Pairs with an anonymous subclass used to be picked up by every class that the axiom references,
+		// so those IRIs go to every class in the axiom's signature.
+		Map<OWLClass, List<IRI>> iriLists = new HashMap<>();
+		List<IRI> anonymousIris = new ArrayList<>();
+		for (OWLSubClassOfAxiom owlSubClassOfAxiom : subClassesOfAxiom) {
+			List<IRI> iriList;
+			if (!owlSubClassOfAxiom.getSubClass().isAnonymous()) {
+				iriList = iriLists.computeIfAbsent(owlSubClassOfAxiom.getSubClass().asOWLClass(), k -> new ArrayList<>());
+			}
+			else {
+				iriList = anonymousIris;
+			}
+
+			if (owlSubClassOfAxiom.getSuperClass().getClassExpressionType() == ClassExpressionType.OBJECT_INTERSECTION_OF) {
+				OWLObjectIntersectionOf intersection = (OWLObjectIntersectionOf) owlSubClassOfAxiom.getSuperClass();
+				for (OWLClassExpression oce : intersection.getOperandsAsList()) {
+					if (oce.getClassExpressionType() == ClassExpressionType.OBJECT_SOME_VALUES_FROM) {
+						OWLObjectSomeValuesFrom oosvfi = (OWLObjectSomeValuesFrom) oce;
+						if (!oosvfi.getFiller().isAnonymous()) {
+							iriList.add(oosvfi.getFiller().asOWLClass().getIRI());
+						}
+						else {
+							trace.log(() -> "UNHANDLED: " + oosvfi.getFiller().toString());
+							unhandled.add("EquivalentClasses(ObjectIntersectionOf(ObjectSomeValuesFrom("
+									+ oosvfi.getFiller().getClassExpressionType().getName() + ")))", oosvfi);
+						}
+					}
+				}
+			}
+			/*
+			 * Removing this type of axiom import. If the subClass is an intersection of the current term & something else, then that means that you'd have to combine
+			 * some other disease term with something else in order to equal this guy (since we're looking at OWLEquivalentClassesAxiom in this block)
+			 * That's not an equivalence. For example,
+			 * 	while examining Class DOID:178 (Vascular Disease), we get an equivalent axiom of DOID:2462 (retinal vascular disease) AND has location some retina
+			 * Well, we don't want to bring "retina" back to "vascular disease"
+			 */
+			else {
+				unhandled.add("EquivalentClasses(" + owlSubClassOfAxiom.getSuperClass().getClassExpressionType().getName() + ")", a);
+			}
+		}
+
+		if (anonymousIris.isEmpty()) {
+			for (Map.Entry<OWLClass, List<IRI>> entry : iriLists.entrySet()) {
+				addEdges(entry.getKey(), entry.getValue(), a);
+			}
+			return;
+		}
+		for (OWLClass c : a.classesInSignature().toArray(OWLClass[]::new)) {
+			List<IRI> iriList = new ArrayList<>(iriLists.getOrDefault(c, Collections.emptyList()));
+			iriList.addAll(anonymousIris);
+			addEdges(c, iriList, a);
+		}
+	}
+
+	/*
+	 * Pares down the IRIs found on one axiom of class c and records the rest as parent edges.
+	 * For example, we don't want the ROOT IRI or any of the direct children of the root.
+	 * We also don't want to pull in IRIs for non-DO terms that are from a different ontology.
+	 * E.g. we don't want to pull in the related diseases (DOID IRIs) from UBERON:0001017. We only want
+	 * non-DO terms to pull in like terms (from the same ontology)
+	 */
+	private void addEdges(OWLClass c, List<IRI> iriList, Object axiom) {
+		if (iriList.size() == 0 || (iriList.size() == 1 && iriList.get(0).getRemainder().equals(c.getIRI().getRemainder()))) {
+			// if the iri of the superclass is the same as the class itself, continue
+			return;
+		}
+
+		boolean classIsDoid = isDoid(c.getIRI());
+		List<IRI> edges = null;
+		for (IRI iri : iriList) {
+			String remainder = iri.getRemainder().get();
+			if (!classIsDoid && remainder.startsWith("DOID")) {
+				continue;
+			}
+			if (remainder.equals(rootIri)) {
+				// found root; continue
+				continue;
+			}
+			if (excludeIds.contains(remainder)) {
+				trace.log(() -> "IRI: " + remainder + " was in the exclude list");
+				continue;
+			}
+			if (edges == null) {
+				edges = parentEdges.computeIfAbsent(c.getIRI(), k -> new ArrayList<>());
+			}
+			edges.add(iri);
+			if (parentAxioms != null) {
+				parentAxioms.computeIfAbsent(c.getIRI(), k -> new ArrayList<>()).add(axiom);
+			}
+			edgeCount += 1;
+		}
+	}
+
+	private static boolean isDoid(IRI iri) {
+		return iri.getRemainder().get().startsWith("DOID");
+	}
+}
@@ -0,0 +1,618 @@
+package edu.umaryland.igs.eng.disont.utils;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLClassExpression;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLDataPropertyExpression;
+import org.semanticweb.owlapi.model.OWLDataRange;
+import org.semanticweb.owlapi.model.OWLEquivalentClassesAxiom;
+import org.semanticweb.owlapi.model.OWLIndividual;
+import org.semanticweb.owlapi.model.OWLObjectPropertyExpression;
+import org.semanticweb.owlapi.model.OWLSubClassOfAxiom;
+
+/**
+ *
+ * Builds an OntologyGraph straight from an RDF/XML file, in one streaming pass (see RdfXmlParser),
+ * without loading it into the OWLAPI.
+ *
+ * Only the triples the flattener reads are kept:
+ *   - class declarations, rdfs:subClassOf and owl:equivalentClass, with the blank nodes that make up
+ *     their class expressions (restrictions, unions, intersections and their lists)
+ *   - rdfs:label, owl:deprecated and the definition annotation, ie: the annotation property that is
+ *     itself annotated "definition" or "textual definition" (as OWLUtil picks it)
+ *   - dc:type values on reified annotation assertions (owl:Axiom), ie: the ECO codes
+ *
+ * Everything else (synonyms, xrefs, comments and their reifications...) is dropped as it's parsed.
+ *
+ * The class axioms are turned into OWLAPI class expressions, only so they go through the same
+ * ParentEdgeIndex rules as the axioms of a loaded ontology; no ontology is built. Classes are
+ * numbered in IRI order, as OWLOntology.classesInSignature() gives them, so the ids, and the
+ * output, are the same as with the OWLAPI loader.
+ *
+ */
+public class RdfXmlLoader implements RdfXmlParser.TripleHandler {
+
+	private static final String OWL = "http://www.w3.org/2002/07/owl#";
+	private static final String RDFS = "http://www.w3.org/2000/01/rdf-schema#";
+	private static final String XSD = "http://www.w3.org/2001/XMLSchema#";
+
+	private static final String RDFS_LABEL = RDFS + "label";
+	private static final String RDFS_SUBCLASS_OF = RDFS + "subClassOf";
+	private static final String OWL_EQUIVALENT_CLASS = OWL + "equivalentClass";
+	private static final String OWL_DEPRECATED = OWL + "deprecated";
+	private static final String OWL_THING = OWL + "Thing";
+	// see ParentEdgeIndex.isTypeProperty
+	private static final String DC_TYPE = "http://purl.org/dc/elements/1.1/type";
+
+	private static final Set<String> OBJECT_PROPERTY_TYPES = Set.of(OWL + "ObjectProperty", OWL + "TransitiveProperty",
+			OWL + "SymmetricProperty", OWL + "AsymmetricProperty", OWL + "ReflexiveProperty", OWL + "IrreflexiveProperty",
+			OWL + "InverseFunctionalProperty");
+	private static final Set<String> BUILT_IN_ANNOTATION_PROPERTIES = Set.of(RDFS_LABEL, RDFS + "comment", RDFS + "seeAlso",
+			RDFS + "isDefinedBy", OWL_DEPRECATED, OWL + "versionInfo", OWL + "priorVersion", OWL + "backwardCompatibleWith",
+			OWL + "incompatibleWith");
+
+	// the blank node properties that make up class expressions, and the reification of axioms. Their rdf:type
+	// (owl:Restriction, owl:Class, owl:Axiom) says nothing the other properties don't
+	private static final Set<String> STRUCTURE = Set.of(RdfXmlParser.RDF_FIRST, RdfXmlParser.RDF_REST,
+			OWL + "onProperty", OWL + "someValuesFrom", OWL + "allValuesFrom", OWL + "hasValue", OWL + "hasSelf",
+			OWL + "cardinality", OWL + "minCardinality", OWL + "maxCardinality", OWL + "qualifiedCardinality",
+			OWL + "minQualifiedCardinality", OWL + "maxQualifiedCardinality", OWL + "onClass", OWL + "onDataRange",
+			OWL + "unionOf", OWL + "intersectionOf", OWL + "complementOf", OWL + "oneOf", OWL + "inverseOf",
+			OWL + "annotatedSource", OWL + "annotatedProperty");
+
+	private static final Set<String> DEFINITION_LABELS = Set.of("definition", "textual definition");
+
+	private final OWLDataFactory df = OWLManager.getOWLDataFactory();
+
+	private final Set<String> classes = new HashSet<>();
+	private final Set<String> objectProperties = new HashSet<>();
+	private final Set<String> dataProperties = new HashSet<>();
+	private final Set<String> annotationProperties = new HashSet<>();
+	private final Set<String> datatypes = new HashSet<>();
+
+	// (subject, object) pairs
+	private final List<String> subClassOf = new ArrayList<>();
+	private final List<String> equivalentClass = new ArrayList<>();
+
+	private final Map<String, BlankNode> blankNodes = new HashMap<>();
+
+	// (subject, value) pairs
+	private final List<String> labels = new ArrayList<>();
+	private final Set<String> deprecated = new HashSet<>();
+
+	// the annotation properties annotated "definition", in the order they were found
+	private final Set<String> definitionCandidates = new LinkedHashSet<>();
+	private String definitionProperty = null;
+	// (subject, value) pairs of every literal annotation, by property, until we know which property holds the definitions
+	private Map<String, List<String>> pendingLiterals = new HashMap<>();
+	private final List<String> definitions = new ArrayList<>();
+	private final Map<String, String> remainders = new HashMap<>();
+
+	private RdfXmlLoader() {
+	}
+
+	/**
+	 * @param rootIri the root IRI given on the command line. Its direct children are excluded, as with the OWLAPI loader
+	 * @param unhandled counts the axioms and class expressions that we don't know how to follow
+	 */
+	public static OntologyGraph load(String owlFile, String rootIri, UnhandledShapes unhandled, boolean debug) throws IOException {
+		return load(owlFile, rootIri, unhandled, new Trace(debug, null), null);
+	}
+
+	/**
+	 * @param trace the axioms behind the edges that the traced terms can reach are recorded with it
+	 * @param metrics if not null, times the phases: load (parsing, which finds the definition property
+	 * as it goes), root_children, edges and graph
+	 */
+	public static OntologyGraph load(String owlFile, String rootIri, UnhandledShapes unhandled, Trace trace,
+			RunMetrics metrics) throws IOException {
+		return load(owlFile, List.of(rootIri), List.of(unhandled), List.of(trace), metrics).get(0);
+	}
+
+	/**
+	 * Parses the file once and builds a graph for each root, sharing one LabelIndex (see OntologyGraph.fromOntology)
+	 *
+	 * @param unhandled for each root
+	 * @param traces for each root
+	 */
+	public static List<OntologyGraph> load(String owlFile, List<String> rootIris, List<UnhandledShapes> unhandled, List<Trace> traces,
+			RunMetrics metrics) throws IOException {
+		Trace trace = traces.get(0);
+		RdfXmlLoader loader = new RdfXmlLoader();
+		long triples = time(metrics, "load", () -> {
+			try (InputStream in = new BufferedInputStream(new FileInputStream(owlFile), 1024 * 1024)) {
+				return RdfXmlParser.parse(in, new File(owlFile).toURI().toString(), loader);
+			}
+		});
+		trace.log(() -> "Read " + triples + " triples; kept " + loader.blankNodes.size() + " blank nodes, "
+				+ loader.subClassOf.size() / 2 + " subClassOf and " + loader.equivalentClass.size() / 2 + " equivalentClass triples");
+		return loader.build(rootIris, unhandled, traces, metrics);
+	}
+
+	private static <T> T time(RunMetrics metrics, String name, RunMetrics.Step<T, IOException> step) throws IOException {
+		return metrics != null ? metrics.time(name, step) : step.run();
+	}
+
+	private static void time(RunMetrics metrics, String name, RunMetrics.VoidStep<IOException> step) throws IOException {
+		if (metrics != null) {
+			metrics.time(name, step);
+		}
+		else {
+			step.run();
+		}
+	}
+
+	@Override
+	public void triple(String subject, String predicate, String object) {
+		if (predicate.equals(RDFS_SUBCLASS_OF)) {
+			subClassOf.add(subject);
+			subClassOf.add(object);
+		}
+		else if (predicate.equals(OWL_EQUIVALENT_CLASS)) {
+			equivalentClass.add(subject);
+			equivalentClass.add(object);
+		}
+		else if (isBlank(subject)) {
+			if (STRUCTURE.contains(predicate) || predicate.equals(DC_TYPE)) {
+				blankNode(subject).add(predicate, object);
+			}
+		}
+		else if (predicate.equals(RdfXmlParser.RDF_TYPE)) {
+			declare(subject, object);
+		}
+		else if (predicate.equals(OWL_DEPRECATED)) {
+			deprecated.add(subject);
+		}
+	}
+
+	@Override
+	public void literal(String subject, String predicate, String lexical, String datatype, String language) {
+		if (isBlank(subject)) {
+			if (STRUCTURE.contains(predicate)) {
+				blankNode(subject).add(predicate, "\"" + lexical);
+			}
+			return;
+		}
+		if (predicate.equals(RDFS_LABEL)) {
+			labels.add(subject);
+			labels.add(lexical);
+		}
+		else if (predicate.equals(OWL_DEPRECATED)) {
+			deprecated.add(subject);
+		}
+		else if (definitionProperty != null) {
+			if (remainder(predicate).equals(definitionProperty)) {
+				definitions.add(predicate);
+				definitions.add(subject);
+				definitions.add(lexical);
+			}
+		}
+		else {
+			List<String> pending = pendingLiterals.computeIfAbsent(predicate, k -> new ArrayList<>());
+			pending.add(subject);
+			pending.add(lexical);
+		}
+
+		if (DEFINITION_LABELS.contains(lexical)) {
+			definitionCandidates.add(subject);
+			resolveDefinitionProperty();
+		}
+	}
+
+	private void declare(String subject, String type) {
+		if (type.equals(OWL + "Class")) {
+			classes.add(subject);
+		}
+		else if (OBJECT_PROPERTY_TYPES.contains(type)) {
+			objectProperties.add(subject);
+		}
+		else if (type.equals(OWL + "DatatypeProperty")) {
+			dataProperties.add(subject);
+		}
+		else if (type.equals(OWL + "AnnotationProperty")) {
+			annotationProperties.add(subject);
+			resolveDefinitionProperty();
+		}
+		else if (type.equals(RDFS + "Datatype")) {
+			datatypes.add(subject);
+		}
+	}
+
+	/*
+	 * Once an annotation property is known to hold the definitions, keep the values of that property and drop the rest
+	 */
+	private void resolveDefinitionProperty() {
+		if (definitionProperty != null) {
+			return;
+		}
+		for (String candidate : definitionCandidates) {
+			if (isAnnotationProperty(candidate)) {
+				definitionProperty = remainder(candidate);
+				for (Map.Entry<String, List<String>> entry : pendingLiterals.entrySet()) {
+					if (remainder(entry.getKey()).equals(definitionProperty)) {
+						List<String> pairs = entry.getValue();
+						for (int i = 0; i < pairs.size(); i += 2) {
+							definitions.add(entry.getKey());
+							definitions.add(pairs.get(i));
+							definitions.add(pairs.get(i + 1));
+						}
+					}
+				}
+				pendingLiterals = null;
+				return;
+			}
+		}
+	}
+
+	private boolean isAnnotationProperty(String iri) {
+		return annotationProperties.contains(iri) || BUILT_IN_ANNOTATION_PROPERTIES.contains(iri);
+	}
+
+	private String remainder(String iri) {
+		return remainders.computeIfAbsent(iri, k -> IRI.create(k).getRemainder().orElse(""));
+	}
+
+	private BlankNode blankNode(String id) {
+		return blankNodes.computeIfAbsent(id, k -> new BlankNode());
+	}
+
+	private static boolean isBlank(String node) {
+		return node.startsWith("_:");
+	}
+
+	/*
+	 * Everything has been read: translate the class axioms and build the graph
+	 */
+	private List<OntologyGraph> build(List<String> rootIris, List<UnhandledShapes> unhandled, List<Trace> traces,
+			RunMetrics metrics) throws IOException {
+
+		List<ParentEdgeIndex> edgeSets = new ArrayList<>();
+		for (int r = 0; r < rootIris.size(); r++) {
+			String rootIri = rootIris.get(r);
+
+			// the direct children of the root are excluded, see GraphLoader.getDirectRootChildren
+			Set<String> excludeIds = new HashSet<>();
+			time(metrics, "root_children", () -> {
+				for (int i = 0; i < subClassOf.size(); i += 2) {
+					if (subClassOf.get(i + 1).equals(rootIri)) {
+						if (isBlank(subClassOf.get(i))) {
+							throw new IOException("Expected all children of root to be named classes, but found an anonymous subclass of " + rootIri);
+						}
+						excludeIds.add(IRI.create(subClassOf.get(i)).getRemainder().orElse(""));
+					}
+				}
+			});
+
+			ParentEdgeIndex edges = ParentEdgeIndex.create(rootIri, excludeIds, unhandled.get(r), traces.get(r));
+			UnhandledShapes shapes = unhandled.get(r);
+			time(metrics, "edges", () -> addEdges(edges, shapes));
+			edges.describeEdges();
+			edgeSets.add(edges);
+		}
+		return time(metrics, "graph", () -> buildGraphs(edgeSets));
+	}
+
+	private void addEdges(ParentEdgeIndex edges, UnhandledShapes unhandled) {
+		// the same axiom can be written more than once; an ontology would only hold it once
+		Set<OWLAxiom> seen = new HashSet<>();
+		for (int i = 0; i < subClassOf.size(); i += 2) {
+			OWLClassExpression sub = classExpression(subClassOf.get(i), 0);
+			OWLClassExpression sup = classExpression(subClassOf.get(i + 1), 0);
+			if (sub == null || sup == null) {
+				unhandled.add("SubClassOf(malformed)", "SubClassOf(" + subClassOf.get(i) + " " + subClassOf.get(i + 1) + ")");
+				continue;
+			}
+			OWLSubClassOfAxiom axiom = df.getOWLSubClassOfAxiom(sub, sup);
+			if (seen.add(axiom)) {
+				edges.addSubClassOfAxiom(axiom);
+			}
+		}
+		for (int i = 0; i < equivalentClass.size(); i += 2) {
+			OWLClassExpression a = classExpression(equivalentClass.get(i), 0);
+			OWLClassExpression b = classExpression(equivalentClass.get(i + 1), 0);
+			if (a == null || b == null) {
+				unhandled.add("EquivalentClasses(malformed)", "EquivalentClasses(" + equivalentClass.get(i) + " " + equivalentClass.get(i + 1) + ")");
+				continue;
+			}
+			if (a.equals(b)) {
+				continue;
+			}
+			OWLEquivalentClassesAxiom axiom = df.getOWLEquivalentClassesAxiom(a, b);
+			if (seen.add(axiom)) {
+				edges.addEquivalentClassesAxiom(axiom);
+			}
+		}
+		seen = null;
+
+		// the ECO codes: dc:type on the reification of an annotation assertion about a named subject. Like the
+		// OWLAPI, if dc:type isn't declared as an annotation property the reification isn't read as annotations
+		for (BlankNode node : isAnnotationProperty(DC_TYPE) ? blankNodes.values() : List.<BlankNode> of()) {
+			String source = node.get(OWL + "annotatedSource");
+			String property = node.get(OWL + "annotatedProperty");
+			if (node.types == null || source == null || isBlank(source) || property == null || !isAnnotationProperty(property)) {
+				continue;
+			}
+			for (String type : node.types) {
+				if (!isBlank(type) && !type.startsWith("\"")) {
+					edges.addTypeAnnotation(IRI.create(source), IRI.create(type));
+				}
+			}
+		}
+
+	}
+
+	private List<OntologyGraph> buildGraphs(List<ParentEdgeIndex> edgeSets) {
+		Set<IRI> signature = new TreeSet<>();
+		for (String c : classes) {
+			signature.add(IRI.create(c));
+		}
+		OntologyGraph.Builder b = new OntologyGraph.Builder();
+		for (IRI c : signature) {
+			b.addClass(b.intern(c));
+		}
+		b.internEdgeIris(edgeSets);
+
+		LabelIndex.Builder labelIndex = b.labels();
+		for (int i = 0; i < labels.size(); i += 2) {
+			int id = b.indexOf(labels.get(i));
+			if (id >= 0) {
+				labelIndex.addLabel(id, labels.get(i + 1));
+			}
+		}
+		for (String subject : deprecated) {
+			int id = b.indexOf(subject);
+			if (id >= 0) {
+				labelIndex.setObsolete(id);
+			}
+		}
+		for (int i = 0; i < definitions.size(); i += 3) {
+			// only annotation assertions count, not data property values
+			int id = b.indexOf(definitions.get(i + 1));
+			if (id >= 0 && isAnnotationProperty(definitions.get(i))) {
+				labelIndex.addDefinition(id, definitions.get(i + 2));
+			}
+		}
+		return b.buildEach(edgeSets);
+	}
+
+	/*
+	 * Translates a class IRI or the blank node of a class expression. Named classes are added to the signature.
+	 * Returns null for anything that isn't a well formed class expression.
+	 */
+	private OWLClassExpression classExpression(String node, int depth) {
+		if (!isBlank(node)) {
+			classes.add(node);
+			return df.getOWLClass(IRI.create(node));
+		}
+		BlankNode n = blankNodes.get(node);
+		if (n == null || depth > 64) {
+			return null;
+		}
+
+		if (n.has(OWL + "unionOf")) {
+			Set<OWLClassExpression> operands = classExpressions(n.get(OWL + "unionOf"), depth);
+			return operands == null ? null : df.getOWLObjectUnionOf(operands);
+		}
+		if (n.has(OWL + "intersectionOf")) {
+			Set<OWLClassExpression> operands = classExpressions(n.get(OWL + "intersectionOf"), depth);
+			return operands == null ? null : df.getOWLObjectIntersectionOf(operands);
+		}
+		if (n.has(OWL + "complementOf")) {
+			OWLClassExpression operand = classExpression(n.get(OWL + "complementOf"), depth + 1);
+			return operand == null ? null : df.getOWLObjectComplementOf(operand);
+		}
+		if (n.has(OWL + "oneOf")) {
+			List<String> members = list(n.get(OWL + "oneOf"));
+			if (members == null) {
+				return null;
+			}
+			Set<OWLIndividual> individuals = new LinkedHashSet<>();
+			for (String member : members) {
+				individuals.add(individual(member));
+			}
+			return df.getOWLObjectOneOf(individuals);
+		}
+		if (n.has(OWL + "onProperty")) {
+			return restriction(n, depth);
+		}
+		return null;
+	}
+
+	private Set<OWLClassExpression> classExpressions(String list, int depth) {
+		List<String> members = list(list);
+		if (members == null) {
+			return null;
+		}
+		Set<OWLClassExpression> operands = new LinkedHashSet<>();
+		for (String member : members) {
+			OWLClassExpression operand = classExpression(member, depth + 1);
+			if (operand == null) {
+				return null;
+			}
+			operands.add(operand);
+		}
+		return operands;
+	}
+
+	private OWLClassExpression restriction(BlankNode n, int depth) {
+		String property = n.get(OWL + "onProperty");
+		String someValuesFrom = n.get(OWL + "someValuesFrom");
+		String allValuesFrom = n.get(OWL + "allValuesFrom");
+		String filler = someValuesFrom != null ? someValuesFrom : allValuesFrom;
+		if (filler == null) {
+			filler = n.get(OWL + "onClass") != null ? n.get(OWL + "onClass") : n.get(OWL + "onDataRange");
+		}
+
+		if (isDataProperty(property, filler)) {
+			OWLDataPropertyExpression p = df.getOWLDataProperty(IRI.create(property));
+			OWLDataRange range = filler == null || isBlank(filler) ? df.getTopDatatype() : df.getOWLDatatype(IRI.create(filler));
+			if (someValuesFrom != null) {
+				return df.getOWLDataSomeValuesFrom(p, range);
+			}
+			if (allValuesFrom != null) {
+				return df.getOWLDataAllValuesFrom(p, range);
+			}
+			if (n.has(OWL + "hasValue")) {
+				return df.getOWLDataHasValue(p, df.getOWLLiteral(literal(n.get(OWL + "hasValue"))));
+			}
+			Integer exact = cardinality(n, "cardinality", "qualifiedCardinality");
+			Integer min = cardinality(n, "minCardinality", "minQualifiedCardinality");
+			Integer max = cardinality(n, "maxCardinality", "maxQualifiedCardinality");
+			return exact != null ? df.getOWLDataExactCardinality(exact, p, range)
+					: min != null ? df.getOWLDataMinCardinality(min, p, range)
+					: max != null ? df.getOWLDataMaxCardinality(max, p, range)
+					: null;
+		}
+
+		OWLObjectPropertyExpression p = objectProperty(property);
+		if (p == null) {
+			return null;
+		}
+		if (someValuesFrom != null || allValuesFrom != null) {
+			OWLClassExpression f = classExpression(filler, depth + 1);
+			if (f == null) {
+				return null;
+			}
+			return someValuesFrom != null ? df.getOWLObjectSomeValuesFrom(p, f) : df.getOWLObjectAllValuesFrom(p, f);
+		}
+		if (n.has(OWL + "hasValue")) {
+			return df.getOWLObjectHasValue(p, individual(n.get(OWL + "hasValue")));
+		}
+		if (n.has(OWL + "hasSelf")) {
+			return df.getOWLObjectHasSelf(p);
+		}
+		// unqualified cardinalities are qualified with owl:Thing
+		OWLClassExpression f = classExpression(filler == null ? OWL_THING : filler, depth + 1);
+		if (f == null) {
+			return null;
+		}
+		Integer exact = cardinality(n, "cardinality", "qualifiedCardinality");
+		Integer min = cardinality(n, "minCardinality", "minQualifiedCardinality");
+		Integer max = cardinality(n, "maxCardinality", "maxQualifiedCardinality");
+		return exact != null ? df.getOWLObjectExactCardinality(exact, p, f)
+				: min != null ? df.getOWLObjectMinCardinality(min, p, f)
+				: max != null ? df.getOWLObjectMaxCardinality(max, p, f)
+				: null;
+	}
+
+	private boolean isDataProperty(String property, String filler) {
+		if (property == null || isBlank(property)) {
+			return false;
+		}
+		if (dataProperties.contains(property)) {
+			return true;
+		}
+		if (objectProperties.contains(property) || filler == null || isBlank(filler)) {
+			return false;
+		}
+		return datatypes.contains(filler) || filler.startsWith(XSD) || filler.equals(RDFS + "Literal");
+	}
+
+	private OWLObjectPropertyExpression objectProperty(String property) {
+		if (property == null) {
+			return null;
+		}
+		if (!isBlank(property)) {
+			return df.getOWLObjectProperty(IRI.create(property));
+		}
+		BlankNode n = blankNodes.get(property);
+		String inverse = n == null ? null : n.get(OWL + "inverseOf");
+		return inverse == null || isBlank(inverse) ? null : df.getOWLObjectInverseOf(df.getOWLObjectProperty(IRI.create(inverse)));
+	}
+
+	private OWLIndividual individual(String node) {
+		return isBlank(node) ? df.getOWLAnonymousIndividual(node.substring(2)) : df.getOWLNamedIndividual(IRI.create(node));
+	}
+
+	private Integer cardinality(BlankNode n, String unqualified, String qualified) {
+		String value = n.get(OWL + unqualified);
+		if (value == null) {
+			value = n.get(OWL + qualified);
+		}
+		if (value == null) {
+			return null;
+		}
+		try {
+			return Integer.valueOf(literal(value).trim());
+		}
+		catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	private static String literal(String value) {
+		return value.startsWith("\"") ? value.substring(1) : value;
+	}
+
+	/*
+	 * The members of an rdf:List, or null if it's broken
+	 */
+	private List<String> list(String head) {
+		List<String> members = new ArrayList<>();
+		Set<String> visited = new HashSet<>();
+		String cell = head;
+		while (cell != null && !cell.equals(RdfXmlParser.RDF_NIL)) {
+			BlankNode n = blankNodes.get(cell);
+			if (n == null || !visited.add(cell) || n.get(RdfXmlParser.RDF_FIRST) == null) {
+				return null;
+			}
+			members.add(n.get(RdfXmlParser.RDF_FIRST));
+			cell = n.get(RdfXmlParser.RDF_REST);
+		}
+		return cell == null ? null : members;
+	}
+
+	/*
+	 * The structural properties of a blank node. Each has one value, except dc:type of which there can be several.
+	 */
+	private static class BlankNode {
+		private String[] properties = new String[4];
+		private int size = 0;
+		List<String> types = null;
+
+		void add(String predicate, String object) {
+			if (predicate.equals(DC_TYPE)) {
+				if (types == null) {
+					types = new ArrayList<>(1);
+				}
+				types.add(object);
+				return;
+			}
+			if (size == properties.length) {
+				properties = Arrays.copyOf(properties, size * 2);
+			}
+			properties[size++] = predicate;
+			properties[size++] = object;
+		}
+
+		String get(String predicate) {
+			for (int i = 0; i < size; i += 2) {
+				if (properties[i].equals(predicate)) {
+					return properties[i + 1];
+				}
+			}
+			return null;
+		}
+
+		boolean has(String predicate) {
+			return get(predicate) != null;
+		}
+	}
+}
@@ -0,0 +1,397 @@
+package edu.umaryland.igs.eng.disont.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ *
+ * Reads RDF/XML with a single StAX pass and hands every triple to a TripleHandler as it's found.
+ * Nothing is kept once it's been handed over, so it's up to the handler to hold on to what it needs.
+ *
+ * Covers the RDF/XML grammar the OWLAPI and ROBOT write, and the rest of it that's still in use:
+ * typed node elements, rdf:about / rdf:ID / rdf:nodeID, property attributes, rdf:resource,
+ * nested node elements, rdf:parseType Resource, Collection and Literal, rdf:datatype, xml:lang,
+ * xml:base and rdf:li. Reification of statements (rdf:ID on a property element) is ignored.
+ *
+ * Blank nodes are passed as "_:" followed by their node id, everything else that isn't a literal is an absolute IRI.
+ *
+ */
+public class RdfXmlParser {
+
+	public static final String RDF = "http://www.w3.org/1999/02/22-rdf-syntax-ns#";
+	public static final String RDF_TYPE = RDF + "type";
+	public static final String RDF_FIRST = RDF + "first";
+	public static final String RDF_REST = RDF + "rest";
+	public static final String RDF_NIL = RDF + "nil";
+	public static final String XML_LITERAL = RDF + "XMLLiteral";
+
+	private static final String XML = "http://www.w3.org/XML/1998/namespace";
+	private static final Pattern SCHEME = Pattern.compile("^[a-zA-Z][a-zA-Z0-9+.-]*:");
+
+	public interface TripleHandler {
+
+		/**
+		 * A triple whose object is an IRI or a blank node
+		 */
+		void triple(String subject, String predicate, String object);
+
+		/**
+		 * @param datatype the datatype IRI, or null
+		 * @param language the language tag, or null
+		 */
+		void literal(String subject, String predicate, String lexical, String datatype, String language);
+	}
+
+	private final XMLStreamReader reader;
+	private final TripleHandler handler;
+	private long blankNodes = 0;
+	private long triples = 0;
+
+	private RdfXmlParser(XMLStreamReader reader, TripleHandler handler) {
+		this.reader = reader;
+		this.handler = handler;
+	}
+
+	/**
+	 * @param documentIri the base IRI, for relative IRIs in a document without an xml:base
+	 * @return the number of triples read
+	 */
+	public static long parse(InputStream in, String documentIri, TripleHandler handler) throws IOException {
+		XMLInputFactory factory = XMLInputFactory.newFactory();
+		factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+		// the OWLAPI writes a DOCTYPE with entities for the namespaces. Those are expanded, but nothing is fetched
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, true);
+		factory.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES, true);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		try {
+			XMLStreamReader reader = factory.createXMLStreamReader(in);
+			try {
+				RdfXmlParser parser = new RdfXmlParser(reader, handler);
+				parser.document(documentIri);
+				return parser.triples;
+			}
+			finally {
+				reader.close();
+			}
+		}
+		catch (XMLStreamException e) {
+			throw new IOException("Could not parse RDF/XML: " + e.getMessage(), e);
+		}
+	}
+
+	private void document(String base) throws XMLStreamException, IOException {
+		while (reader.hasNext() && reader.next() != XMLStreamConstants.START_ELEMENT) {
+			// skip the prolog
+		}
+		if (!reader.isStartElement()) {
+			throw new IOException("Not an RDF/XML document: there are no elements");
+		}
+		if (isRdf("RDF")) {
+			base = base(base);
+			String lang = lang(null);
+			while (nextTag() == XMLStreamConstants.START_ELEMENT) {
+				nodeElement(base, lang);
+			}
+		}
+		else {
+			nodeElement(base, null);
+		}
+	}
+
+	/*
+	 * Reads a node element, from its start tag to its end tag, and returns its subject
+	 */
+	private String nodeElement(String base, String lang) throws XMLStreamException, IOException {
+		base = base(base);
+		lang = lang(lang);
+
+		String subject = null;
+		for (int a = 0; a < reader.getAttributeCount(); a++) {
+			if (!RDF.equals(reader.getAttributeNamespace(a))) {
+				continue;
+			}
+			String name = reader.getAttributeLocalName(a);
+			String value = reader.getAttributeValue(a);
+			if (name.equals("about")) {
+				subject = resolve(base, value);
+			}
+			else if (name.equals("ID")) {
+				subject = resolve(base, "#" + value);
+			}
+			else if (name.equals("nodeID")) {
+				subject = "_:" + value;
+			}
+		}
+		if (subject == null) {
+			subject = newBlankNode();
+		}
+
+		if (!isRdf("Description")) {
+			emit(subject, RDF_TYPE, elementIri());
+		}
+		propertyAttributes(subject, base, lang);
+
+		int li = 0;
+		while (nextTag() == XMLStreamConstants.START_ELEMENT) {
+			if (isRdf("li")) {
+				li += 1;
+			}
+			propertyElement(subject, li, base, lang);
+		}
+		return subject;
+	}
+
+	/*
+	 * Reads a property element of subject, from its start tag to its end tag
+	 */
+	private void propertyElement(String subject, int li, String base, String lang) throws XMLStreamException, IOException {
+		base = base(base);
+		lang = lang(lang);
+		String predicate = isRdf("li") ? RDF + "_" + li : elementIri();
+
+		String resource = null;
+		String datatype = null;
+		String parseType = null;
+		boolean hasPropertyAttributes = false;
+		for (int a = 0; a < reader.getAttributeCount(); a++) {
+			String ns = reader.getAttributeNamespace(a);
+			String name = reader.getAttributeLocalName(a);
+			if (RDF.equals(ns)) {
+				switch (name) {
+				case "resource": resource = resolve(base, reader.getAttributeValue(a)); break;
+				case "nodeID": resource = "_:" + reader.getAttributeValue(a); break;
+				case "datatype": datatype = resolve(base, reader.getAttributeValue(a)); break;
+				case "parseType": parseType = reader.getAttributeValue(a); break;
+				case "ID": break;
+				default: hasPropertyAttributes = true;
+				}
+			}
+			else if (ns != null && !ns.isEmpty() && !XML.equals(ns)) {
+				hasPropertyAttributes = true;
+			}
+		}
+
+		if ("Resource".equals(parseType)) {
+			String object = newBlankNode();
+			emit(subject, predicate, object);
+			int objectLi = 0;
+			while (nextTag() == XMLStreamConstants.START_ELEMENT) {
+				if (isRdf("li")) {
+					objectLi += 1;
+				}
+				propertyElement(object, objectLi, base, lang);
+			}
+			return;
+		}
+		if ("Collection".equals(parseType)) {
+			List<String> items = new ArrayList<>();
+			while (nextTag() == XMLStreamConstants.START_ELEMENT) {
+				items.add(nodeElement(base, lang));
+			}
+			String list = RDF_NIL;
+			for (int i = items.size() - 1; i >= 0; i--) {
+				String cell = newBlankNode();
+				emit(cell, RDF_FIRST, items.get(i));
+				emit(cell, RDF_REST, list);
+				list = cell;
+			}
+			emit(subject, predicate, list);
+			return;
+		}
+		if (parseType != null) {
+			// Literal, or anything else, which RDF/XML says to treat the same
+			handler.literal(subject, predicate, innerXml(), XML_LITERAL, null);
+			triples += 1;
+			return;
+		}
+
+		if (resource != null || hasPropertyAttributes) {
+			String object = resource != null ? resource : newBlankNode();
+			emit(subject, predicate, object);
+			propertyAttributes(object, base, lang);
+			skipToEnd();
+			return;
+		}
+
+		// either a literal or a single nested node element
+		StringBuilder text = new StringBuilder();
+		String object = null;
+		while (true) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				object = nodeElement(base, lang);
+			}
+			else if (event == XMLStreamConstants.END_ELEMENT) {
+				break;
+			}
+			else if (object == null && (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA
+					|| event == XMLStreamConstants.SPACE)) {
+				text.append(reader.getText());
+			}
+		}
+		if (object != null) {
+			emit(subject, predicate, object);
+		}
+		else {
+			handler.literal(subject, predicate, text.toString(), datatype, datatype == null ? lang : null);
+			triples += 1;
+		}
+	}
+
+	/*
+	 * The attributes of the current element that are properties of subject, ie: everything that isn't RDF or XML syntax
+	 */
+	private void propertyAttributes(String subject, String base, String lang) {
+		for (int a = 0; a < reader.getAttributeCount(); a++) {
+			String ns = reader.getAttributeNamespace(a);
+			String name = reader.getAttributeLocalName(a);
+			if (ns == null || ns.isEmpty() || XML.equals(ns)) {
+				continue;
+			}
+			if (RDF.equals(ns)) {
+				if (name.equals("type")) {
+					emit(subject, RDF_TYPE, resolve(base, reader.getAttributeValue(a)));
+				}
+				continue;
+			}
+			handler.literal(subject, ns + name, reader.getAttributeValue(a), null, lang);
+			triples += 1;
+		}
+	}
+
+	private void emit(String subject, String predicate, String object) {
+		handler.triple(subject, predicate, object);
+		triples += 1;
+	}
+
+	private String newBlankNode() {
+		// '#' can't be in an rdf:nodeID, so these never clash with the document's own
+		return "_:#" + (++blankNodes);
+	}
+
+	private boolean isRdf(String localName) {
+		return RDF.equals(reader.getNamespaceURI()) && localName.equals(reader.getLocalName());
+	}
+
+	private String elementIri() {
+		String ns = reader.getNamespaceURI();
+		return (ns == null ? "" : ns) + reader.getLocalName();
+	}
+
+	private String base(String base) {
+		String xmlBase = reader.getAttributeValue(XML, "base");
+		return xmlBase == null ? base : resolve(base, xmlBase);
+	}
+
+	private String lang(String lang) {
+		String xmlLang = reader.getAttributeValue(XML, "lang");
+		if (xmlLang == null) {
+			return lang;
+		}
+		return xmlLang.isEmpty() ? null : xmlLang;
+	}
+
+	/*
+	 * Moves to the next start or end tag, skipping text and comments in between
+	 */
+	private int nextTag() throws XMLStreamException {
+		while (true) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT || event == XMLStreamConstants.END_ELEMENT) {
+				return event;
+			}
+			if (event == XMLStreamConstants.END_DOCUMENT) {
+				throw new XMLStreamException("Unexpected end of document");
+			}
+		}
+	}
+
+	private void skipToEnd() throws XMLStreamException {
+		int depth = 1;
+		while (depth > 0) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				depth += 1;
+			}
+			else if (event == XMLStreamConstants.END_ELEMENT) {
+				depth -= 1;
+			}
+		}
+	}
+
+	/*
+	 * The content of an rdf:parseType="Literal" element, written back out as XML
+	 */
+	private String innerXml() throws XMLStreamException {
+		StringBuilder xml = new StringBuilder();
+		int depth = 1;
+		while (true) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				depth += 1;
+				xml.append('<').append(qname(reader.getPrefix(), reader.getLocalName()));
+				for (int n = 0; n < reader.getNamespaceCount(); n++) {
+					String prefix = reader.getNamespacePrefix(n);
+					xml.append(prefix == null || prefix.isEmpty() ? " xmlns" : " xmlns:" + prefix)
+							.append("=\"").append(escapeXml(reader.getNamespaceURI(n))).append('"');
+				}
+				for (int a = 0; a < reader.getAttributeCount(); a++) {
+					xml.append(' ').append(qname(reader.getAttributePrefix(a), reader.getAttributeLocalName(a)))
+							.append("=\"").append(escapeXml(reader.getAttributeValue(a))).append('"');
+				}
+				xml.append('>');
+			}
+			else if (event == XMLStreamConstants.END_ELEMENT) {
+				if (--depth == 0) {
+					return xml.toString();
+				}
+				xml.append("</").append(qname(reader.getPrefix(), reader.getLocalName())).append('>');
+			}
+			else if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA || event == XMLStreamConstants.SPACE) {
+				xml.append(escapeXml(reader.getText()));
+			}
+		}
+	}
+
+	private static String qname(String prefix, String localName) {
+		return prefix == null || prefix.isEmpty() ? localName : prefix + ":" + localName;
+	}
+
+	private static String escapeXml(String s) {
+		return s.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+	}
+
+	/*
+	 * Resolves an IRI reference against the base. Absolute IRIs are returned as they are.
+	 */
+	static String resolve(String base, String reference) {
+		if (SCHEME.matcher(reference).find() || base == null) {
+			return reference;
+		}
+		int hash = base.indexOf('#');
+		String document = hash < 0 ? base : base.substring(0, hash);
+		if (reference.isEmpty()) {
+			return document;
+		}
+		if (reference.startsWith("#")) {
+			return document + reference;
+		}
+		try {
+			return new URI(document).resolve(new URI(reference)).toString();
+		}
+		catch (URISyntaxException e) {
+			return document + reference;
+		}
+	}
+}
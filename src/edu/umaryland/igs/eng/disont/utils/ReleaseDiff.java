@@ -0,0 +1,159 @@
+package edu.umaryland.igs.eng.disont.utils;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Objects;
+
+/**
+ *
+ * Works out which documents can have changed between two releases of the ontology.
+ *
+ * Classes are matched up by IRI. A class has changed if it's new, or its parent or
+ * annotation edges (compared by IRI), label, name, definition, obsolete flag or facet
+ * are different. A document only depends on its own class and the classes in its closure,
+ * so the documents that can have changed are those of the changed classes and of
+ * everything that depends on them in the current release (see ReverseIndex). A class that
+ * was removed shows up as a changed parent edge of everything that pointed at it. The
+ * documents of removed classes are candidates too, for deletion.
+ *
+ */
+public class ReleaseDiff {
+
+	private final int changedCount;
+	private final int removedCount;
+	private final int[] currentCandidates;
+	private final int[] previousCandidates;
+
+	private ReleaseDiff(int changedCount, int removedCount, int[] currentCandidates, int[] previousCandidates) {
+		this.changedCount = changedCount;
+		this.removedCount = removedCount;
+		this.currentCandidates = currentCandidates;
+		this.previousCandidates = previousCandidates;
+	}
+
+	/**
+	 * Both facet arrays must have been routed by the same FacetRouter
+	 */
+	public static ReleaseDiff compare(OntologyGraph previous, short[] previousFacets, OntologyGraph current, short[] currentFacets) {
+
+		int[] toPrevious = new int[current.size()];
+		for (int c = 0; c < current.size(); c++) {
+			toPrevious[c] = previous.indexOf(current.getIri(c));
+		}
+		BitSet matched = new BitSet(previous.size());
+
+		BitSet changed = new BitSet(current.size());
+		for (int c = 0; c < current.size(); c++) {
+			int p = toPrevious[c];
+			if (p < 0) {
+				changed.set(c);
+				continue;
+			}
+			matched.set(p);
+			if (!sameEdges(previous, p, current, c, toPrevious)
+					|| previous.getLabels().isObsolete(p) != current.getLabels().isObsolete(c)
+					|| previousFacets[p] != currentFacets[c]
+					|| !Objects.equals(previous.getLabels().getLabel(p), current.getLabels().getLabel(c))
+					|| !Objects.equals(previous.getLabels().getName(p), current.getLabels().getName(c))
+					|| !Objects.equals(previous.getLabels().getDefinition(p), current.getLabels().getDefinition(c))) {
+				changed.set(c);
+			}
+		}
+
+		BitSet affected = new ReverseIndex(current).dependentsOf(changed);
+		int[] currentCandidates = inClassOrder(current, affected);
+
+		// the same documents in the previous release, plus the ones that are gone
+		BitSet before = new BitSet(previous.size());
+		for (int c = affected.nextSetBit(0); c >= 0; c = affected.nextSetBit(c + 1)) {
+			if (toPrevious[c] >= 0) {
+				before.set(toPrevious[c]);
+			}
+		}
+		int removed = 0;
+		for (int p = 0; p < previous.size(); p++) {
+			if (!matched.get(p)) {
+				before.set(p);
+				removed += 1;
+			}
+		}
+		int[] previousCandidates = inClassOrder(previous, before);
+
+		return new ReleaseDiff(changed.cardinality(), removed, currentCandidates, previousCandidates);
+	}
+
+	/*
+	 * Compares the edges of a class in both releases as sets of (previous release) ids
+	 */
+	private static boolean sameEdges(OntologyGraph previous, int p, OntologyGraph current, int c, int[] toPrevious) {
+		if (previous.getParentEnd(p) - previous.getParentStart(p) != current.getParentEnd(c) - current.getParentStart(c)
+				|| previous.getAnnotationEnd(p) - previous.getAnnotationStart(p) != current.getAnnotationEnd(c) - current.getAnnotationStart(c)) {
+			return false;
+		}
+		int[] before = new int[previous.getParentEnd(p) - previous.getParentStart(p)];
+		int[] after = new int[before.length];
+		for (int k = 0; k < before.length; k++) {
+			before[k] = previous.getParentTarget(previous.getParentStart(p) + k);
+			after[k] = toPrevious[current.getParentTarget(current.getParentStart(c) + k)];
+		}
+		if (!sameSet(before, after)) {
+			return false;
+		}
+		before = new int[previous.getAnnotationEnd(p) - previous.getAnnotationStart(p)];
+		after = new int[before.length];
+		for (int k = 0; k < before.length; k++) {
+			before[k] = previous.getAnnotationTarget(previous.getAnnotationStart(p) + k);
+			after[k] = toPrevious[current.getAnnotationTarget(current.getAnnotationStart(c) + k)];
+		}
+		return sameSet(before, after);
+	}
+
+	private static boolean sameSet(int[] a, int[] b) {
+		Arrays.sort(a);
+		Arrays.sort(b);
+		return Arrays.equals(a, b);
+	}
+
+	/*
+	 * The classes in the set that are in the graph's signature (the only ones that get documents),
+	 * in signature order, which is the order documents are written in
+	 */
+	private static int[] inClassOrder(OntologyGraph graph, BitSet set) {
+		int[] ordered = new int[set.cardinality()];
+		int count = 0;
+		for (int c : graph.getClasses()) {
+			if (set.get(c)) {
+				ordered[count++] = c;
+			}
+		}
+		return Arrays.copyOf(ordered, count);
+	}
+
+	/**
+	 * @return how many classes were added or changed
+	 */
+	public int getChangedCount() {
+		return changedCount;
+	}
+
+	/**
+	 * @return how many classes of the previous release are gone
+	 */
+	public int getRemovedCount() {
+		return removedCount;
+	}
+
+	/**
+	 * @return the classes of the current release whose documents may have changed, in output order
+	 */
+	public int[] getCurrentCandidates() {
+		return currentCandidates;
+	}
+
+	/**
+	 * @return the same documents in the previous release, plus those of the classes that are gone
+	 */
+	public int[] getPreviousCandidates() {
+		return previousCandidates;
+	}
+}
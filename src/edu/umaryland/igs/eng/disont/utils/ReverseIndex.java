@@ -0,0 +1,73 @@
+package edu.umaryland.igs.eng.disont.utils;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ *
+ * The "who depends on me" side of an OntologyGraph: for every class, the classes that
+ * point at it with a parent or annotation edge. A class' flattened ancestors can only
+ * change if something it reaches through those edges changes, so walking this index from
+ * a set of changed classes gives every class whose closure (and document) may change.
+ *
+ * Stored CSR style like the graph's own edges.
+ *
+ */
+public class ReverseIndex {
+
+	private final int[] offsets;
+	private final int[] dependents;
+
+	public ReverseIndex(OntologyGraph graph) {
+		int n = graph.size();
+		offsets = new int[n + 1];
+		for (int c = 0; c < n; c++) {
+			for (int e = graph.getParentStart(c); e < graph.getParentEnd(c); e++) {
+				offsets[graph.getParentTarget(e) + 1] += 1;
+			}
+			for (int e = graph.getAnnotationStart(c); e < graph.getAnnotationEnd(c); e++) {
+				offsets[graph.getAnnotationTarget(e) + 1] += 1;
+			}
+		}
+		for (int c = 0; c < n; c++) {
+			offsets[c + 1] += offsets[c];
+		}
+		dependents = new int[offsets[n]];
+		int[] next = new int[n];
+		System.arraycopy(offsets, 0, next, 0, n);
+		for (int c = 0; c < n; c++) {
+			for (int e = graph.getParentStart(c); e < graph.getParentEnd(c); e++) {
+				dependents[next[graph.getParentTarget(e)]++] = c;
+			}
+			for (int e = graph.getAnnotationStart(c); e < graph.getAnnotationEnd(c); e++) {
+				dependents[next[graph.getAnnotationTarget(e)]++] = c;
+			}
+		}
+	}
+
+	/**
+	 * @return the seeds, and every class that depends on one of them, directly or not
+	 */
+	public BitSet dependentsOf(BitSet seeds) {
+		BitSet reached = (BitSet) seeds.clone();
+		int[] queue = new int[Math.max(16, seeds.cardinality())];
+		int tail = 0;
+		for (int c = seeds.nextSetBit(0); c >= 0; c = seeds.nextSetBit(c + 1)) {
+			queue[tail++] = c;
+		}
+		for (int head = 0; head < tail; head++) {
+			int c = queue[head];
+			for (int k = offsets[c]; k < offsets[c + 1]; k++) {
+				int d = dependents[k];
+				if (!reached.get(d)) {
+					reached.set(d);
+					if (tail == queue.length) {
+						queue = Arrays.copyOf(queue, tail * 2);
+					}
+					queue[tail++] = d;
+				}
+			}
+		}
+		return reached;
+	}
+}
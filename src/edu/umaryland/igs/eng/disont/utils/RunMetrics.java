@@ -0,0 +1,288 @@
+package edu.umaryland.igs.eng.disont.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+/**
+ *
+ * What a run did and what it cost: the wall and CPU time of each phase, counters (edges
+ * traversed, documents and bytes written, cache hits...) and the peak heap.
+ *
+ * A phase is timed with metrics.time("closure", () -> ...), or added up with addPhase() when
+ * it's done in pieces. CPU time is the whole process' (every
+ * thread, GC included), so a phase that runs on a pool shows more CPU than wall time.
+ * Phases and counters are reported in the order they were first recorded.
+ *
+ * The peak heap is the most heap in use just before any garbage collection, or now if
+ * that's more, which is what the heap had to be big enough for.
+ *
+ * progress() prints how far a long step has got, with its throughput and an estimate of the
+ * time left, every so many seconds.
+ *
+ * The metrics can be written as JSON and in the Prometheus text format (for node_exporter's
+ * textfile collector); both are written to a temporary file first and then moved into place.
+ *
+ */
+public class RunMetrics {
+
+	private static final String PROMETHEUS_PREFIX = "owlflattener_";
+
+	private final Map<String, long[]> phases = new LinkedHashMap<>();
+	private final Map<String, Long> counters = new LinkedHashMap<>();
+	private final AtomicLong peakHeap = new AtomicLong();
+	private final long start = System.nanoTime();
+
+	// the instances that are still in use, whose peak heap the GC listener keeps up to date
+	private static final Set<RunMetrics> LIVE = Collections.newSetFromMap(new WeakHashMap<>());
+	private static boolean listening = false;
+
+	public RunMetrics() {
+		synchronized (LIVE) {
+			LIVE.add(this);
+			if (!listening) {
+				listen();
+				listening = true;
+			}
+		}
+	}
+
+	/*
+	 * Registers one listener on the garbage collectors, for every instance. It only holds them weakly, so a
+	 * run's metrics (eg: each job of a --batch, or each --serve reload) can be collected once it's done with.
+	 */
+	private static void listen() {
+		Set<String> heapPools = new HashSet<>();
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				heapPools.add(pool.getName());
+			}
+		}
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			if (gc instanceof NotificationEmitter) {
+				((NotificationEmitter) gc).addNotificationListener((notification, handback) -> {
+					if (notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION)) {
+						long used = 0;
+						GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+						for (Map.Entry<String, MemoryUsage> pool : info.getGcInfo().getMemoryUsageBeforeGc().entrySet()) {
+							if (heapPools.contains(pool.getKey())) {
+								used += pool.getValue().getUsed();
+							}
+						}
+						synchronized (LIVE) {
+							for (RunMetrics metrics : LIVE) {
+								metrics.updatePeakHeap(used);
+							}
+						}
+					}
+				}, null, null);
+			}
+		}
+	}
+
+	/**
+	 * A step of a run, timed as a phase by time(). It can throw whatever checked exception the code in it does.
+	 */
+	public interface Step<T, E extends Exception> {
+		T run() throws E;
+	}
+
+	public interface VoidStep<E extends Exception> {
+		void run() throws E;
+	}
+
+	/**
+	 * Runs a step and adds the time it took to a phase, whether it returns or throws
+	 *
+	 * @return what the step returns
+	 */
+	public <T, E extends Exception> T time(String name, Step<T, E> step) throws E {
+		long wall = System.nanoTime();
+		long cpu = processCpuTime();
+		try {
+			return step.run();
+		}
+		finally {
+			addPhase(name, System.nanoTime() - wall, processCpuTime() - cpu);
+		}
+	}
+
+	public <E extends Exception> void time(String name, VoidStep<E> step) throws E {
+		time(name, () -> {
+			step.run();
+			return null;
+		});
+	}
+
+	/**
+	 * Reports how far through total items a long running step is, at most every interval
+	 *
+	 * @param interval seconds between reports; 0 for none
+	 */
+	public Progress progress(String what, long total, int interval) {
+		return new Progress(what, total, interval);
+	}
+
+	public static class Progress {
+
+		private final String what;
+		private final long total;
+		private final long interval;
+		private final long started = System.nanoTime();
+		private long lastReport = started;
+
+		private Progress(String what, long total, int interval) {
+			this.what = what;
+			this.total = total;
+			this.interval = interval * 1_000_000_000L;
+		}
+
+		/**
+		 * @param done how many of the items are done so far
+		 */
+		public void update(long done) {
+			long now = System.nanoTime();
+			if (interval <= 0 || now - lastReport < interval || done >= total) {
+				return;
+			}
+			lastReport = now;
+			double rate = done / ((now - started) / 1e9);
+			System.out.println(String.format(Locale.ROOT, "%s: %d of %d (%.0f/s), about %.0fs to go",
+					what, done, total, rate, rate > 0 ? (total - done) / rate : 0.0));
+		}
+	}
+
+	/**
+	 * Adds time to a phase. A phase that's recorded more than once (eg: both releases in incremental mode) adds up.
+	 */
+	public synchronized void addPhase(String name, long wallNanos, long cpuNanos) {
+		long[] phase = phases.computeIfAbsent(name, k -> new long[2]);
+		phase[0] += wallNanos;
+		phase[1] += cpuNanos;
+	}
+
+	public synchronized void count(String name, long delta) {
+		counters.merge(name, delta, Long::sum);
+	}
+
+	/**
+	 * @return the CPU time of the whole process so far, in nanoseconds, or 0 if the JVM can't tell
+	 */
+	public static long processCpuTime() {
+		OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+		if (os instanceof com.sun.management.OperatingSystemMXBean) {
+			return Math.max(0, ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime());
+		}
+		return 0;
+	}
+
+	private void updatePeakHeap(long used) {
+		peakHeap.accumulateAndGet(used, Math::max);
+	}
+
+	public long getPeakHeap() {
+		updatePeakHeap(ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+		return peakHeap.get();
+	}
+
+	/**
+	 * Prints a line per phase, and the peak heap
+	 */
+	public synchronized void print() {
+		for (Map.Entry<String, long[]> phase : phases.entrySet()) {
+			System.out.println(String.format(Locale.ROOT, "  %-20s %9.3fs wall %9.3fs cpu", phase.getKey(),
+					phase.getValue()[0] / 1e9, phase.getValue()[1] / 1e9));
+		}
+		System.out.println(String.format(Locale.ROOT, "  %-20s %9.1f MB", "peak heap", getPeakHeap() / (1024.0 * 1024)));
+	}
+
+	public synchronized void writeJson(String file) throws IOException {
+		long peak = getPeakHeap();
+		File tmp = new File(file + ".tmp");
+		try (NdjsonWriter out = NdjsonWriter.open(tmp.getPath())) {
+			out.beginObject();
+			out.key("wall_ms");
+			out.number((System.nanoTime() - start) / 1_000_000);
+			out.key("phases");
+			out.beginObject();
+			for (Map.Entry<String, long[]> phase : phases.entrySet()) {
+				out.key(phase.getKey());
+				out.beginObject();
+				out.key("wall_ms");
+				out.number(phase.getValue()[0] / 1_000_000);
+				out.key("cpu_ms");
+				out.number(phase.getValue()[1] / 1_000_000);
+				out.endObject();
+			}
+			out.endObject();
+			out.key("counters");
+			out.beginObject();
+			for (Map.Entry<String, Long> counter : counters.entrySet()) {
+				out.key(counter.getKey());
+				out.number(counter.getValue());
+			}
+			out.endObject();
+			out.key("peak_heap_bytes");
+			out.number(peak);
+			out.endObject();
+		}
+		moveIntoPlace(tmp, file);
+	}
+
+	public synchronized void writePrometheus(String file) throws IOException {
+		long peak = getPeakHeap();
+		File tmp = new File(file + ".tmp");
+		try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(tmp.toPath(), StandardCharsets.UTF_8))) {
+			out.println("# HELP " + PROMETHEUS_PREFIX + "phase_wall_seconds Wall time of each phase of the last run.");
+			out.println("# TYPE " + PROMETHEUS_PREFIX + "phase_wall_seconds gauge");
+			for (Map.Entry<String, long[]> phase : phases.entrySet()) {
+				out.println(PROMETHEUS_PREFIX + "phase_wall_seconds{phase=\"" + phase.getKey() + "\"} " + seconds(phase.getValue()[0]));
+			}
+			out.println("# HELP " + PROMETHEUS_PREFIX + "phase_cpu_seconds CPU time of the process during each phase of the last run.");
+			out.println("# TYPE " + PROMETHEUS_PREFIX + "phase_cpu_seconds gauge");
+			for (Map.Entry<String, long[]> phase : phases.entrySet()) {
+				out.println(PROMETHEUS_PREFIX + "phase_cpu_seconds{phase=\"" + phase.getKey() + "\"} " + seconds(phase.getValue()[1]));
+			}
+			for (Map.Entry<String, Long> counter : counters.entrySet()) {
+				String name = PROMETHEUS_PREFIX + counter.getKey();
+				out.println("# TYPE " + name + " gauge");
+				out.println(name + " " + counter.getValue());
+			}
+			out.println("# TYPE " + PROMETHEUS_PREFIX + "run_wall_seconds gauge");
+			out.println(PROMETHEUS_PREFIX + "run_wall_seconds " + seconds(System.nanoTime() - start));
+			out.println("# TYPE " + PROMETHEUS_PREFIX + "peak_heap_bytes gauge");
+			out.println(PROMETHEUS_PREFIX + "peak_heap_bytes " + peak);
+		}
+		moveIntoPlace(tmp, file);
+	}
+
+	private static String seconds(long nanos) {
+		return String.format(Locale.ROOT, "%.6f", nanos / 1e9);
+	}
+
+	private static void moveIntoPlace(File tmp, String file) throws IOException {
+		Files.move(tmp.toPath(), new File(file).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+}
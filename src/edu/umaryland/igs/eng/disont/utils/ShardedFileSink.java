@@ -0,0 +1,226 @@
+package edu.umaryland.igs.eng.disont.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+
+/**
+ *
+ * Writes the documents as Elasticsearch bulk files, split into shards of at most maxDocs
+ * documents and maxBytes bytes. A shard only ever ends between two documents, so each one
+ * is a complete bulk body that can be POSTed on its own. A document that's bigger than
+ * maxBytes on its own gets a shard to itself.
+ *
+ * Without limits there's a single file, <base>.json. Otherwise the shards are numbered:
+ * <base>-00000.json, <base>-00001.json... Either way <base>.manifest.json lists every
+ * shard with its document count, size and SHA-256.
+ *
+ * Deciding where each document goes is cheap and done as batches arrive. The writing and
+ * hashing is handed to the executor: the writes to any one shard run in order (each shard has
+ * a WriteQueue), while different shards are written at the same time. Give it a direct executor (Runnable::run)
+ * to write everything on the calling thread.
+ *
+ */
+public class ShardedFileSink implements DocumentSink {
+
+	private final File directory;
+	private final String baseName;
+	private final long maxDocs;
+	private final long maxBytes;
+	private final Executor executor;
+
+	// caps how many batch slices can be waiting to be written, over all the shards
+	private final Semaphore pending;
+
+	private final List<Shard> shards = new ArrayList<>();
+	private Shard current = null;
+
+	/**
+	 * @param maxDocs the most documents in a shard, or Long.MAX_VALUE
+	 * @param maxBytes the largest a shard can be, or Long.MAX_VALUE
+	 * @param maxPending how many batch slices can be queued for writing before accept() blocks
+	 */
+	public ShardedFileSink(String directory, String baseName, long maxDocs, long maxBytes, Executor executor, int maxPending) throws IOException {
+		this.directory = new File(directory);
+		this.baseName = baseName;
+		this.maxDocs = maxDocs;
+		this.maxBytes = maxBytes;
+		this.executor = executor;
+		this.pending = new Semaphore(maxPending);
+
+		if (!this.directory.isDirectory() && !this.directory.mkdirs()) {
+			throw new IOException("Could not create output directory: " + directory);
+		}
+	}
+
+	private boolean isSharded() {
+		return maxDocs != Long.MAX_VALUE || maxBytes != Long.MAX_VALUE;
+	}
+
+	@Override
+	public void accept(DocumentBatch batch) throws IOException {
+		int sliceStart = 0;
+		for (int i = 0; i < batch.size(); i++) {
+			long length = batch.getEnd(i) - batch.getStart(i);
+			if (current == null || (current.docs > 0 && (current.docs >= maxDocs || current.bytes + length > maxBytes))) {
+				if (current != null) {
+					current.write(batch, sliceStart, i);
+					current.close();
+				}
+				sliceStart = i;
+				current = openShard();
+			}
+			current.docs += 1;
+			current.bytes += length;
+		}
+		if (current != null) {
+			current.write(batch, sliceStart, batch.size());
+		}
+	}
+
+	private Shard openShard() throws IOException {
+		String name = isSharded() ? String.format("%s-%05d.json", baseName, shards.size()) : baseName + ".json";
+		Shard shard = new Shard(name);
+		shards.add(shard);
+		return shard;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (current == null) {
+			// nothing was written. Still leave an (empty) file where the loader expects one
+			current = openShard();
+		}
+		current.close();
+		for (Shard shard : shards) {
+			shard.queue.await();
+		}
+		writeManifest();
+	}
+
+	private void writeManifest() throws IOException {
+		long docs = 0;
+		long bytes = 0;
+		try (NdjsonWriter manifest = NdjsonWriter.open(getManifestFile().getPath())) {
+			manifest.beginObject();
+			manifest.key("shards");
+			manifest.beginArray();
+			for (Shard shard : shards) {
+				manifest.beginObject();
+				manifest.key("file");
+				manifest.string(shard.name);
+				manifest.key("documents");
+				manifest.number(shard.docs);
+				manifest.key("bytes");
+				manifest.number(shard.bytes);
+				manifest.key("sha256");
+				manifest.string(shard.checksum);
+				manifest.endObject();
+				docs += shard.docs;
+				bytes += shard.bytes;
+			}
+			manifest.endArray();
+			manifest.key("documents");
+			manifest.number(docs);
+			manifest.key("bytes");
+			manifest.number(bytes);
+			manifest.endObject();
+		}
+	}
+
+	public File getManifestFile() {
+		return new File(directory, baseName + ".manifest.json");
+	}
+
+	public int getShardCount() {
+		return shards.size();
+	}
+
+	public long getByteCount() {
+		long bytes = 0;
+		for (Shard shard : shards) {
+			bytes += shard.bytes;
+		}
+		return bytes;
+	}
+
+	public long getDocumentCount() {
+		long docs = 0;
+		for (Shard shard : shards) {
+			docs += shard.docs;
+		}
+		return docs;
+	}
+
+	/**
+	 * @return the time spent writing and hashing the shards, in nanoseconds
+	 */
+	public long getWriteNanos() {
+		long nanos = 0;
+		for (Shard shard : shards) {
+			nanos += shard.queue.getBusyNanos();
+		}
+		return nanos;
+	}
+
+	/*
+	 * One output file, and the queue its slices are written in order by
+	 */
+	private class Shard {
+
+		final String name;
+		final FileChannel channel;
+		final MessageDigest digest;
+		final WriteQueue queue;
+		long docs = 0;
+		long bytes = 0;
+		String checksum = null;
+
+		Shard(String name) throws IOException {
+			this.name = name;
+			this.channel = FileChannel.open(new File(directory, name).toPath(),
+					StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+			try {
+				this.digest = MessageDigest.getInstance("SHA-256");
+			}
+			catch (NoSuchAlgorithmException e) {
+				throw new IOException(e);
+			}
+			this.queue = new WriteQueue(name, executor, pending);
+		}
+
+		/*
+		 * Queues documents from .. to of the batch to be written to this shard
+		 */
+		void write(DocumentBatch batch, int from, int to) throws IOException {
+			if (from == to) {
+				return;
+			}
+			int offset = batch.getStart(from);
+			int length = batch.getEnd(to - 1) - offset;
+			queue.write(() -> {
+				ByteBuffer bb = ByteBuffer.wrap(batch.getBytes(), offset, length);
+				while (bb.hasRemaining()) {
+					channel.write(bb);
+				}
+				digest.update(batch.getBytes(), offset, length);
+			});
+		}
+
+		void close() {
+			queue.close(() -> {
+				channel.close();
+				checksum = HexFormat.of().formatHex(digest.digest());
+			});
+		}
+	}
+}
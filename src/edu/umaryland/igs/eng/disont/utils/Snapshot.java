@@ -0,0 +1,115 @@
+package edu.umaryland.igs.eng.disont.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ *
+ * The extracted model of an owl file, saved with --snapshot-out so a later run can start
+ * flattening from it (--snapshot-in) without loading the ontology at all.
+ *
+ * It holds the OntologyGraph: the class IRIs, parent edges, labels, definitions, obsolete
+ * flags and the root's children, plus the shapes of the axioms that were skipped (see
+ * UnhandledShapes). It's a BinaryFile, so it's memory mapped to read it and has a version and
+ * a checksum.
+ *
+ * Unlike GraphCache, which is rebuilt quietly when it doesn't match, a snapshot is the input,
+ * so one that doesn't match is rejected with an IOException: a corrupt file or another format
+ * version; a different root; other exclusion rules than this build's; or a source owl file
+ * that has changed since (when it's still where it was).
+ *
+ */
+public class Snapshot {
+
+	private static final int MAGIC = 0x444f534e; // DOSN
+	private static final int VERSION = 2;
+
+	private final OntologyGraph graph;
+	private final UnhandledShapes unhandled;
+	private final String source;
+
+	private Snapshot(OntologyGraph graph, UnhandledShapes unhandled, String source) {
+		this.graph = graph;
+		this.unhandled = unhandled;
+		this.source = source;
+	}
+
+	/**
+	 * @return true if this file looks like a snapshot rather than an owl file
+	 */
+	public static boolean isSnapshot(String file) {
+		return BinaryFile.hasMagic(new File(file), MAGIC);
+	}
+
+	/**
+	 * @param source the owl file the graph was extracted from
+	 */
+	public static void write(File file, OntologyGraph graph, UnhandledShapes unhandled, String source) throws IOException {
+		write(file, graph, unhandled, source, ParentEdgeIndex.EXCLUSION_RULES);
+	}
+
+	/*
+	 * @param rules the exclusion rules the graph was extracted with, eg: an older build's in a test
+	 */
+	static void write(File file, OntologyGraph graph, UnhandledShapes unhandled, String source, String rules) throws IOException {
+		File owl = new File(source);
+		BinaryFile.write(file, MAGIC, VERSION, out -> {
+			BinaryFile.writeString(out, rules);
+			BinaryFile.writeString(out, owl.getAbsolutePath());
+			out.writeLong(owl.length());
+			out.writeLong(owl.lastModified());
+			unhandled.write(out);
+			graph.write(out);
+		});
+	}
+
+	/**
+	 * @param rootIri the root the caller wants, or null to take the snapshot's
+	 */
+	public static Snapshot read(String file, String rootIri) throws IOException {
+		try {
+			ByteBuffer in = BinaryFile.open(new File(file), MAGIC, VERSION);
+			String rules = BinaryFile.readString(in);
+			if (!rules.equals(ParentEdgeIndex.EXCLUSION_RULES)) {
+				throw new IOException("it's stale: it was extracted with the exclusion rules " + rules
+						+ ", these are " + ParentEdgeIndex.EXCLUSION_RULES);
+			}
+			String source = BinaryFile.readString(in);
+			long length = in.getLong();
+			long lastModified = in.getLong();
+			File owl = new File(source);
+			if (owl.isFile() && (owl.length() != length || owl.lastModified() != lastModified)) {
+				throw new IOException("it's stale: " + source + " has changed since it was written");
+			}
+			UnhandledShapes unhandled = UnhandledShapes.read(in);
+			OntologyGraph graph = OntologyGraph.read(in);
+			BinaryFile.checkFullyRead(in);
+			if (rootIri != null && !rootIri.equals(graph.getRootIri())) {
+				throw new IOException("it was extracted with the root " + graph.getRootIri() + ", not " + rootIri);
+			}
+			return new Snapshot(graph, unhandled, source);
+		}
+		catch (IOException e) {
+			throw new IOException("Rejecting the snapshot " + file + ": " + e.getMessage(), e);
+		}
+		catch (RuntimeException e) {
+			throw new IOException("Rejecting the snapshot " + file + ": " + BinaryFile.malformed(e).getMessage(), e);
+		}
+	}
+
+	public OntologyGraph getGraph() {
+		return graph;
+	}
+
+	public UnhandledShapes getUnhandled() {
+		return unhandled;
+	}
+
+	/**
+	 * @return the owl file it was extracted from
+	 */
+	public String getSource() {
+		return source;
+	}
+}
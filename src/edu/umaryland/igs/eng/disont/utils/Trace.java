@@ -0,0 +1,89 @@
+package edu.umaryland.igs.eng.disont.utils;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ *
+ * Debug logging, and tracing of a few terms (--trace) without turning debug on for the rest.
+ *
+ * Messages are Suppliers, so nothing is built for a message that isn't printed. Code that's
+ * run for every class looks up isTraced() once (a hash lookup) and skips the logging
+ * altogether when it's false.
+ *
+ * While the ontology is being read, the loaders record the axiom behind every parent and
+ * annotation edge that a traced term can reach (see ParentEdgeIndex.describeEdges), so the
+ * provenance report can say why each facet value ended up on the term.
+ *
+ */
+public class Trace {
+
+	public static final Trace OFF = new Trace(false, null);
+
+	private final boolean debug;
+	private final Set<String> ids;
+
+	// "<class IRI> <parent IRI>" -> the axiom that made the edge, for the edges the traced terms can reach
+	private final Map<String, String> edgeAxioms = new HashMap<>();
+
+	/**
+	 * @param ids IRI remainders (eg. DOID_0001816) to trace, or null for none
+	 */
+	public Trace(boolean debug, String[] ids) {
+		this.debug = debug;
+		this.ids = ids == null ? Collections.emptySet() : new HashSet<>(Arrays.asList(ids));
+	}
+
+	public boolean isDebug() {
+		return debug;
+	}
+
+	/**
+	 * @return true if any terms are traced
+	 */
+	public boolean isTracing() {
+		return !ids.isEmpty();
+	}
+
+	public boolean isTraced(String id) {
+		return ids.contains(id);
+	}
+
+	public Set<String> getIds() {
+		return Collections.unmodifiableSet(ids);
+	}
+
+	/**
+	 * Prints the message with --debug
+	 */
+	public void log(Supplier<String> message) {
+		if (debug) {
+			System.out.println(message.get());
+		}
+	}
+
+	/**
+	 * Prints the message with --debug, or if the term it's about is traced
+	 */
+	public void log(String id, Supplier<String> message) {
+		if (debug || ids.contains(id)) {
+			System.out.println(message.get());
+		}
+	}
+
+	synchronized void recordEdge(String classIri, String parentIri, String axiom) {
+		edgeAxioms.putIfAbsent(classIri + " " + parentIri, axiom);
+	}
+
+	/**
+	 * @return the axiom behind an edge, or null if it wasn't recorded (eg: the graph came from a snapshot)
+	 */
+	public synchronized String getEdgeAxiom(String classIri, String parentIri) {
+		return edgeAxioms.get(classIri + " " + parentIri);
+	}
+}
@@ -0,0 +1,77 @@
+package edu.umaryland.igs.eng.disont.utils;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ *
+ * The rows of documents.tsv and doc_facet.tsv for a run of documents (see TsvSink), built
+ * alongside their JSON while they're assembled.
+ *
+ * Rows are in PostgreSQL's COPY text format, which most other databases' bulk loaders also
+ * read: fields separated by tabs, a row per line, a backslash, tab, newline or carriage return
+ * in a value escaped as \\, \t, \n or \r, and \N for null.
+ *
+ *   documents.tsv:  id, name, definition
+ *   doc_facet.tsv:  id, facet, value
+ *
+ * The definition is as it's annotated, not in the double quotes the JSON has for the faceted
+ * search. A document's facet values are in the same order as in its JSON.
+ *
+ */
+public class TsvRows {
+
+	private final StringBuilder documents = new StringBuilder();
+	private final StringBuilder facets = new StringBuilder();
+
+	public void document(String id, String name, String definition) {
+		field(documents, id);
+		documents.append('\t');
+		field(documents, name);
+		documents.append('\t');
+		field(documents, definition);
+		documents.append('\n');
+	}
+
+	public void facetValue(String id, String facet, String value) {
+		field(facets, id);
+		facets.append('\t');
+		field(facets, facet);
+		facets.append('\t');
+		field(facets, value);
+		facets.append('\n');
+	}
+
+	public byte[] getDocumentRows() {
+		return documents.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	public byte[] getFacetRows() {
+		return facets.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static void field(StringBuilder row, String value) {
+		if (value == null) {
+			row.append("\\N");
+			return;
+		}
+		for (int i = 0; i < value.length(); i++) {
+			char ch = value.charAt(i);
+			switch (ch) {
+			case '\\':
+				row.append("\\\\");
+				break;
+			case '\t':
+				row.append("\\t");
+				break;
+			case '\n':
+				row.append("\\n");
+				break;
+			case '\r':
+				row.append("\\r");
+				break;
+			default:
+				row.append(ch);
+			}
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package edu.umaryland.igs.eng.disont.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executor;
+
+/**
+ *
+ * Writes the documents as a pair of tables for a database bulk load (eg: PostgreSQL's COPY):
+ * <base>.documents.tsv with a row per document, and <base>.doc_facet.tsv with a row per value
+ * of each of its facets. See TsvRows for the columns and the escaping; there's no header row.
+ *
+ * The rows are built while the documents are assembled, so the batches must have them (see
+ * DocumentBatch.withRows()). Writing them is handed to the executor, as in ShardedFileSink.
+ *
+ */
+public class TsvSink implements DocumentSink {
+
+	private final File documentsFile;
+	private final File facetsFile;
+	private final FileChannel documents;
+	private final FileChannel facets;
+	private final WriteQueue queue;
+
+	private long bytes = 0;
+
+	/**
+	 * @param maxPending how many batches can be queued for writing before accept() blocks
+	 */
+	public TsvSink(String directory, String baseName, Executor executor, int maxPending) throws IOException {
+		File dir = new File(directory);
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Could not create output directory: " + directory);
+		}
+		this.documentsFile = new File(dir, baseName + ".documents.tsv");
+		this.facetsFile = new File(dir, baseName + ".doc_facet.tsv");
+		this.documents = open(documentsFile);
+		this.facets = open(facetsFile);
+		this.queue = new WriteQueue(documentsFile.getPath() + " and " + facetsFile.getName(), executor, maxPending);
+	}
+
+	private static FileChannel open(File file) throws IOException {
+		return FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+	}
+
+	@Override
+	public void accept(DocumentBatch batch) throws IOException {
+		byte[] documentRows = batch.getDocumentRows();
+		byte[] facetRows = batch.getFacetRows();
+		if (documentRows == null) {
+			throw new IllegalStateException("The documents were assembled without their TSV rows");
+		}
+		bytes += documentRows.length + facetRows.length;
+		queue.write(() -> {
+			write(documents, documentRows);
+			write(facets, facetRows);
+		});
+	}
+
+	private static void write(FileChannel channel, byte[] rows) throws IOException {
+		ByteBuffer bb = ByteBuffer.wrap(rows);
+		while (bb.hasRemaining()) {
+			channel.write(bb);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		queue.finish(() -> {
+			try {
+				documents.close();
+			}
+			finally {
+				facets.close();
+			}
+		});
+	}
+
+	public File getDocumentsFile() {
+		return documentsFile;
+	}
+
+	public File getFacetsFile() {
+		return facetsFile;
+	}
+
+	/**
+	 * @return the size of both files
+	 */
+	public long getByteCount() {
+		return bytes;
+	}
+
+	/**
+	 * @return the time spent writing, in nanoseconds
+	 */
+	public long getWriteNanos() {
+		return queue.getBusyNanos();
+	}
+}
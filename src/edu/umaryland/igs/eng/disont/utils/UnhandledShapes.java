@@ -0,0 +1,149 @@
+package edu.umaryland.igs.eng.disont.utils;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ *
+ * The axioms and class expressions the loaders didn't know how to follow, counted by shape,
+ * eg: "SubClassOf(ObjectAllValuesFrom)", so we can see which patterns are worth supporting.
+ *
+ * Every one used to be kept as its rendered string. Now each shape keeps a count and a small
+ * reservoir of examples: a uniform sample of what was seen, however many there were. The
+ * examples are kept as the objects that were passed in and only rendered (toString()) when
+ * they're written out, so a run that never looks at them doesn't pay for the strings.
+ *
+ * The sampling is seeded, so the same ontology gives the same examples.
+ *
+ */
+public class UnhandledShapes {
+
+	public static final int EXAMPLES = 5;
+
+	private static class Shape {
+		long count = 0;
+		final List<Object> examples = new ArrayList<>(EXAMPLES);
+	}
+
+	// in the order each shape was first seen
+	private final Map<String, Shape> shapes = new LinkedHashMap<>();
+	private final Random random = new Random(42);
+	private long total = 0;
+
+	/**
+	 * Counts one more of this shape
+	 *
+	 * @param example the axiom or expression; it's kept (and rendered later) only if it's sampled
+	 */
+	public synchronized void add(String shape, Object example) {
+		Shape s = shapes.computeIfAbsent(shape, k -> new Shape());
+		s.count += 1;
+		total += 1;
+		if (s.examples.size() < EXAMPLES) {
+			s.examples.add(example);
+		}
+		else {
+			// reservoir sampling: the n'th one replaces a kept example with probability EXAMPLES / n
+			long j = random.nextLong(s.count);
+			if (j < EXAMPLES) {
+				s.examples.set((int) j, example);
+			}
+		}
+	}
+
+	public synchronized long getTotal() {
+		return total;
+	}
+
+	public synchronized int getShapeCount() {
+		return shapes.size();
+	}
+
+	/**
+	 * @return the shapes, most common first
+	 */
+	private List<Map.Entry<String, Shape>> byCount() {
+		List<Map.Entry<String, Shape>> sorted = new ArrayList<>(shapes.entrySet());
+		sorted.sort((a, b) -> Long.compare(b.getValue().count, a.getValue().count));
+		return sorted;
+	}
+
+	/**
+	 * Prints each shape with its count and examples
+	 */
+	public synchronized void print() {
+		for (Map.Entry<String, Shape> shape : byCount()) {
+			System.out.println("Unhandled " + shape.getKey() + ": " + shape.getValue().count);
+			for (Object example : shape.getValue().examples) {
+				System.out.println("    " + example);
+			}
+		}
+	}
+
+	/**
+	 * Writes {"total":...,"shapes":[{"shape":...,"count":...,"examples":[...]},...]}, most common shape first
+	 */
+	public synchronized void writeReport(String file) throws IOException {
+		try (NdjsonWriter out = NdjsonWriter.open(file)) {
+			out.beginObject();
+			out.key("total");
+			out.number(total);
+			out.key("shapes");
+			out.beginArray();
+			for (Map.Entry<String, Shape> shape : byCount()) {
+				out.beginObject();
+				out.key("shape");
+				out.string(shape.getKey());
+				out.key("count");
+				out.number(shape.getValue().count);
+				out.key("examples");
+				out.beginArray();
+				for (Object example : shape.getValue().examples) {
+					out.string(example.toString());
+				}
+				out.endArray();
+				out.endObject();
+			}
+			out.endArray();
+			out.endObject();
+		}
+	}
+
+	/**
+	 * Writes the counts and the examples (rendered) for GraphCache and Snapshot
+	 */
+	public synchronized void write(DataOutputStream out) throws IOException {
+		out.writeInt(shapes.size());
+		for (Map.Entry<String, Shape> shape : shapes.entrySet()) {
+			BinaryFile.writeString(out, shape.getKey());
+			out.writeLong(shape.getValue().count);
+			String[] examples = new String[shape.getValue().examples.size()];
+			for (int i = 0; i < examples.length; i++) {
+				examples[i] = shape.getValue().examples.get(i).toString();
+			}
+			BinaryFile.writeStrings(out, examples);
+		}
+	}
+
+	public static UnhandledShapes read(ByteBuffer in) {
+		UnhandledShapes unhandled = new UnhandledShapes();
+		int size = in.getInt();
+		for (int i = 0; i < size; i++) {
+			Shape s = new Shape();
+			String name = BinaryFile.readString(in);
+			s.count = in.getLong();
+			for (String example : BinaryFile.readStrings(in)) {
+				s.examples.add(example);
+			}
+			unhandled.shapes.put(name, s);
+			unhandled.total += s.count;
+		}
+		return unhandled;
+	}
+}
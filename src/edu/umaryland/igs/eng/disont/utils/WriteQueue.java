@@ -0,0 +1,128 @@
+package edu.umaryland.igs.eng.disont.utils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ *
+ * Runs the writes to one output in the order they're queued, on an executor: so a sink can hand
+ * its writing (and compressing) off and return, while the writes to other outputs run alongside.
+ * At most maxPending writes can be waiting; write() blocks after that. Several queues can share
+ * the limit, eg: the shards of a ShardedFileSink.
+ *
+ * Once a write has failed the rest are skipped, and the failure is thrown by finish() (or await()).
+ *
+ */
+class WriteQueue {
+
+	interface Write {
+		void run() throws IOException;
+	}
+
+	private final String name;
+	private final Executor executor;
+	private final Semaphore pending;
+	private final LongAdder busyNanos = new LongAdder();
+
+	private CompletableFuture<Void> tail = CompletableFuture.completedFuture(null);
+
+	/**
+	 * @param name what's being written, for the error
+	 */
+	WriteQueue(String name, Executor executor, int maxPending) {
+		this(name, executor, new Semaphore(maxPending));
+	}
+
+	/**
+	 * @param pending the permits for the waiting writes, shared with other queues
+	 */
+	WriteQueue(String name, Executor executor, Semaphore pending) {
+		this.name = name;
+		this.executor = executor;
+		this.pending = pending;
+	}
+
+	void write(Write write) throws IOException {
+		try {
+			pending.acquire();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while writing " + name, e);
+		}
+		tail = tail.whenCompleteAsync((ok, failed) -> {
+			try {
+				if (failed == null) {
+					run(write);
+				}
+			}
+			finally {
+				pending.release();
+			}
+		}, executor);
+	}
+
+	/**
+	 * Runs one last write (eg: a close) even if an earlier one failed, and waits for all of them
+	 */
+	void finish(Write last) throws IOException {
+		close(last);
+		await();
+	}
+
+	/**
+	 * Queues one last write (eg: a close) that runs even if an earlier one failed, without waiting for it
+	 */
+	void close(Write last) {
+		tail = tail.whenCompleteAsync((ok, failed) -> {
+			try {
+				run(last);
+			}
+			catch (UncheckedIOException e) {
+				if (failed == null) {
+					throw e;
+				}
+			}
+		}, executor);
+	}
+
+	/**
+	 * Waits for the writes queued so far, and throws the first one that failed
+	 */
+	void await() throws IOException {
+		try {
+			tail.join();
+		}
+		catch (CompletionException e) {
+			if (e.getCause() instanceof UncheckedIOException) {
+				throw ((UncheckedIOException) e.getCause()).getCause();
+			}
+			throw new IOException("Failed to write " + name, e.getCause());
+		}
+	}
+
+	/**
+	 * @return the time spent in the writes, in nanoseconds
+	 */
+	long getBusyNanos() {
+		return busyNanos.sum();
+	}
+
+	private void run(Write write) {
+		long start = System.nanoTime();
+		try {
+			write.run();
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		finally {
+			busyNanos.add(System.nanoTime() - start);
+		}
+	}
+}
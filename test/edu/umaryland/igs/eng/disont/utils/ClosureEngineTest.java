@@ -0,0 +1,79 @@
+package edu.umaryland.igs.eng.disont.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+public class ClosureEngineTest {
+
+	private static final String OBO = "http://purl.obolibrary.org/obo/";
+
+	@Test
+	public void cycleMembersAreAncestorsOfEachOther() {
+		// 0 <- 1 <- 2 <- 3 -> 1, so 1, 2 and 3 are a cycle under 0
+		OntologyGraph.Builder b = builder(4);
+		b.addParentEdge(1, 0);
+		b.addParentEdge(2, 1);
+		b.addParentEdge(3, 2);
+		b.addParentEdge(1, 3);
+		ClosureEngine closure = ClosureEngine.compute(b.build());
+
+		assertArrayEquals(new int[0], closure.getAncestors(0));
+		for (int c = 1; c <= 3; c++) {
+			assertArrayEquals(new int[] { 0, 1, 2, 3 }, closure.getAncestors(c));
+		}
+		assertEquals(1, closure.getCyclicComponentCount());
+	}
+
+	@Test
+	public void parallelWavesMatchOneThread() {
+		OntologyGraph graph = randomCyclicGraph(3000, 42);
+		ClosureEngine one = ClosureEngine.compute(graph);
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			ClosureEngine many = ClosureEngine.compute(graph, pool);
+			assertTrue("the graph should have cycles", one.getCyclicComponentCount() > 0);
+			for (int c = 0; c < graph.size(); c++) {
+				assertArrayEquals("ancestors of " + c, one.getAncestors(c), many.getAncestors(c));
+			}
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+
+	/*
+	 * A tree of n classes, each under an earlier one, plus a few edges back down it to make cycles
+	 */
+	static OntologyGraph randomCyclicGraph(int n, long seed) {
+		Random random = new Random(seed);
+		OntologyGraph.Builder b = builder(n);
+		for (int c = 1; c < n; c++) {
+			b.addParentEdge(c, random.nextInt(c));
+			if (random.nextInt(4) == 0) {
+				b.addParentEdge(c, random.nextInt(c));
+			}
+		}
+		for (int k = 0; k < n / 20; k++) {
+			int from = random.nextInt(n);
+			int to = random.nextInt(n);
+			if (from != to) {
+				b.addParentEdge(from, to);
+			}
+		}
+		return b.build();
+	}
+
+	private static OntologyGraph.Builder builder(int n) {
+		OntologyGraph.Builder b = new OntologyGraph.Builder();
+		for (int c = 0; c < n; c++) {
+			b.addClass(b.intern(OBO, "DOID_" + c));
+		}
+		return b;
+	}
+}
@@ -0,0 +1,163 @@
+package edu.umaryland.igs.eng.disont.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ *
+ * Runs the sink against a stub _bulk endpoint that answers each request with the next
+ * canned response, and keeps the bodies it was sent.
+ *
+ */
+public class ElasticsearchSinkTest {
+
+	private HttpServer server;
+	private String url;
+	private final Deque<String[]> responses = new ArrayDeque<>();
+	private final List<String> bodies = new ArrayList<>();
+
+	@Before
+	public void startServer() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/disease/_bulk", exchange -> {
+			String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+			String[] response;
+			synchronized (responses) {
+				bodies.add(body);
+				response = responses.isEmpty() ? new String[] { "200", "{\"errors\":false}" } : responses.poll();
+			}
+			byte[] bytes = response[1].getBytes(StandardCharsets.UTF_8);
+			exchange.sendResponseHeaders(Integer.parseInt(response[0]), bytes.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(bytes);
+			}
+		});
+		server.start();
+		url = "http://127.0.0.1:" + server.getAddress().getPort() + "/disease/_bulk";
+	}
+
+	@After
+	public void stopServer() {
+		server.stop(0);
+	}
+
+	@Test
+	public void onlyRejectedItemsAreSentAgain() throws IOException {
+		respond(200, "{\"errors\":true,\"items\":[" + item(201) + "," + item(429) + "," + item(201) + "]}");
+
+		ElasticsearchSink sink = new ElasticsearchSink(url, 3, 1, 2, 3);
+		sink.accept(batch("DOID_1", "DOID_2", "DOID_3"));
+		sink.close();
+
+		assertEquals(3, sink.getIndexedCount());
+		assertEquals(2, sink.getRequestCount());
+		assertEquals(1, sink.getRetriedCount());
+		assertEquals(2, bodies.size());
+		assertTrue(bodies.get(1).contains("DOID_2"));
+		assertFalse(bodies.get(1).contains("DOID_1"));
+		assertFalse(bodies.get(1).contains("DOID_3"));
+	}
+
+	@Test
+	public void conflictsOnTheFirstAttemptAreAlreadyInTheIndex() throws IOException {
+		respond(200, "{\"errors\":true,\"items\":[" + item(409) + "," + item(201) + "]}");
+
+		ElasticsearchSink sink = new ElasticsearchSink(url, 2, 1, 2, 3);
+		sink.accept(batch("DOID_1", "DOID_2"));
+		sink.close();
+
+		assertEquals(1, sink.getIndexedCount());
+		assertEquals(1, sink.getExistingCount());
+		assertEquals(1, sink.getRequestCount());
+		assertEquals(0, sink.getRetriedCount());
+	}
+
+	@Test
+	public void conflictsAfterAServerErrorCountAsIndexed() throws IOException {
+		// the 503 may have come after some of the documents were indexed
+		respond(503, "{}");
+		respond(200, "{\"errors\":true,\"items\":[" + item(409) + "," + item(201) + "]}");
+
+		ElasticsearchSink sink = new ElasticsearchSink(url, 2, 1, 2, 3);
+		sink.accept(batch("DOID_1", "DOID_2"));
+		sink.close();
+
+		assertEquals(2, sink.getIndexedCount());
+		assertEquals(0, sink.getExistingCount());
+		assertEquals(2, sink.getRequestCount());
+	}
+
+	@Test
+	public void clientErrorFailsTheRun() throws IOException {
+		respond(400, "{\"error\":\"mapper_parsing_exception\"}");
+
+		ElasticsearchSink sink = new ElasticsearchSink(url, 1, 2, 1, 3);
+		try {
+			// the senders give up on the first request; later ones may or may not have been queued by then
+			for (int i = 0; i < 20; i++) {
+				sink.accept(batch("DOID_" + i));
+			}
+		}
+		catch (IOException e) {
+			assertFailedWith400(e);
+		}
+		try {
+			sink.close();
+			fail("close() should have failed");
+		}
+		catch (IOException e) {
+			assertFailedWith400(e);
+		}
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			assertFalse(thread.getName() + " is still running", thread.getName().startsWith("es-bulk-") && thread.isAlive());
+		}
+	}
+
+	private static void assertFailedWith400(IOException e) {
+		assertTrue(e.getCause() instanceof IOException);
+		assertTrue(e.getCause().getMessage(), e.getCause().getMessage().contains("failed with 400"));
+	}
+
+	private void respond(int status, String body) {
+		synchronized (responses) {
+			responses.add(new String[] { Integer.toString(status), body });
+		}
+	}
+
+	private static String item(int status) {
+		return "{\"create\":{\"status\":" + status + "}}";
+	}
+
+	/*
+	 * A batch of documents, each with its {"create":{}} line, as the flattener encodes them
+	 */
+	private static DocumentBatch batch(String... ids) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		int[] offsets = new int[ids.length + 1];
+		for (int i = 0; i < ids.length; i++) {
+			offsets[i] = bytes.size();
+			bytes.write(NdjsonWriter.CREATE);
+			bytes.write(("{\"id\":\"" + ids[i] + "\"}\n").getBytes(StandardCharsets.UTF_8));
+		}
+		offsets[ids.length] = bytes.size();
+		return new DocumentBatch(bytes.toByteArray(), offsets, ids);
+	}
+}
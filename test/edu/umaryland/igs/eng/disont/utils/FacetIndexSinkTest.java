@@ -0,0 +1,107 @@
+package edu.umaryland.igs.eng.disont.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FacetIndexSinkTest {
+
+	private static final int BRONCHUS = 0;
+	private static final int FEVER = 1;
+	private static final int LUNG = 2;
+	private static final int ANATOMY = 0;
+	private static final int SYMPTOM = 1;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void indexesDocumentsByTheirPositionInTheIdTable() throws Exception {
+		LabelIndex.Builder b = new LabelIndex.Builder();
+		b.addLabel(0, "lung");
+		b.addLabel(1, "bronchus");
+		b.addLabel(2, "fever");
+		LabelIndex labels = b.build(3);
+
+		FacetIndexSink sink = new FacetIndexSink(folder.getRoot().getPath(), "out", labels, List.of("anatomy", "symptom/sign"));
+		// the documents don't arrive in id order; DOID_1's symptom has no label, and DOID_4 has no values
+		sink.accept(batch(new String[] { "DOID_3", "DOID_1" }, new int[] {
+				0, ANATOMY, BRONCHUS, 0, ANATOMY, LUNG, 0, SYMPTOM, FEVER,
+				1, ANATOMY, LUNG, 1, SYMPTOM, -1 }));
+		sink.accept(batch(new String[] { "DOID_2", "DOID_4" }, new int[] {
+				0, ANATOMY, LUNG, 0, SYMPTOM, FEVER }));
+		sink.close();
+
+		JSONObject documents = read("out.facet_documents.json");
+		assertEquals(4L, documents.get("documents"));
+		assertEquals(List.of("DOID_1", "DOID_2", "DOID_3", "DOID_4"), documents.get("ids"));
+
+		JSONObject anatomy = read("out.facet_index.anatomy.json");
+		assertEquals("out.facet_documents.json", anatomy.get("ids"));
+		assertEquals(3L, anatomy.get("documents"));
+		// in label order (json-simple doesn't keep the order, so it's checked on the text)
+		String text = new String(Files.readAllBytes(new File(folder.getRoot(), "out.facet_index.anatomy.json").toPath()), StandardCharsets.UTF_8);
+		assertTrue(text, text.indexOf("\"bronchus\"") < text.indexOf("\"lung\""));
+		assertEquals(List.of(2L), values(anatomy).get("bronchus"));
+		assertEquals(List.of(0L, 1L, 2L), values(anatomy).get("lung"));
+
+		JSONObject symptom = read("out.facet_index.symptom_sign.json");
+		assertEquals(2L, symptom.get("documents"));
+		assertEquals(List.of(1L, 2L), values(symptom).get("fever"));
+
+		JSONObject counts = read("out.facet_counts.json");
+		assertEquals(4L, counts.get("documents"));
+		JSONObject anatomyCounts = (JSONObject) ((JSONArray) counts.get("facets")).get(0);
+		assertEquals("anatomy", anatomyCounts.get("facet"));
+		assertEquals("out.facet_index.anatomy.json", anatomyCounts.get("index"));
+		assertEquals(3L, anatomyCounts.get("documents"));
+		// most common first
+		JSONArray anatomyValues = (JSONArray) anatomyCounts.get("values");
+		assertEquals(2, anatomyValues.size());
+		assertEquals("lung", ((JSONObject) anatomyValues.get(0)).get("value"));
+		assertEquals(3L, ((JSONObject) anatomyValues.get(0)).get("count"));
+		assertEquals("bronchus", ((JSONObject) anatomyValues.get(1)).get("value"));
+		assertEquals(1L, ((JSONObject) anatomyValues.get(1)).get("count"));
+
+		assertEquals(6, sink.getPostingCount());
+		assertEquals(3, sink.getValueCount());
+	}
+
+	private static JSONObject values(JSONObject index) {
+		return (JSONObject) index.get("values");
+	}
+
+	private JSONObject read(String name) throws Exception {
+		try (Reader in = new FileReader(new File(folder.getRoot(), name), StandardCharsets.UTF_8)) {
+			return (JSONObject) new JSONParser().parse(in);
+		}
+	}
+
+	/*
+	 * Empty documents with these ids and (document, facet, label id) triples
+	 */
+	private static DocumentBatch batch(String[] ids, int[] facetValues) throws IOException {
+		NdjsonWriter out = new NdjsonWriter();
+		for (String id : ids) {
+			out.beginDocument();
+			out.key("id");
+			out.string(id);
+			out.endDocument();
+		}
+		return out.toBatch(ids).withFacetValues(facetValues);
+	}
+}
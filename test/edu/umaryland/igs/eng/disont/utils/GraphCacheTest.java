@@ -0,0 +1,111 @@
+package edu.umaryland.igs.eng.disont.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * The cache has to be used while the owl file, root and exclusion rules are the same, and
+ * ignored as soon as any of them changes.
+ *
+ */
+public class GraphCacheTest {
+
+	private static final String ROOT = "http://purl.obolibrary.org/obo/DOID_4";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private String owl;
+	private OntologyGraph graph;
+	private UnhandledShapes unhandled;
+	private ClosureEngine closure;
+
+	@Before
+	public void extract() throws Exception {
+		File copy = folder.newFile("fixture.owl");
+		Files.copy(new File(getClass().getResource("/fixture.owl").toURI()).toPath(), copy.toPath(),
+				StandardCopyOption.REPLACE_EXISTING);
+		owl = copy.getPath();
+		unhandled = new UnhandledShapes();
+		graph = RdfXmlLoader.load(owl, ROOT, unhandled, false);
+		closure = ClosureEngine.compute(graph);
+	}
+
+	@Test
+	public void theSameFileRootAndRulesReadTheCache() throws IOException {
+		GraphCache.forOwl(owl, ROOT).save(graph, unhandled, closure);
+
+		GraphCache cache = GraphCache.forOwl(owl, ROOT);
+		assertTrue(cache.load());
+		assertEquals(graph.size(), cache.getGraph().size());
+		assertNotNull(cache.getClosure());
+		for (int c = 0; c < graph.size(); c++) {
+			assertEquals(graph.getIri(c), cache.getGraph().getIri(c));
+			assertArrayEquals(closure.getAncestors(c), cache.getClosure().getAncestors(c));
+		}
+	}
+
+	@Test
+	public void aChangedFileIsntRead() throws IOException {
+		GraphCache.forOwl(owl, ROOT).save(graph, unhandled, closure);
+		Files.write(new File(owl).toPath(), "<!-- edited -->\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+		assertFalse(GraphCache.forOwl(owl, ROOT).load());
+	}
+
+	@Test
+	public void anotherRootIsntRead() throws IOException {
+		GraphCache.forOwl(owl, ROOT).save(graph, unhandled, closure);
+
+		assertFalse(GraphCache.forOwl(owl, "http://purl.obolibrary.org/obo/DOID_7").load());
+	}
+
+	@Test
+	public void otherExclusionRulesArentRead() throws IOException {
+		GraphCache.forOwl(owl, ROOT, null, "an older build's rules").save(graph, unhandled, closure);
+
+		assertFalse(GraphCache.forOwl(owl, ROOT).load());
+	}
+
+	@Test
+	public void aDamagedCacheIsntRead() throws IOException {
+		GraphCache cache = GraphCache.forOwl(owl, ROOT);
+		cache.save(graph, unhandled, closure);
+		byte[] bytes = Files.readAllBytes(cache.getFile().toPath());
+		Files.write(cache.getFile().toPath(), Arrays.copyOf(bytes, bytes.length / 2));
+
+		assertFalse(GraphCache.forOwl(owl, ROOT).load());
+	}
+
+	@Test
+	public void aFileWithImportsIsntCached() throws IOException {
+		String text = new String(Files.readAllBytes(new File(owl).toPath()), StandardCharsets.UTF_8).replace(
+				"<owl:Ontology rdf:about=\"http://purl.obolibrary.org/obo/doid/fixture.owl\"/>",
+				"<owl:Ontology rdf:about=\"http://purl.obolibrary.org/obo/doid/fixture.owl\">"
+				+ "<owl:imports rdf:resource=\"http://purl.obolibrary.org/obo/doid/other.owl\"/></owl:Ontology>");
+		Files.write(new File(owl).toPath(), text.getBytes(StandardCharsets.UTF_8));
+
+		GraphCache cache = GraphCache.forOwl(owl, ROOT);
+		assertTrue(cache.isRefused());
+		cache.save(graph, unhandled, closure);
+		assertFalse(cache.getFile().exists());
+		assertFalse(cache.load());
+	}
+}
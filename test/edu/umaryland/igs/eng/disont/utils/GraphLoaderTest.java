@@ -0,0 +1,62 @@
+package edu.umaryland.igs.eng.disont.utils;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class GraphLoaderTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void findsImportsInEverySyntax() throws Exception {
+		assertTrue(mayImport("<?xml version=\"1.0\"?>\n<rdf:RDF xmlns:owl=\"http://www.w3.org/2002/07/owl#\">\n"
+				+ "<owl:Ontology rdf:about=\"http://example.org/a\">\n<owl:imports rdf:resource=\"http://example.org/b\"/>\n"
+				+ "</owl:Ontology>\n</rdf:RDF>\n"));
+		assertTrue(mayImport("<?xml version=\"1.0\"?>\n<rdf:RDF xmlns:o=\"http://www.w3.org/2002/07/owl#\">\n"
+				+ "<o:Ontology rdf:about=\"http://example.org/a\"><o:imports rdf:resource=\"http://example.org/b\"/></o:Ontology>\n</rdf:RDF>\n"));
+		assertTrue(mayImport("<?xml version=\"1.0\"?>\n<Ontology xmlns=\"http://www.w3.org/2002/07/owl#\">\n"
+				+ "    <Import>http://example.org/b</Import>\n</Ontology>\n"));
+		assertTrue(mayImport("@prefix owl: <http://www.w3.org/2002/07/owl#> .\n<http://example.org/a> a owl:Ontology ;\n"
+				+ "    owl:imports <http://example.org/b> .\n"));
+		assertTrue(mayImport("<http://example.org/a> <http://www.w3.org/2002/07/owl#imports> <http://example.org/b> .\n"));
+		assertTrue(mayImport("Prefix(:=<http://example.org/a#>)\nOntology(<http://example.org/a>\nImport(<http://example.org/b>)\n)\n"));
+		assertTrue(mayImport("Prefix: : <http://example.org/a#>\nOntology: <http://example.org/a>\nImport: <http://example.org/b>\n"));
+		assertTrue(mayImport("format-version: 1.2\nimport: http://example.org/b.obo\n\n[Term]\nid: X:1\n"));
+		// RDF can say it anywhere, not just in the header
+		assertTrue(mayImport("<?xml version=\"1.0\"?>\n<rdf:RDF xmlns:owl=\"http://www.w3.org/2002/07/owl#\">\n"
+				+ "<owl:Class rdf:about=\"http://example.org/a#C\"/>\n".repeat(20000)
+				+ "<rdf:Description rdf:about=\"http://example.org/a\"><owl:imports rdf:resource=\"http://example.org/b\"/></rdf:Description>\n"
+				+ "</rdf:RDF>\n"));
+	}
+
+	@Test
+	public void aFileWithoutImportsHasNone() throws Exception {
+		File fixture = new File(getClass().getResource("/fixture.owl").toURI());
+		assertFalse(GraphLoader.mayImport(fixture.getPath()));
+		assertFalse(mayImport("Prefix(:=<http://example.org/a#>)\nOntology(<http://example.org/a>\nDeclaration(Class(:C))\n)\n"));
+		assertFalse(mayImport("format-version: 1.2\n\n[Term]\nid: X:1\nname: important disease\n"));
+	}
+
+	@Test
+	public void whatCantBeCheckedIsTakenToImport() throws Exception {
+		assertTrue(mayImport(""));
+		assertTrue(mayImport("\u001f\u008b\u0008\u0000compressed"));
+		assertTrue(mayImport("not an ontology in any syntax\n"));
+	}
+
+	private boolean mayImport(String content) throws IOException {
+		File file = folder.newFile();
+		Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+		return GraphLoader.mayImport(file.getPath());
+	}
+}
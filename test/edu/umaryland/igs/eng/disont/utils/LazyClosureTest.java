@@ -0,0 +1,62 @@
+package edu.umaryland.igs.eng.disont.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+
+/**
+ *
+ * Whatever order the classes are asked for in, the sets have to be ClosureEngine's.
+ *
+ */
+public class LazyClosureTest {
+
+	private final OntologyGraph graph = ClosureEngineTest.randomCyclicGraph(3000, 7);
+	private final ClosureEngine expected = ClosureEngine.compute(graph);
+
+	@Test
+	public void ascendingOrder() {
+		assertSameSets(IntStream.range(0, graph.size()).boxed().toList());
+	}
+
+	@Test
+	public void descendingOrder() {
+		List<Integer> order = new ArrayList<>(IntStream.range(0, graph.size()).boxed().toList());
+		Collections.reverse(order);
+		assertSameSets(order);
+	}
+
+	@Test
+	public void randomOrders() {
+		for (long seed = 0; seed < 5; seed++) {
+			List<Integer> order = new ArrayList<>(IntStream.range(0, graph.size()).boxed().toList());
+			Collections.shuffle(order, new Random(seed));
+			// only some of them, so the later ones meet a part-flattened graph
+			assertSameSets(order.subList(0, graph.size() / 3));
+		}
+	}
+
+	@Test
+	public void askedFromManyThreads() {
+		LazyClosure lazy = new LazyClosure(graph);
+		IntStream.range(0, graph.size()).parallel().map(c -> graph.size() - 1 - c).forEach(c ->
+				assertArrayEquals("ancestors of " + c, expected.getAncestors(c), lazy.getAncestors(c)));
+	}
+
+	private void assertSameSets(List<Integer> order) {
+		LazyClosure lazy = new LazyClosure(graph);
+		for (int c : order) {
+			assertArrayEquals("ancestors of " + c, expected.getAncestors(c), lazy.getAncestors(c));
+		}
+		// and asking again gives the same
+		for (int c : order) {
+			assertArrayEquals("ancestors of " + c, expected.getAncestors(c), lazy.getAncestors(c));
+		}
+	}
+}
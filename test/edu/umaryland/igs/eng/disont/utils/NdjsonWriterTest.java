@@ -0,0 +1,79 @@
+package edu.umaryland.igs.eng.disont.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+import org.junit.Test;
+
+public class NdjsonWriterTest {
+
+	@Test
+	public void escapesWhatJsonNeedsEscaped() throws IOException {
+		assertEquals("\"say \\\"hi\\\" \\\\ bye\"", written("say \"hi\" \\ bye"));
+		assertEquals("\"a\\nb\\rc\\td\\be\\ff\"", written("a\nb\rc\td\be\ff"));
+		assertEquals("\"\\u0000\\u001f\\u0001\"", written("\u0000\u001f\u0001"));
+		// everything else is as is, in UTF-8: 1 to 4 bytes a character
+		assertEquals("\"/ \u00e9 \u6f22 \ud83d\ude00 \u007f\"", written("/ \u00e9 \u6f22 \ud83d\ude00 \u007f"));
+		assertEquals(2 + 1 + 2 + 3 + 4, bytes("/\u00e9\u6f22\ud83d\ude00").length);
+		assertEquals("\"?x?\"", written("\ud83dx\ude00"));
+	}
+
+	@Test
+	public void documentsReadBackAsTheyWereWritten() throws IOException, ParseException {
+		List<String> values = List.of("Crohn's \"disease\"", "tab\there", "back\\slash", "line\nbreak", "na\u00efve \u2013 \u00df \ud83d\ude00", "");
+		NdjsonWriter out = new NdjsonWriter();
+		out.beginDocument();
+		out.key("id");
+		out.string("DOID:0050117");
+		out.key("none");
+		out.string(null);
+		out.key("count");
+		out.number(-42);
+		out.key("values");
+		out.beginArray();
+		for (String value : values) {
+			out.string(value);
+		}
+		out.endArray();
+		out.key("joined");
+		out.beginString();
+		out.append("DOID_");
+		out.append("00:501:17", ':');
+		out.endString();
+		out.endDocument();
+
+		String[] lines = new String(out.getBytes(), StandardCharsets.UTF_8).split("\n", -1);
+		assertEquals(3, lines.length);
+		assertEquals("{\"create\":{}}", lines[0]);
+		assertEquals("", lines[2]);
+		JSONObject document = (JSONObject) new JSONParser().parse(lines[1]);
+		assertEquals("DOID:0050117", document.get("id"));
+		assertEquals(null, document.get("none"));
+		assertEquals(-42L, document.get("count"));
+		assertEquals(values, document.get("values"));
+		assertEquals("DOID_0050117", document.get("joined"));
+	}
+
+	@Test
+	public void actionLinesNameTheDocument() throws IOException {
+		NdjsonWriter out = new NdjsonWriter();
+		out.action("delete", "DOID_\"4");
+		assertEquals("{\"delete\":{\"_id\":\"DOID_\\\"4\"}}\n", new String(out.getBytes(), StandardCharsets.UTF_8));
+	}
+
+	private static String written(String value) {
+		return new String(bytes(value), StandardCharsets.UTF_8);
+	}
+
+	private static byte[] bytes(String value) {
+		NdjsonWriter out = new NdjsonWriter();
+		out.string(value);
+		return out.getBytes();
+	}
+}
@@ -0,0 +1,63 @@
+package edu.umaryland.igs.eng.disont.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.junit.Test;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.OWLOntology;
+
+/**
+ *
+ * The streaming loader has to give the same graph as the OWLAPI one: the same classes,
+ * edges and labels, by IRI.
+ *
+ */
+public class RdfXmlLoaderTest {
+
+	private static final String ROOT = "http://purl.obolibrary.org/obo/DOID_4";
+
+	@Test
+	public void matchesTheOwlApiLoader() throws Exception {
+		String fixture = new File(getClass().getResource("/fixture.owl").toURI()).getPath();
+
+		OWLOntology ontology = OWLManager.createOWLOntologyManager().loadOntologyFromOntologyDocument(new File(fixture));
+		OntologyGraph expected = GraphLoader.extract(ontology, ROOT, new UnhandledShapes(), Trace.OFF);
+		OntologyGraph actual = RdfXmlLoader.load(fixture, ROOT, new UnhandledShapes(), false);
+
+		Map<String, String> expectedClasses = describe(expected);
+		assertTrue("the fixture should have edges to compare", expected.getEdgeCount() > 0 && expected.getAnnotationEdgeCount() > 0);
+		assertEquals(expectedClasses, describe(actual));
+		assertEquals(expected.getRootIri(), actual.getRootIri());
+		assertEquals(new TreeSet<>(Arrays.asList(expected.getRootChildren())),
+				new TreeSet<>(Arrays.asList(actual.getRootChildren())));
+	}
+
+	/*
+	 * Each class, by IRI, with its labels and its edges as sorted IRIs
+	 */
+	private static Map<String, String> describe(OntologyGraph graph) {
+		Map<String, String> classes = new TreeMap<>();
+		LabelIndex labels = graph.getLabels();
+		for (int c : graph.getClasses()) {
+			TreeSet<String> parents = new TreeSet<>();
+			for (int e = graph.getParentStart(c); e < graph.getParentEnd(c); e++) {
+				parents.add(graph.getIri(graph.getParentTarget(e)));
+			}
+			TreeSet<String> annotations = new TreeSet<>();
+			for (int e = graph.getAnnotationStart(c); e < graph.getAnnotationEnd(c); e++) {
+				annotations.add(graph.getIri(graph.getAnnotationTarget(e)));
+			}
+			classes.put(graph.getIri(c), "label=" + labels.getLabel(c) + " name=" + labels.getName(c)
+					+ " definition=" + labels.getDefinition(c) + " obsolete=" + labels.isObsolete(c)
+					+ " parents=" + parents + " annotations=" + annotations);
+		}
+		return classes;
+	}
+}
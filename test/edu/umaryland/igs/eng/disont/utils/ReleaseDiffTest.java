@@ -0,0 +1,70 @@
+package edu.umaryland.igs.eng.disont.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ReleaseDiffTest {
+
+	private static final String OBO = "http://purl.obolibrary.org/obo/";
+
+	@Test
+	public void addedRemovedAndChangedTerms() {
+		// DOID_3 moves from under DOID_1 to under DOID_5, DOID_6 goes and DOID_7 arrives
+		OntologyGraph previous = graph(new String[][] {
+				{ "DOID_4" }, { "DOID_1", "DOID_4" }, { "DOID_2", "DOID_1" }, { "DOID_3", "DOID_1" },
+				{ "DOID_5", "DOID_4" }, { "DOID_6", "DOID_5" }, { "DOID_8", "DOID_3" } });
+		OntologyGraph current = graph(new String[][] {
+				{ "DOID_4" }, { "DOID_1", "DOID_4" }, { "DOID_2", "DOID_1" }, { "DOID_3", "DOID_5" },
+				{ "DOID_5", "DOID_4" }, { "DOID_8", "DOID_3" }, { "DOID_7", "DOID_2" } });
+
+		ReleaseDiff diff = ReleaseDiff.compare(previous, new short[previous.size()], current, new short[current.size()]);
+
+		assertEquals(2, diff.getChangedCount());
+		assertEquals(1, diff.getRemovedCount());
+		// DOID_8 is unchanged, but its closure goes through DOID_3
+		assertEquals(List.of("DOID_3", "DOID_8", "DOID_7"), remainders(current, diff.getCurrentCandidates()));
+		assertEquals(List.of("DOID_3", "DOID_6", "DOID_8"), remainders(previous, diff.getPreviousCandidates()));
+	}
+
+	@Test
+	public void sameReleaseHasNoCandidates() {
+		String[][] classes = { { "DOID_4" }, { "DOID_1", "DOID_4" }, { "DOID_2", "DOID_1" } };
+		OntologyGraph previous = graph(classes);
+		OntologyGraph current = graph(classes);
+
+		ReleaseDiff diff = ReleaseDiff.compare(previous, new short[previous.size()], current, new short[current.size()]);
+
+		assertEquals(0, diff.getChangedCount());
+		assertEquals(0, diff.getRemovedCount());
+		assertEquals(0, diff.getCurrentCandidates().length);
+		assertEquals(0, diff.getPreviousCandidates().length);
+	}
+
+	/*
+	 * Each row is a class and then its parents
+	 */
+	private static OntologyGraph graph(String[][] classes) {
+		OntologyGraph.Builder b = new OntologyGraph.Builder();
+		for (String[] row : classes) {
+			b.addClass(b.intern(OBO, row[0]));
+		}
+		for (String[] row : classes) {
+			for (int p = 1; p < row.length; p++) {
+				b.addParentEdge(b.indexOf(OBO + row[0]), b.indexOf(OBO + row[p]));
+			}
+		}
+		return b.build();
+	}
+
+	private static List<String> remainders(OntologyGraph graph, int[] ids) {
+		List<String> remainders = new ArrayList<>();
+		for (int id : ids) {
+			remainders.add(graph.getRemainder(id));
+		}
+		return remainders;
+	}
+}
@@ -0,0 +1,36 @@
+package edu.umaryland.igs.eng.disont.utils;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.ref.WeakReference;
+
+import org.junit.Test;
+
+public class RunMetricsTest {
+
+	@Test
+	public void metricsThatAreDoneWithCanBeCollected() throws InterruptedException {
+		WeakReference<RunMetrics> done = new WeakReference<>(new RunMetrics());
+		RunMetrics kept = new RunMetrics();
+		for (int i = 0; i < 50 && done.get() != null; i++) {
+			System.gc();
+			Thread.sleep(20);
+		}
+		assertNull("the GC listener shouldn't keep the metrics of a finished run", done.get());
+
+		// and the one still in use goes on seeing the heap before each collection
+		long garbage = 64 * 1024 * 1024;
+		byte[][] blocks = new byte[64][];
+		for (int i = 0; i < blocks.length; i++) {
+			blocks[i] = new byte[1024 * 1024];
+		}
+		blocks = null;
+		System.gc();
+		for (int i = 0; i < 50 && kept.getPeakHeap() < garbage; i++) {
+			// the notifications come on another thread
+			Thread.sleep(20);
+		}
+		assertTrue(kept.getPeakHeap() >= garbage);
+	}
+}
@@ -0,0 +1,183 @@
+package edu.umaryland.igs.eng.disont.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ShardedFileSinkTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void withoutLimitsThereIsOneFile() throws Exception {
+		List<DocumentBatch> batches = batches(3, 4, 10);
+		ShardedFileSink sink = write(Long.MAX_VALUE, Long.MAX_VALUE, batches);
+
+		assertEquals(1, sink.getShardCount());
+		assertTrue(new File(folder.getRoot(), "out.json").isFile());
+		assertShards(sink, batches, 12);
+	}
+
+	@Test
+	public void splitsByDocuments() throws Exception {
+		List<DocumentBatch> batches = batches(3, 4, 10);
+		ShardedFileSink sink = write(5, Long.MAX_VALUE, batches);
+
+		assertEquals(3, sink.getShardCount());
+		assertEquals(List.of(5L, 5L, 2L), documentsPerShard());
+		assertShards(sink, batches, 12);
+	}
+
+	@Test
+	public void splitsByBytesBetweenDocuments() throws Exception {
+		List<DocumentBatch> batches = batches(3, 4, 10);
+		long documentBytes = batches.get(0).getEnd(0) - batches.get(0).getStart(0);
+		// room for two and a half documents
+		ShardedFileSink sink = write(Long.MAX_VALUE, documentBytes * 5 / 2, batches);
+
+		assertEquals(6, sink.getShardCount());
+		assertShards(sink, batches, 12);
+	}
+
+	@Test
+	public void aDocumentBiggerThanTheLimitGetsAShardToItself() throws Exception {
+		List<DocumentBatch> batches = List.of(batch(0, 10, 10, 500, 10));
+		ShardedFileSink sink = write(Long.MAX_VALUE, 200, batches);
+
+		assertEquals(List.of(2L, 1L, 1L), documentsPerShard());
+		assertShards(sink, batches, 4);
+	}
+
+	@Test
+	public void shardsWrittenOnAPoolAreTheSame() throws Exception {
+		List<DocumentBatch> batches = batches(50, 20, 30);
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		try {
+			ShardedFileSink sink = new ShardedFileSink(folder.getRoot().getPath(), "out", 7, Long.MAX_VALUE, pool, 4);
+			for (DocumentBatch batch : batches) {
+				sink.accept(batch);
+			}
+			sink.close();
+			assertEquals(143, sink.getShardCount());
+			assertShards(sink, batches, 1000);
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+
+	private ShardedFileSink write(long maxDocs, long maxBytes, List<DocumentBatch> batches) throws IOException {
+		ShardedFileSink sink = new ShardedFileSink(folder.getRoot().getPath(), "out", maxDocs, maxBytes, Runnable::run, 4);
+		for (DocumentBatch batch : batches) {
+			sink.accept(batch);
+		}
+		sink.close();
+		return sink;
+	}
+
+	/*
+	 * The manifest lists each shard with its real count, size and SHA-256; every shard starts with an action
+	 * line; and together they're the documents, in order
+	 */
+	private void assertShards(ShardedFileSink sink, List<DocumentBatch> batches, long documents) throws Exception {
+		JSONObject manifest = manifest();
+		JSONArray shards = (JSONArray) manifest.get("shards");
+		assertEquals(sink.getShardCount(), shards.size());
+		ByteArrayOutputStream all = new ByteArrayOutputStream();
+		long total = 0;
+		for (Object o : shards) {
+			JSONObject shard = (JSONObject) o;
+			byte[] bytes = Files.readAllBytes(new File(folder.getRoot(), (String) shard.get("file")).toPath());
+			String text = new String(bytes, StandardCharsets.UTF_8);
+			assertTrue(text.startsWith("{\"create\":{}}\n"));
+			assertEquals(count(text, "{\"create\":{}}\n"), ((Number) shard.get("documents")).longValue());
+			assertEquals(bytes.length, ((Number) shard.get("bytes")).longValue());
+			assertEquals(HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes)), shard.get("sha256"));
+			all.write(bytes);
+			total += ((Number) shard.get("documents")).longValue();
+		}
+		assertEquals(documents, total);
+		assertEquals(documents, ((Number) manifest.get("documents")).longValue());
+		assertEquals(all.size(), ((Number) manifest.get("bytes")).longValue());
+		assertEquals(documents, sink.getDocumentCount());
+
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		for (DocumentBatch batch : batches) {
+			expected.write(batch.getBytes(), batch.getStart(0), batch.getEnd(batch.size() - 1) - batch.getStart(0));
+		}
+		assertArrayEquals(expected.toByteArray(), all.toByteArray());
+	}
+
+	private List<Long> documentsPerShard() throws Exception {
+		List<Long> counts = new ArrayList<>();
+		for (Object shard : (JSONArray) manifest().get("shards")) {
+			counts.add(((Number) ((JSONObject) shard).get("documents")).longValue());
+		}
+		return counts;
+	}
+
+	private JSONObject manifest() throws Exception {
+		try (Reader in = new FileReader(new File(folder.getRoot(), "out.manifest.json"), StandardCharsets.UTF_8)) {
+			return (JSONObject) new JSONParser().parse(in);
+		}
+	}
+
+	private static int count(String text, String part) {
+		int n = 0;
+		for (int i = text.indexOf(part); i >= 0; i = text.indexOf(part, i + 1)) {
+			n++;
+		}
+		return n;
+	}
+
+	/*
+	 * count batches of size documents, each with a padding-long name
+	 */
+	private static List<DocumentBatch> batches(int count, int size, int padding) throws IOException {
+		List<DocumentBatch> batches = new ArrayList<>();
+		for (int b = 0; b < count; b++) {
+			int[] paddings = new int[size];
+			Arrays.fill(paddings, padding);
+			batches.add(batch(b * size, paddings));
+		}
+		return batches;
+	}
+
+	private static DocumentBatch batch(int first, int... paddings) throws IOException {
+		NdjsonWriter out = new NdjsonWriter();
+		String[] ids = new String[paddings.length];
+		for (int i = 0; i < paddings.length; i++) {
+			ids[i] = String.format("DOID_%07d", first + i);
+			out.beginDocument();
+			out.key("id");
+			out.string(ids[i]);
+			out.key("name");
+			out.string("x".repeat(paddings[i]));
+			out.endDocument();
+		}
+		return out.toBatch(ids);
+	}
+}
@@ -0,0 +1,95 @@
+package edu.umaryland.igs.eng.disont.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * A snapshot is the input, so one that doesn't match what it's asked for is rejected rather
+ * than quietly rebuilt.
+ *
+ */
+public class SnapshotTest {
+
+	private static final String ROOT = "http://purl.obolibrary.org/obo/DOID_4";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File owl;
+	private File snapshot;
+	private OntologyGraph graph;
+	private UnhandledShapes unhandled;
+
+	@Before
+	public void extract() throws Exception {
+		owl = folder.newFile("fixture.owl");
+		Files.copy(new File(getClass().getResource("/fixture.owl").toURI()).toPath(), owl.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		snapshot = new File(folder.getRoot(), "fixture.snapshot");
+		unhandled = new UnhandledShapes();
+		graph = RdfXmlLoader.load(owl.getPath(), ROOT, unhandled, false);
+	}
+
+	@Test
+	public void readsBackWhatWasWritten() throws IOException {
+		Snapshot.write(snapshot, graph, unhandled, owl.getPath());
+
+		assertTrue(Snapshot.isSnapshot(snapshot.getPath()));
+		Snapshot read = Snapshot.read(snapshot.getPath(), null);
+		assertEquals(owl.getAbsolutePath(), read.getSource());
+		assertEquals(ROOT, read.getGraph().getRootIri());
+		assertEquals(graph.size(), read.getGraph().size());
+		assertEquals(graph.getEdgeCount(), read.getGraph().getEdgeCount());
+		assertArrayEquals(graph.getRootChildren(), read.getGraph().getRootChildren());
+		for (int c = 0; c < graph.size(); c++) {
+			assertEquals(graph.getIri(c), read.getGraph().getIri(c));
+			assertEquals(graph.getLabels().getLabel(c), read.getGraph().getLabels().getLabel(c));
+		}
+	}
+
+	@Test
+	public void anotherRootIsRejected() throws IOException {
+		Snapshot.write(snapshot, graph, unhandled, owl.getPath());
+
+		assertRejected("http://purl.obolibrary.org/obo/DOID_7", "extracted with the root");
+	}
+
+	@Test
+	public void aChangedSourceIsRejected() throws IOException {
+		Snapshot.write(snapshot, graph, unhandled, owl.getPath());
+		Files.write(owl.toPath(), "<!-- edited -->\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+		assertRejected(ROOT, "has changed since it was written");
+	}
+
+	@Test
+	public void otherExclusionRulesAreRejected() throws IOException {
+		Snapshot.write(snapshot, graph, unhandled, owl.getPath(), "an older build's rules");
+
+		assertRejected(ROOT, "exclusion rules");
+	}
+
+	private void assertRejected(String rootIri, String why) {
+		try {
+			Snapshot.read(snapshot.getPath(), rootIri);
+			fail("the snapshot should have been rejected");
+		}
+		catch (IOException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains(why));
+		}
+	}
+}